@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.DomainVersion;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.coordinator.mock.MockDomainVersion;
+import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+
+/**
+ * Storage parameters and helpers shared by benchmarks. Domains are written by the
+ * Cueball and Curly TestDomainGenerator classes.
+ */
+final class BenchmarkFixtures {
+
+  static final String DOMAIN_NAME = "benchmark_domain";
+  static final long SEED = 7;
+  static final int KEY_LENGTH = 16;
+  static final int HASH_LENGTH = 10;
+  static final int HASH_INDEX_BITS = 12;
+  static final int CUEBALL_VALUE_LENGTH = 8;
+  static final int CURLY_VALUE_LENGTH = 128;
+  static final long CURLY_MAX_ALLOWED_PART_SIZE = 10L * 1024 * 1024 * 1024;
+  static final int CURLY_OFFSET_NUM_BYTES = 5;
+  static final int CURLY_RECORD_FILE_READ_BUFFER_BYTES = 32 * 1024;
+  static final int CURLY_COMPRESSED_BLOCK_SIZE_THRESHOLD = 32 * 1024;
+  static final int CURLY_OFFSET_IN_BLOCK_NUM_BYTES = 2;
+  static final int BUFFER_REUSE_MAX_SIZE = 1 << 20;
+
+  static final Hasher HASHER = new Murmur64Hasher();
+
+  private BenchmarkFixtures() {
+  }
+
+  static File createTemporaryDirectory(String prefix) throws IOException {
+    return Files.createTempDirectory("hank_" + prefix).toFile();
+  }
+
+  // Domain used to locate partitions in the data directory
+  static Domain getDomain() {
+    return new MockDomain(DOMAIN_NAME);
+  }
+
+  static DomainVersion getBaseVersion(int versionNumber) {
+    return new MockDomainVersion(versionNumber, 0L, new IncrementalDomainVersionProperties.Base());
+  }
+
+  static DomainVersion getDeltaVersion(int versionNumber) {
+    return new MockDomainVersion(versionNumber, 0L, new IncrementalDomainVersionProperties.Delta(versionNumber - 1));
+  }
+
+  static Cueball getCueball(boolean memoryMapped) {
+    return new Cueball(HASH_LENGTH, HASHER, CUEBALL_VALUE_LENGTH, HASH_INDEX_BITS, "", "", null,
+        NoCueballCompressionCodec.class, getDomain(), 0, memoryMapped);
+  }
+
+  // Block compression is disabled when the codec is null
+  static Curly getCurly(CompressionCodec blockCompressionCodec, boolean memoryMapped) {
+    return new Curly(HASH_LENGTH, HASHER, CURLY_MAX_ALLOWED_PART_SIZE, HASH_INDEX_BITS,
+        CURLY_RECORD_FILE_READ_BUFFER_BYTES, "", "", null, NoCueballCompressionCodec.class, getDomain(), 0, -1,
+        blockCompressionCodec, CURLY_COMPRESSED_BLOCK_SIZE_THRESHOLD, CURLY_OFFSET_IN_BLOCK_NUM_BYTES, memoryMapped);
+  }
+
+  // "NONE" disables block compression
+  static CompressionCodec getBlockCompressionCodec(String name) {
+    if (name.equals("NONE")) {
+      return null;
+    } else {
+      return CompressionCodec.valueOf(name);
+    }
+  }
+
+  // Root of a domain's partitions when the given directory is used as data directory
+  static String getDomainRoot(File dataDirectory) {
+    return dataDirectory.getAbsolutePath() + "/" + DOMAIN_NAME;
+  }
+
+  static ByteBuffer[] shuffle(List<byte[]> keys, long seed) {
+    List<byte[]> shuffled = new ArrayList<byte[]>(keys);
+    Collections.shuffle(shuffled, new Random(seed));
+    ByteBuffer[] result = new ByteBuffer[shuffled.size()];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = ByteBuffer.wrap(shuffled.get(i));
+    }
+    return result;
+  }
+
+  static ByteBuffer[] randomBuffers(int numBuffers, int length, long seed) {
+    Random random = new Random(seed);
+    ByteBuffer[] result = new ByteBuffer[numBuffers];
+    for (int i = 0; i < numBuffers; ++i) {
+      byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      result[i] = ByteBuffer.wrap(bytes);
+    }
+    return result;
+  }
+
+  // Writers expect keys in the order of their hash
+  static void sortByHash(ByteBuffer[] keys) {
+    final byte[][] hashes = new byte[keys.length][];
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < keys.length; ++i) {
+      hashes[i] = new byte[HASH_LENGTH];
+      HASHER.hash(keys[i], HASH_LENGTH, hashes[i]);
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> BytesUtils.compareBytesUnsigned(ByteBuffer.wrap(hashes[a]), ByteBuffer.wrap(hashes[b])));
+    ByteBuffer[] sorted = new ByteBuffer[keys.length];
+    for (int i = 0; i < keys.length; ++i) {
+      sorted[i] = keys[order[i]];
+    }
+    System.arraycopy(sorted, 0, keys, 0, keys.length);
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.config.BaseReaderConfigurator;
+import com.liveramp.hank.config.DataDirectoriesConfigurator;
+import com.liveramp.hank.config.SimpleDataDirectoriesConfigurator;
+import com.liveramp.hank.partitioner.ConstantPartitioner;
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.cueball.TestDomainGenerator;
+
+/**
+ * Random GET requests on a single Cueball partition, for keys that are present and keys that are not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CueballReaderBenchmark {
+
+  private static final int NUM_RECORDS = 1 << 20;
+
+  @Param({"false", "true"})
+  public boolean memoryMapped;
+
+  private File dataDirectory;
+  private Reader reader;
+  private ByteBuffer[] keys;
+  private ByteBuffer[] missingKeys;
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+
+    private final ReaderResult result = new ReaderResult();
+    private int keyIndex = 0;
+
+    private ByteBuffer next(ByteBuffer[] keys) {
+      if (keyIndex == keys.length) {
+        keyIndex = 0;
+      }
+      return keys[keyIndex++];
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkFixtures.createTemporaryDirectory("cueball_reader");
+    Cueball cueball = BenchmarkFixtures.getCueball(memoryMapped);
+    Map<Integer, List<byte[]>> partitionedKeys = TestDomainGenerator.generate(cueball,
+        BenchmarkFixtures.getBaseVersion(0),
+        BenchmarkFixtures.getDomainRoot(dataDirectory),
+        BenchmarkFixtures.SEED,
+        NUM_RECORDS,
+        BenchmarkFixtures.KEY_LENGTH,
+        BenchmarkFixtures.HASH_LENGTH,
+        BenchmarkFixtures.CUEBALL_VALUE_LENGTH,
+        BenchmarkFixtures.HASHER,
+        1,
+        new ConstantPartitioner());
+    DataDirectoriesConfigurator dataDirectoriesConfigurator = new SimpleDataDirectoriesConfigurator(dataDirectory.getAbsolutePath());
+    reader = cueball.getReader(
+        new BaseReaderConfigurator(dataDirectoriesConfigurator, 0, 0, BenchmarkFixtures.BUFFER_REUSE_MAX_SIZE, 1),
+        0,
+        cueball.getDataDirectoryPerPartition(dataDirectoriesConfigurator, Collections.singleton(0)));
+    keys = BenchmarkFixtures.shuffle(partitionedKeys.get(0), BenchmarkFixtures.SEED);
+    missingKeys = BenchmarkFixtures.randomBuffers(NUM_RECORDS, BenchmarkFixtures.KEY_LENGTH, BenchmarkFixtures.SEED + 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public ReaderResult get(ThreadState state) throws IOException {
+    state.result.clear();
+    reader.get(state.next(keys), state.result);
+    return state.result;
+  }
+
+  @Benchmark
+  public ReaderResult getMissing(ThreadState state) throws IOException {
+    state.result.clear();
+    reader.get(state.next(missingKeys), state.result);
+    return state.result;
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.HashCodePartitioner;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.partitioner.Partitioner;
+
+/**
+ * Key hashing and partitioning, which are performed for every key written, read or routed by clients.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+
+  private static final int NUM_KEYS = 1024;
+  private static final int NUM_PARTITIONS = 1024;
+
+  @Param({"8", "32", "256"})
+  public int keyLength;
+
+  private final Murmur64Hasher hasher = new Murmur64Hasher();
+  private final Partitioner murmur64Partitioner = new Murmur64Partitioner();
+  private final Partitioner hashCodePartitioner = new HashCodePartitioner();
+  private final byte[] hash = new byte[BenchmarkFixtures.HASH_LENGTH];
+  private ByteBuffer[] keys;
+  private int keyIndex = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    keys = BenchmarkFixtures.randomBuffers(NUM_KEYS, keyLength, BenchmarkFixtures.SEED);
+  }
+
+  private ByteBuffer nextKey() {
+    keyIndex = (keyIndex + 1) & (NUM_KEYS - 1);
+    return keys[keyIndex];
+  }
+
+  @Benchmark
+  public byte[] murmur64Hasher() {
+    hasher.hash(nextKey(), BenchmarkFixtures.HASH_LENGTH, hash);
+    return hash;
+  }
+
+  @Benchmark
+  public int murmur64Partitioner() {
+    return murmur64Partitioner.partition(nextKey(), NUM_PARTITIONS);
+  }
+
+  @Benchmark
+  public int hashCodePartitioner() {
+    return hashCodePartitioner.partition(nextKey(), NUM_PARTITIONS);
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.partitioner.ConstantPartitioner;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.cueball.CueballFilePath;
+import com.liveramp.hank.storage.cueball.CueballMerger;
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.storage.curly.CurlyFilePath;
+import com.liveramp.hank.storage.curly.CurlyMerger;
+
+/**
+ * Time to merge a base and its deltas into a new base, for Cueball and Curly partitions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergerBenchmark {
+
+  private static final int NUM_BASE_RECORDS = 1 << 20;
+  private static final int NUM_DELTA_RECORDS = 1 << 16;
+
+  @Param({"1", "4"})
+  public int numDeltas;
+
+  private File dataDirectory;
+  private File workDirectory;
+
+  private CueballFilePath cueballBase;
+  private List<CueballFilePath> cueballDeltas;
+
+  private File curlyBase;
+  private CurlyFilePath curlyWorkBase;
+  private List<String> curlyDeltas;
+  private LocalPartitionRemoteFileOps curlyPartitionFileOps;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkFixtures.createTemporaryDirectory("merger");
+    workDirectory = new File(dataDirectory, "work");
+    if (!workDirectory.mkdirs()) {
+      throw new IOException("Failed to create directory " + workDirectory.getAbsolutePath());
+    }
+
+    // Cueball
+    String cueballRoot = dataDirectory.getAbsolutePath() + "/cueball";
+    Cueball cueball = BenchmarkFixtures.getCueball(false);
+    com.liveramp.hank.storage.cueball.TestDomainGenerator.generate(cueball, BenchmarkFixtures.getBaseVersion(0),
+        cueballRoot, BenchmarkFixtures.SEED, NUM_BASE_RECORDS, BenchmarkFixtures.KEY_LENGTH,
+        BenchmarkFixtures.HASH_LENGTH, BenchmarkFixtures.CUEBALL_VALUE_LENGTH, BenchmarkFixtures.HASHER, 1,
+        new ConstantPartitioner());
+    cueballBase = new CueballFilePath(cueballRoot + "/0/" + Cueball.getName(0, true));
+    cueballDeltas = new ArrayList<CueballFilePath>();
+    for (int version = 1; version <= numDeltas; ++version) {
+      com.liveramp.hank.storage.cueball.TestDomainGenerator.generate(cueball, BenchmarkFixtures.getDeltaVersion(version),
+          cueballRoot, BenchmarkFixtures.SEED + version, NUM_DELTA_RECORDS, BenchmarkFixtures.KEY_LENGTH,
+          BenchmarkFixtures.HASH_LENGTH, BenchmarkFixtures.CUEBALL_VALUE_LENGTH, BenchmarkFixtures.HASHER, 1,
+          new ConstantPartitioner());
+      cueballDeltas.add(new CueballFilePath(cueballRoot + "/0/" + Cueball.getName(version, false)));
+    }
+
+    // Curly
+    String curlyRoot = dataDirectory.getAbsolutePath() + "/curly";
+    Curly curly = BenchmarkFixtures.getCurly(null, false);
+    com.liveramp.hank.storage.curly.TestDomainGenerator.generate(curly, BenchmarkFixtures.getBaseVersion(0),
+        curlyRoot, BenchmarkFixtures.SEED, NUM_BASE_RECORDS, BenchmarkFixtures.KEY_LENGTH,
+        BenchmarkFixtures.HASH_LENGTH, BenchmarkFixtures.CURLY_VALUE_LENGTH, BenchmarkFixtures.HASHER, 1,
+        new ConstantPartitioner());
+    curlyBase = new File(curlyRoot + "/0/" + Curly.getName(0, true));
+    curlyWorkBase = new CurlyFilePath(workDirectory.getAbsolutePath() + "/" + Curly.getName(0, true));
+    curlyDeltas = new ArrayList<String>();
+    for (int version = 1; version <= numDeltas; ++version) {
+      com.liveramp.hank.storage.curly.TestDomainGenerator.generate(curly, BenchmarkFixtures.getDeltaVersion(version),
+          curlyRoot, BenchmarkFixtures.SEED + version, NUM_DELTA_RECORDS, BenchmarkFixtures.KEY_LENGTH,
+          BenchmarkFixtures.HASH_LENGTH, BenchmarkFixtures.CURLY_VALUE_LENGTH, BenchmarkFixtures.HASHER, 1,
+          new ConstantPartitioner());
+      curlyDeltas.add(Curly.getName(version, false));
+    }
+    curlyPartitionFileOps = new LocalPartitionRemoteFileOps(curlyRoot, 0);
+  }
+
+  // The Curly merger appends deltas to the base in place, so it is restored before each merge
+  @Setup(Level.Invocation)
+  public void restoreCurlyBase() throws IOException {
+    FileUtils.copyFile(curlyBase, new File(curlyWorkBase.getPath()));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public void mergeCueball() throws IOException {
+    new CueballMerger().merge(cueballBase,
+        cueballDeltas,
+        workDirectory.getAbsolutePath() + "/" + Cueball.getName(numDeltas, true),
+        BenchmarkFixtures.HASH_LENGTH,
+        BenchmarkFixtures.CUEBALL_VALUE_LENGTH,
+        null,
+        BenchmarkFixtures.HASH_INDEX_BITS,
+        new NoCueballCompressionCodec());
+  }
+
+  @Benchmark
+  public long[] mergeCurly() throws IOException {
+    return new CurlyMerger().merge(curlyWorkBase, curlyDeltas, curlyPartitionFileOps);
+  }
+}
@@ -0,0 +1,203 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.config.BaseReaderConfigurator;
+import com.liveramp.hank.config.ReaderConfigurator;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.DomainAndVersion;
+import com.liveramp.hank.coordinator.Host;
+import com.liveramp.hank.coordinator.PartitionServerAddress;
+import com.liveramp.hank.coordinator.Ring;
+import com.liveramp.hank.coordinator.RingGroup;
+import com.liveramp.hank.coordinator.mock.MockCoordinator;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.coordinator.mock.MockDomainGroup;
+import com.liveramp.hank.generated.HankBulkResponse;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.partition_server.MockPartitionServerConfigurator;
+import com.liveramp.hank.partition_server.PartitionServerHandler;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.partitioner.Partitioner;
+import com.liveramp.hank.storage.OffHeapValueCache;
+import com.liveramp.hank.storage.curly.Curly;
+import com.liveramp.hank.storage.curly.TestDomainGenerator;
+import com.liveramp.hank.test.coordinator.MockHost;
+import com.liveramp.hank.test.coordinator.MockRing;
+import com.liveramp.hank.test.coordinator.MockRingGroup;
+
+/**
+ * GET and GET BULK requests served by a PartitionServerHandler over a Curly domain, without the Thrift layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PartitionServerHandlerBenchmark {
+
+  private static final int NUM_RECORDS = 1 << 18;
+  private static final int NUM_PARTITIONS = 8;
+  private static final int NUM_CONCURRENT_GET_BULK_TASKS = 4;
+  private static final int GET_BULK_TASK_SIZE = 64;
+  private static final String RING_GROUP_NAME = "benchmark_ring_group";
+  private static final PartitionServerAddress ADDRESS = new PartitionServerAddress("localhost", 12345);
+
+  @Param({"16", "256", "4096"})
+  public int bulkSize;
+
+  private File dataDirectory;
+  private PartitionServerHandler handler;
+  private ByteBuffer[] keys;
+  private List<List<ByteBuffer>> bulks;
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+
+    private int keyIndex = 0;
+    private int bulkIndex = 0;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkFixtures.createTemporaryDirectory("partition_server_handler");
+    Curly curly = BenchmarkFixtures.getCurly(null, false);
+    Partitioner partitioner = new Murmur64Partitioner();
+    Map<Integer, List<byte[]>> partitionedKeys = TestDomainGenerator.generate(curly,
+        BenchmarkFixtures.getBaseVersion(0),
+        BenchmarkFixtures.getDomainRoot(dataDirectory),
+        BenchmarkFixtures.SEED,
+        NUM_RECORDS,
+        BenchmarkFixtures.KEY_LENGTH,
+        BenchmarkFixtures.HASH_LENGTH,
+        BenchmarkFixtures.CURLY_VALUE_LENGTH,
+        BenchmarkFixtures.HASHER,
+        NUM_PARTITIONS,
+        partitioner);
+    List<byte[]> allKeys = new ArrayList<byte[]>();
+    for (List<byte[]> partitionKeys : partitionedKeys.values()) {
+      allKeys.addAll(partitionKeys);
+    }
+    keys = BenchmarkFixtures.shuffle(allKeys, BenchmarkFixtures.SEED);
+    bulks = new ArrayList<List<ByteBuffer>>();
+    for (int i = 0; i + bulkSize <= keys.length; i += bulkSize) {
+      bulks.add(Arrays.asList(keys).subList(i, i + bulkSize));
+    }
+
+    // Serve all partitions of the domain at version 0 from a single host
+    final Domain domain = new MockDomain(BenchmarkFixtures.DOMAIN_NAME, 0, NUM_PARTITIONS, partitioner, curly, null, null);
+    MockHost host = new MockHost(ADDRESS);
+    int[] partitionNumberAndVersionPairs = new int[NUM_PARTITIONS * 2];
+    for (int partitionNumber = 0; partitionNumber < NUM_PARTITIONS; ++partitionNumber) {
+      partitionNumberAndVersionPairs[partitionNumber * 2] = partitionNumber;
+      partitionNumberAndVersionPairs[partitionNumber * 2 + 1] = 0;
+    }
+    host.addMockDomain(domain, partitionNumberAndVersionPairs);
+    final MockDomainGroup domainGroup = new MockDomainGroup("benchmark_domain_group") {
+      @Override
+      public Set<DomainAndVersion> getDomainVersions() throws IOException {
+        return Collections.singleton(new DomainAndVersion(domain, 0));
+      }
+    };
+    final MockRing ring = new MockRing(Sets.<Host>newHashSet(host),
+        new MockRingGroup(domainGroup, RING_GROUP_NAME, Sets.<Ring>newHashSet()), 0);
+    MockCoordinator coordinator = new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroup(String ringGroupName) {
+        return new MockRingGroup(domainGroup, RING_GROUP_NAME, Sets.<Ring>newHashSet()) {
+          @Override
+          public Ring getRingForHost(PartitionServerAddress hostAddress) {
+            return ring;
+          }
+        };
+      }
+    };
+    MockPartitionServerConfigurator configurator = new MockPartitionServerConfigurator(ADDRESS.getPortNumber(),
+        coordinator, RING_GROUP_NAME, dataDirectory.getAbsolutePath()) {
+      @Override
+      public int getNumConcurrentGetBulkTasks() {
+        return NUM_CONCURRENT_GET_BULK_TASKS;
+      }
+
+      @Override
+      public int getGetBulkTaskSize() {
+        return GET_BULK_TASK_SIZE;
+      }
+
+      @Override
+      public int getBufferReuseMaxSize() {
+        return BenchmarkFixtures.BUFFER_REUSE_MAX_SIZE;
+      }
+
+      @Override
+      public ReaderConfigurator getReaderConfigurator(int numTotalPartitions, OffHeapValueCache offHeapValueCache) {
+        return new BaseReaderConfigurator(this, 0, 0, getBufferReuseMaxSize(), numTotalPartitions, offHeapValueCache);
+      }
+    };
+    handler = new PartitionServerHandler(ADDRESS, configurator, coordinator);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    handler.shutDown();
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public HankResponse get(ThreadState state) {
+    if (state.keyIndex == keys.length) {
+      state.keyIndex = 0;
+    }
+    return handler.get(0, keys[state.keyIndex++]);
+  }
+
+  @Benchmark
+  public HankBulkResponse getBulk(ThreadState state) {
+    if (state.bulkIndex == bulks.size()) {
+      state.bulkIndex = 0;
+    }
+    return handler.getBulk(0, bulks.get(state.bulkIndex++));
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.storage.cueball.CueballWriter;
+import com.liveramp.hank.storage.curly.CurlyWriter;
+
+/**
+ * Write throughput of Cueball and Curly partitions, in records per second. Output is discarded so that
+ * encoding, hashing and compression are measured rather than disk bandwidth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+  private static final int NUM_RECORDS = 1 << 16;
+
+  private ByteBuffer[] keys;
+  private ByteBuffer[] cueballValues;
+  private ByteBuffer[] curlyValues;
+
+  // Only Curly writes depend on the block compression codec
+  @State(Scope.Benchmark)
+  public static class CurlyState {
+
+    @Param({"NONE", "DEFLATE", "GZIP", "SNAPPY", "RAW_SNAPPY", "LZ4"})
+    public String blockCompressionCodec;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    keys = BenchmarkFixtures.randomBuffers(NUM_RECORDS, BenchmarkFixtures.KEY_LENGTH, BenchmarkFixtures.SEED);
+    BenchmarkFixtures.sortByHash(keys);
+    cueballValues = BenchmarkFixtures.randomBuffers(NUM_RECORDS, BenchmarkFixtures.CUEBALL_VALUE_LENGTH, BenchmarkFixtures.SEED + 1);
+    curlyValues = BenchmarkFixtures.randomBuffers(NUM_RECORDS, BenchmarkFixtures.CURLY_VALUE_LENGTH, BenchmarkFixtures.SEED + 2);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public CueballWriter writeCueball() throws IOException {
+    CueballWriter writer = new CueballWriter(new NullOutputStream(),
+        BenchmarkFixtures.HASH_LENGTH,
+        BenchmarkFixtures.HASHER,
+        BenchmarkFixtures.CUEBALL_VALUE_LENGTH,
+        new NoCueballCompressionCodec(),
+        BenchmarkFixtures.HASH_INDEX_BITS);
+    for (int i = 0; i < NUM_RECORDS; ++i) {
+      writer.write(keys[i].duplicate(), cueballValues[i].duplicate());
+    }
+    writer.close();
+    return writer;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public CurlyWriter writeCurly(CurlyState curlyState) throws IOException {
+    CompressionCodec blockCompressionCodec = BenchmarkFixtures.getBlockCompressionCodec(curlyState.blockCompressionCodec);
+    // Cueball values are offsets in the record file, appended with offsets in the block when compressed
+    int keyFileValueLength = BenchmarkFixtures.CURLY_OFFSET_NUM_BYTES
+        + (blockCompressionCodec == null ? 0 : BenchmarkFixtures.CURLY_OFFSET_IN_BLOCK_NUM_BYTES);
+    CueballWriter keyFileWriter = new CueballWriter(new NullOutputStream(),
+        BenchmarkFixtures.HASH_LENGTH,
+        BenchmarkFixtures.HASHER,
+        keyFileValueLength,
+        new NoCueballCompressionCodec(),
+        BenchmarkFixtures.HASH_INDEX_BITS);
+    CurlyWriter writer = new CurlyWriter(new NullOutputStream(),
+        keyFileWriter,
+        BenchmarkFixtures.CURLY_OFFSET_NUM_BYTES,
+        -1,
+        blockCompressionCodec,
+        BenchmarkFixtures.CURLY_COMPRESSED_BLOCK_SIZE_THRESHOLD,
+        BenchmarkFixtures.CURLY_OFFSET_IN_BLOCK_NUM_BYTES);
+    for (int i = 0; i < NUM_RECORDS; ++i) {
+      writer.write(keys[i].duplicate(), curlyValues[i].duplicate());
+    }
+    writer.close();
+    return writer;
+  }
+}
@@ -22,6 +22,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
@@ -48,11 +50,15 @@ import com.liveramp.hank.coordinator.RingGroupDataLocationChangeListener;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
+import com.liveramp.hank.partitioner.HashPartitioner;
+import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.util.AtomicLongCollection;
+import com.liveramp.hank.util.ConcurrentMemoryBoundCacheExpiring;
 import com.liveramp.hank.util.FormatUtils;
 import com.liveramp.hank.util.HankResponseMemoryUsageEstimator;
 import com.liveramp.hank.util.HankTimer;
-import com.liveramp.hank.util.SynchronizedMemoryBoundCacheExpiring;
+import com.liveramp.hank.util.HankTimerEventAggregator;
 import com.liveramp.hank.util.UpdateStatisticsRunnable;
 
 import static com.liveramp.hank.client.HostConnectionPool.getHostListShuffleSeed;
@@ -86,11 +92,18 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private final int queryTimeoutMs;
   private final int bulkQueryTimeoutMs;
   private final EnvironmentValue preferredHostEnvironment;
+  private final boolean pipelinedConnections;
 
-  private final SynchronizedMemoryBoundCacheExpiring<DomainAndKey, HankResponse> responseCache;
+  private final ConcurrentMemoryBoundCacheExpiring<DomainAndKey, HankResponse> responseCache;
   // 0: num queries
   // 1: num cache hits
+  // 2: num requests coalesced with an identical request in flight
   private final AtomicLongCollection requestsCounters;
+  // Requests sent to servers and not yet completed, shared by identical concurrent requests
+  private final ConcurrentMap<DomainAndKey, InFlightGet> inFlightGets = new ConcurrentHashMap<DomainAndKey, InFlightGet>();
+  private final boolean coalesceRequests;
+  // Latencies of requests that were not served from the cache
+  private final HankTimerEventAggregator getRequestsTimerAggregator = new HankTimerEventAggregator("GET");
 
   private final ThreadPoolExecutor getTaskExecutor;
 
@@ -98,11 +111,9 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private final Thread updateRuntimeStatisticsThread;
 
   // Connection Cache
+  // Requests read the current snapshot without locking, updates replace it
 
-  private Map<HostAddress, HostConnectionPool> partitionServerAddressToConnectionPool
-      = new HashMap<HostAddress, HostConnectionPool>();
-  private Map<Integer, Map<Integer, HostConnectionPool>> domainToPartitionToConnectionPool
-      = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
+  private volatile RoutingTable routingTable = RoutingTable.EMPTY;
 
   private final Object connectionCacheLock = new Object();
   private final ConnectionCacheUpdaterRunnable connectionCacheUpdaterRunnable = new ConnectionCacheUpdaterRunnable();
@@ -135,7 +146,9 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         .setEstablishConnectionTimeoutMs(configurator.getEstablishConnectionTimeoutMs())
         .setQueryTimeoutMs(configurator.getQueryTimeoutMs())
         .setBulkQueryTimeoutMs(configurator.getBulkQueryTimeoutMs())
-        .setPreferredServerEnvironmentFlag(configurator.getPreferredServerEnvironment()));
+        .setPreferredServerEnvironmentFlag(configurator.getPreferredServerEnvironment())
+        .setPipelinedConnections(configurator.getPipelinedConnections())
+        .setCoalesceRequests(configurator.getCoalesceRequests()));
   }
 
   public HankSmartClient(Coordinator coordinator, String ringGroupName) throws IOException {
@@ -160,14 +173,16 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     this.establishConnectionTimeoutMs = options.getEstablishConnectionTimeoutMs();
     this.queryTimeoutMs = options.getQueryTimeoutMs();
     this.bulkQueryTimeoutMs = options.getBulkQueryTimeoutMs();
-    this.responseCache = new SynchronizedMemoryBoundCacheExpiring<DomainAndKey, HankResponse>(
+    this.pipelinedConnections = options.getPipelinedConnections();
+    this.coalesceRequests = options.getCoalesceRequests();
+    this.responseCache = new ConcurrentMemoryBoundCacheExpiring<DomainAndKey, HankResponse>(
         options.getResponseCacheEnabled(),
         options.getResponseCacheNumBytesCapacity(),
         options.getResponseCacheNumItemsCapacity(),
         options.getResponseCacheExpirationSeconds(),
         new DomainAndKey.DomainAndKeyMemoryUsageEstimator(),
         new HankResponseMemoryUsageEstimator());
-    this.requestsCounters = new AtomicLongCollection(2, new long[]{0, 0});
+    this.requestsCounters = new AtomicLongCollection(3, new long[]{0, 0, 0});
     this.preferredHostEnvironment = options.getPreferredServerEnvironment();
     LOG.info("Initializing client using preferred host environment: " + preferredHostEnvironment);
 
@@ -200,34 +215,25 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private void updateConnectionCache() throws IOException {
     LOG.info(getLogPrefix() + "Loading Hank's smart client metadata cache and connections.");
 
-    // Create new empty cache
-    final Map<HostAddress, HostConnectionPool> newPartitionServerAddressToConnectionPool
-        = new HashMap<HostAddress, HostConnectionPool>();
-    final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool
-        = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
-
-    // Build new cache
-    buildNewConnectionCache(
-        newPartitionServerAddressToConnectionPool,
-        newDomainToPartitionToConnectionPool);
-
-    // Switch old cache for new cache
-    final Map<HostAddress, HostConnectionPool> oldPartitionServerAddressToConnectionPool
-        = partitionServerAddressToConnectionPool;
+    // Updates are serialized, requests are never blocked
     synchronized (connectionCacheLock) {
-      partitionServerAddressToConnectionPool = newPartitionServerAddressToConnectionPool;
-      domainToPartitionToConnectionPool = newDomainToPartitionToConnectionPool;
-    }
-
-    // Clean up old cache when new cache is in place
-    for (Map.Entry<HostAddress, HostConnectionPool> entry
-        : oldPartitionServerAddressToConnectionPool.entrySet()) {
-      HostAddress address = entry.getKey();
-      HostConnectionPool connections = entry.getValue();
-      // Only close connections that have not been reused
-      if (!partitionServerAddressToConnectionPool.containsKey(address)) {
-        for (HostConnection connection : connections.getConnections()) {
-          connection.disconnect();
+      // Build new cache
+      final RoutingTable oldRoutingTable = routingTable;
+      final RoutingTable newRoutingTable = buildNewConnectionCache(oldRoutingTable);
+
+      // Switch old cache for new cache
+      routingTable = newRoutingTable;
+
+      // Clean up old cache when new cache is in place
+      for (Map.Entry<HostAddress, HostConnectionPool> entry
+          : oldRoutingTable.getPartitionServerAddressToConnectionPool().entrySet()) {
+        HostAddress address = entry.getKey();
+        HostConnectionPool connections = entry.getValue();
+        // Only close connections that have not been reused
+        if (!newRoutingTable.getPartitionServerAddressToConnectionPool().containsKey(address)) {
+          for (HostConnection connection : connections.getConnections()) {
+            connection.disconnect();
+          }
         }
       }
     }
@@ -290,10 +296,15 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     return false;
   }
 
-  private void buildNewConnectionCache(
-      final Map<HostAddress, HostConnectionPool> newPartitionServerAddressToConnectionPool,
-      final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool)
-      throws IOException {
+  private RoutingTable buildNewConnectionCache(RoutingTable currentRoutingTable) throws IOException {
+
+    final Map<HostAddress, HostConnectionPool> newPartitionServerAddressToConnectionPool
+        = new HashMap<HostAddress, HostConnectionPool>();
+    final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool
+        = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
+    final Map<Host, HostConnectionPool> newHostToConnectionPool
+        = new HashMap<Host, HostConnectionPool>();
+    final Map<Integer, Domain> newIdToDomain = new HashMap<Integer, Domain>();
 
     final Map<Integer, Map<Integer, List<HostAddress>>> newDomainToPartitionToPartitionServerAddressList
         = new HashMap<Integer, Map<Integer, List<HostAddress>>>();
@@ -324,6 +335,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
           if (LOG.isDebugEnabled()) {
             LOG.debug(getLogPrefix() + "Loading partition metadata for Host: " + host.getAddress() + ", Domain: " + domain.getName());
           }
+          newIdToDomain.put(domain.getId(), domain);
           Map<Integer, List<HostAddress>> partitionToAdresses =
               newDomainToPartitionToPartitionServerAddressList.get(domain.getId());
           if (partitionToAdresses == null) {
@@ -344,25 +356,28 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
         // Build new partitionServerAddressToConnectionPool
         // Reuse current connection pool to that host if one exists
-        HostConnectionPool hostConnectionPool = partitionServerAddressToConnectionPool.get(hostAddress);
+        HostConnectionPool hostConnectionPool = currentRoutingTable.getPartitionServerAddressToConnectionPool().get(hostAddress);
         if (hostConnectionPool == null) {
           // Establish new connections to host
           LOG.info(getLogPrefix() + "Establishing " + numConnectionsPerHost + " connections to " + host
               + " with connection try lock timeout = " + tryLockConnectionTimeoutMs + "ms"
               + ", connection establishment timeout = " + establishConnectionTimeoutMs + "ms"
               + ", query timeout = " + queryTimeoutMs + "ms"
-              + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms");
+              + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms"
+              + ", pipelined = " + pipelinedConnections);
           List<HostConnection> hostConnections = new ArrayList<HostConnection>(numConnectionsPerHost);
           for (int i = 0; i < numConnectionsPerHost; i++) {
             hostConnections.add(new HostConnection(host,
                 tryLockConnectionTimeoutMs,
                 establishConnectionTimeoutMs,
                 queryTimeoutMs,
-                bulkQueryTimeoutMs));
+                bulkQueryTimeoutMs,
+                pipelinedConnections));
           }
           hostConnectionPool = HostConnectionPool.createFromList(hostConnections, null, preferredHosts);
         }
         newPartitionServerAddressToConnectionPool.put(hostAddress, hostConnectionPool);
+        newHostToConnectionPool.put(host, hostConnectionPool);
       }
     }
 
@@ -383,13 +398,27 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       }
       newDomainToPartitionToConnectionPool.put(domainId, partitionToConnectionPool);
     }
+
+    return new RoutingTable(newPartitionServerAddressToConnectionPool,
+        newHostToConnectionPool,
+        newIdToDomain,
+        newDomainToPartitionToConnectionPool);
+  }
+
+  // Domains served by the current hosts are resolved from the routing table, others from the coordinator
+  private Domain getDomain(String domainName) {
+    Domain domain = routingTable.getDomain(domainName);
+    if (domain == null) {
+      domain = coordinator.getDomain(domainName);
+    }
+    return domain;
   }
 
   // Synchronous get
   @Override
   public HankResponse get(String domainName, ByteBuffer key) {
     // Get Domain
-    Domain domain = this.coordinator.getDomain(domainName);
+    Domain domain = getDomain(domainName);
     if (domain == null) {
       LOG.error(getLogPrefix() + "No such Domain: " + domainName);
       return NO_SUCH_DOMAIN;
@@ -401,16 +430,13 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   @Override
   public HankBulkResponse getBulk(String domainName, List<ByteBuffer> keys) {
     // Get Domain
-    Domain domain = coordinator.getDomain(domainName);
+    Domain domain = getDomain(domainName);
     if (domain == null) {
       LOG.error(getLogPrefix() + "No such Domain: " + domainName);
       return NO_SUCH_DOMAIN_BULK;
     }
     // Execute futures
-    List<FutureGet> futureGets = new ArrayList<FutureGet>(keys.size());
-    for (ByteBuffer key : keys) {
-      futureGets.add(_concurrentGet(domain, key));
-    }
+    List<FutureGet> futureGets = _concurrentGetBulk(domain, keys);
     // Build responses list
     List<HankResponse> allResponses = new ArrayList<HankResponse>(keys.size());
     for (FutureGet futureGet : futureGets) {
@@ -423,7 +449,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   @Override
   public FutureGet concurrentGet(String domainName, ByteBuffer key) {
     // Get Domain
-    Domain domain = this.coordinator.getDomain(domainName);
+    Domain domain = getDomain(domainName);
     if (domain == null) {
       LOG.error(getLogPrefix() + "No such Domain: " + domainName);
       FutureGet noSuchDomainFutureGet = new FutureGet(new StaticGetTaskRunnable(NO_SUCH_DOMAIN));
@@ -438,7 +464,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   public List<FutureGet> concurrentGet(String domainName, List<ByteBuffer> keys) {
     List<FutureGet> result = new ArrayList<FutureGet>(keys.size());
     // Get Domain
-    Domain domain = this.coordinator.getDomain(domainName);
+    Domain domain = getDomain(domainName);
     if (domain == null) {
       LOG.error(getLogPrefix() + "No such Domain: " + domainName);
       FutureGet noSuchDomainFutureGet = new FutureGet(new StaticGetTaskRunnable(NO_SUCH_DOMAIN));
@@ -448,18 +474,208 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       }
       return result;
     }
-    for (ByteBuffer key : keys) {
-      result.add(_concurrentGet(domain, key));
-    }
-    return result;
+    return _concurrentGetBulk(domain, keys);
   }
 
   private FutureGet _concurrentGet(Domain domain, ByteBuffer key) {
+    // Invalid keys go through the regular path so that they fail when the future is run
+    if (pipelinedConnections && key != null && key.remaining() != 0) {
+      return _concurrentGetPipelined(domain, key);
+    }
     FutureGet futureGet = new FutureGet(new GetTaskRunnable(domain, key));
     getTaskExecutor.execute(futureGet);
     return futureGet;
   }
 
+  // Send the query on a pipelined connection and run the future when the response is received,
+  // instead of blocking an executor thread while waiting for it.
+  private FutureGet _concurrentGetPipelined(final Domain domain, final ByteBuffer key) {
+    // Attempt to load from cache
+    HankResponse cachedResponse = responseCache.get(new DomainAndKey(domain, key));
+    if (cachedResponse != null) {
+      // One request, in cache
+      requestsCounters.increment(1, 1, 0);
+      return getStaticFutureGet(cachedResponse);
+    }
+    Partitioner partitioner = domain.getPartitioner();
+    int hash = getHash(partitioner, key);
+    final int partition = getPartition(partitioner, key, hash, domain.getNumParts());
+    int keyHash = getPartition(partitioner, key, hash, Integer.MAX_VALUE);
+    HostConnectionPool hostConnectionPool = getHostConnectionPool(domain, partition);
+    if (hostConnectionPool == null) {
+      // One request, not in cache
+      requestsCounters.increment(1, 0, 0);
+      return getStaticFutureGet(NO_REPLICA);
+    }
+    final InFlightGet inFlightGet = new InFlightGet();
+    // The key is deep copied since the caller's buffer might be modified while the request is in flight
+    final DomainAndKey inFlightKey = coalesceRequests
+        ? new DomainAndKey(domain, BytesUtils.byteBufferDeepCopy(key)) : null;
+    if (inFlightKey != null) {
+      InFlightGet identicalInFlightGet = inFlightGets.putIfAbsent(inFlightKey, inFlightGet);
+      if (identicalInFlightGet != null) {
+        // One request, not in cache, coalesced
+        requestsCounters.increment(1, 0, 1);
+        return identicalInFlightGet.newFutureGet();
+      }
+    }
+    FutureGet futureGet = inFlightGet.newFutureGet();
+    final long startTime = getRequestsTimerAggregator.getStartTime();
+    hostConnectionPool.getAsync(domain, key, queryMaxNumTries, keyHash, new GetCallback() {
+      @Override
+      public void onComplete(HankResponse response) {
+        try {
+          cacheResponse(domain, key, response);
+          if (response.is_set_xception()) {
+            LOG.error(getLogPrefix() + "Failed to perform get: domain " + domain.getName() + ", partition " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", partitioner: " + domain.getPartitioner() + ", response: " + response);
+          }
+        } finally {
+          // One request, not in cache
+          requestsCounters.increment(1, 0, 0);
+          getRequestsTimerAggregator.add(startTime);
+          // Later identical requests are served by the cache or sent again
+          if (inFlightKey != null) {
+            inFlightGets.remove(inFlightKey, inFlightGet);
+          }
+          inFlightGet.complete(response);
+        }
+      }
+    });
+    return futureGet;
+  }
+
+  // Hash of the key from which both its partition and its key hash are derived, when the partitioner allows it
+  private static int getHash(Partitioner partitioner, ByteBuffer key) {
+    if (partitioner instanceof HashPartitioner) {
+      return ((HashPartitioner) partitioner).hash(key);
+    } else {
+      return 0;
+    }
+  }
+
+  private static int getPartition(Partitioner partitioner, ByteBuffer key, int hash, int numPartitions) {
+    if (partitioner instanceof HashPartitioner) {
+      return ((HashPartitioner) partitioner).partition(hash, numPartitions);
+    } else {
+      return partitioner.partition(key, numPartitions);
+    }
+  }
+
+  // Return the connection pool for the given partition, or null if there is none
+  private HostConnectionPool getHostConnectionPool(Domain domain, int partition) {
+    HostConnectionPool[] partitionToConnectionPool = routingTable.getPartitionToConnectionPool(domain.getId());
+    if (partitionToConnectionPool == null) {
+      LOG.error(getLogPrefix() + String.format("Could not find domain to partition map for domain %s (id: %d)", domain.getName(), domain.getId()));
+      return null;
+    }
+    HostConnectionPool hostConnectionPool = getHostConnectionPool(partitionToConnectionPool, partition);
+    if (hostConnectionPool == null) {
+      // this is a problem, since the cache must not have been loaded correctly
+      LOG.error(getLogPrefix() + String.format("Could not find list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition));
+      return null;
+    }
+    return hostConnectionPool;
+  }
+
+  private static HostConnectionPool getHostConnectionPool(HostConnectionPool[] partitionToConnectionPool, int partition) {
+    if (partition < 0 || partition >= partitionToConnectionPool.length) {
+      return null;
+    }
+    return partitionToConnectionPool[partition];
+  }
+
+  // Group keys by partition, and partitions by the host their connection pool selects, so that
+  // each host receives a single GET BULK request. Futures are returned in the order of the given keys.
+  private List<FutureGet> _concurrentGetBulk(Domain domain, List<ByteBuffer> keys) {
+    List<FutureGet> result = new ArrayList<FutureGet>(keys.size());
+
+    RoutingTable currentRoutingTable = routingTable;
+    HostConnectionPool[] partitionToConnectionPool = currentRoutingTable.getPartitionToConnectionPool(domain.getId());
+    Map<Host, HostConnectionPool> currentHostToConnectionPool = currentRoutingTable.getHostToConnectionPool();
+    Partitioner partitioner = domain.getPartitioner();
+
+    Map<Integer, PartitionBulkGet> partitionToBulkGet = new HashMap<Integer, PartitionBulkGet>();
+    for (ByteBuffer key : keys) {
+      // Invalid keys go through the regular path so that they fail individually
+      if (key == null || key.remaining() == 0) {
+        result.add(_concurrentGet(domain, key));
+        continue;
+      }
+      // Attempt to load from cache
+      HankResponse cachedResponse = responseCache.get(new DomainAndKey(domain, key));
+      if (cachedResponse != null) {
+        // One request, in cache
+        requestsCounters.increment(1, 1, 0);
+        result.add(getStaticFutureGet(cachedResponse));
+        continue;
+      }
+      if (partitionToConnectionPool == null) {
+        LOG.error(getLogPrefix() + String.format("Could not find domain to partition map for domain %s (id: %d)", domain.getName(), domain.getId()));
+        requestsCounters.increment(1, 0, 0);
+        result.add(getStaticFutureGet(NO_REPLICA));
+        continue;
+      }
+      int partition = getPartition(partitioner, key, getHash(partitioner, key), domain.getNumParts());
+      HostConnectionPool hostConnectionPool = getHostConnectionPool(partitionToConnectionPool, partition);
+      if (hostConnectionPool == null) {
+        // this is a problem, since the cache must not have been loaded correctly
+        LOG.error(getLogPrefix() + String.format("Could not find list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition));
+        requestsCounters.increment(1, 0, 0);
+        result.add(getStaticFutureGet(NO_REPLICA));
+        continue;
+      }
+      PartitionBulkGet partitionBulkGet = partitionToBulkGet.get(partition);
+      if (partitionBulkGet == null) {
+        partitionBulkGet = new PartitionBulkGet(partition, hostConnectionPool);
+        partitionToBulkGet.put(partition, partitionBulkGet);
+      }
+      result.add(partitionBulkGet.add(key));
+    }
+
+    // Group partitions by host
+    Map<Host, GetBulkTaskRunnable> hostToGetBulkTask = new HashMap<Host, GetBulkTaskRunnable>();
+    List<GetBulkTaskRunnable> getBulkTasks = new ArrayList<GetBulkTaskRunnable>();
+    for (PartitionBulkGet partitionBulkGet : partitionToBulkGet.values()) {
+      Host host = partitionBulkGet.hostConnectionPool.getHostToUse();
+      HostConnectionPool hostConnectionPool = host == null ? null : currentHostToConnectionPool.get(host);
+      if (hostConnectionPool == null) {
+        // No serving host, let the partition's connection pool handle it
+        GetBulkTaskRunnable getBulkTask = new GetBulkTaskRunnable(domain, null);
+        getBulkTask.add(partitionBulkGet);
+        getBulkTasks.add(getBulkTask);
+      } else {
+        GetBulkTaskRunnable getBulkTask = hostToGetBulkTask.get(host);
+        if (getBulkTask == null) {
+          getBulkTask = new GetBulkTaskRunnable(domain, hostConnectionPool);
+          hostToGetBulkTask.put(host, getBulkTask);
+          getBulkTasks.add(getBulkTask);
+        }
+        getBulkTask.add(partitionBulkGet);
+      }
+    }
+
+    // Execute one task per host
+    for (GetBulkTaskRunnable getBulkTask : getBulkTasks) {
+      getTaskExecutor.execute(getBulkTask);
+    }
+    return result;
+  }
+
+  private FutureGet getStaticFutureGet(HankResponse response) {
+    FutureGet futureGet = new FutureGet(new StaticGetTaskRunnable(response));
+    futureGet.run();
+    return futureGet;
+  }
+
+  // Cache response if necessary, do not cache exceptions
+  private void cacheResponse(Domain domain, ByteBuffer key, HankResponse response) {
+    if (responseCache.isEnabled() && (response.is_set_not_found() || response.is_set_value())) {
+      responseCache.put(
+          new DomainAndKey(domain, BytesUtils.byteBufferDeepCopy(key)),
+          response.deepCopy());
+    }
+  }
+
   private HankResponse _get(Domain domain, ByteBuffer key) {
     // Check for null keys
     if (key == null) {
@@ -474,48 +690,64 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     HankResponse cachedResponse = responseCache.get(new DomainAndKey(domain, key));
     if (cachedResponse != null) {
       // One request, in cache
-      requestsCounters.increment(1, 1);
+      requestsCounters.increment(1, 1, 0);
       return cachedResponse;
+    } else if (coalesceRequests) {
+      return _getCoalesced(domain, key);
     } else {
-      try {
-        // Determine HostConnectionPool to use
-        int partition = domain.getPartitioner().partition(key, domain.getNumParts());
-        int keyHash = domain.getPartitioner().partition(key, Integer.MAX_VALUE);
+      return _getFromServer(domain, key);
+    }
+  }
 
-        Map<Integer, HostConnectionPool> partitionToConnectionPool;
-        synchronized (connectionCacheLock) {
-          partitionToConnectionPool = domainToPartitionToConnectionPool.get(domain.getId());
-        }
-        if (partitionToConnectionPool == null) {
-          LOG.error(getLogPrefix() + String.format("Could not find domain to partition map for domain %s (id: %d)", domain.getName(), domain.getId()));
-          return NO_REPLICA;
-        }
+  // Share the response of an identical request in flight, or send the request and share its response
+  private HankResponse _getCoalesced(Domain domain, ByteBuffer key) {
+    // The key is deep copied since the caller's buffer might be modified while the request is in flight
+    DomainAndKey inFlightKey = new DomainAndKey(domain, BytesUtils.byteBufferDeepCopy(key));
+    InFlightGet inFlightGet = new InFlightGet();
+    InFlightGet identicalInFlightGet = inFlightGets.putIfAbsent(inFlightKey, inFlightGet);
+    if (identicalInFlightGet != null) {
+      // One request, not in cache, coalesced
+      requestsCounters.increment(1, 0, 1);
+      return identicalInFlightGet.newFutureGet().getResponse();
+    }
+    HankResponse response = null;
+    try {
+      response = _getFromServer(domain, key);
+      return response;
+    } finally {
+      inFlightGets.remove(inFlightKey, inFlightGet);
+      inFlightGet.complete(response != null ? response
+          : HankResponse.xception(HankException.internal_error("Coalesced request failed")));
+    }
+  }
 
-        HostConnectionPool hostConnectionPool = partitionToConnectionPool.get(partition);
-        if (hostConnectionPool == null) {
-          // this is a problem, since the cache must not have been loaded correctly
-          LOG.error(getLogPrefix() + String.format("Could not find list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition));
-          return NO_REPLICA;
-        }
-        if (LOG.isTraceEnabled()) {
-          LOG.trace("Looking in domain " + domain.getName() + ", in partition " + partition + ", for key: " + BytesUtils.bytesToHexString(key));
-        }
-        // Perform get
-        HankResponse response = hostConnectionPool.get(domain, key, queryMaxNumTries, keyHash);
-        // Cache response if necessary, do not cache exceptions
-        if (responseCache.isEnabled() && response.is_set_not_found() || response.is_set_value()) {
-          responseCache.put(
-              new DomainAndKey(domain, BytesUtils.byteBufferDeepCopy(key)),
-              response.deepCopy());
-        }
-        if (response.is_set_xception()) {
-          LOG.error(getLogPrefix() + "Failed to perform get: domain " + domain.getName() + ", partition " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", partitioner: " + domain.getPartitioner() + ", response: " + response);
-        }
-        return response;
-      } finally {
-        // One request, not in cache
-        requestsCounters.increment(1, 0);
+  private HankResponse _getFromServer(Domain domain, ByteBuffer key) {
+    long startTime = getRequestsTimerAggregator.getStartTime();
+    try {
+      // Determine HostConnectionPool to use
+      Partitioner partitioner = domain.getPartitioner();
+      int hash = getHash(partitioner, key);
+      int partition = getPartition(partitioner, key, hash, domain.getNumParts());
+      int keyHash = getPartition(partitioner, key, hash, Integer.MAX_VALUE);
+
+      HostConnectionPool hostConnectionPool = getHostConnectionPool(domain, partition);
+      if (hostConnectionPool == null) {
+        return NO_REPLICA;
+      }
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Looking in domain " + domain.getName() + ", in partition " + partition + ", for key: " + BytesUtils.bytesToHexString(key));
+      }
+      // Perform get
+      HankResponse response = hostConnectionPool.get(domain, key, queryMaxNumTries, keyHash);
+      cacheResponse(domain, key, response);
+      if (response.is_set_xception()) {
+        LOG.error(getLogPrefix() + "Failed to perform get: domain " + domain.getName() + ", partition " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", partitioner: " + domain.getPartitioner() + ", response: " + response);
       }
+      return response;
+    } finally {
+      // One request, not in cache
+      requestsCounters.increment(1, 0, 0);
+      getRequestsTimerAggregator.add(startTime);
     }
   }
 
@@ -550,7 +782,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
   private void disconnect() {
     synchronized (connectionCacheLock) {
-      for (HostConnectionPool hostConnectionPool : partitionServerAddressToConnectionPool.values()) {
+      for (HostConnectionPool hostConnectionPool : routingTable.getPartitionServerAddressToConnectionPool().values()) {
         for (HostConnection connection : hostConnectionPool.getConnections()) {
           connection.disconnect();
         }
@@ -609,6 +841,182 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     }
   }
 
+  // Response holder for a key queried asynchronously or as part of a bulk request.
+  // Its future is run once the response is set.
+  private static class PendingGetTaskRunnable implements GetTaskRunnableIface {
+
+    private HankResponse response = null;
+
+    @Override
+    public void run() {
+      // No-op
+    }
+
+    @Override
+    public HankResponse getResponse() {
+      return response;
+    }
+  }
+
+  // Request sent to a server, whose response is shared by identical concurrent requests. Each caller
+  // waits on its own future, so that cancelling one caller's future does not affect the others.
+  private static class InFlightGet {
+
+    private final List<PendingGetTaskRunnable> runnables = new ArrayList<PendingGetTaskRunnable>();
+    private final List<FutureGet> futureGets = new ArrayList<FutureGet>();
+    private HankResponse response = null;
+
+    // Return a future run once the response is received, or right away if it already was
+    private FutureGet newFutureGet() {
+      PendingGetTaskRunnable runnable = new PendingGetTaskRunnable();
+      FutureGet futureGet = new FutureGet(runnable);
+      synchronized (this) {
+        if (response == null) {
+          runnables.add(runnable);
+          futureGets.add(futureGet);
+          return futureGet;
+        }
+        runnable.response = response;
+      }
+      futureGet.run();
+      return futureGet;
+    }
+
+    private void complete(HankResponse response) {
+      synchronized (this) {
+        this.response = response;
+      }
+      // Futures are not added anymore once the response is set
+      for (int i = 0; i < futureGets.size(); ++i) {
+        runnables.get(i).response = response;
+        futureGets.get(i).run();
+      }
+    }
+  }
+
+  // Keys of a bulk request that fall in the same partition
+  private static class PartitionBulkGet {
+
+    private final int partition;
+    private final HostConnectionPool hostConnectionPool;
+    private final List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    private final List<PendingGetTaskRunnable> runnables = new ArrayList<PendingGetTaskRunnable>();
+    private final List<FutureGet> futureGets = new ArrayList<FutureGet>();
+
+    private PartitionBulkGet(int partition, HostConnectionPool hostConnectionPool) {
+      this.partition = partition;
+      this.hostConnectionPool = hostConnectionPool;
+    }
+
+    private FutureGet add(ByteBuffer key) {
+      PendingGetTaskRunnable runnable = new PendingGetTaskRunnable();
+      FutureGet futureGet = new FutureGet(runnable);
+      keys.add(key);
+      runnables.add(runnable);
+      futureGets.add(futureGet);
+      return futureGet;
+    }
+
+    private void complete(int index, HankResponse response) {
+      runnables.get(index).response = response;
+      futureGets.get(index).run();
+    }
+  }
+
+  // Performs a single GET BULK request to one host for all given partitions. If that fails, every
+  // partition is retried independently through its own connection pool.
+  private class GetBulkTaskRunnable implements Runnable {
+
+    private final Domain domain;
+    private final HostConnectionPool hostConnectionPool;
+    private final List<PartitionBulkGet> partitionBulkGets = new ArrayList<PartitionBulkGet>();
+
+    private GetBulkTaskRunnable(Domain domain, HostConnectionPool hostConnectionPool) {
+      this.domain = domain;
+      this.hostConnectionPool = hostConnectionPool;
+    }
+
+    private void add(PartitionBulkGet partitionBulkGet) {
+      partitionBulkGets.add(partitionBulkGet);
+    }
+
+    @Override
+    public void run() {
+      int numKeys = 0;
+      for (PartitionBulkGet partitionBulkGet : partitionBulkGets) {
+        numKeys += partitionBulkGet.keys.size();
+      }
+      try {
+        if (hostConnectionPool != null && runOnHost(numKeys)) {
+          return;
+        }
+        for (PartitionBulkGet partitionBulkGet : partitionBulkGets) {
+          HankBulkResponse response = partitionBulkGet.hostConnectionPool.getBulk(domain, partitionBulkGet.keys, queryMaxNumTries);
+          if (response.is_set_responses() && response.get_responses().size() == partitionBulkGet.keys.size()) {
+            for (int i = 0; i < partitionBulkGet.keys.size(); ++i) {
+              complete(partitionBulkGet, i, response.get_responses().get(i));
+            }
+          } else {
+            HankResponse failedResponse = getFailedResponse(response, partitionBulkGet.keys.size());
+            LOG.error(getLogPrefix() + "Failed to perform get bulk: domain " + domain.getName() + ", partition " + partitionBulkGet.partition + ", num keys: " + partitionBulkGet.keys.size() + ", response: " + failedResponse);
+            for (int i = 0; i < partitionBulkGet.keys.size(); ++i) {
+              complete(partitionBulkGet, i, failedResponse);
+            }
+          }
+        }
+      } catch (Throwable t) {
+        String errMsg = "Throwable while executing get bulk: " + t.toString();
+        LOG.error(getLogPrefix() + errMsg, t);
+        HankResponse errorResponse = HankResponse.xception(HankException.internal_error(errMsg));
+        for (PartitionBulkGet partitionBulkGet : partitionBulkGets) {
+          for (int i = 0; i < partitionBulkGet.keys.size(); ++i) {
+            if (!partitionBulkGet.futureGets.get(i).isDone()) {
+              complete(partitionBulkGet, i, errorResponse);
+            }
+          }
+        }
+      } finally {
+        // Requests, not in cache
+        requestsCounters.increment(numKeys, 0, 0);
+      }
+    }
+
+    // Return true if all keys were successfully queried in a single request to the host
+    private boolean runOnHost(int numKeys) {
+      List<ByteBuffer> keys = new ArrayList<ByteBuffer>(numKeys);
+      for (PartitionBulkGet partitionBulkGet : partitionBulkGets) {
+        keys.addAll(partitionBulkGet.keys);
+      }
+      HankBulkResponse response = hostConnectionPool.getBulk(domain, keys, 1);
+      if (!response.is_set_responses() || response.get_responses().size() != numKeys) {
+        LOG.warn(getLogPrefix() + "Failed to perform get bulk of " + numKeys + " keys on a single host for domain "
+            + domain.getName() + ", retrying by partition. Response: " + getFailedResponse(response, numKeys));
+        return false;
+      }
+      int responseIndex = 0;
+      for (PartitionBulkGet partitionBulkGet : partitionBulkGets) {
+        for (int i = 0; i < partitionBulkGet.keys.size(); ++i) {
+          complete(partitionBulkGet, i, response.get_responses().get(responseIndex++));
+        }
+      }
+      return true;
+    }
+
+    private void complete(PartitionBulkGet partitionBulkGet, int index, HankResponse response) {
+      cacheResponse(domain, partitionBulkGet.keys.get(index), response);
+      partitionBulkGet.complete(index, response);
+    }
+
+    private HankResponse getFailedResponse(HankBulkResponse response, int numKeys) {
+      if (response.is_set_xception()) {
+        return HankResponse.xception(response.get_xception());
+      } else {
+        return HankResponse.xception(HankException.internal_error("Expected " + numKeys
+            + " responses in get bulk response but got " + response));
+      }
+    }
+  }
+
   private static class GetTaskThreadFactory implements ThreadFactory {
 
     @Override
@@ -634,7 +1042,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       partitionServerToConnectionLoad.clear();
       for (int i = 0; i < UPDATE_RUNTIME_STATISTICS_NUM_MEASUREMENTS; ++i) {
         for (Map.Entry<HostAddress, HostConnectionPool> entry
-            : partitionServerAddressToConnectionPool.entrySet()) {
+            : routingTable.getPartitionServerAddressToConnectionPool().entrySet()) {
           PartitionServerAddress serverAddress = entry.getKey().getPartitionServerAddress();
           ConnectionLoad currentConnectionLoad = entry.getValue().getConnectionLoad();
           ConnectionLoad totalConnectionLoad = partitionServerToConnectionLoad.get(serverAddress);
@@ -666,16 +1074,21 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       long timerDurationMs = timer.getDurationMs();
       timer.restart();
       // Log requests counters
-      long[] requestsCounterValues = requestsCounters.getAsArrayAndSet(0, 0);
+      long[] requestsCounterValues = requestsCounters.getAsArrayAndSet(0, 0, 0);
       long numRequests = requestsCounterValues[0];
       long numCacheHits = requestsCounterValues[1];
+      long numCoalescedRequests = requestsCounterValues[2];
+      DoublePopulationStatisticsAggregator getRequestsPopulationStatistics =
+          getRequestsTimerAggregator.getAndResetPopulationStatistics();
       if (timerDurationMs != 0 && numRequests != 0) {
         double throughput = (double)numRequests / ((double)timerDurationMs / 1000d);
         double cacheHitRate = (double)numCacheHits / (double)numRequests;
         LOG.info(getLogPrefix()
             + "Throughput: " + FormatUtils.formatDouble(throughput) + " queries/s"
             + ", client-side cache hit rate: " + FormatUtils.formatDouble(cacheHitRate * 100) + "%"
-            + ", cache: " + responseCache.size() + " items totaling " + FormatUtils.formatNumBytes(responseCache.getNumManagedBytes()));
+            + ", coalesced requests: " + numCoalescedRequests
+            + ", cache: " + responseCache.size() + " items totaling " + FormatUtils.formatNumBytes(responseCache.getNumManagedBytes())
+            + ", latency: " + getRequestsPopulationStatistics.format());
       }
     }
 
@@ -32,6 +32,8 @@ public class HankSmartClientOptions {
   private int responseCacheNumItemsCapacity = 0;
   private long responseCacheExpirationSeconds = 0;
   private EnvironmentValue preferredServerEnvironment = null;
+  private boolean pipelinedConnections = false;
+  private boolean coalesceRequests = false;
 
   public int getNumConnectionsPerHost() {
     return numConnectionsPerHost;
@@ -140,4 +142,25 @@ public class HankSmartClientOptions {
     this.responseCacheExpirationSeconds = responseCacheExpirationSeconds;
     return this;
   }
+
+  public boolean getPipelinedConnections() {
+    return pipelinedConnections;
+  }
+
+  // When enabled, each connection carries many concurrent queries instead of one at a time,
+  // and concurrent GETs complete without holding a thread while waiting for responses.
+  public HankSmartClientOptions setPipelinedConnections(boolean pipelinedConnections) {
+    this.pipelinedConnections = pipelinedConnections;
+    return this;
+  }
+
+  public boolean getCoalesceRequests() {
+    return coalesceRequests;
+  }
+
+  // When enabled, concurrent GETs of the same key in the same domain share a single request to the servers.
+  public HankSmartClientOptions setCoalesceRequests(boolean coalesceRequests) {
+    this.coalesceRequests = coalesceRequests;
+    return this;
+  }
 }
@@ -19,6 +19,7 @@ package com.liveramp.hank.client;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -50,6 +51,11 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   private TSocket socket;
   private TTransport transport;
   private PartitionServer.Client client;
+  // In pipelined mode, queries are not serialized by the lock but share a single pipeline. Bulk queries
+  // use their own pipeline so that GETs are not queued behind them.
+  private final boolean pipelined;
+  private volatile HostConnectionPipeline pipeline;
+  private volatile HostConnectionPipeline bulkPipeline;
   private final Host host;
   protected final ReentrantLock lock = new ReentrantLock(true); // Use a fair ReentrantLock
 
@@ -59,11 +65,21 @@ public class HostConnection implements WatchedNodeListener<HostState> {
                         int establishConnectionTimeoutMs,
                         int queryTimeoutMs,
                         int bulkQueryTimeoutMs) throws IOException {
+    this(host, tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs, false);
+  }
+
+  public HostConnection(Host host,
+                        int tryLockTimeoutMs,
+                        int establishConnectionTimeoutMs,
+                        int queryTimeoutMs,
+                        int bulkQueryTimeoutMs,
+                        boolean pipelined) throws IOException {
     this.host = host;
     this.tryLockTimeoutMs = tryLockTimeoutMs;
     this.establishConnectionTimeoutMs = establishConnectionTimeoutMs;
     this.queryTimeoutMs = queryTimeoutMs;
     this.bulkQueryTimeoutMs = bulkQueryTimeoutMs;
+    this.pipelined = pipelined;
     host.setStateChangeListener(this);
     onWatchedNodeChange(host.getState());
   }
@@ -89,6 +105,10 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   private boolean isDisconnected() {
+    if (pipelined) {
+      HostConnectionPipeline currentPipeline = pipeline;
+      return currentPipeline == null || currentPipeline.isClosed();
+    }
     return client == null;
   }
 
@@ -101,6 +121,10 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   boolean tryLockRespectingFairness() {
+    // Pipelined connections are never locked, report whether the connection is idle instead
+    if (pipelined) {
+      return !isLocked();
+    }
     try {
       // Note: tryLock() does not respect fairness, using tryLock(0, unit) instead
       return lock.tryLock(0, TimeUnit.MILLISECONDS);
@@ -124,6 +148,12 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   public HankResponse get(int domainId, ByteBuffer key) throws IOException {
+    if (pipelined) {
+      BlockingCallback<HankResponse> callback = new BlockingCallback<HankResponse>();
+      // Responses with an exception are reported as errors
+      getAsync(domainId, key, callback);
+      return callback.await();
+    }
     // Lock the connection only if needed
     if (!lock.isHeldByCurrentThread()) {
       // Try to lock within a given timeframe
@@ -158,6 +188,20 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws IOException {
+    if (pipelined) {
+      BlockingCallback<HankBulkResponse> callback = new BlockingCallback<HankBulkResponse>();
+      try {
+        getPipeline(true).getBulk(domainId, keys, bulkQueryTimeoutMs, callback);
+      } catch (IOException e) {
+        callback.onError(e);
+      }
+      HankBulkResponse result = callback.await();
+      if (result.is_set_xception()) {
+        throw new IOException("Server failed to execute GET BULK: " + result.get_xception());
+      } else {
+        return result;
+      }
+    }
     // Lock the connection only if needed
     if (!lock.isHeldByCurrentThread()) {
       // Try to lock within a given timeframe
@@ -197,7 +241,78 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     }
   }
 
+  // Perform a GET without blocking. Only supported by pipelined connections. The callback is notified
+  // of failures, including responses with an exception, from either the calling thread or the pipeline's
+  // reader thread.
+  void getAsync(int domainId, ByteBuffer key, final HostConnectionPipeline.Callback<HankResponse> callback) {
+    if (!pipelined) {
+      throw new IllegalStateException("Asynchronous GET is only supported by pipelined connections.");
+    }
+    HostConnectionPipeline currentPipeline;
+    try {
+      currentPipeline = getPipeline(false);
+    } catch (IOException e) {
+      callback.onError(e);
+      return;
+    }
+    currentPipeline.get(domainId, key, queryTimeoutMs, new HostConnectionPipeline.Callback<HankResponse>() {
+      @Override
+      public void onComplete(HankResponse response) {
+        if (response.is_set_xception()) {
+          callback.onError(new IOException("Server failed to execute GET: " + response.get_xception()));
+        } else {
+          callback.onComplete(response);
+        }
+      }
+
+      @Override
+      public void onError(IOException e) {
+        callback.onError(e);
+      }
+    });
+  }
+
+  // Return an open pipeline for GETs or bulk queries, connecting if necessary. Pipelines are closed
+  // by errors and timeouts, in which case a new connection is established.
+  private HostConnectionPipeline getPipeline(boolean bulk) throws IOException {
+    // Check availability
+    if (!isServing() && !isOffline()) {
+      throw new IOException("Connection to host is not available (host is not serving).");
+    }
+    HostConnectionPipeline currentPipeline = bulk ? bulkPipeline : pipeline;
+    if (currentPipeline != null && !currentPipeline.isClosed()) {
+      return currentPipeline;
+    }
+    // Connect if necessary
+    lock();
+    try {
+      if (bulk) {
+        if (bulkPipeline == null || bulkPipeline.isClosed()) {
+          bulkPipeline = openPipeline();
+        }
+        return bulkPipeline;
+      }
+      if (isDisconnected()) {
+        connect();
+      }
+      return pipeline;
+    } finally {
+      unlock();
+    }
+  }
+
   public void disconnect() {
+    IOException cause = new IOException("Connection to host " + host.getAddress() + " was closed.");
+    HostConnectionPipeline currentPipeline = pipeline;
+    if (currentPipeline != null) {
+      currentPipeline.close(cause);
+    }
+    pipeline = null;
+    currentPipeline = bulkPipeline;
+    if (currentPipeline != null) {
+      currentPipeline.close(cause);
+    }
+    bulkPipeline = null;
     if (transport != null) {
       transport.close();
     }
@@ -210,6 +325,10 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     if (LOG.isTraceEnabled()) {
       LOG.trace("Trying to connect to " + host.getAddress());
     }
+    if (pipelined) {
+      pipeline = openPipeline();
+      return;
+    }
     // Use connection timeout to connect
     socket = new TSocket(host.getAddress().getHostName(),
         host.getAddress().getPortNumber(),
@@ -231,6 +350,20 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     }
   }
 
+  private HostConnectionPipeline openPipeline() throws IOException {
+    HostConnectionPipeline result;
+    try {
+      result = new HostConnectionPipeline(host.getAddress(), establishConnectionTimeoutMs);
+    } catch (IOException e) {
+      LOG.error("Failed to establish connection to host " + host.getAddress(), e);
+      throw e;
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Pipelined connection to " + host.getAddress() + " opened.");
+    }
+    return result;
+  }
+
   private void setSocketTimeout(int timeout) {
     if (socket != null) {
       socket.setTimeout(timeout);
@@ -263,10 +396,50 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     }
   }
 
+  // A pipelined connection is considered locked when it has queries in flight
   public boolean isLocked() {
+    if (pipelined) {
+      HostConnectionPipeline currentPipeline = pipeline;
+      HostConnectionPipeline currentBulkPipeline = bulkPipeline;
+      return (currentPipeline != null && currentPipeline.getNumPendingCalls() > 0)
+          || (currentBulkPipeline != null && currentBulkPipeline.getNumPendingCalls() > 0);
+    }
     return lock.isLocked();
   }
 
+  // Turns a pipelined call into a blocking one. Timeouts are enforced by the pipeline.
+  private static class BlockingCallback<T> implements HostConnectionPipeline.Callback<T> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private T response;
+    private IOException error;
+
+    @Override
+    public void onComplete(T response) {
+      this.response = response;
+      latch.countDown();
+    }
+
+    @Override
+    public void onError(IOException e) {
+      this.error = e;
+      latch.countDown();
+    }
+
+    private T await() throws IOException {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for response.", e);
+      }
+      if (error != null) {
+        throw error;
+      }
+      return response;
+    }
+  }
+
   @Override
   public String toString() {
     return "HostConnection{" +
@@ -277,6 +450,9 @@ public class HostConnection implements WatchedNodeListener<HostState> {
         ", socket=" + socket +
         ", transport=" + transport +
         ", client=" + client +
+        ", pipelined=" + pipelined +
+        ", pipeline=" + pipeline +
+        ", bulkPipeline=" + bulkPipeline +
         ", host=" + host +
         ", lock=" + lock +
         '}';
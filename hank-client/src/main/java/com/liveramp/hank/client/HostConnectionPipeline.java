@@ -0,0 +1,315 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.liveramp.hank.coordinator.PartitionServerAddress;
+import com.liveramp.hank.generated.HankBulkResponse;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.generated.PartitionServer;
+
+/**
+ * A single framed Thrift connection to a partition server on which many queries can be
+ * in flight at the same time. Requests are written with increasing sequence ids without
+ * waiting for previous responses, and a dedicated reader thread matches responses to
+ * pending calls. The partition server processes one frame per connection at a time,
+ * so responses are received in the order requests were sent.
+ *
+ * Any transport or protocol error closes the pipeline and fails all pending calls.
+ * So does a call that is not completed within its timeout: the server is not answering,
+ * or is busy with a call that is ahead of all others, and responses to later calls cannot
+ * arrive before the one that is late. A closed pipeline is replaced by a new connection.
+ */
+class HostConnectionPipeline {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HostConnectionPipeline.class);
+
+  private static final ScheduledThreadPoolExecutor TIMEOUT_EXECUTOR = createTimeoutExecutor();
+
+  interface Callback<T> {
+
+    public void onComplete(T response);
+
+    public void onError(IOException e);
+  }
+
+  private final PartitionServerAddress address;
+  private final TTransport transport;
+  private final TProtocol inputProtocol;
+  private final TProtocol outputProtocol;
+  // Guards sequence ids, pending calls and writes to the transport
+  private final Object sendLock = new Object();
+  private final ArrayDeque<PendingCall<?>> pendingCalls = new ArrayDeque<PendingCall<?>>();
+  private final Thread readerThread;
+  private int nextSeqId = 0;
+  private volatile boolean closed = false;
+
+  HostConnectionPipeline(PartitionServerAddress address, int establishConnectionTimeoutMs) throws IOException {
+    this.address = address;
+    TSocket socket = new TSocket(address.getHostName(), address.getPortNumber(), establishConnectionTimeoutMs);
+    transport = new TFramedTransport(socket);
+    try {
+      transport.open();
+    } catch (TTransportException e) {
+      transport.close();
+      throw new IOException("Failed to establish connection to host " + address, e);
+    }
+    // The reader thread always blocks waiting for responses. Query timeouts are enforced per call
+    // and close the pipeline.
+    socket.setTimeout(0);
+    // Reads and writes are performed by different threads, use one protocol for each
+    inputProtocol = new TCompactProtocol(transport);
+    outputProtocol = new TCompactProtocol(transport);
+    readerThread = new Thread(new ReaderRunnable(), "Host Connection Pipeline Reader " + address);
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  void get(int domainId, ByteBuffer key, int timeoutMs, final Callback<HankResponse> callback) {
+    send("get", new PartitionServer.get_args(domainId, key), timeoutMs, new PendingCall<HankResponse>(callback) {
+      @Override
+      protected HankResponse readResult(TProtocol protocol) throws TException {
+        PartitionServer.get_result result = new PartitionServer.get_result();
+        result.read(protocol);
+        if (!result.is_set_success()) {
+          throw new TApplicationException(TApplicationException.MISSING_RESULT, "get failed: unknown result");
+        }
+        return result.get_success();
+      }
+    });
+  }
+
+  void getBulk(int domainId, List<ByteBuffer> keys, int timeoutMs, final Callback<HankBulkResponse> callback) {
+    send("getBulk", new PartitionServer.getBulk_args(domainId, keys), timeoutMs, new PendingCall<HankBulkResponse>(callback) {
+      @Override
+      protected HankBulkResponse readResult(TProtocol protocol) throws TException {
+        PartitionServer.getBulk_result result = new PartitionServer.getBulk_result();
+        result.read(protocol);
+        if (!result.is_set_success()) {
+          throw new TApplicationException(TApplicationException.MISSING_RESULT, "getBulk failed: unknown result");
+        }
+        return result.get_success();
+      }
+    });
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  int getNumPendingCalls() {
+    synchronized (sendLock) {
+      return pendingCalls.size();
+    }
+  }
+
+  // Close the underlying transport and fail all pending calls with the given cause
+  void close(IOException cause) {
+    List<PendingCall<?>> failedCalls;
+    synchronized (sendLock) {
+      if (!closed) {
+        closed = true;
+        transport.close();
+      }
+      failedCalls = new ArrayList<PendingCall<?>>(pendingCalls);
+      pendingCalls.clear();
+    }
+    // Run callbacks outside of the lock since they might issue new calls
+    for (PendingCall<?> call : failedCalls) {
+      call.fail(cause);
+    }
+  }
+
+  private void send(String methodName, TBase<?, ?> args, int timeoutMs, PendingCall<?> call) {
+    TException error = null;
+    synchronized (sendLock) {
+      if (closed) {
+        error = new TTransportException(TTransportException.NOT_OPEN, "Connection is closed");
+      } else {
+        call.seqId = nextSeqId++;
+        pendingCalls.addLast(call);
+        try {
+          outputProtocol.writeMessageBegin(new TMessage(methodName, TMessageType.CALL, call.seqId));
+          args.write(outputProtocol);
+          outputProtocol.writeMessageEnd();
+          transport.flush();
+        } catch (TException e) {
+          error = e;
+        }
+      }
+    }
+    if (error != null) {
+      IOException cause = new IOException("Failed to send " + methodName + " to host " + address, error);
+      // The call might not have been registered, in which case closing would not fail it
+      call.fail(cause);
+      close(cause);
+      return;
+    }
+    if (timeoutMs > 0) {
+      call.timeoutFuture = TIMEOUT_EXECUTOR.schedule(new TimeoutRunnable(call, methodName, timeoutMs), timeoutMs, TimeUnit.MILLISECONDS);
+      // The response might have been received before the timeout was registered
+      if (call.isDone()) {
+        call.timeoutFuture.cancel(false);
+      }
+    }
+  }
+
+  private class ReaderRunnable implements Runnable {
+
+    @Override
+    public void run() {
+      PendingCall<?> call = null;
+      try {
+        while (true) {
+          TMessage message = inputProtocol.readMessageBegin();
+          synchronized (sendLock) {
+            call = pendingCalls.pollFirst();
+          }
+          if (call == null || call.seqId != message.seqid) {
+            throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID,
+                "Received response with sequence id " + message.seqid + " but expected "
+                    + (call == null ? "no response" : call.seqId));
+          }
+          if (message.type == TMessageType.EXCEPTION) {
+            TApplicationException e = TApplicationException.read(inputProtocol);
+            inputProtocol.readMessageEnd();
+            call.fail(new IOException("Server failed to execute " + message.name, e));
+          } else {
+            call.read(inputProtocol);
+            inputProtocol.readMessageEnd();
+          }
+          call = null;
+        }
+      } catch (TException e) {
+        if (!closed) {
+          LOG.error("Failed to read from host " + address + ", closing connection", e);
+        }
+        IOException cause = new IOException("Failed to receive response from host " + address, e);
+        // The call being read is not pending anymore, fail it explicitly
+        if (call != null) {
+          call.fail(cause);
+        }
+        close(cause);
+      }
+    }
+  }
+
+  private class TimeoutRunnable implements Runnable {
+
+    private final PendingCall<?> call;
+    private final String methodName;
+    private final int timeoutMs;
+
+    private TimeoutRunnable(PendingCall<?> call, String methodName, int timeoutMs) {
+      this.call = call;
+      this.methodName = methodName;
+      this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public void run() {
+      // Calls that were sent after this one would not be answered before it, fail them all
+      close(new IOException("Exceeded timeout of " + timeoutMs + "ms while waiting for " + methodName + " response from host " + address));
+    }
+  }
+
+  private static abstract class PendingCall<T> {
+
+    private final Callback<T> callback;
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private int seqId;
+    private volatile ScheduledFuture<?> timeoutFuture;
+
+    private PendingCall(Callback<T> callback) {
+      this.callback = callback;
+    }
+
+    protected abstract T readResult(TProtocol protocol) throws TException;
+
+    private boolean isDone() {
+      return done.get();
+    }
+
+    // The response is always read, and dropped if the call already timed out
+    private void read(TProtocol protocol) throws TException {
+      T response = readResult(protocol);
+      if (done.compareAndSet(false, true)) {
+        cancelTimeout();
+        try {
+          callback.onComplete(response);
+        } catch (Throwable t) {
+          LOG.error("Error in pipelined call callback", t);
+        }
+      }
+    }
+
+    private void fail(IOException cause) {
+      if (done.compareAndSet(false, true)) {
+        cancelTimeout();
+        try {
+          callback.onError(cause);
+        } catch (Throwable t) {
+          LOG.error("Error in pipelined call callback", t);
+        }
+      }
+    }
+
+    private void cancelTimeout() {
+      ScheduledFuture<?> future = timeoutFuture;
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private static ScheduledThreadPoolExecutor createTimeoutExecutor() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Host Connection Pipeline Timeout");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+}
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.google.common.collect.Iterables;
 import org.slf4j.Logger;
@@ -55,7 +56,9 @@ import com.liveramp.hank.generated.HankResponse;
  * HostConnectionPool maintains an internal indicator of what Host was used
  * last by any query. To distribute load, the next query will attempt to
  * connect to the next Host, and so on. Note that initially, this Host iterator
- * is randomized.
+ * is randomized. Selection does not lock the pool: concurrent queries read and
+ * update that indicator without synchronization, which at worst makes them
+ * start from the same Host.
  *
  * When performing a query, HostConnectionPool first loops over all hosts and
  * connections (starting from the last used host iterator) looking for an
@@ -75,9 +78,11 @@ public class HostConnectionPool {
 
   private static Logger LOG = LoggerFactory.getLogger(HostConnectionPool.class);
 
+  // Hosts and connections are not modified after construction. Only the previously used host index
+  // changes, it is updated without locking and concurrent selections may start from the same host.
   private static class ConnectionPools {
     private ArrayList<List<HostConnectionAndHostIndex>> hostToConnections = new ArrayList<>();
-    private int previouslyUsedHostIndex = 0;
+    private volatile int previouslyUsedHostIndex = 0;
 
     @Override
     public String toString() {
@@ -201,7 +206,7 @@ public class HostConnectionPool {
   }
 
   // Return a connection to a host, initially skipping the previously used host
-  private synchronized HostConnectionAndHostIndex getConnectionToUse(ConnectionPools pool) {
+  private HostConnectionAndHostIndex getConnectionToUse(ConnectionPools pool) {
     HostConnectionAndHostIndex result = getNextConnectionToUse(pool.previouslyUsedHostIndex, pool.hostToConnections);
     if (result != null) {
       pool.previouslyUsedHostIndex = result.hostIndex;
@@ -217,8 +222,8 @@ public class HostConnectionPool {
 
   // Return a connection to an arbitrary host, initially skipping the supplied host (likely because there was
   // a failure using a connection to it)
-  private synchronized HostConnectionAndHostIndex getNextConnectionToUse(int previouslyUsedHostIndex,
-                                                                         ArrayList<List<HostConnectionAndHostIndex>> hostToConnections) {
+  private HostConnectionAndHostIndex getNextConnectionToUse(int previouslyUsedHostIndex,
+                                                            ArrayList<List<HostConnectionAndHostIndex>> hostToConnections) {
 
     // First, search for any unused (unlocked) connection
     for (int tryId = 0; tryId < hostToConnections.size(); ++tryId) {
@@ -246,7 +251,7 @@ public class HostConnectionPool {
       List<HostConnectionAndHostIndex> connectionAndHostList = hostToConnections.get(previouslyUsedHostIndex);
       // Pick a random connection for that host
       HostConnectionAndHostIndex connectionAndHostIndex
-          = connectionAndHostList.get(random.nextInt(connectionAndHostList.size()));
+          = connectionAndHostList.get(ThreadLocalRandom.current().nextInt(connectionAndHostList.size()));
       // If a host has one unavaible connection, it is itself unavailable.
       // Move on to the next host. Otherwise, return it.
       if (connectionAndHostIndex.hostConnection.isServing()) {
@@ -267,7 +272,7 @@ public class HostConnectionPool {
       List<HostConnectionAndHostIndex> connectionAndHostList = hostToConnections.get(previouslyUsedHostIndex);
       // Pick a random connection for that host, and use it only if it is offline
       HostConnectionAndHostIndex connectionAndHostIndex
-          = connectionAndHostList.get(random.nextInt(connectionAndHostList.size()));
+          = connectionAndHostList.get(ThreadLocalRandom.current().nextInt(connectionAndHostList.size()));
       if (connectionAndHostIndex.hostConnection.isOffline()) {
         return connectionAndHostIndex;
       }
@@ -277,6 +282,29 @@ public class HostConnectionPool {
     return null;
   }
 
+  // Return the host the next query should be sent to, without locking any of its connections.
+  // Preferred hosts are used first. Returns null if no host is serving.
+  Host getHostToUse() {
+    Host result = getNextServingHost(preferredPools);
+    if (result == null) {
+      result = getNextServingHost(otherPools);
+    }
+    return result;
+  }
+
+  private Host getNextServingHost(ConnectionPools pools) {
+    int hostIndex = pools.previouslyUsedHostIndex;
+    for (int tryId = 0; tryId < pools.hostToConnections.size(); ++tryId) {
+      hostIndex = getNextHostIndexToUse(hostIndex, pools.hostToConnections);
+      HostConnection hostConnection = pools.hostToConnections.get(hostIndex).get(0).hostConnection;
+      if (hostConnection.isServing()) {
+        pools.previouslyUsedHostIndex = hostIndex;
+        return hostConnection.getHost();
+      }
+    }
+    return null;
+  }
+
   private int getNextHostIndexToUse(int previouslyUsedHostIndex,
                                     ArrayList<List<HostConnectionAndHostIndex>> hostToConnections) {
     if (previouslyUsedHostIndex >= (hostToConnections.size() - 1)) {
@@ -322,6 +350,91 @@ public class HostConnectionPool {
 
   }
 
+  // Perform a GET without blocking the calling thread. Connections are selected and retried as in get(),
+  // but each attempt is sent on a pipelined connection and the next one is made when it fails.
+  // The callback is always notified exactly once, possibly from a connection's reader thread.
+  public void getAsync(Domain domain, ByteBuffer key, int maxNumTries, Integer keyHash, GetCallback callback) {
+    new AsyncGet(domain, key, maxNumTries, keyHash, callback).attemptNext();
+  }
+
+  private class AsyncGet implements HostConnectionPipeline.Callback<HankResponse> {
+
+    private final Domain domain;
+    private final ByteBuffer key;
+    private final int maxNumTries;
+    private final Integer keyHash;
+    private final GetCallback callback;
+    private HostConnectionAndHostIndex connectionAndHostIndex = null;
+    private int numPreferredTries = 0;
+    private int numOtherTries = 0;
+
+    private AsyncGet(Domain domain, ByteBuffer key, int maxNumTries, Integer keyHash, GetCallback callback) {
+      this.domain = domain;
+      this.key = key;
+      this.maxNumTries = maxNumTries;
+      this.keyHash = keyHash;
+      this.callback = callback;
+    }
+
+    private void attemptNext() {
+      // Preferred hosts are tried first, then other hosts
+      if (numPreferredTries < preferredPools.hostToConnections.size()) {
+        connectionAndHostIndex = getConnectionFromPools(preferredPools, keyHash, connectionAndHostIndex);
+        ++numPreferredTries;
+      } else {
+        connectionAndHostIndex = getConnectionFromPools(otherPools, keyHash, connectionAndHostIndex);
+        ++numOtherTries;
+      }
+      if (connectionAndHostIndex == null) {
+        logNoConnectionAvailable(domain, key, numPreferredTries + numOtherTries, maxNumTries);
+        callback.onComplete(NO_CONNECTION_AVAILABLE_RESPONSE);
+      } else {
+        connectionAndHostIndex.hostConnection.getAsync(domain.getId(), key, this);
+      }
+    }
+
+    @Override
+    public void onComplete(HankResponse response) {
+      callback.onComplete(response);
+    }
+
+    @Override
+    public void onError(IOException e) {
+      HankResponse response = getFailedQueryResponse(connectionAndHostIndex, domain, key, numPreferredTries + numOtherTries, maxNumTries, e);
+      if (response == null) {
+        attemptNext();
+      } else {
+        callback.onComplete(response);
+      }
+    }
+  }
+
+  public HankBulkResponse getBulk(Domain domain, List<ByteBuffer> keys, int maxNumTries) {
+    HostConnectionAndHostIndex connectionAndHostIndex = null;
+    int numPreferredTries = 0;
+    int numOtherTries = 0;
+
+    while (numPreferredTries < preferredPools.hostToConnections.size()) {
+      connectionAndHostIndex = getConnectionFromPools(preferredPools, null, connectionAndHostIndex);
+      ++numPreferredTries;
+
+      HankBulkResponse response = attemptBulkQuery(connectionAndHostIndex, domain, keys, numPreferredTries, maxNumTries);
+      if (response != null) {
+        return response;
+      }
+    }
+
+    while (true) {
+      connectionAndHostIndex = getConnectionFromPools(otherPools, null, connectionAndHostIndex);
+      ++numOtherTries;
+
+      HankBulkResponse response = attemptBulkQuery(connectionAndHostIndex, domain, keys, numPreferredTries + numOtherTries, maxNumTries);
+      if (response != null) {
+        return response;
+      }
+    }
+  }
+
   private HostConnectionAndHostIndex getConnectionFromPools(ConnectionPools pools, Integer keyHash, HostConnectionAndHostIndex connectionAndHostIndex) {
     if (connectionAndHostIndex == null) {
       if (keyHash == null) {
@@ -339,40 +452,80 @@ public class HostConnectionPool {
 
     // If we couldn't find any available connection, return corresponding error response
     if (connectionAndHostIndex == null) {
-      LOG.error("No connection is available. Giving up with "+numTries+"/"+maxNumTries+" attempts. Domain = " + domain.getName() + ", Key=" + BytesUtils.bytesToHexString(key)+"\n"+
-          "Local pools: "+preferredPools+"\n"+
-          "Non-local pools: "+otherPools
-      );
-      
+      logNoConnectionAvailable(domain, key, numTries, maxNumTries);
       return NO_CONNECTION_AVAILABLE_RESPONSE;
     } else {
       // Perform query
       try {
         return connectionAndHostIndex.hostConnection.get(domainId, key);
+      } catch (IOException e) {
+        return getFailedQueryResponse(connectionAndHostIndex, domain, key, numTries, maxNumTries, e);
+      }
+
+    }
+
+  }
+
+  // Return null if the query should be retried, or the response to give up with
+  private HankResponse getFailedQueryResponse(HostConnectionAndHostIndex connectionAndHostIndex, Domain domain, ByteBuffer key, int numTries, int maxNumTries, IOException e) {
+    // In case of error, keep count of the number of times we retry
+    if (numTries < maxNumTries) {
+      // Simply log the error and retry
+      LOG.error("Failed to perform query with host: "
+          + connectionAndHostIndex.hostConnection.getHost().getAddress()
+          + ". Retrying. Try " + numTries + "/" + maxNumTries
+          + ", Domain = " + domain.getName()
+          + ", Key = " + BytesUtils.bytesToHexString(key), e);
+
+      return null;
+    } else {
+      // If we have exhausted tries, return an exception response
+      LOG.error("Failed to perform query with host: "
+          + connectionAndHostIndex.hostConnection.getHost().getAddress()
+          + ". Giving up. Try " + numTries + "/" + maxNumTries
+          + ", Domain = " + domain.getName()
+          + ", Key = " + BytesUtils.bytesToHexString(key), e);
+      return HankResponse.xception(HankException.failed_retries(maxNumTries));
+    }
+  }
+
+  private void logNoConnectionAvailable(Domain domain, ByteBuffer key, int numTries, int maxNumTries) {
+    LOG.error("No connection is available. Giving up with "+numTries+"/"+maxNumTries+" attempts. Domain = " + domain.getName() + ", Key=" + BytesUtils.bytesToHexString(key)+"\n"+
+        "Local pools: "+preferredPools+"\n"+
+        "Non-local pools: "+otherPools
+    );
+  }
+
+  private HankBulkResponse attemptBulkQuery(HostConnectionAndHostIndex connectionAndHostIndex, Domain domain, List<ByteBuffer> keys, int numTries, int maxNumTries) {
+    // If we couldn't find any available connection, return corresponding error response
+    if (connectionAndHostIndex == null) {
+      LOG.error("No connection is available. Giving up with " + numTries + "/" + maxNumTries + " attempts. Domain = " + domain.getName() + ", Num keys = " + keys.size());
+      return NO_CONNECTION_AVAILABLE_BULK_RESPONSE;
+    } else {
+      // Perform query
+      try {
+        return connectionAndHostIndex.hostConnection.getBulk(domain.getId(), keys);
       } catch (IOException e) {
         // In case of error, keep count of the number of times we retry
         if (numTries < maxNumTries) {
           // Simply log the error and retry
-          LOG.error("Failed to perform query with host: "
+          LOG.error("Failed to perform bulk query with host: "
               + connectionAndHostIndex.hostConnection.getHost().getAddress()
               + ". Retrying. Try " + numTries + "/" + maxNumTries
               + ", Domain = " + domain.getName()
-              + ", Key = " + BytesUtils.bytesToHexString(key), e);
-
+              + ", Num keys = " + keys.size(), e);
           return null;
         } else {
           // If we have exhausted tries, return an exception response
-          LOG.error("Failed to perform query with host: "
+          LOG.error("Failed to perform bulk query with host: "
               + connectionAndHostIndex.hostConnection.getHost().getAddress()
               + ". Giving up. Try " + numTries + "/" + maxNumTries
               + ", Domain = " + domain.getName()
-              + ", Key = " + BytesUtils.bytesToHexString(key), e);
-          return HankResponse.xception(HankException.failed_retries(maxNumTries));
+              + ", Num keys = " + keys.size(), e);
+          return HankBulkResponse.xception(HankException.failed_retries(maxNumTries));
         }
       }
-
     }
-
   }
 
   public static Integer getHostListShuffleSeed(Integer domainId, Integer partitionId) {
@@ -0,0 +1,106 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.Host;
+import com.liveramp.hank.coordinator.HostAddress;
+
+/**
+ * Immutable snapshot of the smart client's connection cache. Connection pools are
+ * indexed by domain id and partition number in arrays so that requests can be
+ * routed without locking or map lookups. A new snapshot is built and published
+ * on every connection cache update.
+ */
+final class RoutingTable {
+
+  static final RoutingTable EMPTY = new RoutingTable(
+      Collections.<HostAddress, HostConnectionPool>emptyMap(),
+      Collections.<Host, HostConnectionPool>emptyMap(),
+      Collections.<Integer, Domain>emptyMap(),
+      Collections.<Integer, Map<Integer, HostConnectionPool>>emptyMap());
+
+  private final Map<HostAddress, HostConnectionPool> partitionServerAddressToConnectionPool;
+  private final Map<Host, HostConnectionPool> hostToConnectionPool;
+  private final Map<String, Domain> nameToDomain;
+  // Indexed by domain id then partition number, null when there is no connection pool
+  private final HostConnectionPool[][] domainToPartitionToConnectionPool;
+
+  RoutingTable(Map<HostAddress, HostConnectionPool> partitionServerAddressToConnectionPool,
+               Map<Host, HostConnectionPool> hostToConnectionPool,
+               Map<Integer, Domain> idToDomain,
+               Map<Integer, Map<Integer, HostConnectionPool>> domainToPartitionToConnectionPool) {
+    this.partitionServerAddressToConnectionPool = Collections.unmodifiableMap(
+        new HashMap<HostAddress, HostConnectionPool>(partitionServerAddressToConnectionPool));
+    this.hostToConnectionPool = Collections.unmodifiableMap(
+        new HashMap<Host, HostConnectionPool>(hostToConnectionPool));
+
+    this.nameToDomain = new HashMap<String, Domain>();
+    for (Domain domain : idToDomain.values()) {
+      nameToDomain.put(domain.getName(), domain);
+    }
+
+    int maxDomainId = -1;
+    for (Integer domainId : domainToPartitionToConnectionPool.keySet()) {
+      maxDomainId = Math.max(maxDomainId, domainId);
+    }
+    this.domainToPartitionToConnectionPool = new HostConnectionPool[maxDomainId + 1][];
+    for (Map.Entry<Integer, Map<Integer, HostConnectionPool>> entry : domainToPartitionToConnectionPool.entrySet()) {
+      if (entry.getKey() < 0) {
+        continue;
+      }
+      // Size the array so that any partition number computed for the domain is in bounds
+      Domain domain = idToDomain.get(entry.getKey());
+      int numPartitions = domain == null ? 0 : domain.getNumParts();
+      for (Integer partition : entry.getValue().keySet()) {
+        numPartitions = Math.max(numPartitions, partition + 1);
+      }
+      HostConnectionPool[] partitionToConnectionPool = new HostConnectionPool[numPartitions];
+      for (Map.Entry<Integer, HostConnectionPool> partitionEntry : entry.getValue().entrySet()) {
+        if (partitionEntry.getKey() >= 0) {
+          partitionToConnectionPool[partitionEntry.getKey()] = partitionEntry.getValue();
+        }
+      }
+      this.domainToPartitionToConnectionPool[entry.getKey()] = partitionToConnectionPool;
+    }
+  }
+
+  Map<HostAddress, HostConnectionPool> getPartitionServerAddressToConnectionPool() {
+    return partitionServerAddressToConnectionPool;
+  }
+
+  Map<Host, HostConnectionPool> getHostToConnectionPool() {
+    return hostToConnectionPool;
+  }
+
+  // Return the domain of the given name if it is served by any host, null otherwise
+  Domain getDomain(String domainName) {
+    return nameToDomain.get(domainName);
+  }
+
+  // Return the connection pools of the given domain indexed by partition number, or null if there are none
+  HostConnectionPool[] getPartitionToConnectionPool(int domainId) {
+    if (domainId < 0 || domainId >= domainToPartitionToConnectionPool.length) {
+      return null;
+    }
+    return domainToPartitionToConnectionPool[domainId];
+  }
+}
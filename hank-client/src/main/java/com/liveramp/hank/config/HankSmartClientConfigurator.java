@@ -34,4 +34,8 @@ public interface HankSmartClientConfigurator extends CoordinatorConfigurator {
 
   public EnvironmentValue getPreferredServerEnvironment();
 
+  public boolean getPipelinedConnections();
+
+  public boolean getCoalesceRequests();
+
 }
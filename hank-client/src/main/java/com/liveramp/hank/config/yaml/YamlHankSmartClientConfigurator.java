@@ -33,6 +33,8 @@ public class YamlHankSmartClientConfigurator extends YamlCoordinatorConfigurator
   private static final String QUERY_TIMEOUT_MS_KEY = "query_timeout_ms";
   private static final String BULK_QUERY_TIMEOUT_MS_KEY = "bulk_query_timeout_ms";
   private static final String PREFERRED_ENVIRONMENT_KEY = "preferred_environment_key";
+  private static final String PIPELINED_CONNECTIONS_KEY = "pipelined_connections";
+  private static final String COALESCE_REQUESTS_KEY = "coalesce_requests";
 
   public YamlHankSmartClientConfigurator(String configurationPath) throws FileNotFoundException, InvalidConfigurationException {
     super(configurationPath);
@@ -96,4 +98,16 @@ public class YamlHankSmartClientConfigurator extends YamlCoordinatorConfigurator
 
     return new EnvironmentValue(key, System.getenv(key));
   }
+
+  @Override
+  public boolean getPipelinedConnections() {
+    Object pipelinedConnections = getOptionalObject(HANK_SMART_CLIENT_SECTION_KEY, PIPELINED_CONNECTIONS_KEY);
+    return pipelinedConnections != null && (Boolean)pipelinedConnections;
+  }
+
+  @Override
+  public boolean getCoalesceRequests() {
+    Object coalesceRequests = getOptionalObject(HANK_SMART_CLIENT_SECTION_KEY, COALESCE_REQUESTS_KEY);
+    return coalesceRequests != null && (Boolean)coalesceRequests;
+  }
 }
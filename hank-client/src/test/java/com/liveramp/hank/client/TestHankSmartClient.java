@@ -63,6 +63,7 @@ import com.liveramp.hank.test.coordinator.MockRingGroup;
 import com.liveramp.hank.test.partitioner.MapPartitioner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -85,12 +86,13 @@ public class TestHankSmartClient extends BaseTestCase {
 
   private static class MockPartitionServerHandler implements PartitionServer.Iface {
     private final HankResponse response;
-    private final HankBulkResponse bulkResponse;
     private Mode mode = Mode.NORMAL;
     private int numRequests = 0;
+    private int numBulkRequests = 0;
 
     private static enum Mode {
       NORMAL,
+      SLOW,
       HANGING,
       FAILING,
       THROWING_ERROR
@@ -98,35 +100,46 @@ public class TestHankSmartClient extends BaseTestCase {
 
     public MockPartitionServerHandler(ByteBuffer result) {
       this.response = HankResponse.value(result);
-      List<HankResponse> responses = new ArrayList<HankResponse>();
-      responses.add(HankResponse.value(result));
-      this.bulkResponse = HankBulkResponse.responses(responses);
     }
 
     @Override
     public HankResponse get(int domainId, ByteBuffer key) {
       applyMode();
       ++numRequests;
-      if (key.equals(KEY_NOT_FOUND)) {
-        return HankResponse.not_found(true);
-      } else {
-        return response;
-      }
+      return getResponse(key);
     }
 
     @Override
     public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) {
       applyMode();
       numRequests += keys.size();
-      return bulkResponse;
+      ++numBulkRequests;
+      List<HankResponse> responses = new ArrayList<HankResponse>();
+      for (ByteBuffer key : keys) {
+        responses.add(getResponse(key));
+      }
+      return HankBulkResponse.responses(responses);
+    }
+
+    private HankResponse getResponse(ByteBuffer key) {
+      if (key.equals(KEY_NOT_FOUND)) {
+        return HankResponse.not_found(true);
+      } else {
+        return response;
+      }
     }
 
     public int getNumRequests() {
       return numRequests;
     }
 
+    public int getNumBulkRequests() {
+      return numBulkRequests;
+    }
+
     public void clearNumRequests() {
       numRequests = 0;
+      numBulkRequests = 0;
     }
 
     public void setMode(Mode mode) {
@@ -135,6 +148,13 @@ public class TestHankSmartClient extends BaseTestCase {
 
     private void applyMode() {
       switch (mode) {
+        case SLOW:
+          try {
+            Thread.sleep(500);
+          } catch (InterruptedException e) {
+
+          }
+          break;
         case HANGING:
           // Simulating hanging
           try {
@@ -254,6 +274,15 @@ public class TestHankSmartClient extends BaseTestCase {
               .setResponseCacheNumItemsCapacity(1)
               .setResponseCacheNumBytesCapacity(-1)
               .setResponseCacheExpirationSeconds(1));
+      final HankSmartClient coalescingClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions()
+              .setQueryTimeoutMs(5000)
+              .setCoalesceRequests(true));
+      final HankSmartClient pipelinedCoalescingClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions()
+              .setQueryTimeoutMs(5000)
+              .setPipelinedConnections(true)
+              .setCoalesceRequests(true));
 
       // Test invalid get
       assertEquals(HankResponse.xception(HankException.no_such_domain(true)), client.get("nonexistent_domain", null));
@@ -274,6 +303,25 @@ public class TestHankSmartClient extends BaseTestCase {
       bulkRequest1.add(KEY_2);
       assertEquals(bulkResponse1, client.getBulk("existent_domain", bulkRequest1));
 
+      // Test getBulk sends a single request per host
+      iface1.clearNumRequests();
+      iface2.clearNumRequests();
+      HankBulkResponse bulkResponse2 = HankBulkResponse.responses(new ArrayList<>());
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_1));
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_2));
+      bulkResponse2.get_responses().add(HankResponse.not_found(true));
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_1));
+      List<ByteBuffer> bulkRequest2 = new ArrayList<>();
+      bulkRequest2.add(KEY_1);
+      bulkRequest2.add(KEY_2);
+      bulkRequest2.add(KEY_NOT_FOUND);
+      bulkRequest2.add(KEY_1);
+      assertEquals(bulkResponse2, client.getBulk("existent_domain", bulkRequest2));
+      assertEquals(3, iface1.getNumRequests());
+      assertEquals(1, iface1.getNumBulkRequests());
+      assertEquals(1, iface2.getNumRequests());
+      assertEquals(1, iface2.getNumBulkRequests());
+
       // Test get with null key
       try {
         client.get("existent_domain", null);
@@ -372,6 +420,45 @@ public class TestHankSmartClient extends BaseTestCase {
       assertEquals(HankResponse.not_found(true), cachingClient.get("existent_domain", KEY_NOT_FOUND));
       assertEquals(2, iface1.getNumRequests());
 
+      // Test coalescing of concurrent identical requests
+      iface1.setMode(MockPartitionServerHandler.Mode.SLOW);
+      iface1.clearNumRequests();
+
+      List<FutureGet> futureGets = new ArrayList<>();
+      for (int i = 0; i < 4; ++i) {
+        futureGets.add(coalescingClient.concurrentGet("existent_domain", KEY_1));
+      }
+      for (FutureGet futureGet : futureGets) {
+        assertEquals(HankResponse.value(VALUE_1), futureGet.getResponse());
+      }
+      assertEquals(1, iface1.getNumRequests());
+
+      // Completed requests are not coalesced with later ones
+      assertEquals(HankResponse.value(VALUE_1), coalescingClient.get("existent_domain", KEY_1));
+      assertEquals(2, iface1.getNumRequests());
+
+      // Test coalescing of concurrent identical requests on pipelined connections
+      iface1.clearNumRequests();
+      futureGets.clear();
+      for (int i = 0; i < 4; ++i) {
+        futureGets.add(pipelinedCoalescingClient.concurrentGet("existent_domain", KEY_1));
+      }
+      // Cancelling a coalesced request does not cancel the others
+      assertTrue(futureGets.get(0).cancel(false));
+      assertTrue(futureGets.get(0).isCancelled());
+      for (FutureGet futureGet : futureGets.subList(1, futureGets.size())) {
+        assertEquals(HankResponse.value(VALUE_1), futureGet.getResponse());
+        assertFalse(futureGet.isCancelled());
+      }
+      assertEquals(1, iface1.getNumRequests());
+
+      // Test sharing of a request in flight between asynchronous and synchronous callers
+      iface1.clearNumRequests();
+      FutureGet asyncGet = pipelinedCoalescingClient.concurrentGet("existent_domain", KEY_1);
+      assertEquals(HankResponse.value(VALUE_1), pipelinedCoalescingClient.get("existent_domain", KEY_1));
+      assertEquals(HankResponse.value(VALUE_1), asyncGet.getResponse());
+      assertEquals(1, iface1.getNumRequests());
+
     } finally {
       server1.stop();
       server2.stop();
@@ -19,8 +19,12 @@ package com.liveramp.hank.client;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 import org.apache.thrift.protocol.TCompactProtocol;
@@ -45,6 +49,7 @@ import com.liveramp.hank.test.coordinator.MockHost;
 import com.liveramp.hank.util.HankTimer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -244,6 +249,208 @@ public class TestHostConnection extends BaseTestCase {
     }
   }
 
+  @Test
+  public void testPipelinedQueries() throws Exception {
+
+    mockHost.setState(HostState.SERVING);
+
+    IfaceWithShutdown echoIface = new IfaceWithShutdown() {
+      @Override
+      public void shutDown() throws InterruptedException {
+      }
+
+      @Override
+      public HankResponse get(int domain_id, ByteBuffer key) {
+        return HankResponse.value(key);
+      }
+
+      @Override
+      public HankBulkResponse getBulk(int domain_id, List<ByteBuffer> keys) {
+        return RESPONSE_BULK_1;
+      }
+    };
+
+    // Start server
+    startMockPartitionServerThread(echoIface, 4);
+
+    final HostConnection connection = new HostConnection(mockHost, 1000, 1000, 1000, 1000, true);
+    assertTrue(connection.tryLockRespectingFairness());
+    assertFalse(connection.isLocked());
+
+    // Many concurrent queries share the same connection and each receives its own response
+    final int numThreads = 8;
+    final int numQueriesPerThread = 100;
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < numThreads; ++i) {
+      final int threadId = i;
+      Thread thread = new Thread(() -> {
+        for (int j = 0; j < numQueriesPerThread; ++j) {
+          ByteBuffer key = ByteBuffer.wrap((threadId + "_" + j).getBytes());
+          try {
+            if (!HankResponse.value(key).equals(connection.get(0, key))) {
+              numErrors.incrementAndGet();
+            }
+          } catch (IOException e) {
+            numErrors.incrementAndGet();
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+    assertEquals(RESPONSE_BULK_1, connection.getBulk(0, Collections.singletonList(KEY_1)));
+
+    // Asynchronous queries notify their callback
+    final CountDownLatch latch = new CountDownLatch(1);
+    final HankResponse[] asyncResponse = new HankResponse[1];
+    connection.getAsync(0, KEY_1, new HostConnectionPipeline.Callback<HankResponse>() {
+      @Override
+      public void onComplete(HankResponse response) {
+        asyncResponse[0] = response;
+        latch.countDown();
+      }
+
+      @Override
+      public void onError(IOException e) {
+        latch.countDown();
+      }
+    });
+    latch.await();
+    assertEquals(RESPONSE_1, asyncResponse[0]);
+    assertFalse(connection.isLocked());
+  }
+
+  @Test
+  public void testPipelinedGetTimeout() throws IOException, InterruptedException {
+
+    mockHost.setState(HostState.SERVING);
+
+    // The server stops answering GETs until released
+    final CountDownLatch answerLatch = new CountDownLatch(1);
+    IfaceWithShutdown hangingIface = new IfaceWithShutdown() {
+      @Override
+      public void shutDown() throws InterruptedException {
+      }
+
+      @Override
+      public HankResponse get(int domain_id, ByteBuffer key) {
+        try {
+          answerLatch.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return RESPONSE_1;
+      }
+
+      @Override
+      public HankBulkResponse getBulk(int domain_id, List<ByteBuffer> keys) {
+        return RESPONSE_BULK_1;
+      }
+    };
+
+    // Start server
+    startMockPartitionServerThread(hangingIface, 4);
+
+    final HostConnection connection = new HostConnection(mockHost, 1000, 1000, 100, 5000, true);
+    try {
+      // Concurrent GETs on the same connection all fail with the first timeout
+      final int numQueries = 4;
+      final CountDownLatch errorsLatch = new CountDownLatch(numQueries);
+      final List<IOException> errors = Collections.synchronizedList(new ArrayList<IOException>());
+      HankTimer timer = new HankTimer();
+      for (int i = 0; i < numQueries; ++i) {
+        connection.getAsync(0, KEY_1, new HostConnectionPipeline.Callback<HankResponse>() {
+          @Override
+          public void onComplete(HankResponse response) {
+          }
+
+          @Override
+          public void onError(IOException e) {
+            errors.add(e);
+            errorsLatch.countDown();
+          }
+        });
+      }
+      assertTrue(errorsLatch.await(1000, TimeUnit.MILLISECONDS));
+      long duration = timer.getDuration() / 1000000L;
+      LOG.info("Took " + duration + "ms");
+      assertTrue(duration < 1000);
+      for (IOException e : errors) {
+        assertTrue(e.getMessage().startsWith("Exceeded timeout of 100ms"));
+      }
+      // The connection was closed and nothing is pending on it anymore
+      assertFalse(connection.isLocked());
+
+      // The next query establishes a new connection
+      answerLatch.countDown();
+      assertEquals(RESPONSE_1, connection.get(0, KEY_1));
+    } finally {
+      answerLatch.countDown();
+      connection.disconnect();
+    }
+  }
+
+  @Test
+  public void testPipelinedGetBulkDoesNotDelayGets() throws Exception {
+
+    mockHost.setState(HostState.SERVING);
+
+    IfaceWithShutdown slowBulkIface = new IfaceWithShutdown() {
+      @Override
+      public void shutDown() throws InterruptedException {
+      }
+
+      @Override
+      public HankResponse get(int domain_id, ByteBuffer key) {
+        return RESPONSE_1;
+      }
+
+      @Override
+      public HankBulkResponse getBulk(int domain_id, List<ByteBuffer> keys) {
+        try {
+          Thread.sleep(1000);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return RESPONSE_BULK_1;
+      }
+    };
+
+    // Start server
+    startMockPartitionServerThread(slowBulkIface, 4);
+
+    final HostConnection connection = new HostConnection(mockHost, 1000, 1000, 200, 5000, true);
+    final HankBulkResponse[] bulkResponse = new HankBulkResponse[1];
+    Thread bulkThread = new Thread(() -> {
+      try {
+        bulkResponse[0] = connection.getBulk(0, Collections.singletonList(KEY_1));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    bulkThread.start();
+    WaitUntil.orDie(connection::isLocked);
+
+    // GETs complete within their timeout while the bulk query is being processed
+    HankTimer timer = new HankTimer();
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(RESPONSE_1, connection.get(0, KEY_1));
+    }
+    long duration = timer.getDuration() / 1000000L;
+    LOG.info("Took " + duration + "ms");
+    assertTrue(duration < 200);
+    assertTrue(bulkThread.isAlive());
+
+    bulkThread.join();
+    assertEquals(RESPONSE_BULK_1, bulkResponse[0]);
+    connection.disconnect();
+  }
+
   public static class MockPartitionServer implements Runnable {
 
     private final IfaceWithShutdown handler;
@@ -26,6 +26,7 @@ import com.liveramp.hank.test.BaseTestCase;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestYamlHankSmartClientConfigurator extends BaseTestCase {
   private final String configPath = localTmpDir + "/config.yml";
@@ -46,6 +47,8 @@ public class TestYamlHankSmartClientConfigurator extends BaseTestCase {
     pw.println("  query_timeout_ms: 42");
     pw.println("  bulk_query_timeout_ms: 142");
     pw.println("  preferred_environment_key: PATH");
+    pw.println("  pipelined_connections: true");
+    pw.println("  coalesce_requests: true");
 
     pw.close();
 
@@ -58,6 +61,8 @@ public class TestYamlHankSmartClientConfigurator extends BaseTestCase {
     assertEquals(100, conf.getEstablishConnectionTimeoutMs());
     assertEquals(42, conf.getQueryTimeoutMs());
     assertEquals(142, conf.getBulkQueryTimeoutMs());
+    assertTrue(conf.getPipelinedConnections());
+    assertTrue(conf.getCoalesceRequests());
 
     EnvironmentValue env = conf.getPreferredServerEnvironment();
     assertEquals("PATH", env.getKey());
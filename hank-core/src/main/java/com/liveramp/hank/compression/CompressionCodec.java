@@ -17,7 +17,9 @@
 package com.liveramp.hank.compression;
 
 import com.liveramp.hank.compression.deflate.DeflateCompressionFactory;
+import com.liveramp.hank.compression.lz4.Lz4CompressionFactory;
 import com.liveramp.hank.compression.none.SlowNoCompressionCompressionFactory;
+import com.liveramp.hank.compression.snappy.RawSnappyCompressionFactory;
 import com.liveramp.hank.compression.snappy.SnappyCompressionFactory;
 import com.liveramp.hank.compression.zip.GzipCompressionFactory;
 
@@ -25,6 +27,9 @@ public enum CompressionCodec {
   DEFLATE,
   GZIP,
   SNAPPY,
+  // Array to array codecs, blocks are compressed in a single call
+  RAW_SNAPPY,
+  LZ4,
   SLOW_NO_COMPRESSION;
 
   public CompressionFactory getFactory() {
@@ -35,6 +40,10 @@ public enum CompressionCodec {
         return new GzipCompressionFactory();
       case SNAPPY:
         return new SnappyCompressionFactory();
+      case RAW_SNAPPY:
+        return new RawSnappyCompressionFactory();
+      case LZ4:
+        return new Lz4CompressionFactory();
       case SLOW_NO_COMPRESSION:
         return new SlowNoCompressionCompressionFactory();
       default:
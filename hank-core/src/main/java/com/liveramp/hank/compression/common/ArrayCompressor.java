@@ -0,0 +1,73 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.common;
+
+import com.liveramp.hank.compression.Compressor;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compressor for codecs that compress a whole block in a single array to array call. The returned
+ * stream buffers the block and only writes it, compressed, when it is closed. Buffers are reused
+ * between blocks, so only one stream per compressor can be open at a time.
+ */
+public abstract class ArrayCompressor implements Compressor {
+
+  private final UnsafeByteArrayOutputStream uncompressedBlock = new UnsafeByteArrayOutputStream();
+  private byte[] compressedBlock = new byte[0];
+
+  @Override
+  public OutputStream getOutputStream(final OutputStream outputStream) {
+    uncompressedBlock.reset();
+    return new OutputStream() {
+
+      private boolean closed = false;
+
+      @Override
+      public void write(int b) {
+        uncompressedBlock.write(b);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        uncompressedBlock.write(bytes, offset, length);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        int maxCompressedLength = getMaxCompressedLength(uncompressedBlock.count());
+        if (compressedBlock.length < maxCompressedLength) {
+          compressedBlock = new byte[maxCompressedLength];
+        }
+        int compressedLength = compress(uncompressedBlock.array(), 0, uncompressedBlock.count(), compressedBlock, 0);
+        outputStream.write(compressedBlock, 0, compressedLength);
+        outputStream.close();
+      }
+    };
+  }
+
+  protected abstract int getMaxCompressedLength(int length);
+
+  // Return the compressed length
+  protected abstract int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) throws IOException;
+}
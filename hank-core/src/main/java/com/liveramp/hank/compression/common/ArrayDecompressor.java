@@ -0,0 +1,53 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.common;
+
+import com.liveramp.hank.compression.Decompressor;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decompressor for codecs that decompress array to array. Blocks are decompressed directly into the
+ * array of an UnsafeByteArrayOutputStream, without allocating streams or intermediate buffers.
+ */
+public abstract class ArrayDecompressor implements Decompressor {
+
+  // Only used for output streams that do not expose their array
+  private UnsafeByteArrayOutputStream decompressionBuffer;
+
+  @Override
+  public void decompressBlock(byte[] buffer, int offset, int length, OutputStream outputStream) throws IOException {
+    if (outputStream instanceof UnsafeByteArrayOutputStream) {
+      decompressBlockInto(buffer, offset, length, (UnsafeByteArrayOutputStream)outputStream);
+    } else {
+      if (decompressionBuffer == null) {
+        decompressionBuffer = new UnsafeByteArrayOutputStream();
+      }
+      decompressionBuffer.reset();
+      decompressBlockInto(buffer, offset, length, decompressionBuffer);
+      decompressionBuffer.writeTo(outputStream);
+    }
+  }
+
+  // Append the decompressed block to the given output stream, using allocate() and array()
+  protected abstract void decompressBlockInto(byte[] buffer,
+                                              int offset,
+                                              int length,
+                                              UnsafeByteArrayOutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,28 @@
+package com.liveramp.hank.compression.cueball;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+// Blocks are raw LZ4 blocks. They are decompressed without knowing their uncompressed length,
+// bounded by the space left in the destination.
+public class Lz4CueballCompressionCodec implements CueballCompressionCodec {
+
+  private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+  private static final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    return compressor.compress(src, srcOffset, srcLength, dst, dstOff, dst.length - dstOff);
+  }
+
+  @Override
+  public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    return decompressor.decompress(src, srcOffset, srcLength, dst, dstOff, dst.length - dstOff);
+  }
+
+  @Override
+  public int getMaxCompressBufferSize(int length) {
+    return compressor.maxCompressedLength(length);
+  }
+}
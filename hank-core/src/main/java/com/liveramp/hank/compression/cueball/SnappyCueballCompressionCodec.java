@@ -0,0 +1,30 @@
+package com.liveramp.hank.compression.cueball;
+
+import java.io.IOException;
+
+import org.xerial.snappy.Snappy;
+
+public class SnappyCueballCompressionCodec implements CueballCompressionCodec {
+  @Override
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    try {
+      return Snappy.compress(src, srcOffset, srcLength, dst, dstOff);
+    } catch (IOException e) {
+      throw new RuntimeException("Unexpected IOException while compressing!", e);
+    }
+  }
+
+  @Override
+  public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    try {
+      return Snappy.uncompress(src, srcOffset, srcLength, dst, dstOff);
+    } catch (IOException e) {
+      throw new RuntimeException("Unexpected IOException while decompressing!", e);
+    }
+  }
+
+  @Override
+  public int getMaxCompressBufferSize(int length) {
+    return Snappy.maxCompressedLength(length);
+  }
+}
@@ -0,0 +1,41 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import com.liveramp.hank.compression.common.ArrayCompressor;
+import com.liveramp.hank.util.EncodingHelper;
+import net.jpountz.lz4.LZ4Factory;
+
+// Blocks are a raw LZ4 block prefixed with its uncompressed length
+public class Lz4Compressor extends ArrayCompressor {
+
+  static final int UNCOMPRESSED_LENGTH_NUM_BYTES = 4;
+
+  private static final net.jpountz.lz4.LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+  @Override
+  protected int getMaxCompressedLength(int length) {
+    return UNCOMPRESSED_LENGTH_NUM_BYTES + compressor.maxCompressedLength(length);
+  }
+
+  @Override
+  protected int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+    EncodingHelper.encodeLittleEndianFixedWidthLong(srcLength, dst, dstOffset, UNCOMPRESSED_LENGTH_NUM_BYTES);
+    return UNCOMPRESSED_LENGTH_NUM_BYTES + compressor.compress(src, srcOffset, srcLength,
+        dst, dstOffset + UNCOMPRESSED_LENGTH_NUM_BYTES, dst.length - dstOffset - UNCOMPRESSED_LENGTH_NUM_BYTES);
+  }
+}
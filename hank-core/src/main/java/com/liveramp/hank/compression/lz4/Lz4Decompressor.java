@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.lz4;
+
+import com.liveramp.hank.compression.common.ArrayDecompressor;
+import com.liveramp.hank.util.EncodingHelper;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+
+import static com.liveramp.hank.compression.lz4.Lz4Compressor.UNCOMPRESSED_LENGTH_NUM_BYTES;
+
+public class Lz4Decompressor extends ArrayDecompressor {
+
+  // Blocks are read from disk and might be corrupt, decompression is bounded by both the compressed
+  // and the uncompressed length
+  private static final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+  @Override
+  protected void decompressBlockInto(byte[] buffer,
+                                     int offset,
+                                     int length,
+                                     UnsafeByteArrayOutputStream outputStream) throws IOException {
+    if (length < UNCOMPRESSED_LENGTH_NUM_BYTES) {
+      throw new IOException("Truncated LZ4 block of length " + length);
+    }
+    int uncompressedLength =
+        (int)EncodingHelper.decodeLittleEndianFixedWidthLong(buffer, offset, UNCOMPRESSED_LENGTH_NUM_BYTES);
+    if (uncompressedLength < 0) {
+      throw new IOException("Invalid uncompressed length " + uncompressedLength + " of LZ4 block");
+    }
+    int uncompressedOffset = outputStream.allocate(uncompressedLength);
+    try {
+      int decompressedLength = decompressor.decompress(buffer, offset + UNCOMPRESSED_LENGTH_NUM_BYTES,
+          length - UNCOMPRESSED_LENGTH_NUM_BYTES, outputStream.array(), uncompressedOffset, uncompressedLength);
+      if (decompressedLength != uncompressedLength) {
+        throw new IOException("LZ4 block of uncompressed length " + uncompressedLength + " only contained "
+            + decompressedLength + " uncompressed bytes");
+      }
+    } catch (LZ4Exception e) {
+      throw new IOException("Failed to decompress LZ4 block", e);
+    }
+  }
+}
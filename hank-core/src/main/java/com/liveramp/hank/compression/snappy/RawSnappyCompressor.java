@@ -0,0 +1,36 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.snappy;
+
+import com.liveramp.hank.compression.common.ArrayCompressor;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+// Blocks are compressed as a single raw Snappy chunk, without the framing of SnappyOutputStream
+public class RawSnappyCompressor extends ArrayCompressor {
+
+  @Override
+  protected int getMaxCompressedLength(int length) {
+    return Snappy.maxCompressedLength(length);
+  }
+
+  @Override
+  protected int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) throws IOException {
+    return Snappy.compress(src, srcOffset, srcLength, dst, dstOffset);
+  }
+}
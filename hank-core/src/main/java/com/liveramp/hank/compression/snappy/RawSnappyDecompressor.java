@@ -0,0 +1,53 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.snappy;
+
+import com.liveramp.hank.compression.common.ArrayDecompressor;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+public class RawSnappyDecompressor extends ArrayDecompressor {
+
+  // A Snappy copy element of at most 3 bytes expands to at most 64 bytes and literals do not expand,
+  // so a valid block never decompresses to more than this many bytes per compressed byte
+  private static final int MAX_EXPANSION_RATIO = 22;
+
+  @Override
+  protected void decompressBlockInto(byte[] buffer,
+                                     int offset,
+                                     int length,
+                                     UnsafeByteArrayOutputStream outputStream) throws IOException {
+    uncompress(buffer, offset, length, outputStream);
+  }
+
+  static void uncompress(byte[] buffer, int offset, int length, UnsafeByteArrayOutputStream outputStream) throws IOException {
+    // Blocks are read from disk and might be corrupt, do not trust their uncompressed length
+    int uncompressedLength = Snappy.uncompressedLength(buffer, offset, length);
+    if (uncompressedLength < 0 || uncompressedLength > (long)length * MAX_EXPANSION_RATIO) {
+      throw new IOException("Invalid uncompressed length " + uncompressedLength
+          + " of Snappy block of length " + length);
+    }
+    int uncompressedOffset = outputStream.allocate(uncompressedLength);
+    int decompressedLength = Snappy.uncompress(buffer, offset, length, outputStream.array(), uncompressedOffset);
+    if (decompressedLength != uncompressedLength) {
+      throw new IOException("Snappy block of uncompressed length " + uncompressedLength + " only contained "
+          + decompressedLength + " uncompressed bytes");
+    }
+  }
+}
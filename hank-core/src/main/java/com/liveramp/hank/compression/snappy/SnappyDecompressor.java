@@ -16,17 +16,69 @@
 
 package com.liveramp.hank.compression.snappy;
 
-import com.liveramp.hank.compression.common.StreamCopyDecompressor;
-import com.liveramp.hank.compression.Decompressor;
-import org.xerial.snappy.SnappyInputStream;
+import com.liveramp.hank.compression.common.ArrayDecompressor;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
 
 import java.io.IOException;
-import java.io.InputStream;
 
-public class SnappyDecompressor extends StreamCopyDecompressor implements Decompressor {
+/**
+ * Decompresses blocks written by SnappyOutputStream: a header followed by chunks, each prefixed with
+ * its compressed length as a big endian int. Chunks are decompressed directly into the output, the
+ * same way SnappyInputStream would read them.
+ */
+public class SnappyDecompressor extends ArrayDecompressor {
+
+  private static final byte[] MAGIC_HEADER = new byte[]{(byte)0x82, 'S', 'N', 'A', 'P', 'P', 'Y', 0};
+  // Magic header followed by version and compatible version ints
+  private static final int HEADER_SIZE = MAGIC_HEADER.length + 8;
+  private static final int CHUNK_LENGTH_SIZE = 4;
 
   @Override
-  protected InputStream getBlockDecompressionInputStream(InputStream inputStream) throws IOException {
-    return new SnappyInputStream(inputStream);
+  protected void decompressBlockInto(byte[] buffer,
+                                     int offset,
+                                     int length,
+                                     UnsafeByteArrayOutputStream outputStream) throws IOException {
+    if (length == 0) {
+      return;
+    }
+    int end = offset + length;
+    if (!hasHeader(buffer, offset, end)) {
+      // Not framed, the whole block is a single raw chunk
+      RawSnappyDecompressor.uncompress(buffer, offset, length, outputStream);
+      return;
+    }
+    int position = offset;
+    while (position < end) {
+      // Concatenated streams repeat the header
+      if (hasHeader(buffer, position, end)) {
+        position += HEADER_SIZE;
+        continue;
+      }
+      if (end - position < CHUNK_LENGTH_SIZE) {
+        throw new IOException("Truncated Snappy chunk length at offset " + (position - offset));
+      }
+      int chunkLength = ((buffer[position] & 0xff) << 24)
+          | ((buffer[position + 1] & 0xff) << 16)
+          | ((buffer[position + 2] & 0xff) << 8)
+          | (buffer[position + 3] & 0xff);
+      position += CHUNK_LENGTH_SIZE;
+      if (chunkLength < 0 || chunkLength > end - position) {
+        throw new IOException("Invalid Snappy chunk length " + chunkLength + " at offset " + (position - offset));
+      }
+      RawSnappyDecompressor.uncompress(buffer, position, chunkLength, outputStream);
+      position += chunkLength;
+    }
+  }
+
+  private static boolean hasHeader(byte[] buffer, int offset, int end) {
+    if (end - offset < HEADER_SIZE) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC_HEADER.length; ++i) {
+      if (buffer[offset + i] != MAGIC_HEADER[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 }
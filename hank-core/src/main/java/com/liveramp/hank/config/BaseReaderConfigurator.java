@@ -18,6 +18,8 @@ package com.liveramp.hank.config;
 
 import java.util.Set;
 
+import com.liveramp.hank.storage.OffHeapValueCache;
+
 public class BaseReaderConfigurator implements ReaderConfigurator {
 
   private final DataDirectoriesConfigurator dataDirectoriesConfigurator;
@@ -25,17 +27,28 @@ public class BaseReaderConfigurator implements ReaderConfigurator {
   private final long cacheNumItemsCapacity;
   private final int bufferReuseMaxSize;
   private final int numTotalPartitions;
+  private final OffHeapValueCache offHeapValueCache;
 
   public BaseReaderConfigurator(DataDirectoriesConfigurator dataDirectoriesConfigurator,
                                 long cacheNumBytesCapacity,
                                 long cacheNumItemsCapacity,
                                 int bufferReuseMaxSize,
                                 int numTotalPartitions) {
+    this(dataDirectoriesConfigurator, cacheNumBytesCapacity, cacheNumItemsCapacity, bufferReuseMaxSize, numTotalPartitions, null);
+  }
+
+  public BaseReaderConfigurator(DataDirectoriesConfigurator dataDirectoriesConfigurator,
+                                long cacheNumBytesCapacity,
+                                long cacheNumItemsCapacity,
+                                int bufferReuseMaxSize,
+                                int numTotalPartitions,
+                                OffHeapValueCache offHeapValueCache) {
     this.dataDirectoriesConfigurator = dataDirectoriesConfigurator;
     this.cacheNumBytesCapacity = cacheNumBytesCapacity;
     this.cacheNumItemsCapacity = cacheNumItemsCapacity;
     this.bufferReuseMaxSize = bufferReuseMaxSize;
     this.numTotalPartitions = numTotalPartitions;
+    this.offHeapValueCache = offHeapValueCache;
   }
 
   @Override
@@ -59,6 +72,11 @@ public class BaseReaderConfigurator implements ReaderConfigurator {
     return bufferReuseMaxSize;
   }
 
+  @Override
+  public OffHeapValueCache getOffHeapValueCache() {
+    return offHeapValueCache;
+  }
+
   @Override
   public Set<String> getDataDirectories() {
     return dataDirectoriesConfigurator.getDataDirectories();
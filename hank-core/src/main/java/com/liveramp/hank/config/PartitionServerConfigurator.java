@@ -18,6 +18,8 @@ package com.liveramp.hank.config;
 
 import java.util.Map;
 
+import com.liveramp.hank.storage.OffHeapValueCache;
+
 public interface PartitionServerConfigurator extends CoordinatorConfigurator, ReaderConfigurator {
 
   public int getServicePort();
@@ -28,17 +30,42 @@ public interface PartitionServerConfigurator extends CoordinatorConfigurator, Re
 
   public int getMaxConcurrentUpdatesPerDataDirectory();
 
+  // Maximum number of remote file streams copied concurrently into each data directory, chunks of a file counting
+  // as separate streams, unlimited when not positive
+  public int getMaxConcurrentFetchesPerDataDirectory();
+
+  // Number of versions of a partition fetched concurrently during an update
+  public int getNumConcurrentFetchesPerPartition();
+
+  // Maximum rate of bytes fetched from remote files by all updates, unlimited when not positive
+  public long getMaxFetchBytesPerSecond();
+
+  // Maximum rate of bytes written to data directories by all updates, unlimited when not positive
+  public long getMaxWriteBytesPerSecond();
+
   public int getNumConcurrentQueries();
 
   public int getNumConcurrentGetBulkTasks();
 
   public int getGetBulkTaskSize();
 
+  // Maximum number of GET BULK requests served concurrently, unlimited when not positive.
+  // Requests above the limit are rejected so that query threads remain available for GET requests.
+  public int getMaxConcurrentGetBulkRequests();
+
   public int getGetTimerAggregatorWindow();
 
   public long getUpdateFailureCooldown();
 
+  // Update partitions while serving, and swap their Readers once updated
+  public boolean getOnlineUpdates();
+
   public Map<String, String> getEnvironmentFlags();
 
-  public ReaderConfigurator getReaderConfigurator(int numTotalPartitions);
+  // Total capacity of the value cache shared by all readers, which is disabled when not positive
+  public long getOffHeapCacheNumBytesCapacity();
+
+  public long getOffHeapCacheNumItemsCapacity();
+
+  public ReaderConfigurator getReaderConfigurator(int numTotalPartitions, OffHeapValueCache offHeapValueCache);
 }
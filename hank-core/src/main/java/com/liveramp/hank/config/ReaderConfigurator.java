@@ -16,6 +16,8 @@
 
 package com.liveramp.hank.config;
 
+import com.liveramp.hank.storage.OffHeapValueCache;
+
 public interface ReaderConfigurator extends DataDirectoriesConfigurator {
 
   public long getCacheNumBytesCapacity();
@@ -23,4 +25,7 @@ public interface ReaderConfigurator extends DataDirectoriesConfigurator {
   public long getCacheNumItemsCapacity();
 
   public int getBufferReuseMaxSize();
+
+  // Value cache shared by all readers of a partition server, null when disabled
+  public OffHeapValueCache getOffHeapValueCache();
 }
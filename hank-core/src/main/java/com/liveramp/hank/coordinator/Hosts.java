@@ -324,7 +324,8 @@ public final class Hosts {
         if (statistics.length() == 0) {
           continue;
         }
-        String[] tokens = statistics.split("\t");
+        // Runtime statistics themselves can contain tabs
+        String[] tokens = statistics.split("\t", 2);
         int domainId = Integer.parseInt(tokens[0]);
         result.put(coordinator.getDomainById(domainId), RuntimeStatisticsAggregator.parse(tokens[1]));
       }
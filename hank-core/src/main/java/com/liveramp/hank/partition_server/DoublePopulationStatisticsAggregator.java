@@ -17,18 +17,22 @@
 package com.liveramp.hank.partition_server;
 
 import java.text.DecimalFormat;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Random;
 
 import com.google.common.collect.Lists;
 
 import com.liveramp.hank.generated.LatencySampleSummary;
+import com.liveramp.hank.util.LogLinearHistogram;
 
+/**
+ * Statistics of a population of durations in milliseconds. The distribution of values is kept in a
+ * histogram with a resolution of a microsecond, which merges exactly across aggregators.
+ */
 public class DoublePopulationStatisticsAggregator {
 
-  private static int POPULATION_RANDOM_SAMPLE_MAX_SIZE = 100;
+  // Histogram values are population values times this resolution
+  public static final double HISTOGRAM_VALUE_RESOLUTION = 1000;
 
   private static DecimalFormat format3 = new DecimalFormat("#.###");
   private static DecimalFormat format1 = new DecimalFormat("#.#");
@@ -38,13 +42,13 @@ public class DoublePopulationStatisticsAggregator {
   private double maximum;
   private long numValues;
   private double total;
-  private final ReservoirSample reservoirSample = new ReservoirSample(POPULATION_RANDOM_SAMPLE_MAX_SIZE);
-  private final Random random = new Random();
+  private final LogLinearHistogram histogram = new LogLinearHistogram();
 
   public DoublePopulationStatisticsAggregator() {
     clear();
   }
 
+  // Build statistics from a random sample of values
   public DoublePopulationStatisticsAggregator(double minimum,
                                               double maximum,
                                               long numValues,
@@ -54,7 +58,21 @@ public class DoublePopulationStatisticsAggregator {
     this.maximum = maximum;
     this.numValues = numValues;
     this.total = total;
-    this.reservoirSample.sample(randomSample, random);
+    for (double value : randomSample) {
+      histogram.record(toHistogramValue(value));
+    }
+  }
+
+  public DoublePopulationStatisticsAggregator(double minimum,
+                                              double maximum,
+                                              long numValues,
+                                              double total,
+                                              LogLinearHistogram histogram) {
+    this.minimum = minimum;
+    this.maximum = maximum;
+    this.numValues = numValues;
+    this.total = total;
+    this.histogram.add(histogram);
   }
 
   public void clear() {
@@ -62,10 +80,14 @@ public class DoublePopulationStatisticsAggregator {
     maximum = Double.MIN_VALUE;
     numValues = 0;
     total = 0.0;
-    reservoirSample.clear();
+    histogram.clear();
   }
 
-  public void aggregate(double minimum, double maximum, long numValues, double total, double[] values) {
+  public static long toHistogramValue(double value) {
+    return Math.round(value * HISTOGRAM_VALUE_RESOLUTION);
+  }
+
+  public void aggregate(double minimum, double maximum, long numValues, double total, LogLinearHistogram histogram) {
     if (maximum > this.maximum) {
       this.maximum = maximum;
     }
@@ -74,35 +96,15 @@ public class DoublePopulationStatisticsAggregator {
     }
     this.numValues += numValues;
     this.total += total;
-    this.reservoirSample.sample(values, random);
+    this.histogram.add(histogram);
   }
 
   public static DoublePopulationStatisticsAggregator
   combine(Collection<DoublePopulationStatisticsAggregator> aggregators) {
-    Random random = new Random();
     DoublePopulationStatisticsAggregator result = new DoublePopulationStatisticsAggregator();
     for (DoublePopulationStatisticsAggregator aggregator : aggregators) {
-      if (aggregator.maximum > result.maximum) {
-        result.maximum = aggregator.maximum;
-      }
-      if (aggregator.minimum < result.minimum) {
-        result.minimum = aggregator.minimum;
-      }
-      result.numValues += aggregator.numValues;
-      result.total += aggregator.total;
-    }
-    // Now we can create a stream of values based on a
-    // random sample of the aggregators reservoirs but
-    // with the number of values in their streams a weight
-    // and reservoir sample that. This assumes that all given reservoirs
-    // have the same size.
-    for (DoublePopulationStatisticsAggregator aggregator : aggregators) {
-      double ratio = (double) aggregator.numValues / (double) result.numValues;
-      for (double value : aggregator.reservoirSample.getReservoir()) {
-        if ((Math.abs(random.nextDouble()) / Double.MAX_VALUE) < ratio) {
-          result.reservoirSample.sample(value, random);
-        }
-      }
+      result.aggregate(aggregator.minimum, aggregator.maximum, aggregator.numValues, aggregator.total,
+          aggregator.histogram);
     }
     return result;
   }
@@ -129,16 +131,48 @@ public class DoublePopulationStatisticsAggregator {
     }
   }
 
+  // Percentile in [0, 100], 0 if there are no values
+  public double getPercentile(double percentile) {
+    if (histogram.getTotalCount() == 0) {
+      return 0;
+    }
+    return toPopulationValue(histogram.getValueAtQuantile(percentile / 100));
+  }
+
+  private double toPopulationValue(double histogramValue) {
+    double value = histogramValue / HISTOGRAM_VALUE_RESOLUTION;
+    // Bucket middles can fall outside of the known range of values
+    if (getMaximum() != null && value > maximum) {
+      value = maximum;
+    }
+    if (getMinimum() != null && value < minimum) {
+      value = minimum;
+    }
+    return value;
+  }
+
+  // Values of evenly spaced ranks of the sorted population, including the first and the last one
+  private double[] getSample(int maxNumValues) {
+    long numHistogramValues = histogram.getTotalCount();
+    int numSampleValues = (int)Math.min(maxNumValues, numHistogramValues);
+    double[] result = new double[numSampleValues];
+    int bucketIndex = 0;
+    long count = histogram.getBucketCount(0);
+    for (int i = 0; i < numSampleValues; ++i) {
+      long index = numSampleValues == 1 ? 0 : i * (numHistogramValues - 1) / (numSampleValues - 1);
+      while (count <= index) {
+        count += histogram.getBucketCount(++bucketIndex);
+      }
+      result[i] = toPopulationValue((LogLinearHistogram.getBucketLowerBound(bucketIndex)
+          + LogLinearHistogram.getBucketUpperBound(bucketIndex)) / 2.0);
+    }
+    return result;
+  }
+
   public double[] computeDeciles() {
     double[] result = new double[9];
-    Arrays.fill(result, 0.0);
-    if (reservoirSample.getSize() > 0) {
-      // Sort valid reservoir values first
-      Arrays.sort(reservoirSample.getReservoir(), 0, reservoirSample.getSize());
-      // Compute deciles
-      for (int i = 0; i < 9; ++i) {
-        result[i] = getSortedPopulationDecile(reservoirSample.getReservoir(), i + 1, reservoirSample.getSize());
-      }
+    for (int i = 0; i < 9; ++i) {
+      result[i] = getPercentile((i + 1) * 10);
     }
     return result;
   }
@@ -162,6 +196,10 @@ public class DoublePopulationStatisticsAggregator {
     return summary;
   }
 
+  // Number of values written by toString(), which older versions read as a random sample of the population
+  public static final int NUM_SAMPLE_VALUES = 100;
+
+  // Values are a sample of the histogram taken at evenly spaced ranks
   public static String toString(DoublePopulationStatisticsAggregator populationStatistics) {
     StringBuilder result = new StringBuilder();
     result.append(populationStatistics.minimum);
@@ -171,13 +209,58 @@ public class DoublePopulationStatisticsAggregator {
     result.append(populationStatistics.numValues);
     result.append(' ');
     result.append(populationStatistics.total);
-    for (int i = 0; i < populationStatistics.reservoirSample.getSize(); ++i) {
+    for (double value : populationStatistics.getSample(NUM_SAMPLE_VALUES)) {
       result.append(' ');
-      result.append(populationStatistics.reservoirSample.getReservoir()[i]);
+      result.append(value);
     }
     return result.toString();
   }
 
+  // Non empty histogram buckets are written as comma separated index:count
+  public static String toHistogramString(DoublePopulationStatisticsAggregator populationStatistics) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < LogLinearHistogram.NUM_BUCKETS; ++i) {
+      long count = populationStatistics.histogram.getBucketCount(i);
+      if (count != 0) {
+        if (result.length() > 0) {
+          result.append(',');
+        }
+        result.append(i);
+        result.append(':');
+        result.append(count);
+      }
+    }
+    return result.toString();
+  }
+
+  // Parse the output of toString() from the given token, values are recorded in the histogram
+  public static DoublePopulationStatisticsAggregator parse(String[] tokens, int offset) {
+    return parse(tokens, offset, null);
+  }
+
+  // Parse the output of toString() from the given token. When the output of toHistogramString() is given,
+  // the histogram is read from it and the sample values are ignored.
+  public static DoublePopulationStatisticsAggregator parse(String[] tokens, int offset, String histogramString) {
+    LogLinearHistogram histogram = new LogLinearHistogram();
+    if (histogramString == null) {
+      for (int i = offset + 4; i < tokens.length; ++i) {
+        histogram.record(toHistogramValue(Double.parseDouble(tokens[i])));
+      }
+    } else if (histogramString.length() > 0) {
+      for (String bucket : histogramString.split(",")) {
+        int separator = bucket.indexOf(':');
+        histogram.addToBucket(Integer.parseInt(bucket.substring(0, separator)),
+            Long.parseLong(bucket.substring(separator + 1)));
+      }
+    }
+    return new DoublePopulationStatisticsAggregator(
+        Double.parseDouble(tokens[offset]),
+        Double.parseDouble(tokens[offset + 1]),
+        Long.parseLong(tokens[offset + 2]),
+        Double.parseDouble(tokens[offset + 3]),
+        histogram);
+  }
+
   public static String formatDouble(double value) {
     if (value < 1) {
       return format3.format(value);
@@ -189,12 +272,11 @@ public class DoublePopulationStatisticsAggregator {
   }
 
   public String format() {
-    double[] deciles = computeDeciles();
     StringBuilder result = new StringBuilder();
     // Compute median
-    double median = numValues == 0 ? 0 : deciles[4];
+    double median = numValues == 0 ? 0 : getPercentile(50);
     // Compute 90% percentile
-    double ninetiethPercentile = numValues == 0 ? 0 : deciles[8];
+    double ninetiethPercentile = numValues == 0 ? 0 : getPercentile(90);
     result.append(formatDouble(getMean()));
     result.append(" / ");
     result.append(formatDouble(median));
@@ -204,54 +286,6 @@ public class DoublePopulationStatisticsAggregator {
     return result.toString();
   }
 
-  public class ReservoirSample {
-
-    private final double[] reservoir;
-    private int size;
-    private int count;
-
-    public ReservoirSample(int reservoirMaxSize) {
-      reservoir = new double[reservoirMaxSize];
-      clear();
-    }
-
-    public void sample(double[] values, Random random) {
-      for (double value : values) {
-        sample(value, random);
-      }
-    }
-
-    public void sample(double value, Random random) {
-      if (count < reservoir.length) {
-        reservoir[size++] = value;
-      } else {
-        if (random.nextInt(count) < reservoir.length) {
-          reservoir[random.nextInt(reservoir.length)] = value;
-        }
-      }
-      ++count;
-    }
-
-    public void sample(ReservoirSample other, Random random) {
-      for (int i = 0; i < other.getSize(); ++i) {
-        sample(other.getReservoir()[i], random);
-      }
-    }
-
-    public double[] getReservoir() {
-      return reservoir;
-    }
-
-    public int getSize() {
-      return size;
-    }
-
-    public void clear() {
-      size = 0;
-      count = 0;
-    }
-  }
-
   public static double getSortedPopulationDecile(double[] population, int decile, int endIndex) {
     return getInterpolatedValueAtIndex(population, getDecileIndex(endIndex, decile));
   }
@@ -24,6 +24,8 @@ public class PartitionUpdateTaskStatistics {
   private long startTimeMs;
   private long endTimeMs;
   private final Map<String, Long> durationsMs;
+  private long numBytesFetched;
+  private long numBytesWritten;
 
   public PartitionUpdateTaskStatistics() {
     this.durationsMs = new HashMap<String, Long>();
@@ -48,4 +50,20 @@ public class PartitionUpdateTaskStatistics {
   public Map<String, Long> getDurationsMs() {
     return durationsMs;
   }
+
+  public long getNumBytesFetched() {
+    return numBytesFetched;
+  }
+
+  public void addNumBytesFetched(long numBytes) {
+    numBytesFetched += numBytes;
+  }
+
+  public long getNumBytesWritten() {
+    return numBytesWritten;
+  }
+
+  public void addNumBytesWritten(long numBytes) {
+    numBytesWritten += numBytes;
+  }
 }
@@ -18,7 +18,9 @@ package com.liveramp.hank.partition_server;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
@@ -160,7 +162,48 @@ public class RuntimeStatisticsAggregator {
   }
 
 
+  // Runtime statistics are written as two tab separated fields. The first one keeps the original layout, which
+  // older versions parse by position. Statistics added since are only written to the second field, which older
+  // versions ignore. It starts with a version marker, followed by key=value tokens. Readers use zero for keys
+  // that are missing and ignore keys they do not know, so that statistics can be added without breaking them.
+  private static final String EXTENDED_STATISTICS_VERSION_MARKER = "v1";
+  private static final String NUM_MAPPED_BYTES_KEY = "mapped_bytes";
+  private static final String NUM_BLOCK_CACHE_HITS_KEY = "block_cache_hits";
+  private static final String NUM_BLOCK_CACHE_MISSES_KEY = "block_cache_misses";
+  private static final String NUM_KEY_HASH_FILTER_NEGATIVES_KEY = "key_hash_filter_negatives";
+  private static final String NUM_KEY_HASH_FILTER_FALSE_POSITIVES_KEY = "key_hash_filter_false_positives";
+  private static final String GET_REQUESTS_HISTOGRAM_KEY = "get_requests_histogram";
+
   public static String toString(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
+    return toOriginalString(runtimeStatisticsAggregator) + '\t' + toExtendedString(runtimeStatisticsAggregator);
+  }
+
+  private static String toExtendedString(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
+    StringBuilder result = new StringBuilder(EXTENDED_STATISTICS_VERSION_MARKER);
+    appendExtendedStatistic(result, NUM_MAPPED_BYTES_KEY,
+        runtimeStatisticsAggregator.cacheStatisticsTotal.getNumMappedBytes());
+    appendExtendedStatistic(result, NUM_BLOCK_CACHE_HITS_KEY,
+        runtimeStatisticsAggregator.cacheStatisticsTotal.getNumBlockCacheHits());
+    appendExtendedStatistic(result, NUM_BLOCK_CACHE_MISSES_KEY,
+        runtimeStatisticsAggregator.cacheStatisticsTotal.getNumBlockCacheMisses());
+    appendExtendedStatistic(result, NUM_KEY_HASH_FILTER_NEGATIVES_KEY,
+        runtimeStatisticsAggregator.cacheStatisticsTotal.getNumKeyHashFilterNegatives());
+    appendExtendedStatistic(result, NUM_KEY_HASH_FILTER_FALSE_POSITIVES_KEY,
+        runtimeStatisticsAggregator.cacheStatisticsTotal.getNumKeyHashFilterFalsePositives());
+    appendExtendedStatistic(result, GET_REQUESTS_HISTOGRAM_KEY,
+        DoublePopulationStatisticsAggregator.toHistogramString(
+            runtimeStatisticsAggregator.getRequestsPopulationStatistics));
+    return result.toString();
+  }
+
+  private static void appendExtendedStatistic(StringBuilder result, String key, Object value) {
+    result.append(' ');
+    result.append(key);
+    result.append('=');
+    result.append(value);
+  }
+
+  private static String toOriginalString(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
     return runtimeStatisticsAggregator.throughputTotal
         + " " + runtimeStatisticsAggregator.responseDataThroughputTotal
         + " " + runtimeStatisticsAggregator.numRequestsTotal
@@ -176,9 +219,11 @@ public class RuntimeStatisticsAggregator {
   }
 
   public static RuntimeStatisticsAggregator parse(String str) {
-    String[] tokens = str.split(" ");
+    String[] fields = str.split("\t");
+    String[] tokens = fields[0].split(" ");
 
     try {
+      Map<String, String> extendedStatistics = parseExtendedStatistics(fields.length > 1 ? fields[1] : null);
 
       double throughputTotal = Double.parseDouble(tokens[0]);
       double responseDataThroughputTotal = Double.parseDouble(tokens[1]);
@@ -191,19 +236,16 @@ public class RuntimeStatisticsAggregator {
           Long.parseLong(tokens[6]),
           Long.parseLong(tokens[7]),
           Long.parseLong(tokens[8]),
-          Long.parseLong(tokens[9]));
+          Long.parseLong(tokens[9]),
+          getLongExtendedStatistic(extendedStatistics, NUM_MAPPED_BYTES_KEY),
+          getLongExtendedStatistic(extendedStatistics, NUM_BLOCK_CACHE_HITS_KEY),
+          getLongExtendedStatistic(extendedStatistics, NUM_BLOCK_CACHE_MISSES_KEY),
+          getLongExtendedStatistic(extendedStatistics, NUM_KEY_HASH_FILTER_NEGATIVES_KEY),
+          getLongExtendedStatistic(extendedStatistics, NUM_KEY_HASH_FILTER_FALSE_POSITIVES_KEY));
 
-      int numRandomSample = tokens.length - 14;
-      double[] randomSample = new double[numRandomSample];
-      for (int i = 0; i < numRandomSample; ++i) {
-        randomSample[i] = Double.parseDouble(tokens[14 + i]);
-      }
-      DoublePopulationStatisticsAggregator getRequestsPopulationStatistics = new DoublePopulationStatisticsAggregator(
-          Double.parseDouble(tokens[10]),
-          Double.parseDouble(tokens[11]),
-          Long.parseLong(tokens[12]),
-          Double.parseDouble(tokens[13]),
-          randomSample);
+      DoublePopulationStatisticsAggregator getRequestsPopulationStatistics =
+          DoublePopulationStatisticsAggregator.parse(tokens, 10,
+              extendedStatistics.get(GET_REQUESTS_HISTOGRAM_KEY));
 
       return new RuntimeStatisticsAggregator(
           throughputTotal,
@@ -219,4 +261,29 @@ public class RuntimeStatisticsAggregator {
       return new RuntimeStatisticsAggregator();
     }
   }
+
+  // Strings written by older versions have no extended statistics
+  private static Map<String, String> parseExtendedStatistics(String str) {
+    Map<String, String> result = new HashMap<String, String>();
+    if (str == null) {
+      return result;
+    }
+    String[] tokens = str.split(" ");
+    if (!tokens[0].equals(EXTENDED_STATISTICS_VERSION_MARKER)) {
+      LOG.warn("Ignoring extended runtime statistics of unknown version: " + str);
+      return result;
+    }
+    for (int i = 1; i < tokens.length; ++i) {
+      int separator = tokens[i].indexOf('=');
+      if (separator > 0) {
+        result.put(tokens[i].substring(0, separator), tokens[i].substring(separator + 1));
+      }
+    }
+    return result;
+  }
+
+  private static long getLongExtendedStatistic(Map<String, String> extendedStatistics, String key) {
+    String value = extendedStatistics.get(key);
+    return value == null ? 0 : Long.parseLong(value);
+  }
 }
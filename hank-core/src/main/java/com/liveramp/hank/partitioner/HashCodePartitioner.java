@@ -18,12 +18,22 @@ package com.liveramp.hank.partitioner;
 
 import java.nio.ByteBuffer;
 
-public class HashCodePartitioner implements Partitioner {
+public class HashCodePartitioner implements HashPartitioner {
 
   @Override
   public int partition(ByteBuffer key, int numPartitions) {
+    return partition(hash(key), numPartitions);
+  }
+
+  @Override
+  public int hash(ByteBuffer key) {
     int hashCode = 31 + (key != null ? bytesHashCode(key.array(), key.arrayOffset() + key.position(), key.remaining()) : 0);
-    return (hashCode & Integer.MAX_VALUE) % numPartitions;
+    return hashCode & Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int partition(int hash, int numPartitions) {
+    return hash % numPartitions;
   }
 
   private int bytesHashCode(byte[] bytes, int offset, int length) {
@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.partitioner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Partitioner that derives the partition number from a single hash of the key,
+ * so that callers needing the key's partition for several partition counts
+ * only hash it once.
+ */
+public interface HashPartitioner extends Partitioner {
+  /**
+   * @param key
+   * @return the hash of the key, deterministic
+   */
+  public int hash(ByteBuffer key);
+
+  /**
+   * Must be equal to partition(key, numPartitions) for any key of the given hash
+   * @param hash
+   * @param numPartitions
+   * @return
+   */
+  public int partition(int hash, int numPartitions);
+}
@@ -24,7 +24,7 @@ import java.nio.ByteBuffer;
  * Implementation of Partitioner that takes a 64-bit Murmur hash to produce the
  * partition number.
  */
-public class Murmur64Partitioner implements Partitioner {
+public class Murmur64Partitioner implements HashPartitioner {
   /**
    * Note that we use a wacky, unique seed here in order to make sure that no
    * one else will accidentally use a matching MurmurHash somewhere that can
@@ -34,10 +34,20 @@ public class Murmur64Partitioner implements Partitioner {
 
   @Override
   public int partition(ByteBuffer key, int numPartitions) {
+    return partition(hash(key), numPartitions);
+  }
+
+  @Override
+  public int hash(ByteBuffer key) {
     return Math.abs((int) Murmur64Hasher.murmurHash64(key.array(),
         key.arrayOffset() + key.position(),
         key.remaining(),
-        SEED)) % numPartitions;
+        SEED));
+  }
+
+  @Override
+  public int partition(int hash, int numPartitions) {
+    return hash % numPartitions;
   }
 
   @Override
@@ -22,12 +22,49 @@ public class CacheStatistics {
   private long maxNumItems;
   private long numManagedBytes;
   private long maxNumManagedBytes;
+  private long numMappedBytes;
+  private long numBlockCacheHits;
+  private long numBlockCacheMisses;
+  private long numKeyHashFilterNegatives;
+  private long numKeyHashFilterFalsePositives;
 
   public CacheStatistics(long numItems, long maxNumItems, long numManagedBytes, long maxNumManagedBytes) {
+    this(numItems, maxNumItems, numManagedBytes, maxNumManagedBytes, 0);
+  }
+
+  public CacheStatistics(long numItems, long maxNumItems, long numManagedBytes, long maxNumManagedBytes, long numMappedBytes) {
+    this(numItems, maxNumItems, numManagedBytes, maxNumManagedBytes, numMappedBytes, 0, 0);
+  }
+
+  public CacheStatistics(long numItems,
+                         long maxNumItems,
+                         long numManagedBytes,
+                         long maxNumManagedBytes,
+                         long numMappedBytes,
+                         long numBlockCacheHits,
+                         long numBlockCacheMisses) {
+    this(numItems, maxNumItems, numManagedBytes, maxNumManagedBytes, numMappedBytes, numBlockCacheHits,
+        numBlockCacheMisses, 0, 0);
+  }
+
+  public CacheStatistics(long numItems,
+                         long maxNumItems,
+                         long numManagedBytes,
+                         long maxNumManagedBytes,
+                         long numMappedBytes,
+                         long numBlockCacheHits,
+                         long numBlockCacheMisses,
+                         long numKeyHashFilterNegatives,
+                         long numKeyHashFilterFalsePositives) {
     this.numItems = numItems;
     this.maxNumItems = maxNumItems;
     this.numManagedBytes = numManagedBytes;
     this.maxNumManagedBytes = maxNumManagedBytes;
+    this.numMappedBytes = numMappedBytes;
+    this.numBlockCacheHits = numBlockCacheHits;
+    this.numBlockCacheMisses = numBlockCacheMisses;
+    this.numKeyHashFilterNegatives = numKeyHashFilterNegatives;
+    this.numKeyHashFilterFalsePositives = numKeyHashFilterFalsePositives;
   }
 
   public long getNumItems() {
@@ -46,11 +83,51 @@ public class CacheStatistics {
     return maxNumManagedBytes;
   }
 
+  // Number of bytes of data files that are memory mapped by readers
+  public long getNumMappedBytes() {
+    return numMappedBytes;
+  }
+
+  // Number of lookups of decompressed blocks that were served by readers' block caches
+  public long getNumBlockCacheHits() {
+    return numBlockCacheHits;
+  }
+
+  public long getNumBlockCacheMisses() {
+    return numBlockCacheMisses;
+  }
+
+  public double getBlockCacheHitRate() {
+    long numBlockCacheRequests = numBlockCacheHits + numBlockCacheMisses;
+    if (numBlockCacheRequests == 0) {
+      return 0;
+    } else {
+      return (double)numBlockCacheHits / (double)numBlockCacheRequests;
+    }
+  }
+
+  // Number of lookups of absent keys that were rejected by readers' key hash filters, without reading a block
+  public long getNumKeyHashFilterNegatives() {
+    return numKeyHashFilterNegatives;
+  }
+
+  // Number of block reads of absent keys that were accepted by readers' key hash filters. Lookups of these keys
+  // that are served from the cache do not read a block and are not counted, so this is not comparable with
+  // the number of negatives, which are counted on every lookup.
+  public long getNumKeyHashFilterFalsePositives() {
+    return numKeyHashFilterFalsePositives;
+  }
+
   public void add(CacheStatistics cacheStatistics) {
     this.numItems += cacheStatistics.numItems;
     this.maxNumItems += cacheStatistics.maxNumItems;
     this.numManagedBytes += cacheStatistics.numManagedBytes;
     this.maxNumManagedBytes += cacheStatistics.maxNumManagedBytes;
+    this.numMappedBytes += cacheStatistics.numMappedBytes;
+    this.numBlockCacheHits += cacheStatistics.numBlockCacheHits;
+    this.numBlockCacheMisses += cacheStatistics.numBlockCacheMisses;
+    this.numKeyHashFilterNegatives += cacheStatistics.numKeyHashFilterNegatives;
+    this.numKeyHashFilterFalsePositives += cacheStatistics.numKeyHashFilterFalsePositives;
     if (this.maxNumItems < 0) {
       this.maxNumItems = -1;
     }
@@ -25,6 +25,8 @@ import java.io.OutputStream;
 
 import org.apache.commons.io.FileUtils;
 
+import com.liveramp.hank.storage.incremental.FetchThrottle;
+
 public class LocalPartitionRemoteFileOps implements PartitionRemoteFileOps {
 
   public static class Factory implements PartitionRemoteFileOpsFactory {
@@ -65,7 +67,13 @@ public class LocalPartitionRemoteFileOps implements PartitionRemoteFileOps {
   public void copyToLocalRoot(String remoteSourceRelativePath, String localDestinationRoot) throws IOException {
     File source = new File(getRemoteAbsolutePath(remoteSourceRelativePath));
     File destination = new File(localDestinationRoot + "/" + source.getName());
-    FileUtils.copyFile(source, destination);
+    FetchThrottle fetchThrottle = FetchThrottle.getFetchThrottle(localDestinationRoot);
+    fetchThrottle.acquire();
+    try {
+      FileUtils.copyFile(source, destination);
+    } finally {
+      fetchThrottle.release();
+    }
   }
 
   @Override
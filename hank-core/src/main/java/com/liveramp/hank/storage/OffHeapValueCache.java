@@ -0,0 +1,440 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value cache stored in direct memory, shared by many readers under a single byte budget.
+ *
+ * Each reader obtains its own Namespace, so that identical keys from different readers do
+ * not collide. The cache is split into independently synchronized segments. Each segment is
+ * a slab of direct memory used as a circular log of entries, evicted in insertion order when
+ * space is needed, and indexed by an open addressing hash table of primitive longs. Hence
+ * cached data does not create any heap objects, and the cache size is bound by available RAM
+ * (and -XX:MaxDirectMemorySize) rather than by the heap.
+ *
+ * Entry layout: namespace id (4 bytes), key length (4 bytes), value length (4 bytes, -1 for
+ * a cached not found), key bytes, value bytes.
+ */
+public class OffHeapValueCache {
+
+  public static final int DEFAULT_NUM_SEGMENTS = 16;
+
+  private static final int ENTRY_HEADER_SIZE = 12;
+  private static final int NOT_FOUND_VALUE_LENGTH = -1;
+  private static final int MIN_SEGMENT_NUM_BYTES = 1 << 20;
+  private static final int MAX_SEGMENT_NUM_BYTES = 1 << 30;
+  private static final int INITIAL_INDEX_SIZE = 1 << 10;
+  private static final int MAX_INDEX_SIZE = 1 << 30;
+
+  private final Segment[] segments;
+  private final int segmentShift;
+  private final long numBytesCapacity;
+  private final long numItemsCapacity;
+  private final AtomicInteger nextNamespaceId = new AtomicInteger(0);
+  private final ConcurrentHashMap<Integer, Namespace> namespaces = new ConcurrentHashMap<Integer, Namespace>();
+
+  // A non positive number of items capacity means no bound on the number of items
+  public OffHeapValueCache(long numBytesCapacity, long numItemsCapacity) {
+    this(numBytesCapacity, numItemsCapacity, DEFAULT_NUM_SEGMENTS);
+  }
+
+  public OffHeapValueCache(long numBytesCapacity, long numItemsCapacity, int maxNumSegments) {
+    if (numBytesCapacity <= 0) {
+      throw new IllegalArgumentException("Off heap value cache capacity must be positive: " + numBytesCapacity);
+    }
+    this.numBytesCapacity = numBytesCapacity;
+    this.numItemsCapacity = numItemsCapacity;
+    int numSegments = getNumSegments(numBytesCapacity, numItemsCapacity, maxNumSegments);
+    segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      segments[i] = new Segment(
+          (int)getSegmentCapacity(numBytesCapacity, numSegments, i),
+          getSegmentCapacity(numItemsCapacity, numSegments, i));
+    }
+    segmentShift = 32 - Integer.numberOfTrailingZeros(numSegments);
+  }
+
+  public Namespace newNamespace() {
+    Namespace namespace = new Namespace(nextNamespaceId.getAndIncrement());
+    namespaces.put(namespace.id, namespace);
+    return namespace;
+  }
+
+  public long size() {
+    long result = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        result += segment.numItems;
+      }
+    }
+    return result;
+  }
+
+  public long getNumManagedBytes() {
+    long result = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        result += segment.numLiveBytes;
+      }
+    }
+    return result;
+  }
+
+  public long getMaxNumManagedBytes() {
+    return numBytesCapacity;
+  }
+
+  public long getMaxNumItems() {
+    return numItemsCapacity > 0 ? numItemsCapacity : -1;
+  }
+
+  int getNumSegments() {
+    return segments.length;
+  }
+
+  /**
+   * The part of the cache used by one reader. Entries of a closed namespace can not be
+   * retrieved anymore and are eventually evicted.
+   */
+  public class Namespace {
+
+    private final int id;
+    private final AtomicLong numItems = new AtomicLong(0);
+    private final AtomicLong numBytes = new AtomicLong(0);
+
+    private Namespace(int id) {
+      this.id = id;
+    }
+
+    // Return true if the key was found in the cache, in which case the result is set to the
+    // cached value or to not found
+    public boolean get(ByteBuffer key, ReaderResult result) {
+      int hash = hash(id, key, key.position(), key.remaining());
+      return getSegment(hash).get(id, key, hash, result);
+    }
+
+    public void putValue(ByteBuffer key, ByteBuffer value) {
+      int hash = hash(id, key, key.position(), key.remaining());
+      getSegment(hash).put(this, key, hash, value);
+    }
+
+    public void putNotFound(ByteBuffer key) {
+      int hash = hash(id, key, key.position(), key.remaining());
+      getSegment(hash).put(this, key, hash, null);
+    }
+
+    // Capacities are shared evenly between open namespaces, so that they add up to the
+    // cache's capacities across all readers
+    public CacheStatistics getCacheStatistics() {
+      int numNamespaces = Math.max(1, namespaces.size());
+      return new CacheStatistics(
+          numItems.get(),
+          numItemsCapacity > 0 ? numItemsCapacity / numNamespaces : -1,
+          numBytes.get(),
+          numBytesCapacity / numNamespaces);
+    }
+
+    public void close() {
+      namespaces.remove(id);
+    }
+
+    private void onAdd(int entrySize) {
+      numItems.incrementAndGet();
+      numBytes.addAndGet(entrySize);
+    }
+
+    private void onRemove(int entrySize) {
+      numItems.decrementAndGet();
+      numBytes.addAndGet(-entrySize);
+    }
+  }
+
+  private Segment getSegment(int hash) {
+    return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift];
+  }
+
+  private class Segment {
+
+    private final ByteBuffer slab;
+    private final int capacity;
+    private final long maxNumItems;
+
+    // Circular log. When wrapped, entries are in [head, wrapEnd) followed by [0, tail).
+    // Otherwise, entries are in [head, tail).
+    private int head = 0;
+    private int tail = 0;
+    private int wrapEnd = 0;
+    private boolean wrapped = false;
+    private int numEntries = 0;
+
+    // Open addressing index with linear probing. Each slot contains the entry's hash in the
+    // high 32 bits and its offset + 1 in the low 32 bits. Zero denotes an empty slot.
+    private long[] index = new long[INITIAL_INDEX_SIZE];
+    private int numItems = 0;
+    private long numLiveBytes = 0;
+
+    private Segment(int capacity, long maxNumItems) {
+      this.slab = ByteBuffer.allocateDirect(capacity);
+      this.capacity = capacity;
+      this.maxNumItems = maxNumItems;
+    }
+
+    private synchronized boolean get(int namespaceId, ByteBuffer key, int hash, ReaderResult result) {
+      int slot = findSlot(namespaceId, key, hash);
+      if (slot < 0) {
+        return false;
+      }
+      int offset = getOffset(index[slot]);
+      int keyLength = slab.getInt(offset + 4);
+      int valueLength = slab.getInt(offset + 8);
+      if (valueLength == NOT_FOUND_VALUE_LENGTH) {
+        result.notFound();
+      } else {
+        int valueOffset = offset + ENTRY_HEADER_SIZE + keyLength;
+        result.requiresBufferSize(valueLength);
+        ByteBuffer buffer = result.getBuffer();
+        buffer.clear();
+        slab.limit(valueOffset + valueLength);
+        slab.position(valueOffset);
+        buffer.put(slab);
+        slab.clear();
+        buffer.flip();
+        result.found();
+      }
+      return true;
+    }
+
+    private synchronized void put(Namespace namespace, ByteBuffer key, int hash, ByteBuffer value) {
+      int keyLength = key.remaining();
+      int valueLength = value == null ? NOT_FOUND_VALUE_LENGTH : value.remaining();
+      int entrySize = ENTRY_HEADER_SIZE + keyLength + Math.max(0, valueLength);
+      if (entrySize > capacity) {
+        return;
+      }
+      // Replace existing entry. It stays in the log until it is evicted, but is not indexed anymore.
+      int existingSlot = findSlot(namespace.id, key, hash);
+      if (existingSlot >= 0) {
+        removeFromIndex(existingSlot, getOffset(index[existingSlot]));
+      }
+      // Allocate and write entry
+      int offset = allocate(entrySize);
+      slab.putInt(offset, namespace.id);
+      slab.putInt(offset + 4, keyLength);
+      slab.putInt(offset + 8, valueLength);
+      slab.position(offset + ENTRY_HEADER_SIZE);
+      slab.put(key.duplicate());
+      if (value != null) {
+        slab.put(value.duplicate());
+      }
+      slab.clear();
+      // Index entry
+      if (index.length < MAX_INDEX_SIZE && (numItems + 1) * 2L > index.length) {
+        resizeIndex(index.length * 2);
+      }
+      int mask = index.length - 1;
+      int slot = hash & mask;
+      while (index[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      index[slot] = ((long)hash << 32) | (offset + 1L);
+      ++numItems;
+      numLiveBytes += entrySize;
+      namespace.onAdd(entrySize);
+      // Enforce number of items bound
+      while (maxNumItems > 0 && numItems > maxNumItems) {
+        evictHead();
+      }
+    }
+
+    // Return the offset of a free region of the given size, evicting the oldest entries as needed
+    private int allocate(int size) {
+      while (true) {
+        if (!wrapped) {
+          if (capacity - tail >= size) {
+            int offset = tail;
+            tail += size;
+            ++numEntries;
+            return offset;
+          }
+          if (numEntries == 0) {
+            head = 0;
+            tail = 0;
+          } else {
+            // Wrap around, the end of the slab is left unused
+            wrapEnd = tail;
+            tail = 0;
+            wrapped = true;
+          }
+        } else {
+          if (head - tail >= size) {
+            int offset = tail;
+            tail += size;
+            ++numEntries;
+            return offset;
+          }
+          evictHead();
+        }
+      }
+    }
+
+    private void evictHead() {
+      int offset = head;
+      int namespaceId = slab.getInt(offset);
+      int keyLength = slab.getInt(offset + 4);
+      int valueLength = slab.getInt(offset + 8);
+      int entrySize = ENTRY_HEADER_SIZE + keyLength + Math.max(0, valueLength);
+      // Entries that were replaced are not indexed anymore
+      int hash = hash(namespaceId, slab, offset + ENTRY_HEADER_SIZE, keyLength);
+      int mask = index.length - 1;
+      int slot = hash & mask;
+      while (index[slot] != 0) {
+        if (getOffset(index[slot]) == offset) {
+          removeFromIndex(slot, offset);
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      head += entrySize;
+      --numEntries;
+      if (numEntries == 0) {
+        head = 0;
+        tail = 0;
+        wrapped = false;
+      } else if (wrapped && head >= wrapEnd) {
+        head = 0;
+        wrapped = false;
+      }
+    }
+
+    private int findSlot(int namespaceId, ByteBuffer key, int hash) {
+      int mask = index.length - 1;
+      int slot = hash & mask;
+      long value;
+      while ((value = index[slot]) != 0) {
+        if ((int)(value >>> 32) == hash && entryMatches(getOffset(value), namespaceId, key)) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    private boolean entryMatches(int offset, int namespaceId, ByteBuffer key) {
+      int keyLength = key.remaining();
+      if (slab.getInt(offset) != namespaceId || slab.getInt(offset + 4) != keyLength) {
+        return false;
+      }
+      int keyOffset = offset + ENTRY_HEADER_SIZE;
+      int keyPosition = key.position();
+      for (int i = 0; i < keyLength; ++i) {
+        if (slab.get(keyOffset + i) != key.get(keyPosition + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Remove slot from the index using backward shift deletion, and update counters
+    private void removeFromIndex(int slot, int offset) {
+      int entrySize = ENTRY_HEADER_SIZE + slab.getInt(offset + 4) + Math.max(0, slab.getInt(offset + 8));
+      Namespace namespace = namespaces.get(slab.getInt(offset));
+      if (namespace != null) {
+        namespace.onRemove(entrySize);
+      }
+      --numItems;
+      numLiveBytes -= entrySize;
+      int mask = index.length - 1;
+      int free = slot;
+      int current = slot;
+      while (true) {
+        current = (current + 1) & mask;
+        long value = index[current];
+        if (value == 0) {
+          break;
+        }
+        int ideal = (int)(value >>> 32) & mask;
+        // Move the entry to the free slot unless its ideal slot is cyclically in (free, current]
+        boolean stays = free <= current ? (free < ideal && ideal <= current) : (free < ideal || ideal <= current);
+        if (!stays) {
+          index[free] = value;
+          free = current;
+        }
+      }
+      index[free] = 0;
+    }
+
+    private void resizeIndex(int newSize) {
+      long[] newIndex = new long[newSize];
+      int mask = newSize - 1;
+      for (long value : index) {
+        if (value != 0) {
+          int slot = (int)(value >>> 32) & mask;
+          while (newIndex[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          newIndex[slot] = value;
+        }
+      }
+      index = newIndex;
+    }
+  }
+
+  private static int getOffset(long indexValue) {
+    return (int)indexValue - 1;
+  }
+
+  private static int hash(int namespaceId, ByteBuffer buffer, int position, int length) {
+    int hash = namespaceId * 0x9E3779B9;
+    for (int i = 0; i < length; ++i) {
+      hash = 31 * hash + buffer.get(position + i);
+    }
+    // Finalization mix so that both low bits (index) and high bits (segment) are well distributed
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  // Power of two number of segments, such that segments are neither too small nor too large
+  private static int getNumSegments(long numBytesCapacity, long numItemsCapacity, int maxNumSegments) {
+    int numSegments = Integer.highestOneBit(Math.max(1, maxNumSegments));
+    while (numSegments > 1
+        && (numBytesCapacity / numSegments < MIN_SEGMENT_NUM_BYTES
+        || (numItemsCapacity > 0 && numItemsCapacity < numSegments))) {
+      numSegments >>= 1;
+    }
+    while (numBytesCapacity / numSegments > MAX_SEGMENT_NUM_BYTES) {
+      numSegments <<= 1;
+    }
+    return numSegments;
+  }
+
+  // Split capacity evenly, the first segments receive the remainder
+  private static long getSegmentCapacity(long capacity, int numSegments, int segmentIndex) {
+    if (capacity <= 0) {
+      return capacity;
+    }
+    return capacity / numSegments + (segmentIndex < capacity % numSegments ? 1 : 0);
+  }
+}
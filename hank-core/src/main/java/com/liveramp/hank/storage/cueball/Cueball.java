@@ -80,6 +80,10 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     public static final String HASHER_KEY = "hasher";
     public static final String COMPRESSION_CODEC = "compression_codec";
     public static final String NUM_REMOTE_LEAF_VERSIONS_TO_KEEP = "num_remote_leaf_versions_to_keep";
+    public static final String MEMORY_MAPPED_KEY = "memory_mapped";
+    public static final String NUM_MERGE_THREADS_KEY = "num_merge_threads";
+    public static final String KEY_HASH_FILTER_BITS_PER_KEY_KEY = "key_hash_filter_bits_per_key";
+    public static final String COMPACT_HASH_INDEX_KEY = "compact_hash_index";
 
     private static final Set<String> REQUIRED_KEYS =
         new HashSet<String>(Arrays.asList(
@@ -124,6 +128,30 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
       // Num remote bases to keep
       Integer numRemoteLeafVersionsToKeep = (Integer)options.get(NUM_REMOTE_LEAF_VERSIONS_TO_KEEP);
 
+      // Memory mapped reads
+      Boolean memoryMapped = (Boolean)options.get(MEMORY_MAPPED_KEY);
+      if (memoryMapped == null) {
+        memoryMapped = false;
+      }
+
+      // Threads used to merge ranges of hash prefixes concurrently
+      Integer numMergeThreads = (Integer)options.get(NUM_MERGE_THREADS_KEY);
+      if (numMergeThreads == null) {
+        numMergeThreads = 1;
+      }
+
+      // Bits per key of the key hash filter written along with blocks (disabled when 0)
+      Integer keyHashFilterBitsPerKey = (Integer)options.get(KEY_HASH_FILTER_BITS_PER_KEY_KEY);
+      if (keyHashFilterBitsPerKey == null) {
+        keyHashFilterBitsPerKey = 0;
+      }
+
+      // Write hash indexes with 4 byte relative block offsets
+      Boolean compactHashIndex = (Boolean)options.get(COMPACT_HASH_INDEX_KEY);
+      if (compactHashIndex == null) {
+        compactHashIndex = false;
+      }
+
       return new Cueball((Integer)options.get(KEY_HASH_SIZE_KEY),
           hasher,
           (Integer)options.get(VALUE_SIZE_KEY),
@@ -133,7 +161,11 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
           fileOpsFactory,
           compressionCodecClass,
           domain,
-          numRemoteLeafVersionsToKeep);
+          numRemoteLeafVersionsToKeep,
+          memoryMapped,
+          numMergeThreads,
+          keyHashFilterBitsPerKey,
+          compactHashIndex);
     }
 
     @Override
@@ -158,6 +190,10 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
   private final PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory;
   private final ByteBuffer keyHashBuffer;
   private final int numRemoteLeafVersionsToKeep;
+  private final boolean memoryMapped;
+  private final int numMergeThreads;
+  private final int keyHashFilterBitsPerKey;
+  private final boolean compactHashIndex;
 
   private final Class<? extends CueballCompressionCodec> compressionCodecClass;
 
@@ -171,6 +207,74 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
                  Class<? extends CueballCompressionCodec> compressionCodecClass,
                  Domain domain,
                  int numRemoteLeafVersionsToKeep) {
+    this(keyHashSize, hasher, valueSize, hashIndexBits, domainBuilderRemoteDomainRoot, partitionServerRemoteDomainRoot,
+        partitionRemoteFileOpsFactory, compressionCodecClass, domain, numRemoteLeafVersionsToKeep, false);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String domainBuilderRemoteDomainRoot,
+                 String partitionServerRemoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 boolean memoryMapped) {
+    this(keyHashSize, hasher, valueSize, hashIndexBits, domainBuilderRemoteDomainRoot, partitionServerRemoteDomainRoot,
+        partitionRemoteFileOpsFactory, compressionCodecClass, domain, numRemoteLeafVersionsToKeep, memoryMapped, 1);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String domainBuilderRemoteDomainRoot,
+                 String partitionServerRemoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 boolean memoryMapped,
+                 int numMergeThreads) {
+    this(keyHashSize, hasher, valueSize, hashIndexBits, domainBuilderRemoteDomainRoot, partitionServerRemoteDomainRoot,
+        partitionRemoteFileOpsFactory, compressionCodecClass, domain, numRemoteLeafVersionsToKeep, memoryMapped,
+        numMergeThreads, 0);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String domainBuilderRemoteDomainRoot,
+                 String partitionServerRemoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 boolean memoryMapped,
+                 int numMergeThreads,
+                 int keyHashFilterBitsPerKey) {
+    this(keyHashSize, hasher, valueSize, hashIndexBits, domainBuilderRemoteDomainRoot, partitionServerRemoteDomainRoot,
+        partitionRemoteFileOpsFactory, compressionCodecClass, domain, numRemoteLeafVersionsToKeep, memoryMapped,
+        numMergeThreads, keyHashFilterBitsPerKey, false);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String domainBuilderRemoteDomainRoot,
+                 String partitionServerRemoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 boolean memoryMapped,
+                 int numMergeThreads,
+                 int keyHashFilterBitsPerKey,
+                 boolean compactHashIndex) {
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
     this.valueSize = valueSize;
@@ -182,6 +286,10 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     this.compressionCodecClass = compressionCodecClass;
     this.domain = domain;
     this.numRemoteLeafVersionsToKeep = numRemoteLeafVersionsToKeep;
+    this.memoryMapped = memoryMapped;
+    this.numMergeThreads = numMergeThreads;
+    this.keyHashFilterBitsPerKey = keyHashFilterBitsPerKey;
+    this.compactHashIndex = compactHashIndex;
     // Sanity check
     if (hashIndexBits > 32) {
       throw new RuntimeException("hashIndexBits is much too large (" + hashIndexBits + ")");
@@ -198,7 +306,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         hashIndexBits,
         getCompressionCodec(),
         configurator.getCacheNumBytesCapacity(),
-        (int)configurator.getCacheNumItemsCapacity());
+        (int)configurator.getCacheNumItemsCapacity(),
+        memoryMapped,
+        configurator.getOffHeapValueCache());
   }
 
   private CueballCompressionCodec getCompressionCodec() throws IOException {
@@ -216,7 +326,8 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     IncrementalDomainVersionProperties domainVersionProperties = getDomainVersionProperties(domainVersion);
     return new CueballWriter(partitionRemoteFileOps.getOutputStream(getName(domainVersion.getVersionNumber(),
         domainVersionProperties.isBase())),
-        keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits
+        keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits, keyHashFilterBitsPerKey,
+        compactHashIndex
     );
   }
 
@@ -243,7 +354,7 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     String localDir = getTargetDirectory(assignment, partitionNumber);
     return new CueballPartitionUpdater(domain,
         getPartitionRemoteFileOps(RemoteLocation.PARTITION_SERVER, partitionNumber),
-        new CueballMerger(),
+        new CueballMerger(numMergeThreads, keyHashFilterBitsPerKey, compactHashIndex),
         keyHashSize,
         valueSize,
         hashIndexBits,
@@ -269,7 +380,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         new IdentityHasher(),
         valueSize,
         getCompressionCodec(),
-        hashIndexBits
+        hashIndexBits,
+        keyHashFilterBitsPerKey,
+        compactHashIndex
     );
   }
 
@@ -424,6 +537,10 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         ", keyHashBuffer=" + keyHashBuffer +
         ", numRemoteLeafVersionsToKeep=" + numRemoteLeafVersionsToKeep +
         ", compressionCodecClass=" + compressionCodecClass +
+        ", memoryMapped=" + memoryMapped +
+        ", numMergeThreads=" + numMergeThreads +
+        ", keyHashFilterBitsPerKey=" + keyHashFilterBitsPerKey +
+        ", compactHashIndex=" + compactHashIndex +
         '}';
   }
 }
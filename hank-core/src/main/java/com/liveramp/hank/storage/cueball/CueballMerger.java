@@ -16,15 +16,57 @@
 package com.liveramp.hank.storage.cueball;
 
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.storage.incremental.FetchThrottle;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-
+/**
+ * Merges a base and deltas into a new base. Since blocks are indexed by hash prefix, ranges of hash
+ * prefixes can be merged independently and concurrently, and then concatenated.
+ */
 public final class CueballMerger implements ICueballMerger {
 
+  // Blocks of range files are copied by pieces of this size, so that writes can be throttled
+  private static final long TRANSFER_NUM_BYTES = 1 << 20;
+
+  private final int numThreads;
+  private final int keyHashFilterBitsPerKey;
+  private final boolean compactHashIndex;
+
+  public CueballMerger() {
+    this(1);
+  }
+
+  public CueballMerger(int numThreads) {
+    this(numThreads, 0);
+  }
+
+  // A key hash filter is written in the new base when keyHashFilterBitsPerKey is positive
+  public CueballMerger(int numThreads, int keyHashFilterBitsPerKey) {
+    this(numThreads, keyHashFilterBitsPerKey, false);
+  }
+
+  // The hash index of the new base is written in the compact format when compactHashIndex is true
+  public CueballMerger(int numThreads, int keyHashFilterBitsPerKey, boolean compactHashIndex) {
+    this.numThreads = numThreads;
+    this.keyHashFilterBitsPerKey = keyHashFilterBitsPerKey;
+    this.compactHashIndex = compactHashIndex;
+  }
+
   @Override
   public void merge(final CueballFilePath base,
                     final List<CueballFilePath> deltas,
@@ -34,6 +76,29 @@ public final class CueballMerger implements ICueballMerger {
                     ValueTransformer transformer,
                     int hashIndexBits,
                     CueballCompressionCodec compressionCodec) throws IOException {
+    int numRanges = Math.min(numThreads, 1 << hashIndexBits);
+    if (numRanges <= 1) {
+      mergeRange(base, deltas, newBasePath, keyHashSize, valueSize, transformer, hashIndexBits, compressionCodec,
+          0, 1 << hashIndexBits, keyHashFilterBitsPerKey, compactHashIndex, null);
+    } else {
+      mergeRanges(base, deltas, newBasePath, keyHashSize, valueSize, transformer, hashIndexBits, compressionCodec,
+          numRanges, keyHashFilterBitsPerKey, compactHashIndex);
+    }
+  }
+
+  private static void mergeRange(CueballFilePath base,
+                                 List<CueballFilePath> deltas,
+                                 String newBasePath,
+                                 int keyHashSize,
+                                 int valueSize,
+                                 ValueTransformer transformer,
+                                 int hashIndexBits,
+                                 CueballCompressionCodec compressionCodec,
+                                 int startHashPrefix,
+                                 int endHashPrefix,
+                                 int keyHashFilterBitsPerKey,
+                                 boolean compactHashIndex,
+                                 KeyHashFilter.Builder keyHashFilterBuilder) throws IOException {
 
     CueballStreamBufferMergeSort cueballStreamBufferMergeSort = new CueballStreamBufferMergeSort(base,
         deltas,
@@ -41,14 +106,18 @@ public final class CueballMerger implements ICueballMerger {
         valueSize,
         hashIndexBits,
         compressionCodec,
-        transformer);
+        transformer,
+        startHashPrefix,
+        endHashPrefix);
 
     // Output stream for the new base to be written. intentionally unbuffered, the writer below will do that on its own.
-    OutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
+    OutputStream newCueballBaseOutputStream =
+        FetchThrottle.getFetchThrottle(newBasePath).getThrottledOutputStream(new FileOutputStream(newBasePath));
 
     // Note that we intentionally omit the hasher here, since it will *not* be used
     CueballWriter newCueballBaseWriter =
-        new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits);
+        new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits,
+            keyHashFilterBitsPerKey, compactHashIndex);
 
     while (true) {
       KeyHashAndValueAndStreamIndex keyValuePair = cueballStreamBufferMergeSort.nextKeyHashAndValueAndStreamIndex();
@@ -58,10 +127,151 @@ public final class CueballMerger implements ICueballMerger {
 
       // Write next key hash and value
       newCueballBaseWriter.writeHash(keyValuePair.keyHash, keyValuePair.value);
+      if (keyHashFilterBuilder != null) {
+        keyHashFilterBuilder.add(keyValuePair.keyHash.array(),
+            keyValuePair.keyHash.arrayOffset() + keyValuePair.keyHash.position(), keyHashSize);
+      }
     }
 
     // Close all buffers and the base writer
     cueballStreamBufferMergeSort.close();
     newCueballBaseWriter.close();
   }
+
+  private static void mergeRanges(final CueballFilePath base,
+                                  final List<CueballFilePath> deltas,
+                                  final String newBasePath,
+                                  final int keyHashSize,
+                                  final int valueSize,
+                                  final ValueTransformer transformer,
+                                  final int hashIndexBits,
+                                  final CueballCompressionCodec compressionCodec,
+                                  final int numRanges,
+                                  final int keyHashFilterBitsPerKey,
+                                  final boolean compactHashIndex) throws IOException {
+    final int numHashPrefixes = 1 << hashIndexBits;
+    final List<String> rangePaths = new ArrayList<String>();
+    // Range files are written without a key hash filter and with a regular hash index, the filter
+    // of the new base is built from all key hashes
+    final List<KeyHashFilter.Builder> keyHashFilterBuilders = new ArrayList<KeyHashFilter.Builder>();
+    ExecutorService executor = Executors.newFixedThreadPool(numRanges, new ThreadFactory() {
+      private int threadId = 0;
+
+      @Override
+      public synchronized Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "Cueball Merger #" + threadId++);
+      }
+    });
+    try {
+      // Merge each range of hash prefixes into its own file
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numRanges; ++i) {
+        final int startHashPrefix = (int) ((long) numHashPrefixes * i / numRanges);
+        final int endHashPrefix = (int) ((long) numHashPrefixes * (i + 1) / numRanges);
+        final String rangePath = newBasePath + ".range" + i;
+        rangePaths.add(rangePath);
+        final KeyHashFilter.Builder keyHashFilterBuilder = keyHashFilterBitsPerKey > 0 ? new KeyHashFilter.Builder(keyHashFilterBitsPerKey) : null;
+        keyHashFilterBuilders.add(keyHashFilterBuilder);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            mergeRange(base, deltas, rangePath, keyHashSize, valueSize, transformer, hashIndexBits, compressionCodec,
+                startHashPrefix, endHashPrefix, 0, false, keyHashFilterBuilder);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while merging " + newBasePath, e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Failed to merge " + newBasePath, e.getCause());
+        }
+      }
+      KeyHashFilter keyHashFilter = null;
+      if (keyHashFilterBitsPerKey > 0) {
+        KeyHashFilter.Builder keyHashFilterBuilder = new KeyHashFilter.Builder(keyHashFilterBitsPerKey);
+        for (KeyHashFilter.Builder rangeKeyHashFilterBuilder : keyHashFilterBuilders) {
+          keyHashFilterBuilder.addAll(rangeKeyHashFilterBuilder);
+        }
+        keyHashFilter = keyHashFilterBuilder.build();
+      }
+      concatenateRanges(rangePaths, newBasePath, hashIndexBits, keyHashFilter, compactHashIndex);
+    } finally {
+      executor.shutdownNow();
+      for (String rangePath : rangePaths) {
+        new File(rangePath).delete();
+      }
+    }
+  }
+
+  // Concatenate the blocks of range files and write a footer indexing all of them
+  private static void concatenateRanges(List<String> rangePaths,
+                                        String newBasePath,
+                                        int hashIndexBits,
+                                        KeyHashFilter keyHashFilter,
+                                        boolean compactHashIndex) throws IOException {
+    long[] hashIndex = new long[1 << hashIndexBits];
+    Arrays.fill(hashIndex, -1);
+    long maxUncompressedBufferSize = 0;
+    long maxCompressedBufferSize = 0;
+
+    FetchThrottle fetchThrottle = FetchThrottle.getFetchThrottle(newBasePath);
+    FileOutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
+    try {
+      FileChannel output = newCueballBaseOutputStream.getChannel();
+      long numBytesWritten = 0;
+      for (String rangePath : rangePaths) {
+        FileInputStream rangeInputStream = new FileInputStream(rangePath);
+        try {
+          FileChannel input = rangeInputStream.getChannel();
+          Footer footer = new Footer(input, hashIndexBits);
+          long[] rangeHashIndex = footer.getHashIndex();
+          // Blocks of a range start at the offset of its first block
+          long dataOffset = -1;
+          for (int i = 0; i < rangeHashIndex.length; ++i) {
+            if (rangeHashIndex[i] != -1) {
+              if (dataOffset == -1) {
+                dataOffset = rangeHashIndex[i];
+              }
+              hashIndex[i] = rangeHashIndex[i] - dataOffset + numBytesWritten;
+            }
+          }
+          if (dataOffset == -1) {
+            // Empty range
+            continue;
+          }
+          long dataLength = footer.getDataLength() - dataOffset;
+          long transferred = 0;
+          while (transferred < dataLength) {
+            long numBytesToTransfer = Math.min(TRANSFER_NUM_BYTES, dataLength - transferred);
+            fetchThrottle.acquireWrittenBytes(numBytesToTransfer);
+            long numBytes = input.transferTo(dataOffset + transferred, numBytesToTransfer, output);
+            if (numBytes <= 0) {
+              throw new IOException("Failed to copy blocks of " + rangePath + " into " + newBasePath);
+            }
+            transferred += numBytes;
+          }
+          numBytesWritten += dataLength;
+          maxUncompressedBufferSize = Math.max(maxUncompressedBufferSize, footer.getMaxUncompressedBufferSize());
+          maxCompressedBufferSize = Math.max(maxCompressedBufferSize, footer.getMaxCompressedBufferSize());
+        } finally {
+          rangeInputStream.close();
+        }
+      }
+      if (keyHashFilter != null) {
+        newCueballBaseOutputStream.write(keyHashFilter.encodeSection());
+      }
+      newCueballBaseOutputStream.write(Footer.encode(hashIndex, maxUncompressedBufferSize, maxCompressedBufferSize,
+          compactHashIndex));
+      newCueballBaseOutputStream.flush();
+    } finally {
+      newCueballBaseOutputStream.close();
+    }
+  }
 }
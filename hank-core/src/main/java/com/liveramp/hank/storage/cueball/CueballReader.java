@@ -20,25 +20,49 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.liveramp.commons.util.ByteBufferMemoryUsageEstimator;
 import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
 import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
-import com.liveramp.hank.util.SynchronizedMemoryBoundCache;
+import com.liveramp.hank.util.ConcurrentMemoryBoundCache;
+import com.liveramp.hank.util.MemoryMappedFile;
 
 public class CueballReader implements Reader {
 
+  private static final Logger LOG = LoggerFactory.getLogger(CueballReader.class);
+
+  // Hash indexes of memory mapped files are verified in the background, so that opening does not
+  // page in the whole footer
+  private static final ExecutorService hashIndexVerifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "Cueball Hash Index Verifier");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
   private static final KeyHashBufferThreadLocal keyHashBufferThreadLocal = new KeyHashBufferThreadLocal();
   private static final ByteBuffer NOT_FOUND_MARKER = ByteBuffer.wrap(new byte[]{});
 
   private final Hasher hasher;
   private final int valueSize;
-  private final long[] hashIndex;
+  private final HashIndex hashIndex;
+  private volatile IOException hashIndexVerificationException;
   private final FileChannel channel;
+  private MemoryMappedFile mappedFile;
   private final int keyHashSize;
   private final int fullRecordSize;
   private final CueballCompressionCodec compressionCodec;
@@ -46,7 +70,11 @@ public class CueballReader implements Reader {
   private int maxCompressedBufferSize;
   private final HashPrefixCalculator prefixer;
   private final int versionNumber;
-  private SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
+  private ConcurrentMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
+  private OffHeapValueCache.Namespace offHeapCache;
+  private final KeyHashFilter keyHashFilter;
+  private final AtomicLong numKeyHashFilterNegatives = new AtomicLong();
+  private final AtomicLong numKeyHashFilterFalsePositives = new AtomicLong();
 
   public CueballReader(String partitionRoot,
                        int keyHashSize,
@@ -56,6 +84,34 @@ public class CueballReader implements Reader {
                        CueballCompressionCodec compressionCodec,
                        long cacheNumBytesCapacity,
                        int cacheNumItemsCapacity) throws IOException {
+    this(partitionRoot, keyHashSize, hasher, valueSize, hashIndexBits, compressionCodec,
+        cacheNumBytesCapacity, cacheNumItemsCapacity, false);
+  }
+
+  public CueballReader(String partitionRoot,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       int hashIndexBits,
+                       CueballCompressionCodec compressionCodec,
+                       long cacheNumBytesCapacity,
+                       int cacheNumItemsCapacity,
+                       boolean memoryMapped) throws IOException {
+    this(partitionRoot, keyHashSize, hasher, valueSize, hashIndexBits, compressionCodec,
+        cacheNumBytesCapacity, cacheNumItemsCapacity, memoryMapped, null);
+  }
+
+  // When an off heap value cache is provided, it is used instead of the heap cache
+  public CueballReader(String partitionRoot,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       int hashIndexBits,
+                       CueballCompressionCodec compressionCodec,
+                       long cacheNumBytesCapacity,
+                       int cacheNumItemsCapacity,
+                       boolean memoryMapped,
+                       OffHeapValueCache offHeapValueCache) throws IOException {
     SortedSet<CueballFilePath> bases = Cueball.getBases(partitionRoot);
     if (bases == null || bases.size() == 0) {
       throw new IOException("Could not detect any Cueball base in " + partitionRoot);
@@ -70,12 +126,34 @@ public class CueballReader implements Reader {
     this.versionNumber = latestBase.getVersion();
 
     channel = new FileInputStream(latestBase.getPath()).getChannel();
-    Footer footer = new Footer(channel, hashIndexBits);
-    hashIndex = footer.getHashIndex();
+    final Footer footer = new Footer(channel, hashIndexBits, memoryMapped, !memoryMapped);
+    hashIndex = footer.getHashIndexView();
+    if (memoryMapped) {
+      final String path = latestBase.getPath();
+      hashIndexVerifier.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            footer.verifyHashIndex();
+          } catch (IOException e) {
+            LOG.error("Invalid hash index in " + path, e);
+            hashIndexVerificationException = e;
+          }
+        }
+      });
+    }
     maxUncompressedBufferSize = footer.getMaxUncompressedBufferSize();
     maxCompressedBufferSize = footer.getMaxCompressedBufferSize();
-    cache = new SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer>(
-        cacheNumBytesCapacity > 0 || cacheNumItemsCapacity > 0,
+    keyHashFilter = footer.readKeyHashFilter(channel);
+    // Map the whole file so that block reads behave exactly as channel reads
+    if (memoryMapped) {
+      mappedFile = new MemoryMappedFile(channel, 0, footer.getFileSize());
+    }
+    if (offHeapValueCache != null) {
+      offHeapCache = offHeapValueCache.newNamespace();
+    }
+    cache = new ConcurrentMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        offHeapCache == null && (cacheNumBytesCapacity > 0 || cacheNumItemsCapacity > 0),
         cacheNumBytesCapacity,
         cacheNumItemsCapacity,
         new ByteBufferMemoryUsageEstimator(),
@@ -84,19 +162,27 @@ public class CueballReader implements Reader {
 
   @Override
   public void get(ByteBuffer key, ReaderResult result) throws IOException {
+    if (hashIndexVerificationException != null) {
+      throw hashIndexVerificationException;
+    }
     // Note: keyHash buffer might be larger than keyHashSize
     byte[] keyHash = computeKeyHash(key);
-    ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash);
+    ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash, 0, keyHashSize);
 
     int hashPrefix = prefixer.getHashPrefix(keyHash, 0);
-    long baseOffset = hashIndex[hashPrefix];
+    long baseOffset = hashIndex.getBlockOffset(hashPrefix);
 
     // by default, we didn't find what we were looking for
     result.notFound();
 
     // baseOffset of -1 means that our hashPrefix doesn't map to any blocks
     if (baseOffset >= 0) {
-      // Attempt to load value from the cache
+      // Absent keys are mostly rejected by the key hash filter, without reading any block
+      if (keyHashFilter != null && !keyHashFilter.mightContain(keyHash, 0, keyHashSize)) {
+        numKeyHashFilterNegatives.incrementAndGet();
+        return;
+      }
+      // Attempt to load value from the cache. False positives are only counted when they cost a block read.
       if (loadValueFromCache(keyHashByteBuffer, result)) {
         return;
       }
@@ -106,7 +192,7 @@ public class CueballReader implements Reader {
       ByteBuffer buffer = result.getBuffer();
       buffer.rewind();
       buffer.limit(maxCompressedBufferSize);
-      int bytesRead = channel.read(buffer, baseOffset);
+      int bytesRead = readBlock(buffer, baseOffset);
 
       // decompress from the beginning of the buffer into the unoccupied end of
       // the buffer
@@ -131,47 +217,73 @@ public class CueballReader implements Reader {
         addValueToCache(keyHashByteBuffer, buffer);
       } else {
         // key not found
+        if (keyHashFilter != null) {
+          numKeyHashFilterFalsePositives.incrementAndGet();
+        }
         addNotFoundToCache(keyHashByteBuffer);
       }
     }
   }
 
+  private int readBlock(ByteBuffer buffer, long offset) throws IOException {
+    if (mappedFile != null) {
+      return mappedFile.read(buffer, offset);
+    } else {
+      return channel.read(buffer, offset);
+    }
+  }
+
   public Integer getVersionNumber() {
     return versionNumber;
   }
 
   @Override
   public CacheStatistics getCacheStatistics() {
+    if (offHeapCache != null) {
+      CacheStatistics statistics = offHeapCache.getCacheStatistics();
+      return new CacheStatistics(
+          statistics.getNumItems(),
+          statistics.getMaxNumItems(),
+          statistics.getNumManagedBytes(),
+          statistics.getMaxNumManagedBytes(),
+          mappedFile == null ? 0 : mappedFile.getLength(),
+          0,
+          0,
+          numKeyHashFilterNegatives.get(),
+          numKeyHashFilterFalsePositives.get());
+    }
     return new CacheStatistics(
         cache.size(),
         cache.getMaxNumItems(),
         cache.getNumManagedBytes(),
-        cache.getMaxNumManagedBytes());
+        cache.getMaxNumManagedBytes(),
+        mappedFile == null ? 0 : mappedFile.getLength(),
+        0,
+        0,
+        numKeyHashFilterNegatives.get(),
+        numKeyHashFilterFalsePositives.get());
   }
 
   @Override
   public void close() throws IOException {
+    if (mappedFile != null) {
+      mappedFile.close();
+      mappedFile = null;
+    }
     channel.close();
+    if (offHeapCache != null) {
+      offHeapCache.close();
+    }
     cache = null;
   }
 
   private int getValueOffset(byte[] keyfileBufferChunk, int off, int limit, byte[] key) {
-    for (; off < limit; off += fullRecordSize) {
-      int comparison = BytesUtils.compareBytesUnsigned(keyfileBufferChunk, off,
-          key, 0, keyHashSize);
-      // found match
-      if (comparison == 0) {
-        return off + keyHashSize;
-      }
-
-      // passed the spot where our key could have been found, so not going to
-      // find it
-      if (comparison == 1) {
-        break;
-      }
+    int recordOffset = KeyHashSearch.search(keyfileBufferChunk, off, limit, fullRecordSize, key, keyHashSize);
+    // -1 means that we didn't find it
+    if (recordOffset < 0) {
+      return -1;
     }
-    // looked everywhere, didn't find it!
-    return -1;
+    return recordOffset + keyHashSize;
   }
 
   private static class KeyHashBufferThreadLocal extends ThreadLocal<byte[]> {
@@ -202,15 +314,30 @@ public class CueballReader implements Reader {
   }
 
   private void addValueToCache(ByteBuffer keyHash, ByteBuffer value) {
+    if (offHeapCache != null) {
+      offHeapCache.putValue(keyHash, value);
+      return;
+    }
     cache.put(BytesUtils.byteBufferDeepCopy(keyHash), BytesUtils.byteBufferDeepCopy(value));
   }
 
   private void addNotFoundToCache(ByteBuffer keyHash) {
+    if (offHeapCache != null) {
+      offHeapCache.putNotFound(keyHash);
+      return;
+    }
     cache.put(BytesUtils.byteBufferDeepCopy(keyHash), NOT_FOUND_MARKER);
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
   private boolean loadValueFromCache(ByteBuffer keyHash, ReaderResult result) {
+    if (offHeapCache != null) {
+      if (offHeapCache.get(keyHash, result)) {
+        result.setL1CacheHit(true);
+        return true;
+      }
+      return false;
+    }
     ByteBuffer value;
     value = cache.get(keyHash);
     if (value != null) {
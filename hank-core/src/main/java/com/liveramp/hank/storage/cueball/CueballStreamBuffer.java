@@ -41,7 +41,8 @@ public final class CueballStreamBuffer {
   private final byte[] uncompressedBuffer;
   private final byte[] compressedBuffer;
 
-  private int currentHashIndexIdx = -1;
+  private int currentHashIndexIdx;
+  private final int endHashIndexIdx;
   private final CueballCompressionCodec compressionCodec;
   private final long dataLength;
 
@@ -52,19 +53,51 @@ public final class CueballStreamBuffer {
                              int hashIndexBits,
                              CueballCompressionCodec compressionCodec)
       throws IOException {
+    this(filePath, relativeIndex, keyHashSize, valueSize, hashIndexBits, compressionCodec, 0, 1 << hashIndexBits);
+  }
+
+  /**
+   * Only stream the blocks of hash prefixes in [startHashPrefix, endHashPrefix)
+   */
+  public CueballStreamBuffer(String filePath,
+                             int relativeIndex,
+                             int keyHashSize,
+                             int valueSize,
+                             int hashIndexBits,
+                             CueballCompressionCodec compressionCodec,
+                             int startHashPrefix,
+                             int endHashPrefix)
+      throws IOException {
     this.relativeIndex = relativeIndex;
     this.compressionCodec = compressionCodec;
     FileInputStream fileInputStream = new FileInputStream(filePath);
-    this.stream = new BufferedInputStream(fileInputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
 
     this.keyHashSize = keyHashSize;
     this.fullRecordSize = valueSize + keyHashSize;
 
-    Footer footer = new Footer(fileInputStream.getChannel(), hashIndexBits);
+    Footer footer;
+    try {
+      footer = new Footer(fileInputStream.getChannel(), hashIndexBits);
+    } catch (IOException e) {
+      fileInputStream.close();
+      throw e;
+    }
     dataLength = footer.getDataLength();
     hashIndex = footer.getHashIndex();
     uncompressedBuffer = new byte[footer.getMaxUncompressedBufferSize()];
     compressedBuffer = new byte[footer.getMaxCompressedBufferSize()];
+
+    currentHashIndexIdx = startHashPrefix - 1;
+    endHashIndexIdx = Math.min(endHashPrefix, hashIndex.length);
+
+    // Skip to the first block of the range
+    for (int i = startHashPrefix; i < endHashIndexIdx; ++i) {
+      if (hashIndex[i] != -1) {
+        fileInputStream.getChannel().position(hashIndex[i]);
+        break;
+      }
+    }
+    this.stream = new BufferedInputStream(fileInputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
   }
 
   public boolean anyRemaining() throws IOException {
@@ -79,14 +112,14 @@ public final class CueballStreamBuffer {
 
     // advance to the next non-empty block
     currentHashIndexIdx++;
-    while (currentHashIndexIdx < hashIndex.length) {
+    while (currentHashIndexIdx < endHashIndexIdx) {
       if (hashIndex[currentHashIndexIdx] != -1) {
         break;
       }
       currentHashIndexIdx++;
     }
 
-    if (currentHashIndexIdx >= hashIndex.length) {
+    if (currentHashIndexIdx >= endHashIndexIdx) {
       // there are no more blocks. we're all done
       complete = true;
       return false;
@@ -29,6 +29,12 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
   private final int valueSize;
   private final ValueTransformer transformer;
 
+  // Binary min heap of the stream buffers that have records remaining
+  private final CueballStreamBuffer[] heap;
+  private int heapSize = 0;
+  private boolean initialized = false;
+  private CueballStreamBuffer lastUsedStreamBuffer = null;
+
   public static class Factory implements ICueballStreamBufferMergeSortFactory {
     private final int keyHashSize;
     private final int valueSize;
@@ -70,22 +76,40 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
                                       int hashIndexBits,
                                       CueballCompressionCodec compressionCodec,
                                       ValueTransformer transformer) throws IOException {
+    this(cueballBase, cueballDeltas, keyHashSize, valueSize, hashIndexBits, compressionCodec, transformer,
+        0, 1 << hashIndexBits);
+  }
+
+  /**
+   * Only merge key hashes with a hash prefix in [startHashPrefix, endHashPrefix)
+   */
+  public CueballStreamBufferMergeSort(CueballFilePath cueballBase,
+                                      List<CueballFilePath> cueballDeltas,
+                                      int keyHashSize,
+                                      int valueSize,
+                                      int hashIndexBits,
+                                      CueballCompressionCodec compressionCodec,
+                                      ValueTransformer transformer,
+                                      int startHashPrefix,
+                                      int endHashPrefix) throws IOException {
     this.keyHashSize = keyHashSize;
     this.valueSize = valueSize;
     this.transformer = transformer;
 
     cueballStreamBuffers = new CueballStreamBuffer[cueballDeltas.size() + 1];
+    heap = new CueballStreamBuffer[cueballStreamBuffers.length];
 
     // Open the base
     CueballStreamBuffer cueballBaseStreamBuffer = new CueballStreamBuffer(cueballBase.getPath(), 0,
-        keyHashSize, valueSize, hashIndexBits, compressionCodec);
+        keyHashSize, valueSize, hashIndexBits, compressionCodec, startHashPrefix, endHashPrefix);
     cueballStreamBuffers[0] = cueballBaseStreamBuffer;
 
     // Open all the deltas
     int i = 1;
     for (CueballFilePath delta : cueballDeltas) {
       CueballStreamBuffer cueballStreamBuffer =
-          new CueballStreamBuffer(delta.getPath(), i, keyHashSize, valueSize, hashIndexBits, compressionCodec);
+          new CueballStreamBuffer(delta.getPath(), i, keyHashSize, valueSize, hashIndexBits, compressionCodec,
+              startHashPrefix, endHashPrefix);
       cueballStreamBuffers[i++] = cueballStreamBuffer;
     }
   }
@@ -94,37 +118,41 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
   @Override
   public KeyHashAndValueAndStreamIndex nextKeyHashAndValueAndStreamIndex() throws IOException {
 
-    // Find the stream buffer with the next smallest key hash
-    CueballStreamBuffer cueballStreamBufferToUse = null;
-    int cueballStreamBufferToUseIndex = -1;
-
-    for (int i = 0; i < cueballStreamBuffers.length; i++) {
-      if (cueballStreamBuffers[i].anyRemaining()) {
-        if (cueballStreamBufferToUse == null) {
-          cueballStreamBufferToUse = cueballStreamBuffers[i];
-          cueballStreamBufferToUseIndex = i;
-        } else {
-          int comparison = cueballStreamBufferToUse.compareTo(cueballStreamBuffers[i]);
-          if (comparison == 0) {
-            // If two equal key hashes are found, use the most recent value (i.e. the one from the lastest delta)
-            // and skip (consume) the older ones
-            cueballStreamBufferToUse.consume();
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          } else if (comparison == 1) {
-            // Found a stream buffer with a smaller key hash
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          }
+    if (!initialized) {
+      for (CueballStreamBuffer cueballStreamBuffer : cueballStreamBuffers) {
+        if (cueballStreamBuffer.anyRemaining()) {
+          heapPush(cueballStreamBuffer);
         }
       }
+      initialized = true;
+    }
+
+    // The stream buffer used last time can only be refilled now that its record has been written
+    if (lastUsedStreamBuffer != null) {
+      if (lastUsedStreamBuffer.anyRemaining()) {
+        heapPush(lastUsedStreamBuffer);
+      }
+      lastUsedStreamBuffer = null;
     }
 
-    if (cueballStreamBufferToUse == null) {
+    if (heapSize == 0) {
       // Nothing more to read
       return null;
     }
 
+    // The stream buffer with the next smallest key hash. On equal key hashes the most recent one
+    // (i.e. the one from the latest delta) comes first.
+    CueballStreamBuffer cueballStreamBufferToUse = heapPop();
+
+    // Skip (consume) older values of the same key hash
+    while (heapSize > 0 && heap[0].compareTo(cueballStreamBufferToUse) == 0) {
+      CueballStreamBuffer olderStreamBuffer = heapPop();
+      olderStreamBuffer.consume();
+      if (olderStreamBuffer.anyRemaining()) {
+        heapPush(olderStreamBuffer);
+      }
+    }
+
     // Transform if necessary
     if (transformer != null) {
       transformer.transform(cueballStreamBufferToUse.getBuffer(),
@@ -139,8 +167,52 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
         cueballStreamBufferToUse.getCurrentOffset() + keyHashSize, valueSize);
 
     cueballStreamBufferToUse.consume();
+    lastUsedStreamBuffer = cueballStreamBufferToUse;
+
+    return new KeyHashAndValueAndStreamIndex(keyHash, valueBytes, cueballStreamBufferToUse.getIndex());
+  }
+
+  private static boolean isBefore(CueballStreamBuffer a, CueballStreamBuffer b) {
+    int comparison = a.compareTo(b);
+    return comparison < 0 || (comparison == 0 && a.getIndex() > b.getIndex());
+  }
+
+  private void heapPush(CueballStreamBuffer cueballStreamBuffer) {
+    int i = heapSize++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!isBefore(cueballStreamBuffer, heap[parent])) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = cueballStreamBuffer;
+  }
 
-    return new KeyHashAndValueAndStreamIndex(keyHash, valueBytes, cueballStreamBufferToUseIndex);
+  private CueballStreamBuffer heapPop() {
+    CueballStreamBuffer result = heap[0];
+    CueballStreamBuffer last = heap[--heapSize];
+    heap[heapSize] = null;
+    if (heapSize > 0) {
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= heapSize) {
+          break;
+        }
+        if (child + 1 < heapSize && isBefore(heap[child + 1], heap[child])) {
+          child++;
+        }
+        if (!isBefore(heap[child], last)) {
+          break;
+        }
+        heap[i] = heap[child];
+        i = child;
+      }
+      heap[i] = last;
+    }
+    return result;
   }
 
   @Override
@@ -25,7 +25,6 @@ import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
 import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.storage.Writer;
-import com.liveramp.hank.util.EncodingHelper;
 import com.liveramp.hank.util.IOStreamUtils;
 
 /**
@@ -47,6 +46,8 @@ public class CueballWriter implements Writer {
   private ByteBuffer previousKey = null;
 
   private final long[] hashIndex;
+  private final KeyHashFilter.Builder keyHashFilterBuilder;
+  private final boolean compactHashIndex;
 
   private final HashPrefixCalculator prefixer;
   private int lastHashPrefix = -1;
@@ -64,6 +65,29 @@ public class CueballWriter implements Writer {
                        int valueSize,
                        CueballCompressionCodec compressionCodec,
                        int hashIndexBits) {
+    this(outputStream, keyHashSize, hasher, valueSize, compressionCodec, hashIndexBits, 0);
+  }
+
+  // A key hash filter is written when keyHashFilterBitsPerKey is positive
+  public CueballWriter(OutputStream outputStream,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       CueballCompressionCodec compressionCodec,
+                       int hashIndexBits,
+                       int keyHashFilterBitsPerKey) {
+    this(outputStream, keyHashSize, hasher, valueSize, compressionCodec, hashIndexBits, keyHashFilterBitsPerKey, false);
+  }
+
+  // The hash index is written in the compact format when compactHashIndex is true, see HashIndex
+  public CueballWriter(OutputStream outputStream,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       CueballCompressionCodec compressionCodec,
+                       int hashIndexBits,
+                       int keyHashFilterBitsPerKey,
+                       boolean compactHashIndex) {
     // Buffer output
     this.stream = new BufferedOutputStream(outputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
     this.keyHashSize = keyHashSize;
@@ -82,6 +106,9 @@ public class CueballWriter implements Writer {
 
     hashIndex = new long[1 << hashIndexBits];
     Arrays.fill(hashIndex, -1);
+
+    keyHashFilterBuilder = keyHashFilterBitsPerKey > 0 ? new KeyHashFilter.Builder(keyHashFilterBitsPerKey) : null;
+    this.compactHashIndex = compactHashIndex;
   }
 
   @Override
@@ -172,6 +199,9 @@ public class CueballWriter implements Writer {
     }
     System.arraycopy(hashedKey.array(), hashedKey.arrayOffset()
         + hashedKey.position(), uncompressedBuffer, uncompressedOffset, keyHashSize);
+    if (keyHashFilterBuilder != null) {
+      keyHashFilterBuilder.add(uncompressedBuffer, uncompressedOffset, keyHashSize);
+    }
 
     // encode the value offset and write it out
     System.arraycopy(value.array(), value.arrayOffset() + value.position(), uncompressedBuffer, uncompressedOffset
@@ -207,16 +237,15 @@ public class CueballWriter implements Writer {
       clearUncompressed();
     }
 
-    // serialize the footer
-    byte[] footer = new byte[8 * hashIndex.length + 4 + 4];
-
-    for (int i = 0; i < hashIndex.length; i++) {
-      EncodingHelper.encodeLittleEndianFixedWidthLong(hashIndex[i], footer, i * 8, 8);
+    // write the key hash filter section, if any
+    if (keyHashFilterBuilder != null) {
+      byte[] keyHashFilterSection = keyHashFilterBuilder.build().encodeSection();
+      stream.write(keyHashFilterSection);
+      numBytesWritten += keyHashFilterSection.length;
     }
 
-    // write the buffer size hints
-    EncodingHelper.encodeLittleEndianFixedWidthLong(maxUncompressedBlockSize, footer, footer.length - 8, 4);
-    EncodingHelper.encodeLittleEndianFixedWidthLong(maxCompressedBlockSize, footer, footer.length - 4, 4);
+    // serialize the footer
+    byte[] footer = Footer.encode(hashIndex, maxUncompressedBlockSize, maxCompressedBlockSize, compactHashIndex);
 
     stream.write(footer);
 
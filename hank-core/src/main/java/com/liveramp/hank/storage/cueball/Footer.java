@@ -7,50 +7,126 @@ import java.nio.channels.FileChannel;
 import com.liveramp.hank.util.EncodingHelper;
 
 final class Footer {
-  private final long[] hashIndex;
+
+  // Ends footers whose hash index is compact. Legacy footers can not end with it since
+  // their last 4 bytes are a non negative buffer size.
+  static final long COMPACT_HASH_INDEX_MAGIC = 0xc0ba11c0ba11c0b1L;
+  private static final int BUFFER_SIZES_LENGTH = 8;
+
+  private final HashIndex hashIndex;
   private final int maxUncompressedBufferSize;
   private final int maxCompressedBufferSize;
   private final long fileSize;
   private final int footerLength;
+  // Optional key hash filter section, between the blocks and the footer
+  private long keyHashFilterOffset = -1;
+  private int keyHashFilterLength = 0;
 
   public Footer(FileChannel channel, int hashIndexBits) throws IOException {
+    this(channel, hashIndexBits, false, true);
+  }
+
+  // When memoryMapped, the hash index is read directly from a mapping of the footer. When verifyHashIndex
+  // is false, block offsets are not checked when opening, see verifyHashIndex().
+  public Footer(FileChannel channel, int hashIndexBits, boolean memoryMapped, boolean verifyHashIndex) throws IOException {
     fileSize = channel.size();
 
     final int hashIndexSize = 1 << hashIndexBits;
-    footerLength = hashIndexSize * 8 + 8;
-
-    byte[] footer = new byte[getFooterLength()];
-    int read = channel.read(ByteBuffer.wrap(footer), getFileSize() - getFooterLength());
-    if (read != getFooterLength()) {
-      throw new IOException("Tried to read " + getFooterLength() + " bytes of footer, but only got " + read + " bytes!");
+    final boolean compact = isCompact(channel, fileSize);
+    final long hashIndexLength = HashIndex.getEncodedLength(hashIndexSize, compact);
+    final long length = hashIndexLength + BUFFER_SIZES_LENGTH + (compact ? 8 : 0);
+    if (length > Integer.MAX_VALUE || length > fileSize) {
+      throw new IOException("Footer of " + length + " bytes does not fit in a file of " + fileSize + " bytes");
     }
+    footerLength = (int) length;
+    final long footerOffset = getFileSize() - getFooterLength();
 
-    hashIndex = new long[hashIndexSize];
-    for (int i = 0; i < getHashIndex().length; i++) {
-      final long offset = EncodingHelper.decodeLittleEndianFixedWidthLong(footer, i * 8, 8);
-      if (offset < -1) {
-        throw new IOException(String.format("Read an unexpectedly negative block offset (%d) at block position %d!", offset, i));
+    ByteBuffer hashIndexBuffer;
+    if (memoryMapped) {
+      hashIndexBuffer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, hashIndexLength);
+    } else {
+      hashIndexBuffer = ByteBuffer.allocate((int) hashIndexLength);
+      int read = channel.read(hashIndexBuffer, footerOffset);
+      if (hashIndexLength > 0 && read != hashIndexLength) {
+        throw new IOException("Tried to read " + hashIndexLength + " bytes of hash index, but only got " + read + " bytes!");
       }
-      if (offset != -1 && i > 0 && hashIndex[i-1] != -1 && hashIndex[i-1] >= offset) {
-        throw new IOException(String.format("Discovered an offset inversion! block %d offset: %d, block %d offset: %d", i-1, hashIndex[i-1], i, offset));
-      }
-      getHashIndex()[i] = offset;
+      hashIndexBuffer.flip();
+    }
+    hashIndex = new HashIndex(hashIndexBuffer, hashIndexSize, compact);
+    if (verifyHashIndex) {
+      verifyHashIndex();
     }
 
-    maxUncompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(footer, footer.length - 8, 4);
+    byte[] bufferSizes = new byte[BUFFER_SIZES_LENGTH];
+    int read = channel.read(ByteBuffer.wrap(bufferSizes), footerOffset + hashIndexLength);
+    if (read != bufferSizes.length) {
+      throw new IOException("Tried to read " + bufferSizes.length + " bytes of buffer sizes, but only got " + read + " bytes!");
+    }
+    maxUncompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bufferSizes, 0, 4);
     if (maxUncompressedBufferSize < 0) {
       throw new IOException(String.format("Read an invalid max uncompressed buffer size of %d!", maxUncompressedBufferSize));
     }
-    maxCompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(footer, footer.length - 4, 4);
+    maxCompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bufferSizes, 4, 4);
     if (maxCompressedBufferSize < 0) {
       throw new IOException(String.format("Read an invalid max uncompressed buffer size of %d!", maxCompressedBufferSize));
     }
+
+    readKeyHashFilterSectionTrailer(channel);
+  }
+
+  private void readKeyHashFilterSectionTrailer(FileChannel channel) throws IOException {
+    long trailerOffset = getFileSize() - getFooterLength() - KeyHashFilter.SECTION_TRAILER_LENGTH;
+    if (trailerOffset < 0) {
+      return;
+    }
+    byte[] trailer = new byte[KeyHashFilter.SECTION_TRAILER_LENGTH];
+    int read = channel.read(ByteBuffer.wrap(trailer), trailerOffset);
+    if (read != trailer.length
+        || EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 8, 8) != KeyHashFilter.MAGIC) {
+      return;
+    }
+    long length = EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 0, 8);
+    long offset = trailerOffset - length;
+    if (length <= 0 || length > Integer.MAX_VALUE || offset < 0) {
+      return;
+    }
+    // Blocks all start before the filter section
+    if (hashIndex.getLastBlockOffset() >= offset) {
+      return;
+    }
+    keyHashFilterOffset = offset;
+    keyHashFilterLength = (int) length;
   }
 
+  private static boolean isCompact(FileChannel channel, long fileSize) throws IOException {
+    if (fileSize < 8) {
+      return false;
+    }
+    byte[] magic = new byte[8];
+    int read = channel.read(ByteBuffer.wrap(magic), fileSize - 8);
+    return read == magic.length
+        && EncodingHelper.decodeLittleEndianFixedWidthLong(magic, 0, 8) == COMPACT_HASH_INDEX_MAGIC;
+  }
+
+  // Decode the whole hash index into an array
   public long[] getHashIndex() {
+    return hashIndex.toArray();
+  }
+
+  // Block offsets are read from the footer on demand
+  public HashIndex getHashIndexView() {
     return hashIndex;
   }
 
+  public boolean isCompactHashIndex() {
+    return hashIndex.isCompact();
+  }
+
+  // Check that block offsets are valid and increasing, which reads the whole hash index
+  public void verifyHashIndex() throws IOException {
+    hashIndex.verify();
+  }
+
   public int getMaxCompressedBufferSize() {
     return maxCompressedBufferSize;
   }
@@ -67,7 +143,53 @@ final class Footer {
     return footerLength;
   }
   
+  // Length of the blocks, excluding the optional key hash filter section
   public long getDataLength() {
+    if (hasKeyHashFilter()) {
+      return keyHashFilterOffset;
+    }
     return getFileSize() - getFooterLength();
   }
+
+  public boolean hasKeyHashFilter() {
+    return keyHashFilterOffset >= 0;
+  }
+
+  // Return null when the file does not contain a key hash filter
+  public KeyHashFilter readKeyHashFilter(FileChannel channel) throws IOException {
+    if (!hasKeyHashFilter()) {
+      return null;
+    }
+    byte[] filter = new byte[keyHashFilterLength];
+    int read = channel.read(ByteBuffer.wrap(filter), keyHashFilterOffset);
+    if (read != keyHashFilterLength) {
+      throw new IOException("Tried to read " + keyHashFilterLength + " bytes of key hash filter, but only got " + read + " bytes!");
+    }
+    return KeyHashFilter.decode(filter);
+  }
+
+  public static byte[] encode(long[] hashIndex, long maxUncompressedBufferSize, long maxCompressedBufferSize) {
+    return encode(hashIndex, maxUncompressedBufferSize, maxCompressedBufferSize, false);
+  }
+
+  // A compact hash index is written when requested and when block offsets allow it
+  public static byte[] encode(long[] hashIndex, long maxUncompressedBufferSize, long maxCompressedBufferSize, boolean compact) {
+    byte[] encodedHashIndex = compact ? HashIndex.encodeCompact(hashIndex) : null;
+    if (encodedHashIndex == null) {
+      compact = false;
+      encodedHashIndex = HashIndex.encode(hashIndex);
+    }
+    byte[] footer = new byte[encodedHashIndex.length + BUFFER_SIZES_LENGTH + (compact ? 8 : 0)];
+    System.arraycopy(encodedHashIndex, 0, footer, 0, encodedHashIndex.length);
+
+    // write the buffer size hints
+    EncodingHelper.encodeLittleEndianFixedWidthLong(maxUncompressedBufferSize, footer, encodedHashIndex.length, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(maxCompressedBufferSize, footer, encodedHashIndex.length + 4, 4);
+
+    if (compact) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(COMPACT_HASH_INDEX_MAGIC, footer, footer.length - 8, 8);
+    }
+
+    return footer;
+  }
 }
@@ -0,0 +1,153 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.cueball;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.liveramp.hank.util.EncodingHelper;
+
+/**
+ * Block offsets of the hash prefixes of a Cueball file, read directly from the encoded hash index
+ * (possibly memory mapped) instead of being decoded into an array. Offsets are either encoded as
+ * 8 bytes each, or compactly as 4 bytes relative to the first block of their group of hash prefixes,
+ * with 8 bytes per group for that first block's offset.
+ */
+final class HashIndex {
+
+  static final int GROUP_SIZE_BITS = 6;
+  private static final long NO_BLOCK_RELATIVE_OFFSET = 0xffffffffL;
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final boolean compact;
+  private final int relativeOffsetsStart;
+
+  // Offsets are read from the beginning of the given buffer, which must not be modified
+  HashIndex(ByteBuffer buffer, int size, boolean compact) {
+    this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    this.size = size;
+    this.compact = compact;
+    this.relativeOffsetsStart = compact ? getNumGroups(size) * 8 : 0;
+  }
+
+  // Return -1 when no block starts with the given hash prefix
+  public long getBlockOffset(int hashPrefix) {
+    if (!compact) {
+      return buffer.getLong(hashPrefix << 3);
+    }
+    long relativeOffset = buffer.getInt(relativeOffsetsStart + (hashPrefix << 2)) & 0xffffffffL;
+    if (relativeOffset == NO_BLOCK_RELATIVE_OFFSET) {
+      return -1;
+    }
+    return buffer.getLong((hashPrefix >>> GROUP_SIZE_BITS) << 3) + relativeOffset;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isCompact() {
+    return compact;
+  }
+
+  // Return -1 when there is no block
+  public long getLastBlockOffset() {
+    for (int i = size - 1; i >= 0; --i) {
+      long offset = getBlockOffset(i);
+      if (offset != -1) {
+        return offset;
+      }
+    }
+    return -1;
+  }
+
+  public long[] toArray() {
+    long[] result = new long[size];
+    for (int i = 0; i < size; ++i) {
+      result[i] = getBlockOffset(i);
+    }
+    return result;
+  }
+
+  // Check that offsets are valid and increasing. This reads the whole index.
+  public void verify() throws IOException {
+    long previousOffset = -1;
+    for (int i = 0; i < size; ++i) {
+      final long offset = getBlockOffset(i);
+      if (offset < -1) {
+        throw new IOException(String.format("Read an unexpectedly negative block offset (%d) at block position %d!", offset, i));
+      }
+      if (offset != -1 && i > 0 && previousOffset != -1 && previousOffset >= offset) {
+        throw new IOException(String.format("Discovered an offset inversion! block %d offset: %d, block %d offset: %d", i - 1, previousOffset, i, offset));
+      }
+      previousOffset = offset;
+    }
+  }
+
+  static int getNumGroups(int size) {
+    return (int)(((long)size + (1 << GROUP_SIZE_BITS) - 1) >>> GROUP_SIZE_BITS);
+  }
+
+  static long getEncodedLength(int size, boolean compact) {
+    if (compact) {
+      return getNumGroups(size) * 8L + size * 4L;
+    } else {
+      return size * 8L;
+    }
+  }
+
+  static byte[] encode(long[] hashIndex) {
+    byte[] result = new byte[hashIndex.length * 8];
+    for (int i = 0; i < hashIndex.length; i++) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(hashIndex[i], result, i * 8, 8);
+    }
+    return result;
+  }
+
+  // Return null when the blocks of a group of hash prefixes span too many bytes to be encoded compactly
+  static byte[] encodeCompact(long[] hashIndex) {
+    int numGroups = getNumGroups(hashIndex.length);
+    byte[] result = new byte[(int)getEncodedLength(hashIndex.length, true)];
+    for (int group = 0; group < numGroups; ++group) {
+      int start = group << GROUP_SIZE_BITS;
+      int end = Math.min(hashIndex.length, start + (1 << GROUP_SIZE_BITS));
+      // The first block of the group is the one with the smallest offset
+      long groupOffset = 0;
+      for (int i = start; i < end; ++i) {
+        if (hashIndex[i] != -1) {
+          groupOffset = hashIndex[i];
+          break;
+        }
+      }
+      EncodingHelper.encodeLittleEndianFixedWidthLong(groupOffset, result, group * 8, 8);
+      for (int i = start; i < end; ++i) {
+        long relativeOffset;
+        if (hashIndex[i] == -1) {
+          relativeOffset = NO_BLOCK_RELATIVE_OFFSET;
+        } else {
+          relativeOffset = hashIndex[i] - groupOffset;
+          if (relativeOffset < 0 || relativeOffset >= NO_BLOCK_RELATIVE_OFFSET) {
+            return null;
+          }
+        }
+        EncodingHelper.encodeLittleEndianFixedWidthLong(relativeOffset, result, numGroups * 8 + i * 4, 4);
+      }
+    }
+    return result;
+  }
+}
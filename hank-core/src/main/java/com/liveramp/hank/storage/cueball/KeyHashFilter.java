@@ -0,0 +1,327 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.cueball;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.liveramp.hank.util.EncodingHelper;
+
+/**
+ * Blocked Bloom filter over the key hashes of a Cueball file, used to answer most lookups
+ * of absent keys without reading any block. All probes of a key hash fall in the same
+ * 512-bit block so that a lookup touches a single cache line.
+ *
+ * Key hashes are added in increasing order and the filter is made of chunks covering
+ * consecutive ranges of key hashes, so that it can be built while holding the fingerprints
+ * of a single chunk. Each chunk is sized from its own number of keys.
+ *
+ * The filter is written as an optional section between the blocks and the footer:
+ * the encoded filter, its length on 8 bytes and a magic number on 8 bytes. The encoded
+ * filter is a header, the upper bound and first block of each chunk, and the blocks.
+ */
+public final class KeyHashFilter {
+
+  static final long MAGIC = 0x4855434b46494c54L;
+  static final int SECTION_TRAILER_LENGTH = 16;
+
+  private static final int HEADER_LENGTH = 12;
+  private static final int CHUNK_LENGTH = 12;
+  private static final int BLOCK_NUM_BITS = 512;
+  private static final int BLOCK_NUM_LONGS = BLOCK_NUM_BITS / 64;
+  private static final int PROBE_NUM_BITS = 9;
+  private static final int MAX_NUM_PROBES = 64 / PROBE_NUM_BITS;
+
+  private final int numProbes;
+  private final int numBlocks;
+  // Largest key hash prefix of each chunk, the last chunk covers all greater prefixes
+  private final long[] chunkUpperBounds;
+  // First block of each chunk, followed by the total number of blocks
+  private final int[] chunkFirstBlocks;
+  private final long[] bits;
+
+  private KeyHashFilter(int numProbes, int numBlocks, long[] chunkUpperBounds, int[] chunkFirstBlocks, long[] bits) {
+    this.numProbes = numProbes;
+    this.numBlocks = numBlocks;
+    this.chunkUpperBounds = chunkUpperBounds;
+    this.chunkFirstBlocks = chunkFirstBlocks;
+    this.bits = bits;
+  }
+
+  public boolean mightContain(byte[] keyHash, int off, int keyHashSize) {
+    int chunk = getChunk(getKeyHashPrefix(keyHash, off, keyHashSize));
+    long fingerprint = getFingerprint(keyHash, off, keyHashSize);
+    int blockOffset = getBlock(fingerprint, chunkFirstBlocks[chunk], chunkFirstBlocks[chunk + 1]) * BLOCK_NUM_LONGS;
+    long probes = mix(fingerprint);
+    for (int i = 0; i < numProbes; ++i) {
+      int bit = (int) (probes >>> (i * PROBE_NUM_BITS)) & (BLOCK_NUM_BITS - 1);
+      if ((bits[blockOffset + (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // First chunk whose upper bound is not lower than the given prefix
+  private int getChunk(long keyHashPrefix) {
+    int low = 0;
+    int high = chunkUpperBounds.length - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareKeyHashPrefixes(chunkUpperBounds[middle], keyHashPrefix) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static void addFingerprint(long fingerprint, int numProbes, int firstBlock, int endBlock, long[] bits) {
+    int blockOffset = getBlock(fingerprint, firstBlock, endBlock) * BLOCK_NUM_LONGS;
+    long probes = mix(fingerprint);
+    for (int i = 0; i < numProbes; ++i) {
+      int bit = (int) (probes >>> (i * PROBE_NUM_BITS)) & (BLOCK_NUM_BITS - 1);
+      bits[blockOffset + (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  private static int getBlock(long fingerprint, int firstBlock, int endBlock) {
+    return firstBlock + (int) (((fingerprint >>> 32) * (endBlock - firstBlock)) >>> 32);
+  }
+
+  public long getNumBytes() {
+    return HEADER_LENGTH + (long) CHUNK_LENGTH * chunkUpperBounds.length + 8L * bits.length;
+  }
+
+  // Encoded filter followed by the section trailer
+  public byte[] encodeSection() {
+    int length = (int) getNumBytes();
+    byte[] result = new byte[length + SECTION_TRAILER_LENGTH];
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numProbes, result, 0, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numBlocks, result, 4, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(chunkUpperBounds.length, result, 8, 4);
+    int offset = HEADER_LENGTH;
+    for (int i = 0; i < chunkUpperBounds.length; ++i) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(chunkUpperBounds[i], result, offset, 8);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(chunkFirstBlocks[i], result, offset + 8, 4);
+      offset += CHUNK_LENGTH;
+    }
+    for (int i = 0; i < bits.length; ++i) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(bits[i], result, offset + i * 8, 8);
+    }
+    EncodingHelper.encodeLittleEndianFixedWidthLong(length, result, length, 8);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(MAGIC, result, length + 8, 8);
+    return result;
+  }
+
+  public static KeyHashFilter decode(byte[] bytes) throws IOException {
+    if (bytes.length < HEADER_LENGTH) {
+      throw new IOException("Invalid key hash filter of " + bytes.length + " bytes");
+    }
+    int numProbes = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, 0, 4);
+    int numBlocks = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, 4, 4);
+    int numChunks = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, 8, 4);
+    if (numProbes < 1 || numProbes > MAX_NUM_PROBES || numBlocks < numChunks || numChunks < 1
+        || bytes.length != HEADER_LENGTH + (long) CHUNK_LENGTH * numChunks + 8L * numBlocks * BLOCK_NUM_LONGS) {
+      throw new IOException("Invalid key hash filter with " + numProbes + " probes, " + numChunks + " chunks and "
+          + numBlocks + " blocks in " + bytes.length + " bytes");
+    }
+    long[] chunkUpperBounds = new long[numChunks];
+    int[] chunkFirstBlocks = new int[numChunks + 1];
+    int offset = HEADER_LENGTH;
+    for (int i = 0; i < numChunks; ++i) {
+      chunkUpperBounds[i] = EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, offset, 8);
+      chunkFirstBlocks[i] = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, offset + 8, 4);
+      offset += CHUNK_LENGTH;
+    }
+    chunkFirstBlocks[numChunks] = numBlocks;
+    for (int i = 0; i < numChunks; ++i) {
+      if (chunkFirstBlocks[i] >= chunkFirstBlocks[i + 1]
+          || (i > 0 && compareKeyHashPrefixes(chunkUpperBounds[i - 1], chunkUpperBounds[i]) >= 0)) {
+        throw new IOException("Invalid chunk " + i + " of key hash filter");
+      }
+    }
+    long[] bits = new long[numBlocks * BLOCK_NUM_LONGS];
+    for (int i = 0; i < bits.length; ++i) {
+      bits[i] = EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, offset + i * 8, 8);
+    }
+    return new KeyHashFilter(numProbes, numBlocks, chunkUpperBounds, chunkFirstBlocks, bits);
+  }
+
+  // First 8 bytes of the key hash, padded with zeros, in the same order as key hashes
+  static long getKeyHashPrefix(byte[] keyHash, int off, int keyHashSize) {
+    long result = 0;
+    for (int i = 0; i < 8; ++i) {
+      result = (result << 8) | (i < keyHashSize ? keyHash[off + i] & 0xff : 0);
+    }
+    return result;
+  }
+
+  private static int compareKeyHashPrefixes(long a, long b) {
+    return Long.compare(a + Long.MIN_VALUE, b + Long.MIN_VALUE);
+  }
+
+  // Key hashes are uniformly distributed but can be shorter than 8 bytes, so they are folded and mixed
+  static long getFingerprint(byte[] keyHash, int off, int keyHashSize) {
+    long result = 0xcbf29ce484222325L;
+    for (int i = off; i < off + keyHashSize; ++i) {
+      result = (result ^ (keyHash[i] & 0xff)) * 0x100000001b3L;
+    }
+    return mix(result);
+  }
+
+  // Murmur3 finalizer
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  /**
+   * Accumulates the fingerprints of a chunk of key hashes until it is full, and then
+   * adds them to the blocks of that chunk. Key hashes must be added in increasing order.
+   * The number of bits per key is needed to size chunks, so it is given up front.
+   */
+  public static class Builder {
+
+    private static final int DEFAULT_CHUNK_NUM_KEYS = 1 << 16;
+
+    private final int numProbes;
+    private final int bitsPerKey;
+    private final int chunkNumKeys;
+    private final long[] fingerprints;
+    private int numFingerprints = 0;
+    private long lastKeyHashPrefix;
+
+    private long[] chunkUpperBounds = new long[16];
+    private int[] chunkFirstBlocks = new int[16];
+    private int numChunks = 0;
+    private long[] bits = new long[0];
+    private int numBlocks = 0;
+    private long numKeys = 0;
+
+    public Builder(int bitsPerKey) {
+      this(bitsPerKey, DEFAULT_CHUNK_NUM_KEYS);
+    }
+
+    Builder(int bitsPerKey, int chunkNumKeys) {
+      this.numProbes = Math.max(1, Math.min(MAX_NUM_PROBES, (int) Math.round(bitsPerKey * Math.log(2))));
+      this.bitsPerKey = bitsPerKey;
+      this.chunkNumKeys = chunkNumKeys;
+      this.fingerprints = new long[chunkNumKeys];
+    }
+
+    public void add(byte[] keyHash, int off, int keyHashSize) throws IOException {
+      long keyHashPrefix = getKeyHashPrefix(keyHash, off, keyHashSize);
+      if (numKeys > 0 && compareKeyHashPrefixes(keyHashPrefix, lastKeyHashPrefix) < 0) {
+        throw new IOException("Key hashes must be added to a key hash filter in increasing order");
+      }
+      // Key hashes with the same prefix are kept in the same chunk
+      if (numFingerprints == chunkNumKeys && keyHashPrefix != lastKeyHashPrefix) {
+        flushChunk();
+      }
+      if (numFingerprints == fingerprints.length) {
+        throw new IOException("Too many key hashes with the same 8 byte prefix in key hash filter");
+      }
+      fingerprints[numFingerprints++] = getFingerprint(keyHash, off, keyHashSize);
+      lastKeyHashPrefix = keyHashPrefix;
+      ++numKeys;
+    }
+
+    // Key hashes of the other builder must all be greater than the ones of this builder
+    public void addAll(Builder other) throws IOException {
+      if (other.bitsPerKey != bitsPerKey) {
+        throw new IOException("Cannot merge key hash filters with " + bitsPerKey + " and " + other.bitsPerKey
+            + " bits per key");
+      }
+      other.flushChunk();
+      if (other.numChunks == 0) {
+        return;
+      }
+      flushChunk();
+      if (numChunks > 0 && compareKeyHashPrefixes(other.chunkUpperBounds[0], chunkUpperBounds[numChunks - 1]) <= 0) {
+        throw new IOException("Key hashes must be added to a key hash filter in increasing order");
+      }
+      ensureChunkCapacity(numChunks + other.numChunks);
+      for (int i = 0; i < other.numChunks; ++i) {
+        chunkUpperBounds[numChunks + i] = other.chunkUpperBounds[i];
+        chunkFirstBlocks[numChunks + i] = numBlocks + other.chunkFirstBlocks[i];
+      }
+      numChunks += other.numChunks;
+      ensureBlockCapacity(numBlocks + other.numBlocks);
+      System.arraycopy(other.bits, 0, bits, numBlocks * BLOCK_NUM_LONGS, other.numBlocks * BLOCK_NUM_LONGS);
+      numBlocks += other.numBlocks;
+      numKeys += other.numKeys;
+    }
+
+    public long getNumKeys() {
+      return numKeys;
+    }
+
+    public KeyHashFilter build() {
+      flushChunk();
+      if (numChunks == 0) {
+        // Empty filter, a single block without any bit set
+        ensureChunkCapacity(1);
+        chunkUpperBounds[0] = -1;
+        chunkFirstBlocks[0] = 0;
+        numChunks = 1;
+        ensureBlockCapacity(1);
+        numBlocks = 1;
+      }
+      int[] firstBlocks = Arrays.copyOf(chunkFirstBlocks, numChunks + 1);
+      firstBlocks[numChunks] = numBlocks;
+      return new KeyHashFilter(numProbes, numBlocks, Arrays.copyOf(chunkUpperBounds, numChunks), firstBlocks,
+          Arrays.copyOf(bits, numBlocks * BLOCK_NUM_LONGS));
+    }
+
+    private void flushChunk() {
+      if (numFingerprints == 0) {
+        return;
+      }
+      long numBits = (long) numFingerprints * bitsPerKey;
+      int chunkNumBlocks = (int) Math.max(1, (numBits + BLOCK_NUM_BITS - 1) / BLOCK_NUM_BITS);
+      ensureChunkCapacity(numChunks + 1);
+      chunkUpperBounds[numChunks] = lastKeyHashPrefix;
+      chunkFirstBlocks[numChunks] = numBlocks;
+      ++numChunks;
+      ensureBlockCapacity(numBlocks + chunkNumBlocks);
+      for (int i = 0; i < numFingerprints; ++i) {
+        addFingerprint(fingerprints[i], numProbes, numBlocks, numBlocks + chunkNumBlocks, bits);
+      }
+      numBlocks += chunkNumBlocks;
+      numFingerprints = 0;
+    }
+
+    private void ensureChunkCapacity(int capacity) {
+      if (capacity > chunkUpperBounds.length) {
+        int newLength = Math.max(capacity, chunkUpperBounds.length * 2);
+        chunkUpperBounds = Arrays.copyOf(chunkUpperBounds, newLength);
+        chunkFirstBlocks = Arrays.copyOf(chunkFirstBlocks, newLength + 1);
+      }
+    }
+
+    private void ensureBlockCapacity(int capacity) {
+      if (capacity * BLOCK_NUM_LONGS > bits.length) {
+        bits = Arrays.copyOf(bits, Math.max(capacity, numBlocks * 2) * BLOCK_NUM_LONGS);
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.cueball;
+
+/**
+ * Search for a key hash among the fixed size records of a block, which are sorted
+ * by key hash. Since key hashes are uniformly distributed, the position of a key
+ * hash is first interpolated from the key hashes at both ends of the searched range.
+ * Steps that fail to halve the range are followed by a binary search step, so that
+ * skewed blocks are still searched in a logarithmic number of comparisons.
+ */
+public final class KeyHashSearch {
+
+  // Ranges of at most this many records are scanned linearly
+  private static final int LINEAR_SCAN_MAX_NUM_RECORDS = 8;
+
+  private KeyHashSearch() {
+  }
+
+  /**
+   * @return the offset of the record whose key hash is equal to the given one, or -1 if there is none
+   */
+  public static int search(byte[] block, int off, int limit, int recordSize, byte[] keyHash, int keyHashSize) {
+    int low = 0;
+    int high = (limit - off) / recordSize - 1;
+    if (high < 0) {
+      return -1;
+    }
+    final long keyHashWord = getWord(keyHash, 0, keyHashSize);
+    long lowWord = getWord(block, off, keyHashSize);
+    long highWord = getWord(block, off + high * recordSize, keyHashSize);
+    boolean interpolate = true;
+    while (high - low >= LINEAR_SCAN_MAX_NUM_RECORDS) {
+      // Key hashes outside of the range cannot be found
+      if (Long.compareUnsigned(keyHashWord, lowWord) < 0 || Long.compareUnsigned(keyHashWord, highWord) > 0) {
+        return -1;
+      }
+      int numRecords = high - low + 1;
+      int middle;
+      if (interpolate && lowWord != highWord) {
+        double fraction = toDouble(keyHashWord - lowWord) / toDouble(highWord - lowWord);
+        middle = low + (int) (fraction * (high - low));
+      } else {
+        middle = (low + high) >>> 1;
+      }
+      int middleOffset = off + middle * recordSize;
+      int comparison = compare(block, middleOffset, keyHash, 0, keyHashSize);
+      if (comparison == 0) {
+        return middleOffset;
+      } else if (comparison < 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+      if (high - low >= LINEAR_SCAN_MAX_NUM_RECORDS) {
+        lowWord = getWord(block, off + low * recordSize, keyHashSize);
+        highWord = getWord(block, off + high * recordSize, keyHashSize);
+      }
+      interpolate = !interpolate || (high - low + 1) <= numRecords / 2;
+    }
+    for (int recordOffset = off + low * recordSize; low <= high; ++low, recordOffset += recordSize) {
+      int comparison = compare(block, recordOffset, keyHash, 0, keyHashSize);
+      if (comparison == 0) {
+        return recordOffset;
+      } else if (comparison > 0) {
+        // Passed the spot where the key hash could have been found
+        break;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Unsigned comparison of two byte sequences of the given length, one 8-byte word at a time.
+   * @return -1, 0 or 1
+   */
+  public static int compare(byte[] a, int aOff, byte[] b, int bOff, int length) {
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      long aWord = getLong(a, aOff + i);
+      long bWord = getLong(b, bOff + i);
+      if (aWord != bWord) {
+        return Long.compareUnsigned(aWord, bWord) < 0 ? -1 : 1;
+      }
+    }
+    for (; i < length; ++i) {
+      int aByte = a[aOff + i] & 0xff;
+      int bByte = b[bOff + i] & 0xff;
+      if (aByte != bByte) {
+        return aByte < bByte ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  // Big endian word made of the first (up to 8) bytes, so that words compare like the byte sequences
+  private static long getWord(byte[] bytes, int off, int length) {
+    if (length >= 8) {
+      return getLong(bytes, off);
+    }
+    long word = 0;
+    for (int i = 0; i < length; ++i) {
+      word = (word << 8) | (bytes[off + i] & 0xff);
+    }
+    return word << (8 * (8 - length));
+  }
+
+  private static long getLong(byte[] bytes, int off) {
+    return ((long) bytes[off] << 56)
+        | ((long) (bytes[off + 1] & 0xff) << 48)
+        | ((long) (bytes[off + 2] & 0xff) << 40)
+        | ((long) (bytes[off + 3] & 0xff) << 32)
+        | ((long) (bytes[off + 4] & 0xff) << 24)
+        | ((long) (bytes[off + 5] & 0xff) << 16)
+        | ((long) (bytes[off + 6] & 0xff) << 8)
+        | ((long) (bytes[off + 7] & 0xff));
+  }
+
+  private static double toDouble(long unsigned) {
+    return (double) (unsigned >>> 1) * 2.0 + (unsigned & 1);
+  }
+}
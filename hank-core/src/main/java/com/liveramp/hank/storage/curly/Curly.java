@@ -84,6 +84,12 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     private static final String BLOCK_COMPRESSION_CODEC = "block_compression_codec";
     private static final String COMPRESSED_BLOCK_SIZE_THRESHOLD = "compressed_block_size_threshold";
     private static final String OFFSET_IN_BLOCK_NUM_BYTES = "offset_in_block_num_bytes";
+    private static final String DECOMPRESSED_BLOCK_CACHE_NUM_BYTES_CAPACITY = "decompressed_block_cache_num_bytes_capacity";
+    private static final String COMPACTION_BATCH_NUM_KEYS = "compaction_batch_num_keys";
+    public static final String MEMORY_MAPPED_KEY = "memory_mapped";
+    public static final String KEY_HASH_FILTER_BITS_PER_KEY_KEY = "key_hash_filter_bits_per_key";
+    public static final String VALUE_LENGTH_NUM_BYTES_KEY = "value_length_num_bytes";
+    public static final String COMPACT_HASH_INDEX_KEY = "compact_hash_index";
 
     private static final Set<String> REQUIRED_KEYS = new HashSet<String>(Arrays.asList(
         RECORD_FILE_READ_BUFFER_BYTES_KEY, HASH_INDEX_BITS_KEY, MAX_ALLOWED_PART_SIZE_KEY, KEY_HASH_SIZE_KEY,
@@ -141,6 +147,46 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         offsetInBlockNumBytes = -1;
       }
 
+      // Memory mapped reads
+      Boolean memoryMapped = (Boolean)options.get(MEMORY_MAPPED_KEY);
+      if (memoryMapped == null) {
+        memoryMapped = false;
+      }
+
+      // Decompressed block cache, per partition
+      Object decompressedBlockCacheNumBytesCapacityObject = options.get(DECOMPRESSED_BLOCK_CACHE_NUM_BYTES_CAPACITY);
+      long decompressedBlockCacheNumBytesCapacity = 0;
+      if (decompressedBlockCacheNumBytesCapacityObject != null) {
+        decompressedBlockCacheNumBytesCapacity = ((Number)decompressedBlockCacheNumBytesCapacityObject).longValue();
+      }
+
+      // Compaction reads records in batches sorted by location when positive
+      Integer compactionBatchNumKeys = (Integer)options.get(COMPACTION_BATCH_NUM_KEYS);
+      if (compactionBatchNumKeys == null) {
+        compactionBatchNumKeys = 0;
+      }
+
+      // Bits per key of the key hash filter written along with the key file (disabled when 0)
+      Integer keyHashFilterBitsPerKey = (Integer)options.get(KEY_HASH_FILTER_BITS_PER_KEY_KEY);
+      if (keyHashFilterBitsPerKey == null) {
+        keyHashFilterBitsPerKey = 0;
+      }
+
+      // Number of bytes of value lengths stored in the key file along with offsets (disabled when 0)
+      Integer valueLengthNumBytes = (Integer)options.get(VALUE_LENGTH_NUM_BYTES_KEY);
+      if (valueLengthNumBytes == null) {
+        valueLengthNumBytes = 0;
+      }
+      if (blockCompressionCodec != null && valueLengthNumBytes > 0) {
+        throw new IOException("'" + VALUE_LENGTH_NUM_BYTES_KEY + "' is not supported with block compression");
+      }
+
+      // Write the hash index of the key file with 4 byte relative block offsets
+      Boolean compactHashIndex = (Boolean)options.get(COMPACT_HASH_INDEX_KEY);
+      if (compactHashIndex == null) {
+        compactHashIndex = false;
+      }
+
       return new Curly((Integer)options.get(KEY_HASH_SIZE_KEY),
           hasher,
           maxAllowedPartSize,
@@ -155,7 +201,13 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
           valueFoldingCacheCapacity,
           blockCompressionCodec,
           compressedBlockSizeThreshold,
-          offsetInBlockNumBytes);
+          offsetInBlockNumBytes,
+          memoryMapped,
+          decompressedBlockCacheNumBytesCapacity,
+          compactionBatchNumKeys,
+          keyHashFilterBitsPerKey,
+          valueLengthNumBytes,
+          compactHashIndex);
     }
 
     @Override
@@ -188,6 +240,12 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
   private final int compressedBlockSizeThreshold;
   private final int offsetInBlockNumBytes;
   private final int cueballValueNumBytes;
+  private final boolean memoryMapped;
+  private final long decompressedBlockCacheNumBytesCapacity;
+  private final int compactionBatchNumKeys;
+  private final int keyHashFilterBitsPerKey;
+  private final int valueLengthNumBytes;
+  private final boolean compactHashIndex;
 
   public Curly(int keyHashSize,
                Hasher hasher,
@@ -204,6 +262,157 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
                CompressionCodec blockCompressionCodec,
                int compressedBlockSizeThreshold,
                int offsetInBlockNumBytes) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, domainBuilderRemoteDomainRoot,
+        partitionServerRemoteDomainRoot, partitionRemoteFileOpsFactory, keyFileCompressionCodecClass, domain,
+        numRemoteLeafVersionsToKeep, valueFoldingCacheCapacity, blockCompressionCodec, compressedBlockSizeThreshold,
+        offsetInBlockNumBytes, false);
+  }
+
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String domainBuilderRemoteDomainRoot,
+               String partitionServerRemoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               CompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               boolean memoryMapped) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, domainBuilderRemoteDomainRoot,
+        partitionServerRemoteDomainRoot, partitionRemoteFileOpsFactory, keyFileCompressionCodecClass, domain,
+        numRemoteLeafVersionsToKeep, valueFoldingCacheCapacity, blockCompressionCodec, compressedBlockSizeThreshold,
+        offsetInBlockNumBytes, memoryMapped, 0);
+  }
+
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String domainBuilderRemoteDomainRoot,
+               String partitionServerRemoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               CompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               boolean memoryMapped,
+               long decompressedBlockCacheNumBytesCapacity) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, domainBuilderRemoteDomainRoot,
+        partitionServerRemoteDomainRoot, partitionRemoteFileOpsFactory, keyFileCompressionCodecClass, domain,
+        numRemoteLeafVersionsToKeep, valueFoldingCacheCapacity, blockCompressionCodec, compressedBlockSizeThreshold,
+        offsetInBlockNumBytes, memoryMapped, decompressedBlockCacheNumBytesCapacity, 0);
+  }
+
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String domainBuilderRemoteDomainRoot,
+               String partitionServerRemoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               CompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               boolean memoryMapped,
+               long decompressedBlockCacheNumBytesCapacity,
+               int compactionBatchNumKeys) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, domainBuilderRemoteDomainRoot,
+        partitionServerRemoteDomainRoot, partitionRemoteFileOpsFactory, keyFileCompressionCodecClass, domain,
+        numRemoteLeafVersionsToKeep, valueFoldingCacheCapacity, blockCompressionCodec, compressedBlockSizeThreshold,
+        offsetInBlockNumBytes, memoryMapped, decompressedBlockCacheNumBytesCapacity, compactionBatchNumKeys, 0);
+  }
+
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String domainBuilderRemoteDomainRoot,
+               String partitionServerRemoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               CompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               boolean memoryMapped,
+               long decompressedBlockCacheNumBytesCapacity,
+               int compactionBatchNumKeys,
+               int keyHashFilterBitsPerKey) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, domainBuilderRemoteDomainRoot,
+        partitionServerRemoteDomainRoot, partitionRemoteFileOpsFactory, keyFileCompressionCodecClass, domain,
+        numRemoteLeafVersionsToKeep, valueFoldingCacheCapacity, blockCompressionCodec, compressedBlockSizeThreshold,
+        offsetInBlockNumBytes, memoryMapped, decompressedBlockCacheNumBytesCapacity, compactionBatchNumKeys,
+        keyHashFilterBitsPerKey, 0);
+  }
+
+  // When valueLengthNumBytes is positive and block compression is not used, Cueball values contain
+  // the length of the value after its offset, so that each lookup reads the record file once.
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String domainBuilderRemoteDomainRoot,
+               String partitionServerRemoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               CompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               boolean memoryMapped,
+               long decompressedBlockCacheNumBytesCapacity,
+               int compactionBatchNumKeys,
+               int keyHashFilterBitsPerKey,
+               int valueLengthNumBytes) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, domainBuilderRemoteDomainRoot,
+        partitionServerRemoteDomainRoot, partitionRemoteFileOpsFactory, keyFileCompressionCodecClass, domain,
+        numRemoteLeafVersionsToKeep, valueFoldingCacheCapacity, blockCompressionCodec, compressedBlockSizeThreshold,
+        offsetInBlockNumBytes, memoryMapped, decompressedBlockCacheNumBytesCapacity, compactionBatchNumKeys,
+        keyHashFilterBitsPerKey, valueLengthNumBytes, false);
+  }
+
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String domainBuilderRemoteDomainRoot,
+               String partitionServerRemoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               CompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               boolean memoryMapped,
+               long decompressedBlockCacheNumBytesCapacity,
+               int compactionBatchNumKeys,
+               int keyHashFilterBitsPerKey,
+               int valueLengthNumBytes,
+               boolean compactHashIndex) {
     this.keyHashSize = keyHashSize;
     this.hashIndexBits = hashIndexBits;
     this.recordFileReadBufferBytes = recordFileReadBufferBytes;
@@ -217,13 +426,20 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     this.blockCompressionCodec = blockCompressionCodec;
     this.compressedBlockSizeThreshold = compressedBlockSizeThreshold;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
+    this.memoryMapped = memoryMapped;
+    this.decompressedBlockCacheNumBytesCapacity = decompressedBlockCacheNumBytesCapacity;
+    this.compactionBatchNumKeys = compactionBatchNumKeys;
+    this.keyHashFilterBitsPerKey = keyHashFilterBitsPerKey;
+    this.valueLengthNumBytes = blockCompressionCodec == null ? Math.max(valueLengthNumBytes, 0) : 0;
+    this.compactHashIndex = compactHashIndex;
 
     this.offsetNumBytes = (int)(Math.ceil(Math.ceil(Math.log(maxAllowedPartSize) / Math.log(2)) / 8.0));
 
     // Determine size of values in Cueball. If we are using block compression in Curly,
-    // the offsets stored in Cueball are appended with the offset in the block.
+    // the offsets stored in Cueball are appended with the offset in the block. Otherwise,
+    // they are optionally appended with the value length.
     if (blockCompressionCodec == null) {
-      this.cueballValueNumBytes = offsetNumBytes;
+      this.cueballValueNumBytes = offsetNumBytes + this.valueLengthNumBytes;
     } else {
       this.cueballValueNumBytes = offsetNumBytes + offsetInBlockNumBytes;
     }
@@ -237,7 +453,11 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         partitionRemoteFileOpsFactory,
         keyFileCompressionCodecClass,
         domain,
-        numRemoteLeafVersionsToKeep);
+        numRemoteLeafVersionsToKeep,
+        memoryMapped,
+        1,
+        keyHashFilterBitsPerKey,
+        compactHashIndex);
   }
 
   @Override
@@ -249,7 +469,8 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         configurator.getCacheNumBytesCapacity(),
         configurator.getCacheNumItemsCapacity(),
         configurator.getBufferReuseMaxSize(),
-        2);
+        2,
+        configurator.getOffHeapValueCache());
 
     return new CurlyReader(CurlyReader.getLatestBase(getTargetDirectory(assignment, partitionNumber)),
         recordFileReadBufferBytes,
@@ -260,7 +481,11 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         offsetNumBytes,
         offsetInBlockNumBytes,
         false,
-        subConfigurator.getBufferReuseMaxSize());
+        subConfigurator.getBufferReuseMaxSize(),
+        memoryMapped,
+        subConfigurator.getOffHeapValueCache(),
+        decompressedBlockCacheNumBytesCapacity,
+        valueLengthNumBytes);
   }
 
   @Override
@@ -280,7 +505,7 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     OutputStream outputStream = partitionRemoteFileOps.getOutputStream(getName(domainVersion.getVersionNumber(),
         domainVersionProperties.isBase()));
     return new CurlyWriter(outputStream, keyFileWriter, offsetNumBytes, valueFoldingCacheCapacity,
-        blockCompressionCodec, compressedBlockSizeThreshold, offsetInBlockNumBytes);
+        blockCompressionCodec, compressedBlockSizeThreshold, offsetInBlockNumBytes, valueLengthNumBytes);
   }
 
   private IncrementalDomainVersionProperties getDomainVersionProperties(DomainVersion domainVersion) throws IOException {
@@ -341,27 +566,37 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     return new CurlyCompactor(domain,
         getPartitionRemoteFileOps(RemoteLocation.DOMAIN_BUILDER, partitionNumber),
         localDir,
-        new CurlyCompactingMerger(recordFileReadBufferBytes),
+        getCompactingMerger(),
         new CueballStreamBufferMergeSort.Factory(keyHashSize, cueballValueNumBytes, hashIndexBits, getCompressionCodec(), null),
         new ICurlyReaderFactory() {
           @Override
           public ICurlyReader getInstance(CurlyFilePath curlyFilePath) throws IOException {
             // Note: key file reader is null as it will *not* be used
             return new CurlyReader(curlyFilePath, recordFileReadBufferBytes,
-                null, 10L << 20, 1 << 10, blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, true, 10 << 10);
+                null, 10L << 20, 1 << 10, blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, true, 10 << 10,
+                false, null, 0, valueLengthNumBytes);
           }
         }
     );
   }
 
+  private ICurlyCompactingMerger getCompactingMerger() {
+    if (compactionBatchNumKeys > 0) {
+      return new CurlySortedReadsCompactingMerger(recordFileReadBufferBytes, offsetNumBytes, compactionBatchNumKeys);
+    } else {
+      return new CurlyCompactingMerger(recordFileReadBufferBytes);
+    }
+  }
+
   private CurlyFastPartitionUpdater getFastPartitionUpdater(String localDir, int partNum) throws IOException {
     return new CurlyFastPartitionUpdater(domain,
         getPartitionRemoteFileOps(RemoteLocation.PARTITION_SERVER, partNum),
         new CurlyMerger(),
-        new CueballMerger(),
+        new CueballMerger(1, keyHashFilterBitsPerKey, compactHashIndex),
         keyHashSize,
         offsetNumBytes,
         offsetInBlockNumBytes,
+        valueLengthNumBytes,
         hashIndexBits,
         getCompressionCodec(),
         localDir);
@@ -494,6 +729,12 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         ", compressedBlockSizeThreshold=" + compressedBlockSizeThreshold +
         ", offsetInBlockNumBytes=" + offsetInBlockNumBytes +
         ", cueballValueNumBytes=" + cueballValueNumBytes +
+        ", memoryMapped=" + memoryMapped +
+        ", decompressedBlockCacheNumBytesCapacity=" + decompressedBlockCacheNumBytesCapacity +
+        ", compactionBatchNumKeys=" + compactionBatchNumKeys +
+        ", keyHashFilterBitsPerKey=" + keyHashFilterBitsPerKey +
+        ", valueLengthNumBytes=" + valueLengthNumBytes +
+        ", compactHashIndex=" + compactHashIndex +
         '}';
   }
 }
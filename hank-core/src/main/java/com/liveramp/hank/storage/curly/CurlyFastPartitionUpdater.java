@@ -23,14 +23,20 @@ import com.liveramp.hank.partition_server.PartitionUpdateTaskStatistics;
 import com.liveramp.hank.storage.PartitionRemoteFileOps;
 import com.liveramp.hank.storage.cueball.CueballPartitionUpdater;
 import com.liveramp.hank.storage.cueball.ICueballMerger;
+import com.liveramp.hank.storage.incremental.FetchThrottle;
 import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
 import com.liveramp.hank.storage.incremental.IncrementalUpdatePlan;
 import com.liveramp.hank.util.FormatUtils;
 import com.liveramp.hank.util.HankTimer;
+import com.liveramp.hank.util.IOStreamUtils;
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -56,11 +62,28 @@ public class CurlyFastPartitionUpdater extends AbstractCurlyPartitionUpdater {
                                    int hashIndexBits,
                                    CueballCompressionCodec compressionCodec,
                                    String localPartitionRoot) throws IOException {
+    this(domain, partitionRemoteFileOps, curlyMerger, cueballMerger, keyHashSize, offsetNumBytes, offsetInBlockNumBytes,
+        0, hashIndexBits, compressionCodec, localPartitionRoot);
+  }
+
+  public CurlyFastPartitionUpdater(Domain domain,
+                                   PartitionRemoteFileOps partitionRemoteFileOps,
+                                   ICurlyMerger curlyMerger,
+                                   ICueballMerger cueballMerger,
+                                   int keyHashSize,
+                                   int offsetNumBytes,
+                                   int offsetInBlockNumBytes,
+                                   int valueLengthNumBytes,
+                                   int hashIndexBits,
+                                   CueballCompressionCodec compressionCodec,
+                                   String localPartitionRoot) throws IOException {
     super(domain, partitionRemoteFileOps, localPartitionRoot);
     this.keyHashSize = keyHashSize;
     this.offsetNumBytes = offsetNumBytes;
     if (offsetInBlockNumBytes > 0) {
       this.valueSize = offsetNumBytes + offsetInBlockNumBytes;
+    } else if (valueLengthNumBytes > 0) {
+      this.valueSize = offsetNumBytes + valueLengthNumBytes;
     } else {
       this.valueSize = offsetNumBytes;
     }
@@ -102,7 +125,11 @@ public class CurlyFastPartitionUpdater extends AbstractCurlyPartitionUpdater {
         throw new IOException("Failed to overwrite Curly base " + newCurlyBaseFile.getAbsolutePath());
       }
     }
-    if (!new File(curlyBase.getPath()).renameTo(newCurlyBaseFile)) {
+    if (updatingWhileServing && updatePlan.getBase().equals(currentVersion)) {
+      // The current base is being served, deltas are appended to a copy of it
+      LOG.info("Copying served Curly base " + curlyBase.getPath() + " to " + newCurlyBasePath);
+      copyFile(new File(curlyBase.getPath()), newCurlyBaseFile);
+    } else if (!new File(curlyBase.getPath()).renameTo(newCurlyBaseFile)) {
       throw new IOException("Failed to move Curly base " + curlyBase.getPath() + " to " + newCurlyBasePath);
     }
 
@@ -141,4 +168,19 @@ public class CurlyFastPartitionUpdater extends AbstractCurlyPartitionUpdater {
         + ": merged Curly deltas in " + FormatUtils.formatSecondsDuration(curlyTimeMs / 1000)
         + ", ran Cueball update in " + FormatUtils.formatSecondsDuration(cueballTimeMs / 1000));
   }
+
+  private static void copyFile(File source, File destination) throws IOException {
+    InputStream inputStream = new FileInputStream(source);
+    try {
+      OutputStream outputStream = FetchThrottle.getFetchThrottle(destination.getPath())
+          .getThrottledOutputStream(new FileOutputStream(destination));
+      try {
+        IOStreamUtils.copy(inputStream, outputStream);
+      } finally {
+        outputStream.close();
+      }
+    } finally {
+      inputStream.close();
+    }
+  }
 }
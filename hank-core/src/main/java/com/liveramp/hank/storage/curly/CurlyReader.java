@@ -23,16 +23,24 @@ import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.liveramp.commons.util.ByteBufferMemoryUsageEstimator;
 import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.commons.util.MemoryUsageEstimator;
 import com.liveramp.hank.compression.CompressionCodec;
 import com.liveramp.hank.compression.Decompressor;
 import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.util.ConcurrentMemoryBoundCache;
 import com.liveramp.hank.util.EncodingHelper;
-import com.liveramp.hank.util.SynchronizedMemoryBoundCache;
+import com.liveramp.hank.util.MemoryMappedFile;
 import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
 
 public class CurlyReader implements Reader, ICurlyReader {
@@ -40,18 +48,29 @@ public class CurlyReader implements Reader, ICurlyReader {
   private final Reader keyFileReader;
   private final int readBufferSize;
   private final FileChannel recordFile;
+  private MemoryMappedFile mappedRecordFile;
   private final int versionNumber;
   private final int bufferReuseMaxSize;
-  private SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
+  private ConcurrentMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
+  private OffHeapValueCache.Namespace offHeapCache;
   private final CompressionCodec blockCompressionCodec;
   private final int offsetNumBytes;
   private final int offsetInBlockNumBytes;
+  private final int valueLengthNumBytes;
 
   // Last decompressed block cache
   private final boolean cacheLastDecompressedBlock;
   private ByteBuffer lastDecompressedBlock;
   private long lastDecompressedBlockOffset = -1;
 
+  // Decompressed blocks cache, keyed by block offset in the record file, safe for concurrent use.
+  // Concurrent reads of a block that is not cached wait for a single decompression of it.
+  private final ConcurrentMemoryBoundCache<Long, ByteBuffer> decompressedBlockCache;
+  private final ConcurrentMap<Long, FutureTask<ByteBuffer>> blockDecompressionsInProgress =
+      new ConcurrentHashMap<Long, FutureTask<ByteBuffer>>();
+  private final AtomicLong numDecompressedBlockCacheHits = new AtomicLong(0);
+  private final AtomicLong numDecompressedBlockCacheMisses = new AtomicLong(0);
+
   private static class Local {
 
     private final Map<CompressionCodec, Decompressor> blockDecompressors;
@@ -117,6 +136,79 @@ public class CurlyReader implements Reader, ICurlyReader {
                      int offsetInBlockNumBytes,
                      boolean cacheLastDecompressedBlock,
                      int bufferReuseMaxSize) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheNumBytesCapacity, cacheNumItemsCapacity,
+        blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, cacheLastDecompressedBlock, bufferReuseMaxSize, false);
+  }
+
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     long cacheNumBytesCapacity,
+                     int cacheNumItemsCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     int bufferReuseMaxSize,
+                     boolean memoryMapped) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheNumBytesCapacity, cacheNumItemsCapacity,
+        blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, cacheLastDecompressedBlock, bufferReuseMaxSize,
+        memoryMapped, null);
+  }
+
+  // When an off heap value cache is provided, it is used instead of the heap cache
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     long cacheNumBytesCapacity,
+                     int cacheNumItemsCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     int bufferReuseMaxSize,
+                     boolean memoryMapped,
+                     OffHeapValueCache offHeapValueCache) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheNumBytesCapacity, cacheNumItemsCapacity,
+        blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, cacheLastDecompressedBlock, bufferReuseMaxSize,
+        memoryMapped, offHeapValueCache, 0);
+  }
+
+  // Decompressed blocks are cached up to the given number of bytes when it is positive
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     long cacheNumBytesCapacity,
+                     int cacheNumItemsCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     int bufferReuseMaxSize,
+                     boolean memoryMapped,
+                     OffHeapValueCache offHeapValueCache,
+                     long decompressedBlockCacheNumBytesCapacity) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheNumBytesCapacity, cacheNumItemsCapacity,
+        blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, cacheLastDecompressedBlock, bufferReuseMaxSize,
+        memoryMapped, offHeapValueCache, decompressedBlockCacheNumBytesCapacity, 0);
+  }
+
+  // When valueLengthNumBytes is positive, locations of records that are not block compressed
+  // contain the length of the value after the offset, and records are read with a single exactly sized read
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     long cacheNumBytesCapacity,
+                     int cacheNumItemsCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     int bufferReuseMaxSize,
+                     boolean memoryMapped,
+                     OffHeapValueCache offHeapValueCache,
+                     long decompressedBlockCacheNumBytesCapacity,
+                     int valueLengthNumBytes) throws IOException {
     this.recordFile = new FileInputStream(curlyFile.getPath()).getChannel();
     this.keyFileReader = keyFileReader;
     this.readBufferSize = recordFileReadBufferBytes;
@@ -124,9 +216,13 @@ public class CurlyReader implements Reader, ICurlyReader {
     this.blockCompressionCodec = blockCompressionCodec;
     this.offsetNumBytes = offsetNumBytes;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
+    this.valueLengthNumBytes = valueLengthNumBytes;
     this.cacheLastDecompressedBlock = cacheLastDecompressedBlock;
-    this.cache = new SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer>(
-        cacheNumBytesCapacity > 0 || cacheNumItemsCapacity > 0,
+    if (offHeapValueCache != null) {
+      this.offHeapCache = offHeapValueCache.newNamespace();
+    }
+    this.cache = new ConcurrentMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        offHeapCache == null && (cacheNumBytesCapacity > 0 || cacheNumItemsCapacity > 0),
         cacheNumBytesCapacity,
         cacheNumItemsCapacity,
         new ByteBufferMemoryUsageEstimator(),
@@ -141,7 +237,16 @@ public class CurlyReader implements Reader, ICurlyReader {
     if (cacheLastDecompressedBlock) {
       lastDecompressedBlock = ByteBuffer.allocate(1);
     }
+    this.decompressedBlockCache = new ConcurrentMemoryBoundCache<Long, ByteBuffer>(
+        blockCompressionCodec != null && decompressedBlockCacheNumBytesCapacity > 0,
+        decompressedBlockCacheNumBytesCapacity,
+        -1,
+        new BlockOffsetMemoryUsageEstimator(),
+        new ByteBufferMemoryUsageEstimator());
     this.bufferReuseMaxSize = bufferReuseMaxSize;
+    if (memoryMapped) {
+      mappedRecordFile = new MemoryMappedFile(recordFile, 0, recordFile.size());
+    }
   }
 
   @Override
@@ -152,8 +257,16 @@ public class CurlyReader implements Reader, ICurlyReader {
       return;
     }
     // Deep copy the location if caching is active, since result might point to location and overwrite it
-    ByteBuffer locationDeepCopy = cache.isEnabled() ? BytesUtils.byteBufferDeepCopy(location) : null;
-    if (blockCompressionCodec == null) {
+    ByteBuffer locationDeepCopy = (cache.isEnabled() || offHeapCache != null) ? BytesUtils.byteBufferDeepCopy(location) : null;
+    if (blockCompressionCodec == null && valueLengthNumBytes > 0) {
+      // Location contains an offset and the value's length. Decode them.
+      long recordFileOffset = EncodingHelper.decodeLittleEndianFixedWidthLong(location.array(),
+          location.arrayOffset() + location.position(), offsetNumBytes);
+      int valueLength = (int)EncodingHelper.decodeLittleEndianFixedWidthLong(location.array(),
+          location.arrayOffset() + location.position() + offsetNumBytes, valueLengthNumBytes);
+      // Directly read record into result
+      readRecordAtOffset(recordFileOffset, valueLength, result);
+    } else if (blockCompressionCodec == null) {
       // When not using block compression, location just contains an offset. Decode it.
       long recordFileOffset = EncodingHelper.decodeLittleEndianFixedWidthLong(location);
       // Directly read record into result
@@ -166,7 +279,9 @@ public class CurlyReader implements Reader, ICurlyReader {
           location.arrayOffset() + location.position() + offsetNumBytes, offsetInBlockNumBytes);
 
       ByteBuffer decompressedBlockByteBuffer;
-      if (cacheLastDecompressedBlock && lastDecompressedBlockOffset == recordFileBlockOffset) {
+      if (decompressedBlockCache.isEnabled()) {
+        decompressedBlockByteBuffer = getCachedDecompressedBlock(recordFileBlockOffset, result);
+      } else if (cacheLastDecompressedBlock && lastDecompressedBlockOffset == recordFileBlockOffset) {
         // This block has been decompressed just before, reuse it
         decompressedBlockByteBuffer = lastDecompressedBlock;
       } else {
@@ -202,7 +317,54 @@ public class CurlyReader implements Reader, ICurlyReader {
     addValueToCache(locationDeepCopy, result.getBuffer());
   }
 
-  private ByteBuffer decompressBlock(ByteBuffer block) throws IOException {
+  // Return a view of the decompressed block, which is not modified once cached
+  private ByteBuffer getCachedDecompressedBlock(final long recordFileBlockOffset,
+                                                final ReaderResult result) throws IOException {
+    ByteBuffer decompressedBlock = decompressedBlockCache.get(recordFileBlockOffset);
+    if (decompressedBlock != null) {
+      numDecompressedBlockCacheHits.incrementAndGet();
+      return decompressedBlock.duplicate();
+    }
+    numDecompressedBlockCacheMisses.incrementAndGet();
+    FutureTask<ByteBuffer> decompression = new FutureTask<ByteBuffer>(() -> {
+      // The block might have been cached since it was looked up
+      ByteBuffer cachedBlock = decompressedBlockCache.get(recordFileBlockOffset);
+      if (cachedBlock != null) {
+        return cachedBlock;
+      }
+      // Read in the compressed block into the result
+      readRecordAtOffset(recordFileBlockOffset, result);
+      ByteBuffer block = BytesUtils.byteBufferDeepCopy(decompressBlock(result.getBuffer()));
+      decompressedBlockCache.put(recordFileBlockOffset, block);
+      return block;
+    });
+    FutureTask<ByteBuffer> decompressionInProgress =
+        blockDecompressionsInProgress.putIfAbsent(recordFileBlockOffset, decompression);
+    if (decompressionInProgress == null) {
+      // This thread decompresses the block
+      try {
+        decompression.run();
+      } finally {
+        blockDecompressionsInProgress.remove(recordFileBlockOffset, decompression);
+      }
+    } else {
+      // Wait for the thread decompressing the block
+      decompression = decompressionInProgress;
+    }
+    try {
+      return decompression.get().duplicate();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while waiting for decompression of block at offset " + recordFileBlockOffset, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw new IOException("Failed to decompress block at offset " + recordFileBlockOffset, e.getCause());
+    }
+  }
+
+  // Package private so that tests can count decompressions
+  ByteBuffer decompressBlock(ByteBuffer block) throws IOException {
     Local local = threadLocal.get();
     local.clear();
     local.getBlockDecompressor(blockCompressionCodec).decompressBlock(
@@ -230,7 +392,7 @@ public class CurlyReader implements Reader, ICurlyReader {
 
     // TODO: it does seem like there's a chance that this could return too few
     // bytes to do the varint decoding.
-    recordFile.read(result.getBuffer(), recordFileOffset);
+    readRecordFile(result.getBuffer(), recordFileOffset);
     result.getBuffer().rewind();
     int recordSize = EncodingHelper.decodeLittleEndianVarInt(result.getBuffer());
 
@@ -258,7 +420,7 @@ public class CurlyReader implements Reader, ICurlyReader {
       while (bytesRead < recordSize) {
         // since we're using the stateless version of read(), we have to keep
         // moving the offset pointer ourselves
-        int bytesReadTemp = recordFile.read(result.getBuffer(), recordFileOffset
+        int bytesReadTemp = readRecordFile(result.getBuffer(), recordFileOffset
             + bytesInRecordSize + bytesRead);
 
         if (bytesReadTemp == -1) {
@@ -276,6 +438,34 @@ public class CurlyReader implements Reader, ICurlyReader {
     result.getBuffer().limit(recordSize + result.getBuffer().position());
   }
 
+  // Read a record whose value length is known with a single read of its exact size
+  private void readRecordAtOffset(long recordFileOffset, int valueLength, ReaderResult result) throws IOException {
+    int recordSize = EncodingHelper.getLittleEndianVarIntSize(valueLength) + valueLength;
+    result.requiresBufferSize(recordSize);
+    ByteBuffer buffer = result.getBuffer();
+    buffer.clear();
+    buffer.limit(recordSize);
+    int bytesRead = 0;
+    while (bytesRead < recordSize) {
+      int bytesReadTemp = readRecordFile(buffer, recordFileOffset + bytesRead);
+      if (bytesReadTemp <= 0) {
+        throw new IOException("Tried to read " + recordSize + " bytes of record at offset " + recordFileOffset
+            + ", but only got " + bytesRead + " bytes");
+      }
+      bytesRead += bytesReadTemp;
+    }
+    // Skip the encoded value length
+    buffer.position(recordSize - valueLength);
+  }
+
+  private int readRecordFile(ByteBuffer buffer, long offset) throws IOException {
+    if (mappedRecordFile != null) {
+      return mappedRecordFile.read(buffer, offset);
+    } else {
+      return recordFile.read(buffer, offset);
+    }
+  }
+
   @Override
   public void get(ByteBuffer key, ReaderResult result) throws IOException {
     // we want at least readBufferSize bytes of available space. we might resize
@@ -300,20 +490,43 @@ public class CurlyReader implements Reader, ICurlyReader {
   @Override
   public CacheStatistics getCacheStatistics() {
     CacheStatistics keyReaderCacheStatistics = keyFileReader.getCacheStatistics();
+    CacheStatistics statistics;
+    if (offHeapCache != null) {
+      statistics = offHeapCache.getCacheStatistics();
+    } else {
+      statistics = new CacheStatistics(cache.size(), cache.getMaxNumItems(), cache.getNumManagedBytes(), cache.getMaxNumManagedBytes());
+    }
     return new CacheStatistics(
-        keyReaderCacheStatistics.getNumItems() + cache.size(),
-        keyReaderCacheStatistics.getMaxNumItems() + cache.getMaxNumItems(),
-        keyReaderCacheStatistics.getNumManagedBytes() + cache.getNumManagedBytes(),
-        keyReaderCacheStatistics.getMaxNumManagedBytes() + cache.getMaxNumManagedBytes());
+        keyReaderCacheStatistics.getNumItems() + statistics.getNumItems(),
+        keyReaderCacheStatistics.getMaxNumItems() + statistics.getMaxNumItems(),
+        keyReaderCacheStatistics.getNumManagedBytes() + statistics.getNumManagedBytes() + decompressedBlockCache.getNumManagedBytes(),
+        keyReaderCacheStatistics.getMaxNumManagedBytes() + statistics.getMaxNumManagedBytes() + decompressedBlockCache.getMaxNumManagedBytes(),
+        keyReaderCacheStatistics.getNumMappedBytes() + (mappedRecordFile == null ? 0 : mappedRecordFile.getLength()),
+        keyReaderCacheStatistics.getNumBlockCacheHits() + numDecompressedBlockCacheHits.get(),
+        keyReaderCacheStatistics.getNumBlockCacheMisses() + numDecompressedBlockCacheMisses.get(),
+        keyReaderCacheStatistics.getNumKeyHashFilterNegatives(),
+        keyReaderCacheStatistics.getNumKeyHashFilterFalsePositives());
   }
 
   // Note: location should already be a deep copy that won't get modified
   private void addValueToCache(ByteBuffer location, ByteBuffer value) {
+    if (offHeapCache != null) {
+      offHeapCache.putValue(location, value);
+      return;
+    }
     cache.put(location, BytesUtils.byteBufferDeepCopy(value));
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
   private boolean loadValueFromCache(ByteBuffer location, ReaderResult result) {
+    if (offHeapCache != null) {
+      // Location is not read anymore once the value is copied into result
+      if (offHeapCache.get(location, result)) {
+        result.setL2CacheHit(true);
+        return true;
+      }
+      return false;
+    }
     ByteBuffer value = cache.get(location);
     if (value != null) {
       result.deepCopyIntoResultBuffer(value);
@@ -327,12 +540,27 @@ public class CurlyReader implements Reader, ICurlyReader {
 
   @Override
   public void close() throws IOException {
+    if (mappedRecordFile != null) {
+      mappedRecordFile.close();
+      mappedRecordFile = null;
+    }
     if (recordFile != null) {
       recordFile.close();
     }
     if (keyFileReader != null) {
       keyFileReader.close();
     }
+    if (offHeapCache != null) {
+      offHeapCache.close();
+    }
     cache = null;
   }
+
+  private static class BlockOffsetMemoryUsageEstimator implements MemoryUsageEstimator<Long> {
+
+    @Override
+    public long estimateMemorySize(Long item) {
+      return 8;
+    }
+  }
 }
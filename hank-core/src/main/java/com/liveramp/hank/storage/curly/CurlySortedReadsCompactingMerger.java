@@ -0,0 +1,191 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.curly;
+
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.cueball.IKeyFileStreamBufferMergeSort;
+import com.liveramp.hank.storage.cueball.KeyHashAndValueAndStreamIndex;
+import com.liveramp.hank.util.EncodingHelper;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compacting merger that reads records in batches of consecutive key hashes. The records of a batch are read
+ * in record file order, so that each record file is scanned forward instead of being read at random, and
+ * blocks of block compressed record files are decompressed once per batch. Records are then written
+ * in key hash order. Memory usage is bounded by the size of the records in a batch.
+ */
+public class CurlySortedReadsCompactingMerger implements ICurlyCompactingMerger {
+
+  private final int recordFileReadBufferBytes;
+  private final int offsetNumBytes;
+  private final int batchNumKeys;
+
+  // Locations are encoded as an offset in the record file, optionally followed by an offset in the block or a value length
+  public CurlySortedReadsCompactingMerger(int recordFileReadBufferBytes,
+                                          int offsetNumBytes,
+                                          int batchNumKeys) {
+    this.recordFileReadBufferBytes = recordFileReadBufferBytes;
+    this.offsetNumBytes = offsetNumBytes;
+    this.batchNumKeys = batchNumKeys;
+  }
+
+  @Override
+  public void merge(final CurlyFilePath curlyBasePath,
+                    final List<CurlyFilePath> curlyDeltas,
+                    final IKeyFileStreamBufferMergeSort keyFileStreamBufferMergeSort,
+                    final ICurlyReaderFactory curlyReaderFactory,
+                    final Writer recordFileWriter) throws IOException {
+
+    if ((1 + curlyDeltas.size()) != keyFileStreamBufferMergeSort.getNumStreams()) {
+      throw new RuntimeException("Number of Curly files (" + (1 + curlyDeltas.size())
+          + ") and number of key file streams (" + keyFileStreamBufferMergeSort.getNumStreams() + ") should be equal.");
+    }
+
+    // Open all Curly record files
+    ICurlyReader[] recordFileReaders = new ICurlyReader[1 + curlyDeltas.size()];
+    // Note: the key file readers are intentionally null as they will *not* be used
+    recordFileReaders[0] = curlyReaderFactory.getInstance(curlyBasePath);
+    int curlyReaderIndex = 1;
+    for (CurlyFilePath curlyDelta : curlyDeltas) {
+      recordFileReaders[curlyReaderIndex++] = curlyReaderFactory.getInstance(curlyDelta);
+    }
+
+    Batch batch = null;
+    while (true) {
+      KeyHashAndValueAndStreamIndex keyHashValuePair =
+          keyFileStreamBufferMergeSort.nextKeyHashAndValueAndStreamIndex();
+      if (keyHashValuePair == null) {
+        break;
+      }
+      if (batch == null) {
+        batch = new Batch(keyHashValuePair.keyHash.remaining(), keyHashValuePair.value.remaining());
+      }
+      // Key hash and location are only valid until the next one is requested, copy them
+      batch.add(keyHashValuePair);
+      if (batch.size() == batchNumKeys) {
+        batch.readAndWrite(recordFileReaders, recordFileWriter);
+      }
+    }
+    if (batch != null) {
+      batch.readAndWrite(recordFileReaders, recordFileWriter);
+    }
+
+    // Close Curly writer
+    recordFileWriter.close();
+
+    // Close Cueball merge sort
+    keyFileStreamBufferMergeSort.close();
+
+    // Close Curly file readers
+    for (ICurlyReader recordFileReader : recordFileReaders) {
+      recordFileReader.close();
+    }
+  }
+
+  private class Batch {
+
+    private final int keyHashSize;
+    private final int locationSize;
+    private final byte[] keyHashes;
+    private final byte[] locations;
+    private final int[] streamIndexes;
+    private final long[] recordFileOffsets;
+    private final Integer[] readOrder;
+    private final int[] valueOffsets;
+    private final int[] valueSizes;
+    private final UnsafeByteArrayOutputStream values;
+    private final ReaderResult readerResult;
+    private int size = 0;
+
+    private Batch(int keyHashSize, int locationSize) {
+      this.keyHashSize = keyHashSize;
+      this.locationSize = locationSize;
+      this.keyHashes = new byte[batchNumKeys * keyHashSize];
+      this.locations = new byte[batchNumKeys * locationSize];
+      this.streamIndexes = new int[batchNumKeys];
+      this.recordFileOffsets = new long[batchNumKeys];
+      this.readOrder = new Integer[batchNumKeys];
+      this.valueOffsets = new int[batchNumKeys];
+      this.valueSizes = new int[batchNumKeys];
+      this.values = new UnsafeByteArrayOutputStream();
+      this.readerResult = new ReaderResult(recordFileReadBufferBytes);
+    }
+
+    private int size() {
+      return size;
+    }
+
+    private void add(KeyHashAndValueAndStreamIndex keyHashValuePair) {
+      ByteBuffer keyHash = keyHashValuePair.keyHash;
+      ByteBuffer location = keyHashValuePair.value;
+      System.arraycopy(keyHash.array(), keyHash.arrayOffset() + keyHash.position(),
+          keyHashes, size * keyHashSize, keyHashSize);
+      System.arraycopy(location.array(), location.arrayOffset() + location.position(),
+          locations, size * locationSize, locationSize);
+      streamIndexes[size] = keyHashValuePair.streamIndex;
+      // With block compression, records of the same block share this offset
+      recordFileOffsets[size] = EncodingHelper.decodeLittleEndianFixedWidthLong(
+          locations, size * locationSize, offsetNumBytes);
+      readOrder[size] = size;
+      ++size;
+    }
+
+    private void readAndWrite(ICurlyReader[] recordFileReaders, Writer recordFileWriter) throws IOException {
+      // Read records ordered by record file and offset in that file
+      Arrays.sort(readOrder, 0, size, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          if (streamIndexes[a] != streamIndexes[b]) {
+            return streamIndexes[a] < streamIndexes[b] ? -1 : 1;
+          } else if (recordFileOffsets[a] != recordFileOffsets[b]) {
+            return recordFileOffsets[a] < recordFileOffsets[b] ? -1 : 1;
+          } else {
+            return a.compareTo(b);
+          }
+        }
+      });
+      values.reset();
+      for (int i = 0; i < size; ++i) {
+        int index = readOrder[i];
+        recordFileReaders[streamIndexes[index]].readRecord(
+            ByteBuffer.wrap(locations, index * locationSize, locationSize), readerResult);
+        ByteBuffer value = readerResult.getBuffer();
+        valueOffsets[index] = values.count();
+        valueSizes[index] = value.remaining();
+        values.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+        readerResult.clear();
+      }
+
+      // Write records in key hash order
+      // Note: we are directly writing the key hash instead of the key. The underlying
+      // key file writer should be aware of that and not attempt to hash the key again.
+      byte[] valuesArray = values.array();
+      for (int i = 0; i < size; ++i) {
+        recordFileWriter.write(ByteBuffer.wrap(keyHashes, i * keyHashSize, keyHashSize),
+            ByteBuffer.wrap(valuesArray, valueOffsets[i], valueSizes[i]));
+      }
+
+      size = 0;
+    }
+  }
+}
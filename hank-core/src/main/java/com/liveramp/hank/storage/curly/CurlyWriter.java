@@ -24,6 +24,8 @@ import java.nio.ByteBuffer;
 import com.liveramp.commons.collections.LruHashMap;
 import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.Compressor;
+import com.liveramp.hank.compression.common.ArrayCompressor;
 import com.liveramp.hank.hasher.Murmur64Hasher;
 import com.liveramp.hank.storage.Writer;
 import com.liveramp.hank.util.EncodingHelper;
@@ -43,11 +45,16 @@ public class CurlyWriter implements Writer {
   private final OutputStream recordFileStream;
   private final int offsetNumBytes;
   private final long maxOffset;
+  private final int valueLengthNumBytes;
+  private final long maxValueLength;
   private final ByteBuffer valueOffsetBuffer;
   private final byte[] valueLengthBuffer = new byte[5];
 
   // Compression
   private final CompressionCodec blockCompressionCodec;
+  private final Compressor blockCompressor;
+  // Array compressors only write a block when it is closed, their threshold applies to the uncompressed block
+  private final boolean compressesBlocksOnClose;
   private ByteArrayOutputStream compressedBlockOutputStream;
   private OutputStream compressionOutputStream;
   private final int compressedBlockSizeThreshold;
@@ -71,6 +78,23 @@ public class CurlyWriter implements Writer {
                      CompressionCodec blockCompressionCodec,
                      int compressedBlockSizeThreshold,
                      int offsetInBlockNumBytes) throws IOException {
+    this(recordfileStream, keyfileWriter, offsetNumBytes, valueFoldingCacheCapacity, blockCompressionCodec,
+        compressedBlockSizeThreshold, offsetInBlockNumBytes, 0);
+  }
+
+  // When valueLengthNumBytes is positive, the length of each value is written in the key file after its offset,
+  // so that readers can read records with a single exactly sized read. It is not supported with block compression.
+  public CurlyWriter(OutputStream recordfileStream,
+                     Writer keyfileWriter,
+                     int offsetNumBytes,
+                     int valueFoldingCacheCapacity,
+                     CompressionCodec blockCompressionCodec,
+                     int compressedBlockSizeThreshold,
+                     int offsetInBlockNumBytes,
+                     int valueLengthNumBytes) throws IOException {
+    if (blockCompressionCodec != null && valueLengthNumBytes > 0) {
+      throw new IOException("Value lengths can not be written in the key file when using block compression");
+    }
     // Buffer output
     this.recordFileStream = new BufferedOutputStream(recordfileStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
     this.keyfileWriter = keyfileWriter;
@@ -80,6 +104,8 @@ public class CurlyWriter implements Writer {
     this.currentRecordOffset = 0;
     this.compressedBlockSizeThreshold = compressedBlockSizeThreshold;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
+    this.valueLengthNumBytes = Math.max(valueLengthNumBytes, 0);
+    this.maxValueLength = this.valueLengthNumBytes >= 4 ? Integer.MAX_VALUE : (1L << (this.valueLengthNumBytes * 8)) - 1;
 
     // Initialize LRU cache only when needed
     if (valueFoldingCacheCapacity > 0) {
@@ -90,12 +116,16 @@ public class CurlyWriter implements Writer {
 
     if (blockCompressionCodec == null) {
       // No block compression
-      valueOffsetBuffer = ByteBuffer.wrap(new byte[offsetNumBytes]);
+      valueOffsetBuffer = ByteBuffer.wrap(new byte[offsetNumBytes + this.valueLengthNumBytes]);
+      blockCompressor = null;
+      compressesBlocksOnClose = false;
       compressedBlockOutputStream = null;
       compressionOutputStream = null;
     } else {
       // Initialize block compression
       valueOffsetBuffer = ByteBuffer.wrap(new byte[offsetNumBytes + offsetInBlockNumBytes]);
+      blockCompressor = blockCompressionCodec.getFactory().getCompressor();
+      compressesBlocksOnClose = blockCompressor instanceof ArrayCompressor;
       compressedBlockOutputStream = new ByteArrayOutputStream();
       compressionOutputStream = null;
     }
@@ -141,7 +171,16 @@ public class CurlyWriter implements Writer {
         //
         // Uncompressed mode
         //
-        EncodingHelper.encodeLittleEndianFixedWidthLong(currentRecordOffset, valueOffsetBuffer.array());
+        int valueLength = value.remaining();
+        EncodingHelper.encodeLittleEndianFixedWidthLong(currentRecordOffset, valueOffsetBuffer.array(), 0, offsetNumBytes);
+        // Append value length to the offset if needed
+        if (valueLengthNumBytes > 0) {
+          if (valueLength > maxValueLength) {
+            throw new IOException("Value of " + valueLength + " bytes exceeds the max value length of " + maxValueLength
+                + " bytes that can be encoded in " + valueLengthNumBytes + " bytes.");
+          }
+          EncodingHelper.encodeLittleEndianFixedWidthLong(valueLength, valueOffsetBuffer.array(), offsetNumBytes, valueLengthNumBytes);
+        }
         // Write current offset in key file
         keyfileWriter.write(key, valueOffsetBuffer);
         // Value was not found in cache. Cache current value encoded offset buffer if needed
@@ -149,10 +188,9 @@ public class CurlyWriter implements Writer {
           hashedValueToEncodedRecordOffsetCache.put(hashedValue, BytesUtils.byteBufferDeepCopy(valueOffsetBuffer));
         }
         // Encode value size and write it
-        int valueLength = value.remaining();
-        int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(valueLength, valueLengthBuffer);
-        recordFileStream.write(valueLengthBuffer, 0, valueLengthNumBytes);
-        currentRecordOffset += valueLengthNumBytes;
+        int varIntNumBytes = EncodingHelper.encodeLittleEndianVarInt(valueLength, valueLengthBuffer);
+        recordFileStream.write(valueLengthBuffer, 0, varIntNumBytes);
+        currentRecordOffset += varIntNumBytes;
         // Write value
         recordFileStream.write(value.array(), value.arrayOffset() + value.position(), valueLength);
         currentRecordOffset += valueLength;
@@ -162,7 +200,8 @@ public class CurlyWriter implements Writer {
         //
 
         // Flush the compressed block if needed
-        if (compressedBlockOutputStream.size() >= compressedBlockSizeThreshold) {
+        if (compressedBlockOutputStream.size() >= compressedBlockSizeThreshold
+            || (compressesBlocksOnClose && offsetInDecompressedBlock >= compressedBlockSizeThreshold)) {
           flushCompressedBlock();
         }
         // Create a new compression output stream if needed (either this is the first value or we just flushed)
@@ -172,8 +211,8 @@ public class CurlyWriter implements Writer {
 
         // Encode value size and write it to compressed block
         int valueLength = value.remaining();
-        int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(valueLength, valueLengthBuffer);
-        compressionOutputStream.write(valueLengthBuffer, 0, valueLengthNumBytes);
+        int varIntNumBytes = EncodingHelper.encodeLittleEndianVarInt(valueLength, valueLengthBuffer);
+        compressionOutputStream.write(valueLengthBuffer, 0, varIntNumBytes);
         // Write value to compressed block
         compressionOutputStream.write(value.array(), value.arrayOffset() + value.position(), valueLength);
         // Flush compression output stream so that its content is immediately in the output stream and we can check the size
@@ -188,7 +227,7 @@ public class CurlyWriter implements Writer {
           hashedValueToEncodedRecordOffsetCache.put(hashedValue, BytesUtils.byteBufferDeepCopy(valueOffsetBuffer));
         }
         // Increment the offset
-        offsetInDecompressedBlock += valueLengthNumBytes + valueLength;
+        offsetInDecompressedBlock += varIntNumBytes + valueLength;
       }
     }
   }
@@ -198,7 +237,7 @@ public class CurlyWriter implements Writer {
     compressedBlockOutputStream.reset();
     offsetInDecompressedBlock = 0;
     // Initialize new compression stream
-    compressionOutputStream = blockCompressionCodec.getFactory().getCompressor().getOutputStream(compressedBlockOutputStream);
+    compressionOutputStream = blockCompressor.getOutputStream(compressedBlockOutputStream);
   }
 
   private void flushCompressedBlock() throws IOException {
@@ -207,9 +246,9 @@ public class CurlyWriter implements Writer {
       compressionOutputStream.close();
       compressionOutputStream = null;
       // Encode compressed block size and write it to record stream
-      int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(compressedBlockOutputStream.size(), valueLengthBuffer);
-      recordFileStream.write(valueLengthBuffer, 0, valueLengthNumBytes);
-      currentRecordOffset += valueLengthNumBytes;
+      int varIntNumBytes = EncodingHelper.encodeLittleEndianVarInt(compressedBlockOutputStream.size(), valueLengthBuffer);
+      recordFileStream.write(valueLengthBuffer, 0, varIntNumBytes);
+      currentRecordOffset += varIntNumBytes;
       // Write compressed block to record stream
       compressedBlockOutputStream.writeTo(recordFileStream);
       currentRecordOffset += compressedBlockOutputStream.size();
@@ -243,6 +282,7 @@ public class CurlyWriter implements Writer {
         + ", blockCompressionCodec=" + blockCompressionCodec
         + ", compressedBlockSizeThreshold=" + compressedBlockSizeThreshold
         + ", offsetInBlockNumBytes=" + offsetInBlockNumBytes
+        + ", valueLengthNumBytes=" + valueLengthNumBytes
         + "]";
   }
 }
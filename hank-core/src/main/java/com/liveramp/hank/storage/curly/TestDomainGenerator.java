@@ -16,6 +16,7 @@
 
 package com.liveramp.hank.storage.curly;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -27,10 +28,12 @@ import java.util.Random;
 
 import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.coordinator.DomainVersion;
 import com.liveramp.hank.coordinator.mock.MockDomainVersion;
 import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
 
 public class TestDomainGenerator {
 
@@ -57,15 +60,43 @@ public class TestDomainGenerator {
     Partitioner p = (Partitioner)Class.forName(partitionerClass).newInstance();
     Hasher h = (Hasher)Class.forName(hasherClassName).newInstance();
 
+    final Curly curly = new Curly(hashLength, h, 10L * 1024 * 1024 * 1024,
+        indexBits, 32 * 1024, "", "", null, codecClass, null, 0, -1, null, -1, -1);
+
+    long start = System.currentTimeMillis();
+    generate(curly, new MockDomainVersion(0, 0L, new IncrementalDomainVersionProperties.Base()), outputPath, 7,
+        totalNumRecords, keyLength, hashLength, valueLength, h, numPartitions, p);
+    long end = System.currentTimeMillis();
+    System.out.println("Elapsed ms: " + (end - start));
+  }
+
+  /**
+   * Write random records in each partition of the given Curly domain version.
+   *
+   * @return the generated keys of each partition
+   */
+  public static Map<Integer, List<byte[]>> generate(Curly curly,
+                                                    DomainVersion domainVersion,
+                                                    String outputPath,
+                                                    long seed,
+                                                    int totalNumRecords,
+                                                    int keyLength,
+                                                    int hashLength,
+                                                    int valueLength,
+                                                    Hasher h,
+                                                    int numPartitions,
+                                                    Partitioner p) throws IOException {
     Map<Integer, List<byte[]>> partitionedKeys = new HashMap<Integer, List<byte[]>>();
+    Map<Integer, List<byte[]>> partitionedHashes = new HashMap<Integer, List<byte[]>>();
     for (int i = 0; i < numPartitions; i++) {
       partitionedKeys.put(i, new ArrayList<byte[]>());
+      partitionedHashes.put(i, new ArrayList<byte[]>());
     }
 
     Map<byte[], byte[]> hashesToKeys = new HashMap<byte[], byte[]>();
     Map<byte[], byte[]> hashesToValues = new HashMap<byte[], byte[]>();
 
-    Random r = new Random(7);
+    Random r = new Random(seed);
 
     for (int i = 0; i < totalNumRecords; i++) {
       byte[] key = new byte[keyLength];
@@ -73,17 +104,15 @@ public class TestDomainGenerator {
       final int partitionNumber = p.partition(ByteBuffer.wrap(key), numPartitions);
       byte[] hash = new byte[hashLength];
       h.hash(ByteBuffer.wrap(key), hashLength, hash);
-      partitionedKeys.get(partitionNumber).add(hash);
+      partitionedKeys.get(partitionNumber).add(key);
+      partitionedHashes.get(partitionNumber).add(hash);
       hashesToKeys.put(hash, key);
       byte[] valueBytes = new byte[valueLength];
       r.nextBytes(valueBytes);
       hashesToValues.put(hash, valueBytes);
     }
 
-    final Curly curly = new Curly(hashLength, h, 10L * 1024 * 1024 * 1024,
-        indexBits, 32 * 1024, "", "", null, codecClass, null, 0, -1, null, -1, -1);
-
-    for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
+    for (Map.Entry<Integer, List<byte[]>> part : partitionedHashes.entrySet()) {
       Collections.sort(part.getValue(), new Comparator<byte[]>() {
         @Override
         public int compare(byte[] arg0, byte[] arg1) {
@@ -92,9 +121,8 @@ public class TestDomainGenerator {
       });
     }
 
-    long start = System.currentTimeMillis();
-    for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
-      final CurlyWriter writer = (CurlyWriter)curly.getWriter(new MockDomainVersion(0, 0L),
+    for (Map.Entry<Integer, List<byte[]>> part : partitionedHashes.entrySet()) {
+      final CurlyWriter writer = (CurlyWriter)curly.getWriter(domainVersion,
           new LocalPartitionRemoteFileOps(outputPath, part.getKey()), part.getKey());
       for (int i = 0; i < part.getValue().size(); i++) {
         final byte[] keyHash = part.getValue().get(i);
@@ -102,8 +130,6 @@ public class TestDomainGenerator {
       }
       writer.close();
     }
-    long end = System.currentTimeMillis();
-    System.out.println("Elapsed ms: " + (end - start));
+    return partitionedKeys;
   }
-
 }
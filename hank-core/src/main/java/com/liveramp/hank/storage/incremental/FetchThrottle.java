@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.incremental;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import com.liveramp.hank.util.ByteRateLimiter;
+
+/**
+ * Bounds the number of remote file streams copied concurrently into a data directory, across all partition
+ * updates of the process, and the number of versions of a single partition fetched concurrently.
+ * Each range of a file copied in chunks is a stream of its own, and holds a permit while it is copied.
+ * Bytes read from remote files and bytes written to the data directory are also accounted against
+ * rate limiters while they are transferred. Rate limiters can be shared by the throttles of several
+ * data directories. Throttles are set per data directory by the update manager.
+ */
+public class FetchThrottle {
+
+  private static final FetchThrottle UNLIMITED = new FetchThrottle(0, 1);
+
+  private static final Map<String, FetchThrottle> dataDirectoryToFetchThrottle =
+      new ConcurrentHashMap<String, FetchThrottle>();
+
+  private final Semaphore semaphore;
+  private final int numConcurrentFetchesPerPartition;
+  private final ByteRateLimiter fetchRateLimiter;
+  private final ByteRateLimiter writeRateLimiter;
+
+  /**
+   * @param maxConcurrentFetches             Maximum number of remote file streams copied concurrently, unlimited when not positive.
+   * @param numConcurrentFetchesPerPartition Number of versions of a partition fetched concurrently.
+   */
+  public FetchThrottle(int maxConcurrentFetches, int numConcurrentFetchesPerPartition) {
+    this(maxConcurrentFetches, numConcurrentFetchesPerPartition, null, null);
+  }
+
+  /**
+   * @param fetchRateLimiter Limits the rate of bytes read from remote files, unlimited when null.
+   * @param writeRateLimiter Limits the rate of bytes written to the data directory, unlimited when null.
+   */
+  public FetchThrottle(int maxConcurrentFetches,
+                       int numConcurrentFetchesPerPartition,
+                       ByteRateLimiter fetchRateLimiter,
+                       ByteRateLimiter writeRateLimiter) {
+    this.semaphore = maxConcurrentFetches > 0 ? new Semaphore(maxConcurrentFetches, true) : null;
+    this.numConcurrentFetchesPerPartition = Math.max(1, numConcurrentFetchesPerPartition);
+    this.fetchRateLimiter = fetchRateLimiter;
+    this.writeRateLimiter = writeRateLimiter;
+  }
+
+  public static void setFetchThrottle(String dataDirectory, FetchThrottle fetchThrottle) {
+    dataDirectoryToFetchThrottle.put(new File(dataDirectory).getAbsolutePath(), fetchThrottle);
+  }
+
+  // Return the throttle of the data directory containing the given local path, unlimited if there is none
+  public static FetchThrottle getFetchThrottle(String localPath) {
+    String path = new File(localPath).getAbsolutePath();
+    String dataDirectory = null;
+    for (String candidate : dataDirectoryToFetchThrottle.keySet()) {
+      if ((path.equals(candidate) || path.startsWith(candidate + "/"))
+          && (dataDirectory == null || candidate.length() > dataDirectory.length())) {
+        dataDirectory = candidate;
+      }
+    }
+    if (dataDirectory == null) {
+      return UNLIMITED;
+    }
+    FetchThrottle result = dataDirectoryToFetchThrottle.get(dataDirectory);
+    return result == null ? UNLIMITED : result;
+  }
+
+  public int getNumConcurrentFetchesPerPartition() {
+    return numConcurrentFetchesPerPartition;
+  }
+
+  // Acquire a permit to copy one remote file stream, waiting if needed
+  public void acquire() throws IOException {
+    if (semaphore != null) {
+      try {
+        semaphore.acquire();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while waiting to fetch");
+      }
+    }
+  }
+
+  public void release() {
+    if (semaphore != null) {
+      semaphore.release();
+    }
+  }
+
+  // Account for bytes read from a remote file, waiting if needed
+  public void acquireFetchedBytes(long numBytes) throws IOException {
+    if (fetchRateLimiter != null) {
+      fetchRateLimiter.acquire(numBytes);
+    }
+  }
+
+  // Account for bytes about to be written to the data directory, waiting if needed
+  public void acquireWrittenBytes(long numBytes) throws IOException {
+    if (writeRateLimiter != null) {
+      writeRateLimiter.acquire(numBytes);
+    }
+  }
+
+  // Return a stream that accounts for the bytes written to the given one
+  public OutputStream getThrottledOutputStream(OutputStream outputStream) {
+    if (writeRateLimiter == null) {
+      return outputStream;
+    }
+    return new FilterOutputStream(outputStream) {
+      @Override
+      public void write(int b) throws IOException {
+        acquireWrittenBytes(1);
+        out.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        acquireWrittenBytes(len);
+        out.write(b, off, len);
+      }
+    };
+  }
+}
@@ -22,6 +22,7 @@ import com.liveramp.hank.coordinator.Domain;
 import com.liveramp.hank.coordinator.DomainVersion;
 import com.liveramp.hank.partition_server.PartitionUpdateTaskStatistics;
 import com.liveramp.hank.storage.PartitionUpdater;
+import com.liveramp.hank.storage.UpdateWhileServing;
 import com.liveramp.hank.util.FormatUtils;
 import com.liveramp.hank.util.HankTimer;
 import org.apache.commons.io.FileUtils;
@@ -29,10 +30,20 @@ import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-public abstract class IncrementalPartitionUpdater implements PartitionUpdater, CloseCoordinatorOpportunistically {
+public abstract class IncrementalPartitionUpdater implements PartitionUpdater, CloseCoordinatorOpportunistically,
+    UpdateWhileServing {
 
   private static final Logger LOG = LoggerFactory.getLogger(IncrementalPartitionUpdater.class);
 
@@ -40,11 +51,16 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
   public static final String UPDATE_WORK_ROOT_PREFIX = "_update_work_";
   public static final String CACHE_ROOT_NAME = "cache";
 
+  private static final long FETCH_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
+  private static final TimeUnit FETCH_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
+
   protected final Domain domain;
   protected final String localPartitionRoot;
   protected final String localPartitionRootCache;
   private final IncrementalUpdatePlanner updatePlanner;
   private Coordinator coordinatorToCloseOpportunistically;
+  // Files of the current version are served during the update and should not be modified
+  protected boolean updatingWhileServing = false;
 
   public IncrementalPartitionUpdater(Domain domain,
                                      String localPartitionRoot,
@@ -55,6 +71,11 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
     this.updatePlanner = updatePlanner;
   }
 
+  @Override
+  public void updateWhileServing() {
+    updatingWhileServing = true;
+  }
+
   /**
    * @return The current valid version number or null if there is none
    * @throws IOException
@@ -93,12 +114,13 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
       closeCoordinatorOpportunistically();
       // Fetch and cache versions needed to update
       HankTimer timer = new HankTimer();
-      cacheVersionsNeededToUpdate(currentVersion, cachedBases, cachedDeltas, updatePlan);
+      statistics.addNumBytesFetched(cacheVersionsNeededToUpdate(currentVersion, cachedBases, cachedDeltas, updatePlan));
       long fetchTimeMs = timer.getDurationMs();
       statistics.getDurationsMs().put("Update data fetch", fetchTimeMs);
       // Run update in a workspace
       timer.restart();
-      runUpdate(currentVersion, updatingToVersion, updatePlan, statistics);
+      long numBytesWritten = runUpdate(currentVersion, updatingToVersion, updatePlan, statistics);
+      statistics.addNumBytesWritten(numBytesWritten);
       long executionTimeMs = timer.getDurationMs();
       statistics.getDurationsMs().put("Update execution", executionTimeMs);
       LOG.info("Update in " + localPartitionRoot + " to " + updatingToVersion
@@ -123,8 +145,8 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
     return detectCachedDeltasCore();
   }
 
-  // Fetch required versions and commit them to cache upon successful fetch
-  protected void cacheVersionsNeededToUpdate(DomainVersion currentVersion,
+  // Fetch required versions and commit them to cache upon successful fetch. Return the number of bytes fetched.
+  protected long cacheVersionsNeededToUpdate(DomainVersion currentVersion,
                                              Set<DomainVersion> cachedBases,
                                              Set<DomainVersion> cachedDeltas,
                                              IncrementalUpdatePlan updatePlan) throws IOException {
@@ -134,7 +156,8 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
       deleteFetchRoots();
       // Create new fetch root
       File fetchRoot = createFetchRoot();
-      // Fetch versions
+      // Determine versions to fetch
+      List<DomainVersion> versionsToFetch = new ArrayList<DomainVersion>();
       for (DomainVersion version : updatePlan.getAllVersions()) {
         // Do not fetch current version
         if (currentVersion != null && currentVersion.equals(version)) {
@@ -144,17 +167,91 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
         if (cachedBases.contains(version) || cachedDeltas.contains(version)) {
           continue;
         }
-        fetchVersion(version, fetchRoot.getAbsolutePath());
+        versionsToFetch.add(version);
+      }
+      // Fetch versions
+      FetchThrottle fetchThrottle = FetchThrottle.getFetchThrottle(localPartitionRoot);
+      int numConcurrentFetches = Math.min(versionsToFetch.size(), fetchThrottle.getNumConcurrentFetchesPerPartition());
+      if (numConcurrentFetches <= 1) {
+        for (DomainVersion version : versionsToFetch) {
+          fetchVersion(version, fetchRoot.getAbsolutePath());
+        }
+      } else {
+        fetchVersions(versionsToFetch, fetchRoot.getAbsolutePath(), numConcurrentFetches);
       }
       // Commit fetched versions to cache
+      long numBytesFetched = getTotalNumBytes(fetchRoot);
       commitFiles(fetchRoot, localPartitionRootCache);
+      return numBytesFetched;
     } finally {
       // Always delete fetch roots
       deleteFetchRoots();
     }
   }
 
-  private void runUpdate(DomainVersion currentVersion,
+
+  // Fetch versions concurrently. Each version is fetched into its own files in the fetch root.
+  // Remote file streams are bounded by the fetch throttle of the data directory as they are copied.
+  private void fetchVersions(List<DomainVersion> versions,
+                             final String fetchRoot,
+                             int numConcurrentFetches) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(numConcurrentFetches, new ThreadFactory() {
+      private int threadId = 0;
+
+      @Override
+      public synchronized Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "Fetcher " + localPartitionRoot + " #" + threadId++);
+      }
+    });
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final DomainVersion version : versions) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            fetchVersion(version, fetchRoot);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while fetching versions to " + fetchRoot, e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          } else if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          } else if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+          }
+          throw new IOException("Failed to fetch versions to " + fetchRoot, e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      // Fetchers must stop writing into the fetch root before it is deleted
+      boolean interrupted = false;
+      while (true) {
+        try {
+          if (executor.awaitTermination(FETCH_EXECUTOR_AWAIT_TERMINATION_VALUE, FETCH_EXECUTOR_AWAIT_TERMINATION_UNIT)) {
+            break;
+          }
+          LOG.info("Waiting for termination of fetchers of " + fetchRoot);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Return the number of bytes of the files written by the update
+  private long runUpdate(DomainVersion currentVersion,
                          DomainVersion updatingToVersion,
                          IncrementalUpdatePlan updatePlan,
                          PartitionUpdateTaskStatistics statistics) throws IOException {
@@ -168,12 +265,28 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
       // Move current version to cache
       commitFiles(new File(localPartitionRoot), localPartitionRootCache);
       // Commit update result files to top level
+      long numBytesWritten = getTotalNumBytes(updateWorkRoot);
       commitFiles(updateWorkRoot, localPartitionRoot);
+      return numBytesWritten;
     } finally {
       deleteUpdateWorkRoots();
     }
   }
 
+  // Total size of the files in the given root. Directories are ignored.
+  private static long getTotalNumBytes(File root) {
+    long result = 0;
+    File[] files = root.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isFile()) {
+          result += file.length();
+        }
+      }
+    }
+    return result;
+  }
+
   // Move all files in sourceRoot to destinationRoot. Directories are ignored.
   protected void commitFiles(File sourceRoot, String destinationRoot) throws IOException {
     File[] files = sourceRoot.listFiles();
@@ -0,0 +1,207 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.liveramp.hank.util.EncodingHelper;
+
+/**
+ * Minimal perfect hash function over 64-bit fingerprints, built level by level as in BBHash.
+ * At each level, remaining fingerprints are hashed into a bit array gamma times larger than
+ * their number. Positions hit by a single fingerprint are kept and the other fingerprints move
+ * to the next level. The index of a fingerprint is the rank of its position across all levels.
+ *
+ * Fingerprints that still collide after MAX_NUM_LEVELS (identical fingerprints, in practice)
+ * are not indexed, and getIndex returns -1 for them as it does for most absent fingerprints.
+ */
+public final class MinimalPerfectHash {
+
+  static final int MAX_NUM_LEVELS = 32;
+  private static final int RANK_SAMPLE_NUM_WORDS = 8;
+
+  // Bit offset of each level in words, followed by the total number of bits
+  private final long[] levelOffsets;
+  private final long[] words;
+  // Number of set bits before each sample of RANK_SAMPLE_NUM_WORDS words
+  private final long[] ranks;
+  private final long numIndexed;
+
+  private MinimalPerfectHash(long[] levelOffsets, long[] words) {
+    this.levelOffsets = levelOffsets;
+    this.words = words;
+    this.ranks = new long[words.length / RANK_SAMPLE_NUM_WORDS + 1];
+    long rank = 0;
+    for (int i = 0; i < words.length; ++i) {
+      if (i % RANK_SAMPLE_NUM_WORDS == 0) {
+        ranks[i / RANK_SAMPLE_NUM_WORDS] = rank;
+      }
+      rank += Long.bitCount(words[i]);
+    }
+    this.numIndexed = rank;
+  }
+
+  // Return an index in [0, getNumIndexed()), or -1 when the fingerprint is not indexed
+  public long getIndex(long fingerprint) {
+    for (int level = 0; level < levelOffsets.length - 1; ++level) {
+      long position = levelOffsets[level]
+          + getPosition(fingerprint, level, levelOffsets[level + 1] - levelOffsets[level]);
+      if ((words[(int) (position >>> 6)] & (1L << position)) != 0) {
+        return getRank(position);
+      }
+    }
+    return -1;
+  }
+
+  private long getRank(long position) {
+    int word = (int) (position >>> 6);
+    int sample = word / RANK_SAMPLE_NUM_WORDS;
+    long result = ranks[sample];
+    for (int i = sample * RANK_SAMPLE_NUM_WORDS; i < word; ++i) {
+      result += Long.bitCount(words[i]);
+    }
+    return result + Long.bitCount(words[word] & ((1L << position) - 1));
+  }
+
+  public long getNumIndexed() {
+    return numIndexed;
+  }
+
+  public int getNumLevels() {
+    return levelOffsets.length - 1;
+  }
+
+  public long getNumBytes() {
+    return 4 + 4L * getNumLevels() + 8L * words.length;
+  }
+
+  public byte[] encode() {
+    int numLevels = getNumLevels();
+    byte[] result = new byte[(int) getNumBytes()];
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numLevels, result, 0, 4);
+    for (int level = 0; level < numLevels; ++level) {
+      long levelNumWords = (levelOffsets[level + 1] - levelOffsets[level]) >>> 6;
+      EncodingHelper.encodeLittleEndianFixedWidthLong(levelNumWords, result, 4 + 4 * level, 4);
+    }
+    int wordsOffset = 4 + 4 * numLevels;
+    for (int i = 0; i < words.length; ++i) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(words[i], result, wordsOffset + 8 * i, 8);
+    }
+    return result;
+  }
+
+  public static MinimalPerfectHash decode(byte[] bytes) throws IOException {
+    if (bytes.length < 4) {
+      throw new IOException("Invalid minimal perfect hash of " + bytes.length + " bytes");
+    }
+    int numLevels = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, 0, 4);
+    if (numLevels < 0 || numLevels > MAX_NUM_LEVELS || bytes.length < 4 + 4 * numLevels) {
+      throw new IOException("Invalid minimal perfect hash with " + numLevels + " levels in " + bytes.length + " bytes");
+    }
+    long[] levelOffsets = new long[numLevels + 1];
+    for (int level = 0; level < numLevels; ++level) {
+      long levelNumWords = EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, 4 + 4 * level, 4);
+      if (levelNumWords <= 0) {
+        throw new IOException("Invalid minimal perfect hash level of " + levelNumWords + " words");
+      }
+      levelOffsets[level + 1] = levelOffsets[level] + (levelNumWords << 6);
+    }
+    int wordsOffset = 4 + 4 * numLevels;
+    if (bytes.length != wordsOffset + (levelOffsets[numLevels] >>> 3)) {
+      throw new IOException("Invalid minimal perfect hash of " + bytes.length + " bytes with "
+          + levelOffsets[numLevels] + " bits");
+    }
+    long[] words = new long[(int) (levelOffsets[numLevels] >>> 6)];
+    for (int i = 0; i < words.length; ++i) {
+      words[i] = EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, wordsOffset + 8 * i, 8);
+    }
+    return new MinimalPerfectHash(levelOffsets, words);
+  }
+
+  /**
+   * Build a minimal perfect hash of the first numFingerprints fingerprints. Note that the given
+   * array is reordered. Gamma trades space (about 4 bits per key when it is 2) for build and
+   * lookup speed (fewer levels).
+   */
+  public static MinimalPerfectHash build(long[] fingerprints, int numFingerprints, double gamma) {
+    List<long[]> levels = new ArrayList<long[]>();
+    int numRemaining = numFingerprints;
+    while (numRemaining > 0 && levels.size() < MAX_NUM_LEVELS) {
+      int level = levels.size();
+      int levelNumWords = (int) Math.max(1, Math.ceil(gamma * numRemaining / 64));
+      long levelSize = (long) levelNumWords << 6;
+      long[] hits = new long[levelNumWords];
+      long[] collisions = new long[levelNumWords];
+      for (int i = 0; i < numRemaining; ++i) {
+        long position = getPosition(fingerprints[i], level, levelSize);
+        int word = (int) (position >>> 6);
+        if ((hits[word] & (1L << position)) != 0) {
+          collisions[word] |= 1L << position;
+        } else {
+          hits[word] |= 1L << position;
+        }
+      }
+      // Colliding fingerprints move to the next level
+      int numColliding = 0;
+      for (int i = 0; i < numRemaining; ++i) {
+        long position = getPosition(fingerprints[i], level, levelSize);
+        if ((collisions[(int) (position >>> 6)] & (1L << position)) != 0) {
+          fingerprints[numColliding++] = fingerprints[i];
+        }
+      }
+      for (int i = 0; i < levelNumWords; ++i) {
+        hits[i] &= ~collisions[i];
+      }
+      levels.add(hits);
+      numRemaining = numColliding;
+    }
+    long[] levelOffsets = new long[levels.size() + 1];
+    for (int level = 0; level < levels.size(); ++level) {
+      levelOffsets[level + 1] = levelOffsets[level] + ((long) levels.get(level).length << 6);
+    }
+    long[] words = new long[(int) (levelOffsets[levels.size()] >>> 6)];
+    for (int level = 0; level < levels.size(); ++level) {
+      long[] levelWords = levels.get(level);
+      System.arraycopy(levelWords, 0, words, (int) (levelOffsets[level] >>> 6), levelWords.length);
+    }
+    return new MinimalPerfectHash(levelOffsets, words);
+  }
+
+  private static long getPosition(long fingerprint, int level, long levelSize) {
+    return Long.remainderUnsigned(mix(fingerprint + (level + 1) * 0x9e3779b97f4a7c15L), levelSize);
+  }
+
+  // Key hashes can be shorter than 8 bytes, so they are folded and mixed
+  public static long getFingerprint(byte[] keyHash, int off, int keyHashSize) {
+    long result = 0xcbf29ce484222325L;
+    for (int i = off; i < off + keyHashSize; ++i) {
+      result = (result ^ (keyHash[i] & 0xff)) * 0x100000001b3L;
+    }
+    return mix(result);
+  }
+
+  // Murmur3 finalizer
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+}
@@ -0,0 +1,307 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.liveramp.hank.config.DataDirectoriesConfigurator;
+import com.liveramp.hank.config.ReaderConfigurator;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.DomainVersion;
+import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.partition_server.DiskPartitionAssignment;
+import com.liveramp.hank.storage.Compactor;
+import com.liveramp.hank.storage.Deleter;
+import com.liveramp.hank.storage.FileOpsUtil;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.PartitionRemoteFileOps;
+import com.liveramp.hank.storage.PartitionRemoteFileOpsFactory;
+import com.liveramp.hank.storage.PartitionUpdater;
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.RemoteDomainCleaner;
+import com.liveramp.hank.storage.RemoteDomainVersionDeleter;
+import com.liveramp.hank.storage.StorageEngine;
+import com.liveramp.hank.storage.StorageEngineFactory;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+import com.liveramp.hank.storage.incremental.IncrementalStorageEngine;
+import com.liveramp.hank.storage.incremental.IncrementalUpdatePlanner;
+import com.liveramp.hank.util.FsUtils;
+
+/**
+ * Shemp is a storage engine for small, fixed-size values of domains that are always rebuilt
+ * from scratch (bases only). Each partition is indexed by a minimal perfect hash held in memory,
+ * so that a lookup reads a single slot.
+ */
+public class Shemp extends IncrementalStorageEngine implements StorageEngine {
+
+  private static final Pattern BASE_PATTERN = Pattern.compile(".*(\\d{5})\\.base\\.shemp");
+  static final String BASE_REGEX = ".*\\d{5}\\.base\\.shemp";
+
+  public static class Factory implements StorageEngineFactory {
+    public static final String REMOTE_DOMAIN_ROOT_KEY = "remote_domain_root";
+    public static final String VALUE_SIZE_KEY = "value_size";
+    public static final String KEY_HASH_SIZE_KEY = "key_hash_size";
+    public static final String FILE_OPS_FACTORY_KEY = "file_ops_factory";
+    public static final String HASHER_KEY = "hasher";
+    public static final String NUM_REMOTE_LEAF_VERSIONS_TO_KEEP = "num_remote_leaf_versions_to_keep";
+    public static final String MEMORY_MAPPED_KEY = "memory_mapped";
+
+    private static final Set<String> REQUIRED_KEYS =
+        new HashSet<String>(Arrays.asList(
+            HASHER_KEY,
+            VALUE_SIZE_KEY,
+            KEY_HASH_SIZE_KEY,
+            FILE_OPS_FACTORY_KEY,
+            NUM_REMOTE_LEAF_VERSIONS_TO_KEEP));
+
+    @Override
+    public StorageEngine getStorageEngine(Map<String, Object> options, Domain domain) throws IOException {
+      for (String requiredKey : REQUIRED_KEYS) {
+        if (options == null || options.get(requiredKey) == null) {
+          throw new IOException("Required key '" + requiredKey
+              + "' was not found!");
+        }
+      }
+
+      // Hasher
+      Hasher hasher;
+      PartitionRemoteFileOpsFactory fileOpsFactory;
+      try {
+        hasher = (Hasher)Class.forName((String)options.get(HASHER_KEY)).newInstance();
+        fileOpsFactory = (PartitionRemoteFileOpsFactory)Class.forName((String)options.get(FILE_OPS_FACTORY_KEY)).newInstance();
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+
+      // Memory mapped reads
+      Boolean memoryMapped = (Boolean)options.get(MEMORY_MAPPED_KEY);
+      if (memoryMapped == null) {
+        memoryMapped = false;
+      }
+
+      return new Shemp((Integer)options.get(KEY_HASH_SIZE_KEY),
+          hasher,
+          (Integer)options.get(VALUE_SIZE_KEY),
+          FileOpsUtil.getDomainBuilderRoot(options),
+          FileOpsUtil.getPartitionServerRoot(options),
+          fileOpsFactory,
+          domain,
+          (Integer)options.get(NUM_REMOTE_LEAF_VERSIONS_TO_KEEP),
+          memoryMapped);
+    }
+
+    @Override
+    public String getPrettyName() {
+      return "Shemp";
+    }
+
+    @Override
+    public String getDefaultOptions() {
+      return "";
+    }
+  }
+
+  private final Domain domain;
+
+  private final int keyHashSize;
+  private final Hasher hasher;
+  private final int valueSize;
+  private final String domainBuilderRemoteDomainRoot;
+  private final String partitionServerRemoteDomainRoot;
+  private final PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory;
+  private final ByteBuffer keyHashBuffer;
+  private final int numRemoteLeafVersionsToKeep;
+  private final boolean memoryMapped;
+
+  public Shemp(int keyHashSize,
+               Hasher hasher,
+               int valueSize,
+               String domainBuilderRemoteDomainRoot,
+               String partitionServerRemoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               boolean memoryMapped) {
+    this.keyHashSize = keyHashSize;
+    this.hasher = hasher;
+    this.valueSize = valueSize;
+    this.domainBuilderRemoteDomainRoot = domainBuilderRemoteDomainRoot;
+    this.partitionServerRemoteDomainRoot = partitionServerRemoteDomainRoot;
+    this.partitionRemoteFileOpsFactory = partitionRemoteFileOpsFactory;
+    this.keyHashBuffer = ByteBuffer.allocate(keyHashSize);
+    this.domain = domain;
+    this.numRemoteLeafVersionsToKeep = numRemoteLeafVersionsToKeep;
+    this.memoryMapped = memoryMapped;
+  }
+
+  @Override
+  public Reader getReader(ReaderConfigurator configurator, int partitionNumber, DiskPartitionAssignment assignment) throws IOException {
+    return new ShempReader(getTargetDirectory(assignment, partitionNumber), keyHashSize, hasher, valueSize, memoryMapped);
+  }
+
+  @Override
+  public Writer getWriter(DomainVersion domainVersion,
+                          PartitionRemoteFileOps partitionRemoteFileOps,
+                          int partitionNumber) throws IOException {
+    if (!IncrementalDomainVersionProperties.isBase(domainVersion)) {
+      throw new IOException("Shemp does not support deltas, but version " + domainVersion + " is not a base");
+    }
+    String name = getName(domainVersion.getVersionNumber());
+    OutputStream outputStream = partitionRemoteFileOps.getOutputStream(name);
+    // Spool next to the output when it is local. Otherwise use the default temporary directory, which is
+    // local to the task when writing from Hadoop.
+    File tmpDirectory = null;
+    if (partitionRemoteFileOps instanceof LocalPartitionRemoteFileOps) {
+      tmpDirectory = new File(partitionRemoteFileOps.getRemoteAbsolutePath(name)).getParentFile();
+    }
+    return new ShempWriter(outputStream, tmpDirectory, keyHashSize, hasher, valueSize);
+  }
+
+  @Override
+  public IncrementalUpdatePlanner getUpdatePlanner(Domain domain) {
+    return new ShempUpdatePlanner(domain);
+  }
+
+  @Override
+  public PartitionUpdater getUpdater(DiskPartitionAssignment assignment, int partitionNumber) throws IOException {
+    return new ShempPartitionUpdater(domain,
+        getPartitionRemoteFileOps(RemoteLocation.PARTITION_SERVER, partitionNumber),
+        getTargetDirectory(assignment, partitionNumber));
+  }
+
+  @Override
+  public Compactor getCompactor(DiskPartitionAssignment assignment,
+                                int partitionNumber) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Writer getCompactorWriter(DomainVersion domainVersion,
+                                   PartitionRemoteFileOps partitionRemoteFileOps,
+                                   int partitionNumber) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Deleter getDeleter(DiskPartitionAssignment assignment, int partitionNumber) throws IOException {
+    return new ShempDeleter(getTargetDirectory(assignment, partitionNumber));
+  }
+
+  @Override
+  public ByteBuffer getComparableKey(ByteBuffer key) {
+    hasher.hash(key, keyHashSize, keyHashBuffer.array());
+    return keyHashBuffer;
+  }
+
+  @Override
+  public PartitionRemoteFileOpsFactory getPartitionRemoteFileOpsFactory(RemoteLocation location) {
+    return partitionRemoteFileOpsFactory;
+  }
+
+  @Override
+  public PartitionRemoteFileOps getPartitionRemoteFileOps(RemoteLocation location, int partitionNumber) throws IOException {
+    return partitionRemoteFileOpsFactory.getPartitionRemoteFileOps(getRoot(location), partitionNumber);
+  }
+
+  @Override
+  public RemoteDomainVersionDeleter getRemoteDomainVersionDeleter(RemoteLocation location) throws IOException {
+    return new ShempRemoteDomainVersionDeleter(domain, getRoot(location), partitionRemoteFileOpsFactory);
+  }
+
+  @Override
+  public RemoteDomainCleaner getRemoteDomainCleaner() throws IOException {
+    return new ShempRemoteDomainCleaner(domain, numRemoteLeafVersionsToKeep);
+  }
+
+  @Override
+  public DiskPartitionAssignment getDataDirectoryPerPartition(DataDirectoriesConfigurator configurator, Collection<Integer> partitionNumbers) {
+    return Cueball.getDataDirectoryAssignments(configurator, partitionNumbers);
+  }
+
+  @Override
+  public Set<String> getFiles(DiskPartitionAssignment assignment,
+                              int domainVersionNumber,
+                              int partitionNumber) throws IOException {
+    Set<String> result = new HashSet<String>();
+    result.add(getTargetDirectory(assignment, partitionNumber) + "/" + getName(domainVersionNumber));
+    return result;
+  }
+
+  public static SortedSet<ShempFilePath> getBases(String... dirs) throws IOException {
+    SortedSet<ShempFilePath> result = new TreeSet<ShempFilePath>();
+    Set<String> paths = FsUtils.getMatchingPaths(BASE_REGEX, dirs);
+    for (String path : paths) {
+      result.add(new ShempFilePath(path));
+    }
+    return result;
+  }
+
+  public static int parseVersionNumber(String name) {
+    Matcher matcher = BASE_PATTERN.matcher(name);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("string " + name
+          + " isn't a path that parseVersionNumber can parse!");
+    }
+    return Integer.parseInt(matcher.group(1));
+  }
+
+  public static String getName(int versionNumber) {
+    return String.format("%05d", versionNumber) + ".base.shemp";
+  }
+
+  private String getTargetDirectory(DiskPartitionAssignment assignment,
+                                    int partitionNumber) {
+    return assignment.getDisk(partitionNumber) + "/" + domain.getName() + "/" + partitionNumber;
+  }
+
+  private String getRoot(RemoteLocation location) {
+    if (location == RemoteLocation.DOMAIN_BUILDER) {
+      return domainBuilderRemoteDomainRoot;
+    } else if (location == RemoteLocation.PARTITION_SERVER) {
+      return partitionServerRemoteDomainRoot;
+    } else {
+      throw new RuntimeException();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Shemp{" +
+        "keyHashSize=" + keyHashSize +
+        ", hasher=" + hasher +
+        ", valueSize=" + valueSize +
+        ", domainBuilderRemoteDomainRoot='" + domainBuilderRemoteDomainRoot + '\'' +
+        ", partitionServerRemoteDomainRoot='" + partitionServerRemoteDomainRoot + '\'' +
+        ", partitionRemoteFileOpsFactory=" + partitionRemoteFileOpsFactory +
+        ", numRemoteLeafVersionsToKeep=" + numRemoteLeafVersionsToKeep +
+        ", memoryMapped=" + memoryMapped +
+        '}';
+  }
+}
@@ -0,0 +1,36 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import com.liveramp.hank.storage.Deleter;
+
+public class ShempDeleter implements Deleter {
+  private final String localPartitionRoot;
+
+  public ShempDeleter(String localPartitionRoot) {
+    this.localPartitionRoot = localPartitionRoot;
+  }
+
+  @Override
+  public void delete() throws IOException {
+    FileUtils.deleteDirectory(new File(localPartitionRoot));
+  }
+}
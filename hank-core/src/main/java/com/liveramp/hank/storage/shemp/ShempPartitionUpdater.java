@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.DomainVersion;
+import com.liveramp.hank.partition_server.PartitionUpdateTaskStatistics;
+import com.liveramp.hank.storage.PartitionRemoteFileOps;
+import com.liveramp.hank.storage.incremental.IncrementalPartitionUpdater;
+import com.liveramp.hank.storage.incremental.IncrementalUpdatePlan;
+
+/**
+ * Shemp domains are always rebuilt from scratch, so updating a partition simply moves the
+ * base of the target version in place.
+ */
+public class ShempPartitionUpdater extends IncrementalPartitionUpdater {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ShempPartitionUpdater.class);
+
+  private final PartitionRemoteFileOps partitionRemoteFileOps;
+
+  public ShempPartitionUpdater(Domain domain,
+                               PartitionRemoteFileOps partitionRemoteFileOps,
+                               String localPartitionRoot) throws IOException {
+    super(domain, localPartitionRoot, new ShempUpdatePlanner(domain));
+    this.partitionRemoteFileOps = partitionRemoteFileOps;
+  }
+
+  @Override
+  protected Integer detectCurrentVersionNumber() throws IOException {
+    SortedSet<ShempFilePath> localBases = Shemp.getBases(localPartitionRoot);
+    if (localBases.size() > 0) {
+      return localBases.last().getVersion();
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  protected Set<DomainVersion> detectCachedBasesCore() throws IOException {
+    Set<DomainVersion> cachedVersions = new HashSet<DomainVersion>();
+    for (ShempFilePath file : Shemp.getBases(localPartitionRootCache)) {
+      DomainVersion version = domain.getVersion(file.getVersion());
+      if (version != null) {
+        cachedVersions.add(version);
+      }
+    }
+    return cachedVersions;
+  }
+
+  @Override
+  protected Set<DomainVersion> detectCachedDeltasCore() throws IOException {
+    return Collections.emptySet();
+  }
+
+  @Override
+  protected void cleanCachedVersions() throws IOException {
+    // Delete all cached versions
+    FileUtils.deleteDirectory(new File(localPartitionRootCache));
+  }
+
+  @Override
+  protected void fetchVersion(DomainVersion domainVersion, String fetchRoot) throws IOException {
+    String fileToFetch = Shemp.getName(domainVersion.getVersionNumber());
+    LOG.info("Fetching from " + partitionRemoteFileOps + " file " + fileToFetch + " to " + fetchRoot);
+    partitionRemoteFileOps.copyToLocalRoot(fileToFetch, fetchRoot);
+  }
+
+  @Override
+  protected void runUpdateCore(DomainVersion currentVersion,
+                               DomainVersion updatingToVersion,
+                               IncrementalUpdatePlan updatePlan,
+                               String updateWorkRoot,
+                               PartitionUpdateTaskStatistics statistics) throws IOException {
+    if (!updatePlan.getDeltasOrdered().isEmpty()) {
+      throw new IOException("Shemp does not support deltas, but update plan is: " + updatePlan);
+    }
+    DomainVersion base = updatePlan.getBase();
+    String basePath;
+    if (currentVersion != null && currentVersion.equals(base)) {
+      // If version is current version, data is in root
+      basePath = localPartitionRoot + "/" + Shemp.getName(base.getVersionNumber());
+    } else {
+      // Otherwise, version must be in cache
+      basePath = localPartitionRootCache + "/" + Shemp.getName(base.getVersionNumber());
+    }
+    if (!new File(basePath).exists()) {
+      throw new IOException("Could not find required Shemp base: " + basePath);
+    }
+    String newBasePath = updateWorkRoot + "/" + Shemp.getName(updatingToVersion.getVersionNumber());
+    if (!new File(basePath).renameTo(new File(newBasePath))) {
+      throw new IOException("Failed to rename Shemp base: " + basePath + " to: " + newBasePath);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.SortedSet;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.util.EncodingHelper;
+import com.liveramp.hank.util.MemoryMappedFile;
+
+/**
+ * A lookup evaluates the in-memory minimal perfect hash and reads a single slot, which
+ * holds the key hash used to reject absent keys and the value.
+ */
+public class ShempReader implements Reader {
+
+  private static final KeyHashBufferThreadLocal keyHashBufferThreadLocal = new KeyHashBufferThreadLocal();
+
+  private final int keyHashSize;
+  private final Hasher hasher;
+  private final int slotSize;
+  private final int versionNumber;
+  private final FileChannel channel;
+  // Cleared when closed, concurrent reads use the value they read once
+  private volatile MemoryMappedFile mappedFile;
+  private final MinimalPerfectHash minimalPerfectHash;
+  // Key hashes of the records that are not indexed by the minimal perfect hash, in order
+  private final byte[] unindexedKeyHashes;
+  private final int numUnindexed;
+
+  public ShempReader(String partitionRoot,
+                     int keyHashSize,
+                     Hasher hasher,
+                     int valueSize,
+                     boolean memoryMapped) throws IOException {
+    SortedSet<ShempFilePath> bases = Shemp.getBases(partitionRoot);
+    if (bases == null || bases.size() == 0) {
+      throw new IOException("Could not detect any Shemp base in " + partitionRoot);
+    }
+    ShempFilePath latestBase = bases.last();
+    this.keyHashSize = keyHashSize;
+    this.hasher = hasher;
+    this.slotSize = keyHashSize + valueSize;
+    this.versionNumber = latestBase.getVersion();
+
+    channel = new FileInputStream(latestBase.getPath()).getChannel();
+    long fileSize = channel.size();
+    byte[] trailer = new byte[ShempWriter.TRAILER_LENGTH];
+    if (fileSize < trailer.length) {
+      throw new IOException("Invalid Shemp base " + latestBase.getPath() + " of " + fileSize + " bytes");
+    }
+    readFully(ByteBuffer.wrap(trailer), fileSize - trailer.length);
+    long numRecords = EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 0, 8);
+    long minimalPerfectHashLength = EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 8, 8);
+    long magic = EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 16, 8);
+    long slotsLength = numRecords * slotSize;
+    if (magic != ShempWriter.MAGIC || numRecords < 0 || minimalPerfectHashLength < 0
+        || slotsLength + minimalPerfectHashLength + trailer.length != fileSize) {
+      throw new IOException("Invalid Shemp base " + latestBase.getPath() + " of " + fileSize + " bytes with "
+          + numRecords + " records of " + slotSize + " bytes and a minimal perfect hash of "
+          + minimalPerfectHashLength + " bytes");
+    }
+    byte[] encodedMinimalPerfectHash = new byte[(int) minimalPerfectHashLength];
+    readFully(ByteBuffer.wrap(encodedMinimalPerfectHash), slotsLength);
+    minimalPerfectHash = MinimalPerfectHash.decode(encodedMinimalPerfectHash);
+
+    numUnindexed = (int) (numRecords - minimalPerfectHash.getNumIndexed());
+    unindexedKeyHashes = new byte[numUnindexed * keyHashSize];
+    for (int i = 0; i < numUnindexed; ++i) {
+      readFully(ByteBuffer.wrap(unindexedKeyHashes, i * keyHashSize, keyHashSize),
+          (minimalPerfectHash.getNumIndexed() + i) * slotSize);
+    }
+
+    // Only slots are read once open
+    if (memoryMapped && slotsLength > 0) {
+      mappedFile = new MemoryMappedFile(channel, 0, slotsLength);
+    }
+  }
+
+  @Override
+  public void get(ByteBuffer key, ReaderResult result) throws IOException {
+    // Note: keyHash buffer might be larger than keyHashSize
+    byte[] keyHash = keyHashBufferThreadLocal.getAndRequireBufferSize(keyHashSize);
+    hasher.hash(key, keyHashSize, keyHash);
+
+    // by default, we didn't find what we were looking for
+    result.notFound();
+
+    long index = getIndex(keyHash);
+    if (index < 0) {
+      return;
+    }
+    result.requiresBufferSize(slotSize);
+    ByteBuffer buffer = result.getBuffer();
+    buffer.clear();
+    buffer.limit(slotSize);
+    int bytesRead = readSlot(buffer, index * slotSize);
+    if (bytesRead != slotSize) {
+      throw new IOException("Tried to read " + slotSize + " bytes of slot " + index + ", but only got " + bytesRead + " bytes");
+    }
+    // The slot of an absent key holds another key hash
+    if (BytesUtils.compareBytesUnsigned(buffer.array(), buffer.arrayOffset(), keyHash, 0, keyHashSize) == 0) {
+      result.found();
+      buffer.limit(slotSize);
+      buffer.position(keyHashSize);
+    }
+  }
+
+  private long getIndex(byte[] keyHash) {
+    long index = minimalPerfectHash.getIndex(MinimalPerfectHash.getFingerprint(keyHash, 0, keyHashSize));
+    if (index >= 0 || numUnindexed == 0) {
+      return index;
+    }
+    // Binary search among records that are not indexed
+    int low = 0;
+    int high = numUnindexed - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = BytesUtils.compareBytesUnsigned(unindexedKeyHashes, middle * keyHashSize, keyHash, 0, keyHashSize);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return minimalPerfectHash.getNumIndexed() + middle;
+      }
+    }
+    return -1;
+  }
+
+  private int readSlot(ByteBuffer buffer, long offset) throws IOException {
+    final MemoryMappedFile mappedFile = this.mappedFile;
+    if (mappedFile != null) {
+      return mappedFile.read(buffer, offset);
+    } else {
+      return channel.read(buffer, offset);
+    }
+  }
+
+  private void readFully(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset);
+      if (read <= 0) {
+        throw new IOException("Unexpected end of Shemp base at offset " + offset);
+      }
+      offset += read;
+    }
+  }
+
+  @Override
+  public Integer getVersionNumber() {
+    return versionNumber;
+  }
+
+  // Shemp readers do not cache values
+  @Override
+  public CacheStatistics getCacheStatistics() {
+    final MemoryMappedFile mappedFile = this.mappedFile;
+    return new CacheStatistics(0, 0, 0, 0, mappedFile == null ? 0 : mappedFile.getLength());
+  }
+
+  @Override
+  public void close() throws IOException {
+    final MemoryMappedFile mappedFile = this.mappedFile;
+    if (mappedFile != null) {
+      this.mappedFile = null;
+      mappedFile.close();
+    }
+    channel.close();
+  }
+
+  private static class KeyHashBufferThreadLocal extends ThreadLocal<byte[]> {
+
+    private static int KEY_HASH_BUFFER_INITIAL_SIZE = 8;
+
+    @Override
+    protected byte[] initialValue() {
+      return new byte[KEY_HASH_BUFFER_INITIAL_SIZE];
+    }
+
+    protected byte[] getAndRequireBufferSize(int size) {
+      byte[] buffer = this.get();
+      if (buffer.length < size) {
+        buffer = new byte[size];
+        this.set(buffer);
+      }
+      return buffer;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.util.EncodingHelper;
+import com.liveramp.hank.util.IOStreamUtils;
+
+/**
+ * Records are spooled to a local temporary file and their fingerprints kept in memory (8 bytes
+ * per record) until the writer is closed. The minimal perfect hash is then built and records are
+ * laid out in their slots, through a second temporary file, before being copied to the output.
+ * Temporary files are created in the given directory, or in the default temporary directory when
+ * it is null, and are deleted when the writer is closed.
+ */
+public class ShempWriter implements Writer {
+
+  static final long MAGIC = 0x5348454d50303031L;
+  static final int TRAILER_LENGTH = 24;
+  private static final double GAMMA = 2.0;
+  private static final int MAX_NUM_RECORDS = Integer.MAX_VALUE - 8;
+
+  private final OutputStream stream;
+  private final int keyHashSize;
+  private final Hasher hasher;
+  private final int valueSize;
+  private final int slotSize;
+
+  private final File tmpDirectory;
+  private final File recordsFile;
+  private final OutputStream recordsStream;
+  private long[] fingerprints = new long[1024];
+
+  private final byte[] keyHashBytes;
+  private final byte[] previousKeyHashBytes;
+  private ByteBuffer previousKey = null;
+
+  private long numBytesWritten = 0;
+  private long numRecordsWritten = 0;
+
+  public ShempWriter(OutputStream outputStream,
+                     File tmpDirectory,
+                     int keyHashSize,
+                     Hasher hasher,
+                     int valueSize) throws IOException {
+    this.stream = new BufferedOutputStream(outputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
+    this.keyHashSize = keyHashSize;
+    this.hasher = hasher;
+    this.valueSize = valueSize;
+    this.slotSize = keyHashSize + valueSize;
+    this.keyHashBytes = new byte[keyHashSize];
+    this.previousKeyHashBytes = new byte[keyHashSize];
+    this.tmpDirectory = tmpDirectory;
+    this.recordsFile = File.createTempFile("shemp_records_", null, tmpDirectory);
+    try {
+      this.recordsStream = new BufferedOutputStream(new FileOutputStream(recordsFile), IOStreamUtils.DEFAULT_BUFFER_SIZE);
+    } catch (IOException e) {
+      recordsFile.delete();
+      throw e;
+    }
+  }
+
+  @Override
+  public void write(ByteBuffer key, ByteBuffer value) throws IOException {
+    // Check that value size is compatible
+    if (value.remaining() != valueSize) {
+      throw new IOException("Size of value to be written is: "
+          + value.remaining() + ", but configured value size is: " + valueSize);
+    }
+    if (numRecordsWritten == MAX_NUM_RECORDS) {
+      throw new IOException("Shemp partitions can not contain more than " + MAX_NUM_RECORDS + " records");
+    }
+    // Hash key
+    hasher.hash(key, keyHashSize, keyHashBytes);
+    // Check key hash ordering, which also detects key hash collisions
+    if (previousKey != null) {
+      int previousKeyHashComparison = BytesUtils.compareBytesUnsigned(keyHashBytes, 0, previousKeyHashBytes, 0, keyHashSize);
+      if (previousKeyHashComparison == 0) {
+        throw new IOException("Collision: two consecutive keys have the same hash value."
+            + "\nKey: " + BytesUtils.bytesToHexString(key)
+            + "\nPrevious key: " + BytesUtils.bytesToHexString(previousKey)
+            + "\nHash: " + BytesUtils.bytesToHexString(ByteBuffer.wrap(keyHashBytes)));
+      }
+      if (previousKeyHashComparison < 0) {
+        throw new IOException("Key ordering is incorrect. They should be ordered by increasing hash (comparableKey) value, but a decreasing sequence was detected."
+            + "\nKey: " + BytesUtils.bytesToHexString(key)
+            + "\nHash: " + BytesUtils.bytesToHexString(ByteBuffer.wrap(keyHashBytes))
+            + "\nPrevious key: " + BytesUtils.bytesToHexString(previousKey)
+            + "\nPrevious Hash: " + BytesUtils.bytesToHexString(ByteBuffer.wrap(previousKeyHashBytes)));
+      }
+    }
+    // Spool record
+    recordsStream.write(keyHashBytes, 0, keyHashSize);
+    recordsStream.write(value.array(), value.arrayOffset() + value.position(), valueSize);
+    if (numRecordsWritten == fingerprints.length) {
+      fingerprints = Arrays.copyOf(fingerprints, (int) Math.min(MAX_NUM_RECORDS, 2L * fingerprints.length));
+    }
+    fingerprints[(int) numRecordsWritten] = MinimalPerfectHash.getFingerprint(keyHashBytes, 0, keyHashSize);
+    numRecordsWritten++;
+    // Save current key and key hash
+    System.arraycopy(keyHashBytes, 0, previousKeyHashBytes, 0, keyHashSize);
+    previousKey = BytesUtils.byteBufferDeepCopy(key, previousKey);
+  }
+
+  @Override
+  public void close() throws IOException {
+    File slotsFile = null;
+    try {
+      recordsStream.close();
+      int numRecords = (int) numRecordsWritten;
+      MinimalPerfectHash minimalPerfectHash = MinimalPerfectHash.build(fingerprints, numRecords, GAMMA);
+      fingerprints = null;
+
+      // Lay out records in their slots. Records that are not indexed by the minimal perfect hash
+      // are stored after the others, in key hash order.
+      slotsFile = File.createTempFile("shemp_slots_", null, tmpDirectory);
+      long numUnindexed = 0;
+      RandomAccessFile slots = new RandomAccessFile(slotsFile, "rw");
+      DataInputStream records = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(recordsFile), IOStreamUtils.DEFAULT_BUFFER_SIZE));
+      try {
+        FileChannel slotsChannel = slots.getChannel();
+        byte[] record = new byte[slotSize];
+        for (int i = 0; i < numRecords; ++i) {
+          records.readFully(record);
+          long index = minimalPerfectHash.getIndex(MinimalPerfectHash.getFingerprint(record, 0, keyHashSize));
+          if (index < 0) {
+            index = minimalPerfectHash.getNumIndexed() + numUnindexed++;
+          }
+          ByteBuffer buffer = ByteBuffer.wrap(record);
+          long position = index * slotSize;
+          while (buffer.hasRemaining()) {
+            position += slotsChannel.write(buffer, position);
+          }
+        }
+      } finally {
+        records.close();
+        slots.close();
+      }
+
+      // Copy slots, then write the minimal perfect hash and the trailer
+      FileInputStream slotsInputStream = new FileInputStream(slotsFile);
+      try {
+        byte[] buffer = new byte[IOStreamUtils.DEFAULT_BUFFER_SIZE];
+        int read;
+        while ((read = slotsInputStream.read(buffer)) > 0) {
+          stream.write(buffer, 0, read);
+          numBytesWritten += read;
+        }
+      } finally {
+        slotsInputStream.close();
+      }
+      byte[] encodedMinimalPerfectHash = minimalPerfectHash.encode();
+      stream.write(encodedMinimalPerfectHash);
+      byte[] trailer = new byte[TRAILER_LENGTH];
+      EncodingHelper.encodeLittleEndianFixedWidthLong(numRecords, trailer, 0, 8);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(encodedMinimalPerfectHash.length, trailer, 8, 8);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(MAGIC, trailer, 16, 8);
+      stream.write(trailer);
+      numBytesWritten += encodedMinimalPerfectHash.length + trailer.length;
+
+      // flush everything and close
+      stream.flush();
+      stream.close();
+    } finally {
+      recordsFile.delete();
+      if (slotsFile != null) {
+        slotsFile.delete();
+      }
+    }
+  }
+
+  @Override
+  public long getNumBytesWritten() {
+    return numBytesWritten;
+  }
+
+  @Override
+  public long getNumRecordsWritten() {
+    return numRecordsWritten;
+  }
+
+  @Override
+  public String toString() {
+    return "ShempWriter ["
+        + "numRecordsWritten=" + getNumRecordsWritten()
+        + ", numBytesWritten=" + getNumBytesWritten()
+        + "]";
+  }
+}
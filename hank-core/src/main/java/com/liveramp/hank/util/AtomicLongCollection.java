@@ -16,51 +16,205 @@
 
 package com.liveramp.hank.util;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collection of counters that are incremented together. Counters start in a single base stripe. Stripes
+ * per thread are only created once increments contend on the base stripe, so that collections that are
+ * not contended stay small. Each increment lands in a single stripe, which makes snapshots consistent:
+ * an increment is either entirely counted in a snapshot or not at all.
+ */
 public class AtomicLongCollection {
 
-  private final long[] values;
+  private static final int MAX_NUM_STRIPES = 64;
+  // Contended stripes are padded so that counters of different stripes do not share cache lines
+  private static final int MIN_STRIPE_LENGTH = 16;
+
+  private final int size;
+  private final Stripe base;
+  // Created on the first contention, stripes are then created as threads use them
+  private volatile AtomicReferenceArray<Stripe> stripes;
 
   public AtomicLongCollection(int size) {
-    values = new long[size];
+    this.size = size;
+    this.base = new Stripe(size);
   }
 
   public AtomicLongCollection(int size, long[] initialValues) {
-    values = new long[size];
+    this(size);
     set(initialValues);
   }
 
-  synchronized public void set(long... newValues) {
-    if (values.length != newValues.length) {
-      throw new RuntimeException("Expecting " + values.length + " values but was supplied " + newValues.length);
+  public void set(long... newValues) {
+    checkNumValues(newValues, "values");
+    base.lock();
+    try {
+      base.set(newValues);
+    } finally {
+      base.unlock();
+    }
+    // New values are held by the base stripe
+    AtomicReferenceArray<Stripe> stripes = this.stripes;
+    if (stripes != null) {
+      for (int i = 0; i < stripes.length(); ++i) {
+        Stripe stripe = stripes.get(i);
+        if (stripe != null) {
+          stripe.lock();
+          try {
+            stripe.clear();
+          } finally {
+            stripe.unlock();
+          }
+        }
+      }
+    }
+  }
+
+  public void increment(long... increments) {
+    checkNumValues(increments, "increments");
+    AtomicReferenceArray<Stripe> stripes = this.stripes;
+    if (stripes == null) {
+      if (base.tryLock()) {
+        try {
+          base.add(increments);
+        } finally {
+          base.unlock();
+        }
+        return;
+      }
+      stripes = getOrCreateStripes();
     }
-    for (int i = 0; i < newValues.length; ++i) {
-      values[i] = newValues[i];
+    int stripeIndex = (int)Thread.currentThread().getId() & (stripes.length() - 1);
+    Stripe stripe = stripes.get(stripeIndex);
+    if (stripe == null) {
+      stripes.compareAndSet(stripeIndex, null, new Stripe(Math.max(size, MIN_STRIPE_LENGTH)));
+      stripe = stripes.get(stripeIndex);
+    }
+    stripe.lock();
+    try {
+      stripe.add(increments);
+    } finally {
+      stripe.unlock();
     }
   }
 
-  synchronized public void increment(long... increments) {
-    if (values.length != increments.length) {
-      throw new RuntimeException("Expecting " + values.length + " increments but was supplied " + increments.length);
+  public long[] getAsArrayAndSet(long... newValues) {
+    checkNumValues(newValues, "values");
+    long[] result = new long[size];
+    base.lock();
+    try {
+      base.addTo(result);
+      base.set(newValues);
+    } finally {
+      base.unlock();
     }
-    for (int i = 0; i < increments.length; ++i) {
-      values[i] += increments[i];
+    AtomicReferenceArray<Stripe> stripes = this.stripes;
+    if (stripes != null) {
+      for (int i = 0; i < stripes.length(); ++i) {
+        Stripe stripe = stripes.get(i);
+        if (stripe != null) {
+          stripe.lock();
+          try {
+            stripe.addTo(result);
+            stripe.clear();
+          } finally {
+            stripe.unlock();
+          }
+        }
+      }
     }
+    return result;
   }
 
-  synchronized public long[] getAsArrayAndSet(long... newValues) {
-    long[] result = new long[values.length];
-    System.arraycopy(values, 0, result, 0, values.length);
-    set(newValues);
+  public long[] getAsArray() {
+    long[] result = new long[size];
+    base.lock();
+    try {
+      base.addTo(result);
+    } finally {
+      base.unlock();
+    }
+    AtomicReferenceArray<Stripe> stripes = this.stripes;
+    if (stripes != null) {
+      for (int i = 0; i < stripes.length(); ++i) {
+        Stripe stripe = stripes.get(i);
+        if (stripe != null) {
+          stripe.lock();
+          try {
+            stripe.addTo(result);
+          } finally {
+            stripe.unlock();
+          }
+        }
+      }
+    }
     return result;
   }
 
-  synchronized public long[] getAsArray() {
-    long[] result = new long[values.length];
-    System.arraycopy(values, 0, result, 0, values.length);
+  public long get(int index) {
+    return getAsArray()[index];
+  }
+
+  // Number of stripes created because of contention
+  int getNumStripes() {
+    AtomicReferenceArray<Stripe> stripes = this.stripes;
+    int result = 0;
+    if (stripes != null) {
+      for (int i = 0; i < stripes.length(); ++i) {
+        if (stripes.get(i) != null) {
+          ++result;
+        }
+      }
+    }
     return result;
   }
 
-  synchronized public long get(int index) {
-    return values[index];
+  private synchronized AtomicReferenceArray<Stripe> getOrCreateStripes() {
+    if (stripes == null) {
+      int numStripes = 1;
+      while (numStripes < Math.min(Runtime.getRuntime().availableProcessors(), MAX_NUM_STRIPES)) {
+        numStripes <<= 1;
+      }
+      stripes = new AtomicReferenceArray<Stripe>(numStripes);
+    }
+    return stripes;
+  }
+
+  private void checkNumValues(long[] values, String name) {
+    if (size != values.length) {
+      throw new RuntimeException("Expecting " + size + " " + name + " but was supplied " + values.length);
+    }
+  }
+
+  private static class Stripe extends ReentrantLock {
+
+    private final long[] values;
+
+    private Stripe(int length) {
+      this.values = new long[length];
+    }
+
+    private void add(long[] increments) {
+      for (int i = 0; i < increments.length; ++i) {
+        values[i] += increments[i];
+      }
+    }
+
+    private void set(long[] newValues) {
+      System.arraycopy(newValues, 0, values, 0, newValues.length);
+    }
+
+    private void clear() {
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = 0;
+      }
+    }
+
+    private void addTo(long[] result) {
+      for (int i = 0; i < result.length; ++i) {
+        result[i] += values[i];
+      }
+    }
   }
 }
@@ -0,0 +1,65 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the average rate at which bytes are transferred by threads sharing this limiter. Callers
+ * acquire the bytes they transfer, and are delayed until the transfers of previous callers would
+ * have completed at the given rate.
+ */
+public class ByteRateLimiter {
+
+  private final double numNanosPerByte;
+  private long nextFreeTimeNanos;
+
+  /**
+   * @param maxNumBytesPerSecond Maximum average rate, unlimited when not positive.
+   */
+  public ByteRateLimiter(long maxNumBytesPerSecond) {
+    this.numNanosPerByte = maxNumBytesPerSecond > 0 ? 1000000000d / maxNumBytesPerSecond : 0;
+    this.nextFreeTimeNanos = System.nanoTime();
+  }
+
+  public boolean isLimited() {
+    return numNanosPerByte > 0;
+  }
+
+  public void acquire(long numBytes) throws InterruptedIOException {
+    if (!isLimited() || numBytes <= 0) {
+      return;
+    }
+    long waitNanos;
+    synchronized (this) {
+      long now = System.nanoTime();
+      // Unused capacity is not accumulated
+      if (nextFreeTimeNanos - now < 0) {
+        nextFreeTimeNanos = now;
+      }
+      waitNanos = nextFreeTimeNanos - now;
+      nextFreeTimeNanos += (long) (numBytes * numNanosPerByte);
+    }
+    if (waitNanos > 0) {
+      try {
+        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while waiting to transfer " + numBytes + " bytes");
+      }
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import com.liveramp.commons.collections.MemoryBoundLruHashMap;
+import com.liveramp.commons.util.MemoryUsageEstimator;
+
+// Memory bound LRU cache split into independently synchronized segments, so that concurrent
+// readers only contend when their keys fall in the same segment. Capacities are divided evenly
+// between segments and eviction is LRU within a segment, which approximates a global LRU.
+// A capacity that is not positive is not divided and means no bound, as in MemoryBoundLruHashMap.
+public class ConcurrentMemoryBoundCache<K, V> {
+
+  public static final int DEFAULT_NUM_SEGMENTS = 16;
+  // Do not split byte capacity in segments smaller than this, since values larger
+  // than a segment's capacity cannot be cached
+  private static final long MIN_SEGMENT_NUM_BYTES = 64 << 10;
+
+  private final MemoryBoundLruHashMap<K, V>[] segments;
+  private final int segmentMask;
+
+  // A disabled cache will not add any synchronization overhead
+  public ConcurrentMemoryBoundCache(boolean isEnabled,
+                                    long numBytesCapacity,
+                                    int numItemsCapacity,
+                                    MemoryUsageEstimator<K> keyEstimator,
+                                    MemoryUsageEstimator<V> valueEstimator) {
+    this(isEnabled, numBytesCapacity, numItemsCapacity, keyEstimator, valueEstimator, DEFAULT_NUM_SEGMENTS);
+  }
+
+  @SuppressWarnings("unchecked")
+  public ConcurrentMemoryBoundCache(boolean isEnabled,
+                                    long numBytesCapacity,
+                                    int numItemsCapacity,
+                                    MemoryUsageEstimator<K> keyEstimator,
+                                    MemoryUsageEstimator<V> valueEstimator,
+                                    int maxNumSegments) {
+    if (isEnabled) {
+      int numSegments = getNumSegments(numBytesCapacity, numItemsCapacity, maxNumSegments);
+      segments = new MemoryBoundLruHashMap[numSegments];
+      for (int i = 0; i < numSegments; ++i) {
+        segments[i] = new MemoryBoundLruHashMap<K, V>(
+            (int)getSegmentCapacity(numItemsCapacity, numSegments, i),
+            getSegmentCapacity(numBytesCapacity, numSegments, i),
+            keyEstimator,
+            valueEstimator);
+      }
+      segmentMask = numSegments - 1;
+    } else {
+      segments = null;
+      segmentMask = 0;
+    }
+  }
+
+  public boolean isEnabled() {
+    return segments != null;
+  }
+
+  public V get(K key) {
+    if (!isEnabled()) {
+      return null;
+    } else {
+      MemoryBoundLruHashMap<K, V> segment = getSegment(key);
+      synchronized (segment) {
+        return segment.get(key);
+      }
+    }
+  }
+
+  public void put(K key, V value) {
+    if (isEnabled()) {
+      if (value == null) {
+        throw new IllegalArgumentException("Value to put in cache should not be null.");
+      }
+      MemoryBoundLruHashMap<K, V> segment = getSegment(key);
+      synchronized (segment) {
+        segment.putAndEvict(key, value);
+      }
+    }
+  }
+
+  // Remove the given key only if it is still mapped to the given value
+  public void remove(K key, V value) {
+    if (isEnabled()) {
+      MemoryBoundLruHashMap<K, V> segment = getSegment(key);
+      synchronized (segment) {
+        if (segment.get(key) == value) {
+          segment.remove(key);
+        }
+      }
+    }
+  }
+
+  public int size() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      int result = 0;
+      for (MemoryBoundLruHashMap<K, V> segment : segments) {
+        synchronized (segment) {
+          result += segment.size();
+        }
+      }
+      return result;
+    }
+  }
+
+  public int getMaxNumItems() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      int result = 0;
+      for (MemoryBoundLruHashMap<K, V> segment : segments) {
+        result += segment.getMaxNumItems();
+      }
+      return result;
+    }
+  }
+
+  public long getNumManagedBytes() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      long result = 0;
+      for (MemoryBoundLruHashMap<K, V> segment : segments) {
+        synchronized (segment) {
+          result += segment.getNumManagedBytes();
+        }
+      }
+      return result;
+    }
+  }
+
+  public long getMaxNumManagedBytes() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      long result = 0;
+      for (MemoryBoundLruHashMap<K, V> segment : segments) {
+        result += segment.getMaxNumManagedBytes();
+      }
+      return result;
+    }
+  }
+
+  int getNumSegments() {
+    return isEnabled() ? segments.length : 0;
+  }
+
+  private MemoryBoundLruHashMap<K, V> getSegment(K key) {
+    int hash = key.hashCode();
+    // Spread high bits so that keys with similar hash codes use different segments
+    hash ^= (hash >>> 16);
+    return segments[hash & segmentMask];
+  }
+
+  // Largest power of two not exceeding the maximum number of segments, such that every
+  // segment can hold at least one item and a reasonable number of bytes
+  private static int getNumSegments(long numBytesCapacity, int numItemsCapacity, int maxNumSegments) {
+    int numSegments = Integer.highestOneBit(Math.max(1, maxNumSegments));
+    while (numSegments > 1
+        && ((numItemsCapacity > 0 && numItemsCapacity < numSegments)
+        || (numBytesCapacity > 0 && numBytesCapacity / numSegments < MIN_SEGMENT_NUM_BYTES))) {
+      numSegments >>= 1;
+    }
+    return numSegments;
+  }
+
+  // Split capacity evenly, the first segments receive the remainder
+  private static long getSegmentCapacity(long capacity, int numSegments, int segmentIndex) {
+    if (capacity <= 0) {
+      return capacity;
+    }
+    return capacity / numSegments + (segmentIndex < capacity % numSegments ? 1 : 0);
+  }
+}
@@ -71,6 +71,15 @@ public final class EncodingHelper {
     return i;
   }
 
+  // Number of bytes written by encodeLittleEndianVarInt
+  public static int getLittleEndianVarIntSize(int n) {
+    int size = 1;
+    while ((n >>>= 7) > 0) {
+      ++size;
+    }
+    return size;
+  }
+
   public static int decodeLittleEndianVarInt(ByteBuffer buffer) {
     byte b = buffer.get();
     int result = b & 0x7f;
@@ -16,32 +16,86 @@
 
 package com.liveramp.hank.util;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
+/**
+ * Aggregates durations of events into histograms. Events are recorded without allocation in stripes
+ * selected by thread, so that concurrent threads do not contend on a single lock. Stripes are
+ * periodically swapped into the population statistics.
+ */
 public class HankTimerEventAggregator {
 
   private static Logger LOG = LoggerFactory.getLogger(HankTimerEventAggregator.class);
 
+  private static final int MAX_NUM_STRIPES = 8;
+
   private final String name;
-  private double[] durations;
-  private int count;
   private final int statsComputationWindow;
   private final boolean isActive;
+  private final Stripe[] stripes;
+  private final int stripeMask;
+
+  // Guards the window statistics below
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final LogLinearHistogram windowHistogram = new LogLinearHistogram();
 
-  private long statsComputationWindowStart;
-  private long statsComputationWindowEnd;
-  private long statsComputationWindowDuration;
-  private double minDuration;
-  private double maxDuration;
-  private double totalDuration;
-  private long totalUnderlyingCount;
   private DoublePopulationStatisticsAggregator populationStatistics;
   private DoublePopulationStatisticsAggregator previousPopulationStatistics;
 
+  private static class Stripe {
+
+    private final LogLinearHistogram histogram = new LogLinearHistogram();
+    private int count;
+    private long windowStart;
+    private long windowEnd;
+    private long minDuration;
+    private long maxDuration;
+    private long totalDuration;
+    private long totalUnderlyingCount;
+
+    public Stripe() {
+      clear();
+    }
+
+    // Return true if the window is complete
+    public boolean add(long startTimeNanos, long durationNanos, int underlyingCount, int statsComputationWindow) {
+      if (startTimeNanos < windowStart) {
+        windowStart = startTimeNanos;
+      }
+      if ((startTimeNanos + durationNanos) > windowEnd) {
+        windowEnd = startTimeNanos + durationNanos;
+      }
+      if (durationNanos < minDuration) {
+        minDuration = durationNanos;
+      }
+      if (durationNanos > maxDuration) {
+        maxDuration = durationNanos;
+      }
+      totalDuration += durationNanos;
+      totalUnderlyingCount += underlyingCount;
+      // Histogram values are in microseconds
+      histogram.record(durationNanos / 1000);
+      return ++count >= statsComputationWindow;
+    }
+
+    public void clear() {
+      histogram.clear();
+      count = 0;
+      windowStart = Long.MAX_VALUE;
+      windowEnd = Long.MIN_VALUE;
+      minDuration = Long.MAX_VALUE;
+      maxDuration = Long.MIN_VALUE;
+      totalDuration = 0;
+      totalUnderlyingCount = 0;
+    }
+  }
+
   /**
    * @param name
-   * @param statsComputationWindow Number of timers to aggregate before computing and
+   * @param statsComputationWindow Number of timers to aggregate in a stripe before computing and
    *                               logging statistics. 0 means no timer aggregation.
    */
   public HankTimerEventAggregator(String name, int statsComputationWindow) {
@@ -50,8 +104,22 @@ public class HankTimerEventAggregator {
     this.isActive = statsComputationWindow != 0;
     this.populationStatistics = null;
     this.previousPopulationStatistics = new DoublePopulationStatisticsAggregator();
-    this.durations = new double[statsComputationWindow];
-    clear();
+    int numStripes = 1;
+    if (isActive) {
+      while (numStripes < Math.min(Runtime.getRuntime().availableProcessors(), MAX_NUM_STRIPES)) {
+        numStripes <<= 1;
+      }
+    }
+    this.stripes = new Stripe[numStripes];
+    for (int i = 0; i < numStripes; ++i) {
+      stripes[i] = new Stripe();
+    }
+    this.stripeMask = numStripes - 1;
+  }
+
+  // Statistics are only computed when population statistics are requested, and not logged
+  public HankTimerEventAggregator(String name) {
+    this(name, Integer.MAX_VALUE);
   }
 
   // Return a new HankTimer if active, null otherwise
@@ -62,6 +130,14 @@ public class HankTimerEventAggregator {
     return new HankTimer();
   }
 
+  // Allocation free alternative to getTimer(), to be passed to add(long)
+  public long getStartTime() {
+    if (!isActive) {
+      return 0;
+    }
+    return System.nanoTime();
+  }
+
   public void add(HankTimer timer) {
     add(timer, 1);
   }
@@ -76,56 +152,102 @@ public class HankTimerEventAggregator {
     _add(timer.getStartTime(), timer.getDuration(), underlyingCount);
   }
 
-  public synchronized DoublePopulationStatisticsAggregator getAndResetPopulationStatistics() {
-    // If there are new statistics, return them and reset the current statistics
-    if (populationStatistics != null) {
-      previousPopulationStatistics = populationStatistics;
-      populationStatistics = null;
+  public void add(long startTime) {
+    add(startTime, 1);
+  }
+
+  public void add(long startTime, int underlyingCount) {
+    if (!isActive) {
+      return;
     }
-    return previousPopulationStatistics;
+    _add(startTime, Math.abs(System.nanoTime() - startTime), underlyingCount);
   }
 
-  private synchronized void _add(long startTimeNanos, long durationNanos, int underlyingCount) {
-    ++count;
-    // Determine computation window start and end
-    if (startTimeNanos < statsComputationWindowStart) {
-      statsComputationWindowStart = startTimeNanos;
-    }
-    if ((startTimeNanos + durationNanos) > statsComputationWindowEnd) {
-      statsComputationWindowEnd = startTimeNanos + durationNanos;
-    }
-    // Compute statistics
-    double duration = durationNanos / 1000000d;
-    totalDuration += duration;
-    if (duration < minDuration) {
-      minDuration = duration;
-    }
-    if (duration > maxDuration) {
-      maxDuration = duration;
-    }
-    durations[count - 1] = duration;
-    totalUnderlyingCount += underlyingCount;
-    // Dump stats if needed
-    if (count == statsComputationWindow) {
-      // Determine computation window duration
-      statsComputationWindowDuration = Math.abs(statsComputationWindowEnd - statsComputationWindowStart);
-      logStats();
-      clear();
+  public DoublePopulationStatisticsAggregator getAndResetPopulationStatistics() {
+    // Include events of incomplete windows
+    if (isActive) {
+      flushLock.lock();
+      try {
+        flush(false);
+      } finally {
+        flushLock.unlock();
+      }
+    }
+    synchronized (this) {
+      // If there are new statistics, return them and reset the current statistics
+      if (populationStatistics != null) {
+        previousPopulationStatistics = populationStatistics;
+        populationStatistics = null;
+      }
+      return previousPopulationStatistics;
     }
   }
 
-  private void clear() {
-    // Durations doesn't need to be cleared
-    count = 0;
-    totalDuration = 0;
-    statsComputationWindowStart = Long.MAX_VALUE;
-    statsComputationWindowEnd = Long.MIN_VALUE;
-    minDuration = Double.MAX_VALUE;
-    maxDuration = Double.MIN_VALUE;
-    totalUnderlyingCount = 0;
+  private void _add(long startTimeNanos, long durationNanos, int underlyingCount) {
+    Stripe stripe = stripes[(int)Thread.currentThread().getId() & stripeMask];
+    boolean windowComplete;
+    synchronized (stripe) {
+      windowComplete = stripe.add(startTimeNanos, durationNanos, underlyingCount, statsComputationWindow);
+    }
+    // Dump stats if needed, unless another thread is already doing it
+    if (windowComplete && flushLock.tryLock()) {
+      try {
+        flush(true);
+      } finally {
+        flushLock.unlock();
+      }
+    }
   }
 
-  private void logStats() {
+  // Swap stripes into window statistics and aggregate them into population statistics
+  private void flush(boolean log) {
+    int count = 0;
+    long windowStart = Long.MAX_VALUE;
+    long windowEnd = Long.MIN_VALUE;
+    long minDuration = Long.MAX_VALUE;
+    long maxDuration = Long.MIN_VALUE;
+    long totalDuration = 0;
+    long totalUnderlyingCount = 0;
+    windowHistogram.clear();
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        if (stripe.count == 0) {
+          continue;
+        }
+        count += stripe.count;
+        windowStart = Math.min(windowStart, stripe.windowStart);
+        windowEnd = Math.max(windowEnd, stripe.windowEnd);
+        minDuration = Math.min(minDuration, stripe.minDuration);
+        maxDuration = Math.max(maxDuration, stripe.maxDuration);
+        totalDuration += stripe.totalDuration;
+        totalUnderlyingCount += stripe.totalUnderlyingCount;
+        windowHistogram.add(stripe.histogram);
+        stripe.clear();
+      }
+    }
+    if (count == 0) {
+      return;
+    }
+    if (log) {
+      logStats(count, totalUnderlyingCount, Math.abs(windowEnd - windowStart),
+          minDuration / 1000000d, maxDuration / 1000000d, totalDuration / 1000000d);
+    }
+    // Aggregate population statistics
+    synchronized (this) {
+      if (populationStatistics == null) {
+        populationStatistics = new DoublePopulationStatisticsAggregator();
+      }
+      populationStatistics.aggregate(minDuration / 1000000d, maxDuration / 1000000d, count,
+          totalDuration / 1000000d, windowHistogram);
+    }
+  }
+
+  private void logStats(int count,
+                        long totalUnderlyingCount,
+                        long statsComputationWindowDuration,
+                        double minDuration,
+                        double maxDuration,
+                        double totalDuration) {
     // Build log string
     StringBuilder logStr = new StringBuilder();
     logStr.append("Statistics for Timer: ");
@@ -148,6 +270,9 @@ public class HankTimerEventAggregator {
       logStr.append((totalDuration / (double) totalUnderlyingCount));
       logStr.append("ms");
     }
+    logStr.append(", 99th percentile duration: ");
+    logStr.append(windowHistogram.getValueAtQuantile(0.99) / 1000d);
+    logStr.append("ms");
     logStr.append(", max duration: ");
     logStr.append(maxDuration);
     logStr.append("ms");
@@ -158,10 +283,5 @@ public class HankTimerEventAggregator {
       logStr.append(totalUnderlyingCount / (statsComputationWindowDuration / 1000000000d));
     }
     LOG.info(logStr.toString());
-    // Aggregate population statistics
-    if (populationStatistics == null) {
-      populationStatistics = new DoublePopulationStatisticsAggregator();
-    }
-    populationStatistics.aggregate(minDuration, maxDuration, count, totalDuration, durations);
   }
 }
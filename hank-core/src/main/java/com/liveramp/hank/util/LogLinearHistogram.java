@@ -0,0 +1,113 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non negative long values, in the spirit of HdrHistogram. Values below 2^SUB_BUCKET_BITS
+ * are counted exactly, larger values in buckets whose width grows with the value, so that values are
+ * known with a relative error below 2^-SUB_BUCKET_BITS. All histograms have the same buckets and hence
+ * merge exactly. This class is not thread safe.
+ */
+public class LogLinearHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // Larger values are counted in the last bucket
+  public static final long MAX_VALUE = (1L << 32) - 1;
+  public static final int NUM_BUCKETS = getBucketIndex(MAX_VALUE) + 1;
+
+  private final long[] counts = new long[NUM_BUCKETS];
+  private long totalCount = 0;
+
+  public static int getBucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return value < 0 ? 0 : (int)value;
+    }
+    if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift << SUB_BUCKET_BITS) + (int)(value >>> shift);
+  }
+
+  public static long getBucketLowerBound(int bucketIndex) {
+    if (bucketIndex < SUB_BUCKET_COUNT) {
+      return bucketIndex;
+    }
+    int shift = (bucketIndex >> SUB_BUCKET_BITS) - 1;
+    return (long)(bucketIndex - (shift << SUB_BUCKET_BITS)) << shift;
+  }
+
+  public static long getBucketUpperBound(int bucketIndex) {
+    if (bucketIndex < SUB_BUCKET_COUNT) {
+      return bucketIndex;
+    }
+    int shift = (bucketIndex >> SUB_BUCKET_BITS) - 1;
+    return ((long)(bucketIndex - (shift << SUB_BUCKET_BITS) + 1) << shift) - 1;
+  }
+
+  public void record(long value) {
+    ++counts[getBucketIndex(value)];
+    ++totalCount;
+  }
+
+  public void addToBucket(int bucketIndex, long count) {
+    counts[bucketIndex] += count;
+    totalCount += count;
+  }
+
+  public void add(LogLinearHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+  }
+
+  public void clear() {
+    if (totalCount != 0) {
+      Arrays.fill(counts, 0);
+      totalCount = 0;
+    }
+  }
+
+  public long getBucketCount(int bucketIndex) {
+    return counts[bucketIndex];
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  // Return the middle of the bucket containing the value of the given rank in [0, 1], 0 if empty
+  public double getValueAtQuantile(double quantile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    // Index of the value in the sorted population
+    long index = (long)Math.floor(Math.min(Math.max(quantile, 0), 1) * (totalCount - 1));
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      count += counts[i];
+      if (count > index) {
+        return (getBucketLowerBound(i) + getBucketUpperBound(i)) / 2.0;
+      }
+    }
+    throw new IllegalStateException("Histogram total count " + totalCount + " does not match its buckets");
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Read-only memory mapping of a region of a file. A single MappedByteBuffer cannot
+// address more than 2GB, so the region is mapped in fixed size chunks. Reads mimic the
+// semantics of FileChannel.read(ByteBuffer, long) and are safe to perform concurrently.
+public class MemoryMappedFile {
+
+  private static final int DEFAULT_CHUNK_SIZE_BITS = 30;
+
+  private final long length;
+  private final int chunkSizeBits;
+  private final long chunkSizeMask;
+  // Set to null when closed. Readers holding the previous array can still use it, since mapped
+  // buffers stay valid for as long as they are referenced.
+  private volatile MappedByteBuffer[] chunks;
+
+  public MemoryMappedFile(FileChannel channel, long offset, long length) throws IOException {
+    this(channel, offset, length, DEFAULT_CHUNK_SIZE_BITS);
+  }
+
+  public MemoryMappedFile(FileChannel channel, long offset, long length, int chunkSizeBits) throws IOException {
+    if (chunkSizeBits < 1 || chunkSizeBits > 30) {
+      throw new IllegalArgumentException("Invalid chunk size bits: " + chunkSizeBits);
+    }
+    this.length = length;
+    this.chunkSizeBits = chunkSizeBits;
+    this.chunkSizeMask = (1L << chunkSizeBits) - 1;
+    final long chunkSize = 1L << chunkSizeBits;
+    final int numChunks = (int)((length + chunkSize - 1) >>> chunkSizeBits);
+    MappedByteBuffer[] chunks = new MappedByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; ++i) {
+      long chunkOffset = (long)i << chunkSizeBits;
+      chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + chunkOffset, Math.min(chunkSize, length - chunkOffset));
+    }
+    this.chunks = chunks;
+  }
+
+  // Read up to dst.remaining() bytes starting at the given position (relative to the mapped region).
+  // Returns the number of bytes read, or -1 if position is past the end of the mapped region.
+  public int read(ByteBuffer dst, long position) throws IOException {
+    // Read the field once, a concurrent close() must not be observed halfway through a read
+    final MappedByteBuffer[] chunks = this.chunks;
+    if (chunks == null) {
+      throw new IOException("Memory mapped file is closed");
+    }
+    if (position >= length) {
+      return -1;
+    }
+    int bytesToRead = (int)Math.min(dst.remaining(), length - position);
+    int bytesRead = 0;
+    while (bytesRead < bytesToRead) {
+      // Duplicate so that concurrent readers do not share the chunk's position and limit
+      ByteBuffer chunk = chunks[(int)(position >>> chunkSizeBits)].duplicate();
+      int positionInChunk = (int)(position & chunkSizeMask);
+      int numBytes = Math.min(bytesToRead - bytesRead, chunk.capacity() - positionInChunk);
+      chunk.limit(positionInChunk + numBytes);
+      chunk.position(positionInChunk);
+      dst.put(chunk);
+      bytesRead += numBytes;
+      position += numBytes;
+    }
+    return bytesRead;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  // Mapped buffers cannot be explicitly unmapped, they are released when garbage collected
+  public void close() {
+    chunks = null;
+  }
+}
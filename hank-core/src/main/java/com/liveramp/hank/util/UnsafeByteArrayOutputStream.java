@@ -18,6 +18,7 @@ package com.liveramp.hank.util;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +47,21 @@ public class UnsafeByteArrayOutputStream extends ByteArrayOutputStream {
     return ByteBuffer.wrap(this.buf, 0, this.count);
   }
 
+  // Extend the stream by the given number of bytes, to be written directly into array(), and return
+  // the offset at which they start
+  public synchronized int allocate(int length) {
+    int offset = count;
+    if (count + length > buf.length) {
+      int newSize = Math.max(buf.length << 1, count + length);
+      if (newSize >= BUFFER_SIZE_WARN_THRESHOLD) {
+        LOG.warn("Creating large UnsafeByteArrayOutputStream buffer: Increasing size to " + newSize + " bytes.");
+      }
+      buf = Arrays.copyOf(buf, newSize);
+    }
+    count += length;
+    return offset;
+  }
+
   @Override
   public synchronized void write(int b) {
     if (count + 1 > buf.length && buf.length << 1 >= BUFFER_SIZE_WARN_THRESHOLD) {
@@ -0,0 +1,54 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partitioner;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHashPartitioner extends BaseTestCase {
+
+  @Test
+  public void testMurmur64Partitioner() {
+    checkPartitionOfHash(new Murmur64Partitioner());
+  }
+
+  @Test
+  public void testHashCodePartitioner() {
+    checkPartitionOfHash(new HashCodePartitioner());
+  }
+
+  private void checkPartitionOfHash(HashPartitioner partitioner) {
+    Random random = new Random(0);
+    int[] numPartitions = new int[]{1, 7, 32, 1024, Integer.MAX_VALUE};
+    for (int i = 0; i < 1000; ++i) {
+      byte[] bytes = new byte[1 + random.nextInt(16)];
+      random.nextBytes(bytes);
+      // Keys do not necessarily start at the beginning of their buffer
+      ByteBuffer key = ByteBuffer.wrap(bytes, 1, bytes.length - 1).slice();
+      int hash = partitioner.hash(key);
+      for (int n : numPartitions) {
+        assertEquals(partitioner.partition(key, n), partitioner.partition(hash, n));
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestOffHeapValueCache extends BaseTestCase {
+
+  private static final int VALUE_NUM_BYTES = 1000;
+
+  @Test
+  public void testGetAndPut() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 20, -1);
+    OffHeapValueCache.Namespace namespace = cache.newNamespace();
+    ReaderResult result = new ReaderResult();
+
+    assertFalse(namespace.get(key(1), result));
+
+    namespace.putValue(key(1), value(1, 10));
+    assertTrue(namespace.get(key(1), result));
+    assertTrue(result.isFound());
+    assertEquals(value(1, 10), result.getBuffer());
+
+    namespace.putNotFound(key(2));
+    assertTrue(namespace.get(key(2), result));
+    assertFalse(result.isFound());
+
+    // Replace value
+    namespace.putValue(key(1), value(3, 20));
+    assertTrue(namespace.get(key(1), result));
+    assertEquals(value(3, 20), result.getBuffer());
+    assertEquals(2, cache.size());
+    assertEquals(2, namespace.getCacheStatistics().getNumItems());
+  }
+
+  @Test
+  public void testNamespaces() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 20, -1);
+    OffHeapValueCache.Namespace namespace1 = cache.newNamespace();
+    OffHeapValueCache.Namespace namespace2 = cache.newNamespace();
+    ReaderResult result = new ReaderResult();
+
+    namespace1.putValue(key(1), value(1, 10));
+    assertFalse(namespace2.get(key(1), result));
+    namespace2.putValue(key(1), value(2, 10));
+    assertTrue(namespace1.get(key(1), result));
+    assertEquals(value(1, 10), result.getBuffer());
+    assertTrue(namespace2.get(key(1), result));
+    assertEquals(value(2, 10), result.getBuffer());
+
+    // Capacity is shared between open namespaces
+    assertEquals((1 << 20) / 2, namespace1.getCacheStatistics().getMaxNumManagedBytes());
+    namespace2.close();
+    assertEquals(1 << 20, namespace1.getCacheStatistics().getMaxNumManagedBytes());
+  }
+
+  @Test
+  public void testNumBytesCapacity() {
+    long numBytesCapacity = 1 << 20;
+    OffHeapValueCache cache = new OffHeapValueCache(numBytesCapacity, -1);
+    assertEquals(1, cache.getNumSegments());
+    OffHeapValueCache.Namespace namespace = cache.newNamespace();
+    ReaderResult result = new ReaderResult();
+    for (int i = 0; i < 5000; ++i) {
+      namespace.putValue(key(i), value(i, VALUE_NUM_BYTES));
+      // Most recently inserted item is always present
+      assertTrue(namespace.get(key(i), result));
+      assertEquals(value(i, VALUE_NUM_BYTES), result.getBuffer());
+    }
+    assertTrue(cache.getNumManagedBytes() <= numBytesCapacity);
+    assertEquals(cache.getNumManagedBytes(), namespace.getCacheStatistics().getNumManagedBytes());
+    assertEquals(cache.size(), namespace.getCacheStatistics().getNumItems());
+    // Oldest items were evicted
+    assertFalse(namespace.get(key(0), result));
+
+    // Large capacities are split
+    cache = new OffHeapValueCache(16 << 20, -1);
+    assertEquals(OffHeapValueCache.DEFAULT_NUM_SEGMENTS, cache.getNumSegments());
+  }
+
+  @Test
+  public void testNumItemsCapacity() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 20, 10);
+    OffHeapValueCache.Namespace namespace = cache.newNamespace();
+    ReaderResult result = new ReaderResult();
+    for (int i = 0; i < 100; ++i) {
+      namespace.putValue(key(i), value(i, 10));
+    }
+    assertEquals(10, cache.size());
+    assertFalse(namespace.get(key(0), result));
+    assertTrue(namespace.get(key(99), result));
+  }
+
+  @Test
+  public void testConcurrentAccess() throws InterruptedException {
+    final OffHeapValueCache cache = new OffHeapValueCache(4 << 20, -1);
+    final OffHeapValueCache.Namespace namespace = cache.newNamespace();
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; ++t) {
+      final int threadId = t;
+      Thread thread = new Thread(() -> {
+        ReaderResult result = new ReaderResult();
+        for (int i = 0; i < 10000; ++i) {
+          int key = threadId * 10000 + i;
+          namespace.putValue(key(key), value(key, 100));
+          if (namespace.get(key(key % 512), result) && !value(key % 512, 100).equals(result.getBuffer())) {
+            numErrors.incrementAndGet();
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+    assertTrue(cache.getNumManagedBytes() <= 4 << 20);
+  }
+
+  private static ByteBuffer key(int key) {
+    return ByteBuffer.wrap(Integer.toString(key).getBytes());
+  }
+
+  private static ByteBuffer value(int value, int size) {
+    byte[] result = new byte[size];
+    for (int i = 0; i < size; ++i) {
+      result[i] = (byte)(value + i);
+    }
+    return ByteBuffer.wrap(result);
+  }
+}
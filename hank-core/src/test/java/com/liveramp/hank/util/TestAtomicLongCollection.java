@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestAtomicLongCollection extends BaseTestCase {
+
+  @Test
+  public void testIncrementAndSet() {
+    AtomicLongCollection counters = new AtomicLongCollection(2, new long[]{3, 4});
+    counters.increment(1, 2);
+    assertArrayEquals(new long[]{4, 6}, counters.getAsArray());
+    assertEquals(6, counters.get(1));
+    assertArrayEquals(new long[]{4, 6}, counters.getAsArrayAndSet(0, 1));
+    assertArrayEquals(new long[]{0, 1}, counters.getAsArray());
+    counters.set(7, 8);
+    assertArrayEquals(new long[]{7, 8}, counters.getAsArray());
+  }
+
+  @Test
+  public void testNoStripesWithoutContention() {
+    AtomicLongCollection counters = new AtomicLongCollection(2, new long[]{0, 0});
+    for (int i = 0; i < 1000; ++i) {
+      counters.increment(1, 2);
+    }
+    assertArrayEquals(new long[]{1000, 2000}, counters.getAsArrayAndSet(0, 0));
+    assertEquals(0, counters.getNumStripes());
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws InterruptedException {
+    final int numThreads = 8;
+    final int numIncrements = 100000;
+    final AtomicLongCollection counters = new AtomicLongCollection(2, new long[]{0, 0});
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < numThreads; ++i) {
+      threads.add(new Thread(() -> {
+        for (int j = 0; j < numIncrements; ++j) {
+          counters.increment(1, 2);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    // Increments are counted entirely in a single snapshot
+    long[] total = new long[2];
+    while (threads.get(numThreads - 1).isAlive() || total[0] < (long)numThreads * numIncrements) {
+      long[] snapshot = counters.getAsArrayAndSet(0, 0);
+      assertEquals(2 * snapshot[0], snapshot[1]);
+      total[0] += snapshot[0];
+      total[1] += snapshot[1];
+      assertTrue(total[0] <= (long)numThreads * numIncrements);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertArrayEquals(new long[]{(long)numThreads * numIncrements, 2L * numThreads * numIncrements}, total);
+  }
+}
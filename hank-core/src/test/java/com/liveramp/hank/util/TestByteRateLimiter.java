@@ -0,0 +1,51 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestByteRateLimiter extends BaseTestCase {
+
+  @Test
+  public void testUnlimited() throws IOException {
+    ByteRateLimiter rateLimiter = new ByteRateLimiter(0);
+    assertFalse(rateLimiter.isLimited());
+    long startTimeMs = System.currentTimeMillis();
+    rateLimiter.acquire(1L << 40);
+    rateLimiter.acquire(1L << 40);
+    assertTrue(System.currentTimeMillis() - startTimeMs < 1000);
+  }
+
+  @Test
+  public void testLimited() throws IOException {
+    ByteRateLimiter rateLimiter = new ByteRateLimiter(10 << 20);
+    assertTrue(rateLimiter.isLimited());
+    long startTimeMs = System.currentTimeMillis();
+    // The first acquisition is free, the following ones wait for the previous ones
+    for (int i = 0; i < 6; ++i) {
+      rateLimiter.acquire(1 << 20);
+    }
+    assertTrue(System.currentTimeMillis() - startTimeMs >= 450);
+  }
+}
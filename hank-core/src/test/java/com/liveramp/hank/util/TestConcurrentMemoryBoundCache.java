@@ -0,0 +1,145 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.liveramp.commons.util.MemoryUsageEstimator;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestConcurrentMemoryBoundCache extends BaseTestCase {
+
+  private static final int VALUE_NUM_BYTES = 1024;
+
+  private static final MemoryUsageEstimator<Integer> KEY_ESTIMATOR = new MemoryUsageEstimator<Integer>() {
+    @Override
+    public long estimateMemorySize(Integer item) {
+      return 0;
+    }
+  };
+
+  private static final MemoryUsageEstimator<String> VALUE_ESTIMATOR = new MemoryUsageEstimator<String>() {
+    @Override
+    public long estimateMemorySize(String item) {
+      return VALUE_NUM_BYTES;
+    }
+  };
+
+  @Test
+  public void testDisabled() {
+    ConcurrentMemoryBoundCache<Integer, String> cache = getCache(false, 1 << 20, 10);
+    cache.put(1, "1");
+    assertFalse(cache.isEnabled());
+    assertNull(cache.get(1));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getMaxNumItems());
+    assertEquals(0, cache.getMaxNumManagedBytes());
+  }
+
+  @Test
+  public void testNumItemsCapacity() {
+    ConcurrentMemoryBoundCache<Integer, String> cache = getCache(true, -1, 64);
+    assertEquals(ConcurrentMemoryBoundCache.DEFAULT_NUM_SEGMENTS, cache.getNumSegments());
+    assertEquals(64, cache.getMaxNumItems());
+    for (int i = 0; i < 1000; ++i) {
+      cache.put(i, Integer.toString(i));
+      // Most recently inserted item is always present
+      assertEquals(Integer.toString(i), cache.get(i));
+    }
+    assertTrue(cache.size() <= 64);
+    assertTrue(cache.size() > 0);
+
+    // Small capacities use fewer segments so that each segment can hold an item
+    cache = getCache(true, -1, 3);
+    assertEquals(2, cache.getNumSegments());
+    assertEquals(3, cache.getMaxNumItems());
+    cache = getCache(true, -1, 1);
+    assertEquals(1, cache.getNumSegments());
+    cache.put(1, "1");
+    cache.put(2, "2");
+    assertNull(cache.get(1));
+    assertEquals("2", cache.get(2));
+  }
+
+  @Test
+  public void testNumBytesCapacity() {
+    long numBytesCapacity = 1 << 20;
+    ConcurrentMemoryBoundCache<Integer, String> cache = getCache(true, numBytesCapacity, -1);
+    assertEquals(numBytesCapacity, cache.getMaxNumManagedBytes());
+    for (int i = 0; i < 5000; ++i) {
+      cache.put(i, Integer.toString(i));
+    }
+    assertTrue(cache.getNumManagedBytes() <= numBytesCapacity);
+    assertEquals(cache.size() * VALUE_NUM_BYTES, cache.getNumManagedBytes());
+
+    // Small byte capacities are not split
+    cache = getCache(true, 4 * VALUE_NUM_BYTES, -1);
+    assertEquals(1, cache.getNumSegments());
+  }
+
+  @Test
+  public void testRemove() {
+    ConcurrentMemoryBoundCache<Integer, String> cache = getCache(true, -1, 10);
+    String value = "1";
+    cache.put(1, value);
+    // Does not remove a different value
+    cache.remove(1, "other");
+    assertEquals(value, cache.get(1));
+    cache.remove(1, value);
+    assertNull(cache.get(1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testConcurrentAccess() throws InterruptedException {
+    final ConcurrentMemoryBoundCache<Integer, String> cache = getCache(true, -1, 256);
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; ++t) {
+      final int threadId = t;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 10000; ++i) {
+          int key = threadId * 10000 + i;
+          cache.put(key, Integer.toString(key));
+          String value = cache.get(key % 512);
+          if (value != null && !value.equals(Integer.toString(key % 512))) {
+            numErrors.incrementAndGet();
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+    assertTrue(cache.size() <= 256);
+  }
+
+  private ConcurrentMemoryBoundCache<Integer, String> getCache(boolean isEnabled, long numBytesCapacity, int numItemsCapacity) {
+    return new ConcurrentMemoryBoundCache<Integer, String>(isEnabled, numBytesCapacity, numItemsCapacity, KEY_ESTIMATOR, VALUE_ESTIMATOR);
+  }
+}
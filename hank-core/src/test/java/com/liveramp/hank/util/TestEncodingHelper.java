@@ -62,6 +62,14 @@ public class TestEncodingHelper {
     assertEquals(ByteBuffer.wrap(new byte[]{-1, -1, -1, -1, 0x07}), ByteBuffer.wrap(buffer, 0, 5));
   }
 
+  @Test
+  public void testGetLittleEndianVarIntSize() throws Exception {
+    byte[] buffer = new byte[EncodingHelper.MAX_VARINT_SIZE];
+    for (int n : new int[]{0, 1, 127, 128, (1 << 14) - 1, 1 << 14, (1 << 21) - 1, 1 << 21, (1 << 28) - 1, 1 << 28, 0x7fffffff}) {
+      assertEquals(EncodingHelper.encodeLittleEndianVarInt(n, buffer), EncodingHelper.getLittleEndianVarIntSize(n));
+    }
+  }
+
   @Test
   public void testDecodeLittleEndianVarInt() throws Exception {
     assertEquals(1, EncodingHelper.decodeLittleEndianVarInt(ByteBuffer.wrap(new byte[]{1})));
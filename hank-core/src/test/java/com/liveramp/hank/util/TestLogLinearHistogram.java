@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogLinearHistogram extends BaseTestCase {
+
+  @Test
+  public void testBuckets() {
+    // Small values are exact
+    for (int i = 0; i < 32; ++i) {
+      assertEquals(i, LogLinearHistogram.getBucketIndex(i));
+      assertEquals(i, LogLinearHistogram.getBucketLowerBound(i));
+      assertEquals(i, LogLinearHistogram.getBucketUpperBound(i));
+    }
+    // Buckets are contiguous and values are known with a relative error below 1/32
+    for (int i = 1; i < LogLinearHistogram.NUM_BUCKETS; ++i) {
+      long lowerBound = LogLinearHistogram.getBucketLowerBound(i);
+      long upperBound = LogLinearHistogram.getBucketUpperBound(i);
+      assertEquals(LogLinearHistogram.getBucketUpperBound(i - 1) + 1, lowerBound);
+      assertEquals(i, LogLinearHistogram.getBucketIndex(lowerBound));
+      assertEquals(i, LogLinearHistogram.getBucketIndex(upperBound));
+      assertTrue(upperBound - lowerBound < Math.max(1, lowerBound / 32));
+    }
+    assertEquals(LogLinearHistogram.MAX_VALUE,
+        LogLinearHistogram.getBucketUpperBound(LogLinearHistogram.NUM_BUCKETS - 1));
+    assertEquals(LogLinearHistogram.NUM_BUCKETS - 1, LogLinearHistogram.getBucketIndex(Long.MAX_VALUE));
+    assertEquals(0, LogLinearHistogram.getBucketIndex(-1));
+  }
+
+  @Test
+  public void testQuantiles() {
+    LogLinearHistogram histogram = new LogLinearHistogram();
+    assertEquals(0, histogram.getValueAtQuantile(0.5), 0);
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.record(i);
+    }
+    assertEquals(1000, histogram.getTotalCount());
+    assertEquals(1, histogram.getValueAtQuantile(0), 0);
+    assertEquals(500, histogram.getValueAtQuantile(0.5), 500 / 32.0);
+    assertEquals(990, histogram.getValueAtQuantile(0.99), 990 / 32.0);
+    assertEquals(1000, histogram.getValueAtQuantile(1), 1000 / 32.0);
+  }
+
+  @Test
+  public void testAdd() {
+    LogLinearHistogram histogram1 = new LogLinearHistogram();
+    LogLinearHistogram histogram2 = new LogLinearHistogram();
+    LogLinearHistogram expected = new LogLinearHistogram();
+    for (int i = 0; i < 1000; ++i) {
+      long value = i * 7919L;
+      (i % 2 == 0 ? histogram1 : histogram2).record(value);
+      expected.record(value);
+    }
+    histogram1.add(histogram2);
+    assertEquals(expected.getTotalCount(), histogram1.getTotalCount());
+    for (int i = 0; i < LogLinearHistogram.NUM_BUCKETS; ++i) {
+      assertEquals(expected.getBucketCount(i), histogram1.getBucketCount(i));
+    }
+    histogram1.clear();
+    assertEquals(0, histogram1.getTotalCount());
+    assertEquals(0, histogram1.getBucketCount(LogLinearHistogram.getBucketIndex(7919)));
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.util;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMemoryMappedFile extends BaseTestCase {
+
+  @Test
+  public void testReadAcrossChunks() throws Exception {
+    String path = localTmpDir + "/mapped_file";
+    byte[] data = new byte[100];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte)i;
+    }
+    FileOutputStream os = new FileOutputStream(path);
+    os.write(data);
+    os.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    // Map bytes [10, 90) in chunks of 16 bytes
+    MemoryMappedFile mappedFile = new MemoryMappedFile(channel, 10, 80, 4);
+    assertEquals(80, mappedFile.getLength());
+
+    // Read within a chunk
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+    assertEquals(4, mappedFile.read(buffer, 0));
+    assertEquals(ByteBuffer.wrap(new byte[]{10, 11, 12, 13}), buffer.flip());
+
+    // Read spanning three chunks
+    buffer = ByteBuffer.allocate(40);
+    assertEquals(40, mappedFile.read(buffer, 12));
+    buffer.flip();
+    for (int i = 0; i < 40; ++i) {
+      assertEquals(22 + i, buffer.get(i));
+    }
+
+    // Read truncated at the end of the mapped region
+    buffer = ByteBuffer.allocate(10);
+    assertEquals(5, mappedFile.read(buffer, 75));
+    assertEquals(ByteBuffer.wrap(new byte[]{85, 86, 87, 88, 89}), buffer.flip());
+
+    // Read past the end
+    assertEquals(-1, mappedFile.read(ByteBuffer.allocate(1), 80));
+
+    mappedFile.close();
+    channel.close();
+  }
+
+  @Test
+  public void testConcurrentReadsAcrossChunks() throws Exception {
+    String path = localTmpDir + "/mapped_file";
+    final byte[] data = new byte[4096];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte)(i * 31);
+    }
+    FileOutputStream os = new FileOutputStream(path);
+    os.write(data);
+    os.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    // Map the whole file in 64 chunks of 64 bytes
+    final MemoryMappedFile mappedFile = new MemoryMappedFile(channel, 0, data.length, 6);
+
+    // Readers share chunks, and must not observe each other's positions and limits
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; ++t) {
+      final Random random = new Random(t);
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = 0; i < 1000; ++i) {
+            int position = random.nextInt(data.length);
+            ByteBuffer buffer = ByteBuffer.allocate(1 + random.nextInt(200));
+            int expectedNumBytes = Math.min(buffer.capacity(), data.length - position);
+            if (mappedFile.read(buffer, position) != expectedNumBytes
+                || !ByteBuffer.wrap(data, position, expectedNumBytes).equals(buffer.flip())) {
+              numErrors.incrementAndGet();
+            }
+          }
+        } catch (IOException e) {
+          numErrors.incrementAndGet();
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+
+    mappedFile.close();
+    channel.close();
+  }
+}
@@ -48,4 +48,7 @@ public interface RingGroupConductorConfigurator extends CoordinatorConfigurator
   public Integer getTargetHostsPerRing();
 
   public List<RingGroupConfiguredDomain> getConfiguredDomains();
+
+  //  update serving hosts without sending them to idle first. partition servers must have online updates enabled.
+  public boolean getOnlineUpdates();
 }
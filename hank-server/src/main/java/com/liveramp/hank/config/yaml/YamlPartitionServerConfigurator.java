@@ -28,6 +28,7 @@ import com.liveramp.hank.config.BaseReaderConfigurator;
 import com.liveramp.hank.config.InvalidConfigurationException;
 import com.liveramp.hank.config.PartitionServerConfigurator;
 import com.liveramp.hank.config.ReaderConfigurator;
+import com.liveramp.hank.storage.OffHeapValueCache;
 
 public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator implements PartitionServerConfigurator {
 
@@ -40,15 +41,25 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
   public static final String UPDATE_DAEMON_SECTION_KEY = "update_daemon";
   public static final String NUM_CONCURRENT_UPDATES_KEY = "num_concurrent_updates";
   public static final String MAX_CONCURRENT_UPDATES_PER_DATA_DIRECTORY_KEY = "max_concurrent_updates_per_data_directory";
+  public static final String MAX_CONCURRENT_FETCHES_PER_DATA_DIRECTORY_KEY = "max_concurrent_fetches_per_data_directory";
+  public static final String NUM_CONCURRENT_FETCHES_PER_PARTITION_KEY = "num_concurrent_fetches_per_partition";
+  public static final String MAX_FETCH_BYTES_PER_SECOND_KEY = "max_fetch_bytes_per_second";
+  public static final String MAX_WRITE_BYTES_PER_SECOND_KEY = "max_write_bytes_per_second";
+  public static final String ONLINE_UPDATES_KEY = "online_updates";
   public static final String NUM_CONCURRENT_GET_BULK_TASKS = "num_concurrent_get_bulk_tasks";
   public static final String GET_BULK_TASK_SIZE = "get_bulk_task_size";
+  public static final String MAX_CONCURRENT_GET_BULK_REQUESTS = "max_concurrent_get_bulk_requests";
   public static final String GET_TIMER_AGGREGATOR_WINDOW_KEY = "get_timer_aggregator_window";
   public static final String GET_UPDATE_FAILURE_COOLDOWN_KEY = "get_update_failure_cooldown";
   public static final String BUFFER_REUSE_MAX_SIZE = "buffer_reuse_max_size";
   public static final String CACHE_NUM_BYTES_CAPACITY = "cache_num_bytes_capacity";
   public static final String CACHE_NUM_ITEMS_CAPACITY = "cache_num_items_capacity";
+  public static final String OFF_HEAP_CACHE_NUM_BYTES_CAPACITY = "off_heap_cache_num_bytes_capacity";
+  public static final String OFF_HEAP_CACHE_NUM_ITEMS_CAPACITY = "off_heap_cache_num_items_capacity";
   public static final String ENVIRONMENT_FLAGS = "environment_flags";
 
+  private OffHeapValueCache offHeapValueCache;
+
   public YamlPartitionServerConfigurator(String path) throws IOException,
       InvalidConfigurationException {
     super(path);
@@ -119,6 +130,12 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
     return getInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, GET_BULK_TASK_SIZE);
   }
 
+  @Override
+  public int getMaxConcurrentGetBulkRequests() {
+    Integer result = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, MAX_CONCURRENT_GET_BULK_REQUESTS);
+    return result == null ? 0 : result;
+  }
+
   @Override
   public int getGetTimerAggregatorWindow() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
@@ -131,6 +148,12 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
         GET_UPDATE_FAILURE_COOLDOWN_KEY);
   }
 
+  @Override
+  public boolean getOnlineUpdates() {
+    Object onlineUpdates = getOptionalObject(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, ONLINE_UPDATES_KEY);
+    return onlineUpdates != null && (Boolean)onlineUpdates;
+  }
+
   @Override
   public Map<String, String> getEnvironmentFlags() {
     List<String> variables = getOptionalStringList(PARTITION_SERVER_SECTION_KEY, ENVIRONMENT_FLAGS);
@@ -151,13 +174,35 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
   }
 
   @Override
-  public ReaderConfigurator getReaderConfigurator(int numTotalPartitions) {
+  public ReaderConfigurator getReaderConfigurator(int numTotalPartitions, OffHeapValueCache offHeapValueCache) {
     return new BaseReaderConfigurator(
         this,
         getCacheNumBytesCapacity(),
         getCacheNumItemsCapacity(),
         getBufferReuseMaxSize(),
-        numTotalPartitions);
+        numTotalPartitions,
+        offHeapValueCache);
+  }
+
+  // Created on first use, so that a single cache is shared by all handlers of the partition server
+  @Override
+  public synchronized OffHeapValueCache getOffHeapValueCache() {
+    if (offHeapValueCache == null && getOffHeapCacheNumBytesCapacity() > 0) {
+      offHeapValueCache = new OffHeapValueCache(getOffHeapCacheNumBytesCapacity(), getOffHeapCacheNumItemsCapacity());
+    }
+    return offHeapValueCache;
+  }
+
+  @Override
+  public long getOffHeapCacheNumBytesCapacity() {
+    Long result = getOptionalLong(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, OFF_HEAP_CACHE_NUM_BYTES_CAPACITY);
+    return result == null ? 0 : result;
+  }
+
+  @Override
+  public long getOffHeapCacheNumItemsCapacity() {
+    Long result = getOptionalLong(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, OFF_HEAP_CACHE_NUM_ITEMS_CAPACITY);
+    return result == null ? -1 : result;
   }
 
   @Override
@@ -179,4 +224,28 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
   public int getMaxConcurrentUpdatesPerDataDirectory() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, MAX_CONCURRENT_UPDATES_PER_DATA_DIRECTORY_KEY);
   }
+
+  @Override
+  public int getMaxConcurrentFetchesPerDataDirectory() {
+    Integer result = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, MAX_CONCURRENT_FETCHES_PER_DATA_DIRECTORY_KEY);
+    return result == null ? 0 : result;
+  }
+
+  @Override
+  public int getNumConcurrentFetchesPerPartition() {
+    Integer result = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, NUM_CONCURRENT_FETCHES_PER_PARTITION_KEY);
+    return result == null ? 1 : result;
+  }
+
+  @Override
+  public long getMaxFetchBytesPerSecond() {
+    Long result = getOptionalLong(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, MAX_FETCH_BYTES_PER_SECOND_KEY);
+    return result == null ? 0 : result;
+  }
+
+  @Override
+  public long getMaxWriteBytesPerSecond() {
+    Long result = getOptionalLong(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, MAX_WRITE_BYTES_PER_SECOND_KEY);
+    return result == null ? 0 : result;
+  }
 }
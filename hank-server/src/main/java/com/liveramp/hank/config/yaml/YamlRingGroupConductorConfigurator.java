@@ -42,6 +42,7 @@ public class YamlRingGroupConductorConfigurator extends YamlCoordinatorConfigura
   public static final String MIN_SERVING_FRACTION = "min_serving_fraction";
   public static final String AVAILABILITY_BUCKET_MIN_SERVING_FRACTION = "availability_bucket_min_serving_fraction";
   public static final String CONFIGURED_DOMAINS_KEY = "domains";
+  public static final String ONLINE_UPDATES_KEY = "online_updates";
 
   private static final String DOMAIN_NAME = "name";
   private static final String DOMAIN_PARTITIONS = "partitions";
@@ -153,6 +154,12 @@ public class YamlRingGroupConductorConfigurator extends YamlCoordinatorConfigura
     return getOptionalInteger(RING_GROUP_CONDUCTOR_SECTION_KEY, TARGET_HOSTS_PER_RING_KEY);
   }
 
+  @Override
+  public boolean getOnlineUpdates() {
+    Object onlineUpdates = getOptionalObject(RING_GROUP_CONDUCTOR_SECTION_KEY, ONLINE_UPDATES_KEY);
+    return onlineUpdates != null && (Boolean)onlineUpdates;
+  }
+
   @Override
   public List<RingGroupConfiguredDomain> getConfiguredDomains() {
     Object configuredDomainsObj = getOptionalObject(RING_GROUP_CONDUCTOR_SECTION_KEY, CONFIGURED_DOMAINS_KEY);
@@ -69,6 +69,19 @@ public class KeyAndPartitionWritable implements WritableComparable<KeyAndPartiti
     partition.write(dataOutput);
   }
 
+  // Serialize the key only, for writables that serialize the partition themselves
+  void writeKey(DataOutput dataOutput) throws IOException {
+    key.write(dataOutput);
+  }
+
+  void readKey(DataInput dataInput) throws IOException {
+    key.readFields(dataInput);
+  }
+
+  void setPartition(int partition) {
+    this.partition.set(partition);
+  }
+
   public int compareTo(KeyAndPartitionWritable other) {
     throw new RuntimeException("KeyAndPartitionWritable is not supposed to be compared! Use KeyAndPartitionWritableComparable for this purpose.");
   }
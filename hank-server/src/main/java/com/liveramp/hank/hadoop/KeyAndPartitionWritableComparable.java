@@ -5,17 +5,47 @@ import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.StorageEngine;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+// Serialized as: partition, comparable key size, comparable key, key. Partition and comparable key
+// come first so that serialized instances can be compared in place by the registered Comparator.
 public class KeyAndPartitionWritableComparable implements WritableComparable<KeyAndPartitionWritableComparable> {
 
+  static {
+    WritableComparator.define(KeyAndPartitionWritableComparable.class, new Comparator());
+  }
+
   private KeyAndPartitionWritable keyAndPartitionWritable;
   private ByteBuffer comparableKey;
 
+  // Compares partitions and then comparable keys of serialized instances, without deserializing them
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(KeyAndPartitionWritableComparable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      int partition1 = readInt(b1, s1);
+      int partition2 = readInt(b2, s2);
+      if (partition1 < partition2) {
+        return -1;
+      } else if (partition1 > partition2) {
+        return 1;
+      } else {
+        int comparableKeySize1 = readInt(b1, s1 + 4);
+        int comparableKeySize2 = readInt(b2, s2 + 4);
+        return compareBytes(b1, s1 + 8, comparableKeySize1, b2, s2 + 8, comparableKeySize2);
+      }
+    }
+  }
+
   public KeyAndPartitionWritableComparable() {
     keyAndPartitionWritable = new KeyAndPartitionWritable();
     comparableKey = null;
@@ -35,20 +65,26 @@ public class KeyAndPartitionWritableComparable implements WritableComparable<Key
   }
 
   public void readFields(DataInput dataInput) throws IOException {
-    keyAndPartitionWritable.readFields(dataInput);
+    keyAndPartitionWritable.setPartition(dataInput.readInt());
     // Read size of comparable key
     int comparableKeySize = dataInput.readInt();
-    // Allocate and read comparable key
-    comparableKey = ByteBuffer.allocate(comparableKeySize);
+    // Allocate if needed and read comparable key
+    if (comparableKey == null || comparableKey.capacity() < comparableKeySize) {
+      comparableKey = ByteBuffer.allocate(comparableKeySize);
+    }
+    comparableKey.clear();
     dataInput.readFully(comparableKey.array(), 0, comparableKeySize);
+    comparableKey.limit(comparableKeySize);
+    keyAndPartitionWritable.readKey(dataInput);
   }
 
   public void write(DataOutput dataOutput) throws IOException {
-    keyAndPartitionWritable.write(dataOutput);
+    dataOutput.writeInt(keyAndPartitionWritable.getPartition());
     // Write size of comparable key
     dataOutput.writeInt(comparableKey.remaining());
     // Write comparable key
-    dataOutput.write(comparableKey.array(), comparableKey.position(), comparableKey.remaining());
+    dataOutput.write(comparableKey.array(), comparableKey.arrayOffset() + comparableKey.position(), comparableKey.remaining());
+    keyAndPartitionWritable.writeKey(dataOutput);
   }
 
   public int compareTo(KeyAndPartitionWritableComparable other) {
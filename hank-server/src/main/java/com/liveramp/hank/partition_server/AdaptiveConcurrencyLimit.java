@@ -0,0 +1,104 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.liveramp.hank.util.FormatUtils;
+
+/**
+ * Number of partition updates run concurrently in a data directory, between 1 and a maximum. The
+ * limit is adjusted by hill climbing on the measured throughput of the data directory: once as many
+ * updates as the limit have completed, it keeps moving in the same direction unless the throughput
+ * degraded compared to the previous window, in which case it reverses direction. It starts from the
+ * maximum and only moves when updates report the number of bytes they transferred.
+ */
+class AdaptiveConcurrencyLimit {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+  private static final double MIN_THROUGHPUT_DEGRADATION_RATIO = 0.05;
+
+  private final String dataDirectory;
+  private final int maxLimit;
+  private int limit;
+  private int numRunning = 0;
+  private int direction = -1;
+  private long windowStartTimeMs;
+  private int windowNumUpdates = 0;
+  private long windowNumBytes = 0;
+  private double previousThroughput = -1;
+
+  public AdaptiveConcurrencyLimit(String dataDirectory, int maxLimit) {
+    this.dataDirectory = dataDirectory;
+    this.maxLimit = Math.max(1, maxLimit);
+    this.limit = this.maxLimit;
+    this.windowStartTimeMs = System.currentTimeMillis();
+  }
+
+  public synchronized void acquire() throws InterruptedException {
+    while (numRunning >= limit) {
+      wait();
+    }
+    ++numRunning;
+  }
+
+  // Release without measuring, when the update did not run
+  public synchronized void abort() {
+    --numRunning;
+    notifyAll();
+  }
+
+  public synchronized void release(long numBytesTransferred) {
+    --numRunning;
+    ++windowNumUpdates;
+    windowNumBytes += numBytesTransferred;
+    if (windowNumUpdates >= limit) {
+      long windowDurationMs = System.currentTimeMillis() - windowStartTimeMs;
+      if (windowNumBytes > 0 && windowDurationMs > 0) {
+        adjust(windowNumBytes * 1000d / windowDurationMs);
+      }
+      windowStartTimeMs = System.currentTimeMillis();
+      windowNumUpdates = 0;
+      windowNumBytes = 0;
+    }
+    notifyAll();
+  }
+
+  public synchronized int getLimit() {
+    return limit;
+  }
+
+  // Adjust the limit given the throughput measured over the last window, in bytes per second
+  synchronized void adjust(double throughput) {
+    if (previousThroughput >= 0 && throughput < previousThroughput * (1 - MIN_THROUGHPUT_DEGRADATION_RATIO)) {
+      direction = -direction;
+    }
+    previousThroughput = throughput;
+    int newLimit = Math.max(1, Math.min(maxLimit, limit + direction));
+    if (newLimit == limit) {
+      // Bounce off bounds
+      direction = -direction;
+    } else {
+      LOG.info("Throughput of updates in " + dataDirectory + ": " + FormatUtils.formatDataThroughput(throughput)
+          + " with " + limit + " concurrent updates, now running " + newLimit + " concurrent updates");
+      limit = newLimit;
+    }
+    notifyAll();
+  }
+}
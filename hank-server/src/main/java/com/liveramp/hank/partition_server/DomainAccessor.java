@@ -22,15 +22,18 @@ import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.ReaderResult;
-import com.liveramp.hank.util.HankTimer;
 import com.liveramp.hank.util.HankTimerEventAggregator;
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Class that manages accessing data on behalf of a particular Domain.
+ * Partition accessors can be swapped individually while serving.
  */
 public class DomainAccessor {
 
@@ -38,7 +41,7 @@ public class DomainAccessor {
 
   private static final Logger LOG = LoggerFactory.getLogger(DomainAccessor.class);
   private final HostDomain hostDomain;
-  private final PartitionAccessor[] partitionAccessors;
+  private final AtomicReferenceArray<PartitionAccessor> partitionAccessors;
   private final Partitioner partitioner;
   private final HankTimerEventAggregator getRequestsTimerAggregator;
 
@@ -47,25 +50,40 @@ public class DomainAccessor {
                  Partitioner partitioner,
                  int getTimerAggregatorWindow) throws IOException {
     this.hostDomain = hostDomain;
-    this.partitionAccessors = partitionAccessors;
+    this.partitionAccessors = new AtomicReferenceArray<PartitionAccessor>(partitionAccessors);
     this.partitioner = partitioner;
     this.getRequestsTimerAggregator = new HankTimerEventAggregator("GET " + hostDomain.getDomain().getName(),
         getTimerAggregatorWindow);
   }
 
   public HankResponse get(ByteBuffer key, ReaderResult result) throws IOException {
-    HankTimer timer = getRequestsTimerAggregator.getTimer();
+    long startTime = getRequestsTimerAggregator.getStartTime();
     try {
-      int partition = partitioner.partition(key, partitionAccessors.length);
-      PartitionAccessor partitionAccessor = partitionAccessors[partition];
-      if (partitionAccessor == null) {
-        LOG.error("Failed to perform get because of an Exception: wrong host for domain: " + hostDomain.getDomain().getName()
-            + ", partition: " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", response: " + WRONG_HOST);
-        return WRONG_HOST;
+      int partition = partitioner.partition(key, partitionAccessors.length());
+      while (true) {
+        PartitionAccessor partitionAccessor = partitionAccessors.get(partition);
+        if (partitionAccessor == null) {
+          LOG.error("Failed to perform get because of an Exception: wrong host for domain: " + hostDomain.getDomain().getName()
+              + ", partition: " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", response: " + WRONG_HOST);
+          return WRONG_HOST;
+        }
+        if (partitionAccessor.acquire()) {
+          try {
+            return partitionAccessor.get(key, result);
+          } finally {
+            partitionAccessor.release();
+          }
+        }
+        // A swapped out accessor is shutting down, retry with its replacement. An accessor that is
+        // still in place is being shut down without replacement and will not serve this partition anymore.
+        if (partitionAccessors.get(partition) == partitionAccessor) {
+          LOG.error("Failed to perform get: partition accessor is shutting down for domain: " + hostDomain.getDomain().getName()
+              + ", partition: " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", response: " + WRONG_HOST);
+          return WRONG_HOST;
+        }
       }
-      return partitionAccessor.get(key, result);
     } finally {
-      getRequestsTimerAggregator.add(timer);
+      getRequestsTimerAggregator.add(startTime);
     }
   }
 
@@ -77,18 +95,41 @@ public class DomainAccessor {
     return hostDomain;
   }
 
+  public int getNumPartitions() {
+    return partitionAccessors.length();
+  }
+
+  public PartitionAccessor getPartitionAccessor(int partitionNumber) {
+    return partitionAccessors.get(partitionNumber);
+  }
+
+  // Atomically replace the accessor of the given partition and return the previous one,
+  // which should be shut down by the caller
+  public PartitionAccessor swapPartitionAccessor(int partitionNumber, PartitionAccessor partitionAccessor) {
+    return partitionAccessors.getAndSet(partitionNumber, partitionAccessor);
+  }
+
   public void shutDown() {
     // Shutdown partition accessors
-    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+    PartitionAccessor.shutDown(getPartitionAccessors());
+  }
+
+  // Partition accessors currently in use
+  public List<PartitionAccessor> getPartitionAccessors() {
+    List<PartitionAccessor> result = new ArrayList<PartitionAccessor>();
+    for (int i = 0; i < partitionAccessors.length(); ++i) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(i);
       if (partitionAccessor != null) {
-        partitionAccessor.shutDown();
+        result.add(partitionAccessor);
       }
     }
+    return result;
   }
 
   public RuntimeStatisticsAggregator getRuntimeStatistics() {
     RuntimeStatisticsAggregator runtimeStatisticsAggregator = new RuntimeStatisticsAggregator();
-    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+    for (int i = 0; i < partitionAccessors.length(); ++i) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(i);
       if (partitionAccessor != null) {
         runtimeStatisticsAggregator.add(partitionAccessor.getRuntimeStatistics());
       }
@@ -18,6 +18,9 @@ package com.liveramp.hank.partition_server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
@@ -37,9 +40,15 @@ public class PartitionAccessor {
 
   private static final HankResponse NOT_FOUND = HankResponse.not_found(true);
   private static final Logger LOG = LoggerFactory.getLogger(PartitionAccessor.class);
+  private static final long DRAIN_SLEEP_MS = 10;
+  private static final long DRAIN_TIMEOUT_MS = 30000;
 
   private final HostDomainPartition partition;
   private final Reader reader;
+  private final Integer versionNumber;
+  // Requests that are using the reader, which is closed only once they have completed
+  private final AtomicInteger numInFlightRequests = new AtomicInteger(0);
+  private volatile boolean closing = false;
   private final HankTimer windowTimer = new HankTimer();
   //0: num requests
   //1: num hits
@@ -49,11 +58,16 @@ public class PartitionAccessor {
   private final AtomicLongCollection countersWindow;
 
   public PartitionAccessor(HostDomainPartition partition, Reader reader) {
+    this(partition, reader, null);
+  }
+
+  public PartitionAccessor(HostDomainPartition partition, Reader reader, Integer versionNumber) {
     if (reader == null) {
       throw new IllegalArgumentException("Reader may not be null!");
     }
     this.partition = partition;
     this.reader = reader;
+    this.versionNumber = versionNumber;
     windowTimer.restart();
     countersWindow = new AtomicLongCollection(5, new long[]{0, 0, 0, 0, 0});
   }
@@ -62,6 +76,26 @@ public class PartitionAccessor {
     return partition;
   }
 
+  // Version of the partition served by the reader, null if unknown
+  public Integer getVersionNumber() {
+    return versionNumber;
+  }
+
+  // Register a request using this accessor. Return false if the accessor is being shut down,
+  // in which case it should not be used.
+  public boolean acquire() {
+    numInFlightRequests.incrementAndGet();
+    if (closing) {
+      numInFlightRequests.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  public void release() {
+    numInFlightRequests.decrementAndGet();
+  }
+
   public HankResponse get(ByteBuffer key, ReaderResult result) throws IOException {
     // Increment requests counter
     LOG.trace("Partition GET");
@@ -104,7 +138,42 @@ public class PartitionAccessor {
         reader.getCacheStatistics());
   }
 
+  // Stop accepting requests and close the reader once in-flight requests have completed
   public void shutDown() {
+    shutDown(Collections.singletonList(this));
+  }
+
+  // Shut down the given accessors. Their in-flight requests are drained concurrently, for
+  // DRAIN_TIMEOUT_MS at most, before their readers are closed.
+  public static void shutDown(Collection<PartitionAccessor> partitionAccessors) {
+    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+      partitionAccessor.closing = true;
+    }
+    long drainStartMs = System.currentTimeMillis();
+    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+      partitionAccessor.drain(drainStartMs);
+      partitionAccessor.closeReader();
+    }
+  }
+
+  private void drain(long drainStartMs) {
+    while (numInFlightRequests.get() > 0) {
+      if (System.currentTimeMillis() - drainStartMs > DRAIN_TIMEOUT_MS) {
+        LOG.warn("Closing Reader of partition " + partition + " with " + numInFlightRequests.get()
+            + " requests still in flight after " + DRAIN_TIMEOUT_MS + "ms");
+        return;
+      }
+      try {
+        Thread.sleep(DRAIN_SLEEP_MS);
+      } catch (InterruptedException e) {
+        LOG.info("Interrupted while waiting for in-flight requests to complete. Closing Reader.");
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void closeReader() {
     if (reader != null) {
       try {
         reader.close();
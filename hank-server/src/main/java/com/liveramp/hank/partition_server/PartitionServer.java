@@ -87,6 +87,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
   private Thread offlineWatcherThread;
 
   private TThreadedSelectorServer dataServer;
+  private volatile IfaceWithShutdown dataServerHandler;
   private Thread dataServerThread;
   private boolean waitForDataServer;
 
@@ -387,9 +388,19 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     switch (state) {
       case IDLE:
         host.setState(HostState.UPDATING); // In case of exception, server will stop and state will be coherent.
-        executeUpdate();
+        executeUpdate(false);
         // Next command is set by the updater thread
         break;
+      case SERVING:
+        if (configurator.getOnlineUpdates() && dataServerHandler instanceof PartitionServerHandler) {
+          // Keep serving while updating. Readers are swapped once partitions are updated.
+          executeUpdate(true);
+          // Next command is set by the updater thread
+          break;
+        }
+        LOG.info(ignoreIncompatibleCommandMessage(HostCommand.EXECUTE_UPDATE, state));
+        host.nextCommand(); // In case of exception, server will stop and state will be coherent.
+        break;
       default:
         LOG.info(ignoreIncompatibleCommandMessage(HostCommand.EXECUTE_UPDATE, state));
         host.nextCommand(); // In case of exception, server will stop and state will be coherent.
@@ -409,7 +420,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     }
   }
 
-  private void executeUpdate() {
+  private void executeUpdate(final boolean online) {
     if (updateThread != null) {
       LOG.error("Update got called while one is already running!");
       return;
@@ -421,8 +432,27 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
           IUpdateManager updateManager = getUpdateManager();
           updateManager.update();
           LOG.info("Update succeeded.");
+          if (online) {
+            // Swap Readers of updated partitions
+            IfaceWithShutdown handler = dataServerHandler;
+            if (!(handler instanceof PartitionServerHandler)) {
+              throw new IOException("Data server stopped during online update.");
+            }
+            ((PartitionServerHandler)handler).reloadPartitions();
+            LOG.info("Reloaded updated partitions while serving.");
+          }
         } catch (Throwable e) {
           LOG.error("Update failed. Updater encountered a fatal error:", e);
+          if (online) {
+            // Some partitions might not be servable anymore. Stop serving before the cooldown.
+            LOG.error("Online update failed. Stopping to serve data.");
+            try {
+              setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
+            } catch (IOException e1) {
+              LOG.error("Failed to record state change.", e1);
+            }
+            stopServingData();
+          }
           try {
 
             long cooldown = configurator.getUpdateFailureCooldown();
@@ -434,11 +464,13 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
             //  no op
           }
         }
-        // Go back to IDLE even in case of failure
-        try {
-          setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
-        } catch (IOException e) {
-          LOG.error("Failed to record state change.", e);
+        // Go back to IDLE even in case of failure. Online updates keep serving, or are already IDLE if they failed.
+        if (!online) {
+          try {
+            setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
+          } catch (IOException e) {
+            LOG.error("Failed to record state change.", e);
+          }
         }
 
         // Signal that update thread is done.
@@ -470,6 +502,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     try {
       // Set up the service handler
       handler = getHandler();
+      dataServerHandler = handler;
       // Launch the thrift server
       TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(configurator.getServicePort());
       TThreadedSelectorServer.Args options = new TThreadedSelectorServer.Args(serverSocket);
@@ -491,6 +524,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
       serverSocket.close();
     } finally {
       // Always shut down the handler
+      dataServerHandler = null;
       if (handler != null) {
         LOG.debug("Shutting down Partition Server handler.");
         handler.shutDown();
@@ -18,16 +18,19 @@ package com.liveramp.hank.partition_server;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
@@ -48,6 +51,7 @@ import com.liveramp.hank.coordinator.Ring;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.StorageEngine;
@@ -60,20 +64,40 @@ public class PartitionServerHandler implements IfaceWithShutdown {
 
   private final static Logger LOG = LoggerFactory.getLogger(PartitionServerHandler.class);
 
+  private final PartitionServerConfigurator configurator;
+  private final Ring ring;
   private final Host host;
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankException.no_such_domain(true));
   private static final HankBulkResponse NO_SUCH_DOMAIN_BULK = HankBulkResponse.xception(HankException.no_such_domain(true));
+  private static final HankBulkResponse TOO_MANY_GET_BULK_REQUESTS =
+      HankBulkResponse.xception(HankException.internal_error("Too many concurrent GET BULK requests"));
   private final int getBulkTaskSize;
+  private final int maxConcurrentGetBulkRequests;
+  private final AtomicInteger numGetBulkRequestsInProgress = new AtomicInteger(0);
   private final int bufferReuseMaxSize;
   private static final long GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_VALUE = 1;
   private static final TimeUnit GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_UNIT = TimeUnit.DAYS;
 
   private static final ReaderResultThreadLocal readerResultThreadLocal = new ReaderResultThreadLocal();
-  private final DomainAccessor[] domainAccessors;
+  // Replaced when partitions are reloaded while serving
+  private volatile DomainAccessor[] domainAccessors;
+  // Value cache shared by all readers, null when disabled
+  private final OffHeapValueCache offHeapValueCache;
   private final ThreadPoolExecutor getBulkTaskExecutor;
   private static final long GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
   private static final TimeUnit GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
+  // Tasks claimed by GET BULK executor threads take milliseconds, unless their Reader is stuck
+  private static final long GET_BULK_HELPERS_WAIT_TIMEOUT_MS = 60000;
   private static final double USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY = 0.75;
+  // Found GET BULK values up to this size are packed into slabs shared by the responses of a task.
+  // Slabs are sized to the values they hold, and hold up to GET_BULK_MAX_VALUE_SLAB_SIZE bytes.
+  private static final int GET_BULK_MAX_VALUE_SLAB_SIZE = 64 << 10;
+  private static final int GET_BULK_MAX_SLAB_VALUE_SIZE = GET_BULK_MAX_VALUE_SLAB_SIZE >> 2;
+
+  // Closes the Readers replaced by reloads once their requests have drained
+  private final ExecutorService readerReleaseExecutor;
+  private static final long READER_RELEASE_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
+  private static final TimeUnit READER_RELEASE_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
 
   private final UpdateStatisticsRunnable updateRuntimeStatisticsRunnable;
   private final Thread updateRuntimeStatisticsThread;
@@ -94,13 +118,23 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         new GetBulkThreadFactory());
 
     getBulkTaskSize = configurator.getGetBulkTaskSize();
+    maxConcurrentGetBulkRequests = configurator.getMaxConcurrentGetBulkRequests();
     bufferReuseMaxSize = configurator.getBufferReuseMaxSize();
 
     // Prestart core threads
     getBulkTaskExecutor.prestartAllCoreThreads();
 
+    readerReleaseExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "Reader Release Thread");
+      }
+    });
+
+    this.configurator = configurator;
+
     // Find the ring
-    Ring ring = coordinator.getRingGroup(configurator.getRingGroupName()).getRingForHost(address);
+    ring = coordinator.getRingGroup(configurator.getRingGroupName()).getRingForHost(address);
     if (ring == null) {
       throw new IOException(String.format("Could not get Ring of PartitionServerAddress %s", address));
     }
@@ -118,6 +152,74 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
 
     // Compute the total number of partitions that are going to be loaded
+    int numTotalPartitions = getNumLoadablePartitions(domainGroup);
+    LOG.info("Detected " + numTotalPartitions + " loadable partitions for " + host);
+
+    // The off heap value cache is shared by all partitions, and by successive handlers of the server
+    offHeapValueCache = configurator.getOffHeapValueCache();
+    if (offHeapValueCache != null) {
+      LOG.info("Using off heap value cache of " + offHeapValueCache.getMaxNumManagedBytes() + " bytes for " + host);
+    }
+
+    // Loop over the domains and get set up
+    List<Exception> exceptions = new ArrayList<Exception>();
+    domainAccessors = loadDomainAccessors(domainGroup, null, numTotalPartitions, exceptions, null);
+    // If there was a failure, abort and skip current command.
+    if (!exceptions.isEmpty()) {
+      host.nextCommand();
+      throw new IOException("Failed to load Readers. Encountered " + exceptions.size() + " exceptions.");
+    }
+    // Start the update runtime statistics thread
+    updateRuntimeStatisticsRunnable = new UpdateRuntimeStatisticsRunnable();
+    updateRuntimeStatisticsThread = new Thread(updateRuntimeStatisticsRunnable, "Update Runtime Statistics");
+    updateRuntimeStatisticsThread.start();
+  }
+
+  /**
+   * Reload partitions after they have been updated while serving. Partitions whose version changed
+   * are given a new Reader, which atomically replaces the previous one. Previous Readers are closed
+   * in the background, once the requests using them have completed. Unchanged partitions keep their
+   * Reader and cache.
+   */
+  public synchronized void reloadPartitions() throws IOException {
+    DomainGroup domainGroup = ring.getRingGroup().getDomainGroup();
+    if (domainGroup == null) {
+      throw new IOException(String.format("Could not get DomainGroup of Ring %s", ring));
+    }
+    int numTotalPartitions = getNumLoadablePartitions(domainGroup);
+    LOG.info("Reloading " + numTotalPartitions + " loadable partitions for " + host);
+
+    List<Exception> exceptions = new ArrayList<Exception>();
+    final List<PartitionAccessor> releasedPartitionAccessors = new ArrayList<PartitionAccessor>();
+    DomainAccessor[] previousDomainAccessors = domainAccessors;
+    domainAccessors = loadDomainAccessors(domainGroup, previousDomainAccessors, numTotalPartitions,
+        exceptions, releasedPartitionAccessors);
+
+    // Release domains that are not served anymore, and replaced partitions
+    Set<DomainAccessor> currentDomainAccessors = Sets.newHashSet(domainAccessors);
+    for (DomainAccessor previousDomainAccessor : previousDomainAccessors) {
+      if (previousDomainAccessor != null && !currentDomainAccessors.contains(previousDomainAccessor)) {
+        LOG.info("Releasing Readers of domain " + previousDomainAccessor.getName() + " as it is not served anymore.");
+        releasedPartitionAccessors.addAll(previousDomainAccessor.getPartitionAccessors());
+      }
+    }
+    if (!releasedPartitionAccessors.isEmpty()) {
+      readerReleaseExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          PartitionAccessor.shutDown(releasedPartitionAccessors);
+          LOG.info("Released " + releasedPartitionAccessors.size() + " Readers for " + host);
+        }
+      });
+    }
+    LOG.info("Reloaded partitions for " + host + ", releasing " + releasedPartitionAccessors.size() + " Readers.");
+
+    if (!exceptions.isEmpty()) {
+      throw new IOException("Failed to reload Readers. Encountered " + exceptions.size() + " exceptions.");
+    }
+  }
+
+  private int getNumLoadablePartitions(DomainGroup domainGroup) throws IOException {
     int numTotalPartitions = 0;
     for (DomainAndVersion dgdv : domainGroup.getDomainVersions()) {
       HostDomain hostDomain = host.getHostDomain(dgdv.getDomain());
@@ -132,8 +234,17 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         }
       }
     }
-    LOG.info("Detected " + numTotalPartitions + " loadable partitions for " + host);
+    return numTotalPartitions;
+  }
 
+  // Build domain accessors for the partitions assigned to this host. When previous domain accessors
+  // are provided, they are reused and only their partitions whose version changed are swapped. Swapped
+  // out partition accessors are added to replacedPartitionAccessors and should be shut down by the caller.
+  private DomainAccessor[] loadDomainAccessors(DomainGroup domainGroup,
+                                               DomainAccessor[] previousDomainAccessors,
+                                               int numTotalPartitions,
+                                               List<Exception> exceptions,
+                                               List<PartitionAccessor> replacedPartitionAccessors) throws IOException {
     // Determine the max domain id so we can bound the arrays
     int maxDomainId = 0;
     for (DomainAndVersion dgvdv : domainGroup.getDomainVersions()) {
@@ -142,10 +253,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         maxDomainId = domainId;
       }
     }
-    domainAccessors = new DomainAccessor[maxDomainId + 1];
+    DomainAccessor[] result = new DomainAccessor[maxDomainId + 1];
 
-    // Loop over the domains and get set up
-    List<Exception> exceptions = new ArrayList<Exception>();
     for (DomainAndVersion dgvdv : domainGroup.getDomainVersions()) {
       Domain domain = dgvdv.getDomain();
       StorageEngine engine = domain.getStorageEngine();
@@ -165,10 +274,6 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       LOG.info(String.format("Loading %d/%d partitions of domain %s",
           partitions.size(), domain.getNumParts(), domain.getName()));
 
-      // Instantiate the PartitionAccessor array
-      PartitionAccessor[] partitionAccessors =
-          new PartitionAccessor[domain.getNumParts()];
-
       Set<Integer> partitionNumbers = Sets.newHashSet();
       for (HostDomainPartition partition : partitions) {
         partitionNumbers.add(partition.getPartitionNumber());
@@ -176,59 +281,97 @@ public class PartitionServerHandler implements IfaceWithShutdown {
 
       DiskPartitionAssignment assignment = engine.getDataDirectoryPerPartition(configurator, partitionNumbers);
 
-      for (HostDomainPartition partition : partitions) {
-        if (partition.getCurrentDomainVersion() == null) {
-          LOG.error(String.format(
-              "Could not load Reader for partition #%d of Domain %s because the partition's current version is null.",
-              partition.getPartitionNumber(), domain.getName()));
-          continue;
-        }
-
-        Reader reader;
-        try {
-          reader = engine.getReader(configurator.getReaderConfigurator(numTotalPartitions), partition.getPartitionNumber(), assignment);
-        } catch (IOException | IllegalArgumentException e) {
-          // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
-          if (!partition.isDeletable()) {
-            partition.setDeletable(true);
+      DomainAccessor previousDomainAccessor = null;
+      if (previousDomainAccessors != null && domainId < previousDomainAccessors.length) {
+        previousDomainAccessor = previousDomainAccessors[domainId];
+      }
+      if (previousDomainAccessor != null && previousDomainAccessor.getNumPartitions() == domain.getNumParts()) {
+        // Swap partitions of the domain accessor that is currently serving
+        PartitionAccessor[] partitionAccessors = new PartitionAccessor[domain.getNumParts()];
+        for (HostDomainPartition partition : partitions) {
+          PartitionAccessor previousPartitionAccessor = previousDomainAccessor.getPartitionAccessor(partition.getPartitionNumber());
+          if (previousPartitionAccessor != null
+              && previousPartitionAccessor.getVersionNumber() != null
+              && previousPartitionAccessor.getVersionNumber().equals(partition.getCurrentDomainVersion())) {
+            // Partition is unchanged, keep its Reader
+            partitionAccessors[partition.getPartitionNumber()] = previousPartitionAccessor;
+          } else {
+            partitionAccessors[partition.getPartitionNumber()] =
+                loadPartitionAccessor(domain, partition, assignment, numTotalPartitions, exceptions);
           }
-          final String msg = String.format("Could not load Reader for partition #%d of domain %s because of an exception.",
-              partition.getPartitionNumber(), domain.getName());
-          LOG.error(msg, e);
-          exceptions.add(new IOException(msg, e));
-          continue;
         }
-        // Check that Reader's version number and current domain group version number match
-        if (reader.getVersionNumber() != null && !reader.getVersionNumber().equals(partition.getCurrentDomainVersion())) {
-          // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
-          partition.setDeletable(true);
-          final String msg = String.format("Could not load Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by metadata (%d) differ.",
-              partition.getPartitionNumber(), domain.getName(), reader.getVersionNumber(), partition.getCurrentDomainVersion());
-          LOG.error(msg);
-          exceptions.add(new IOException(msg));
-          continue;
+        for (int partitionNumber = 0; partitionNumber < partitionAccessors.length; ++partitionNumber) {
+          PartitionAccessor partitionAccessor = partitionAccessors[partitionNumber];
+          if (previousDomainAccessor.getPartitionAccessor(partitionNumber) != partitionAccessor) {
+            PartitionAccessor replaced = previousDomainAccessor.swapPartitionAccessor(partitionNumber, partitionAccessor);
+            if (replaced != null) {
+              replacedPartitionAccessors.add(replaced);
+            }
+          }
         }
-        LOG.info(String.format("Loaded Reader for domain %s, partition #%d",
-            domain.getName(), partition.getPartitionNumber()));
-        partitionAccessors[partition.getPartitionNumber()] = new PartitionAccessor(partition, reader);
-        // Loading succeeded, if the partition was deletable, it should not be
-        if (partition.isDeletable()) {
-          partition.setDeletable(false);
+        result[domainId] = previousDomainAccessor;
+      } else {
+        // Instantiate the PartitionAccessor array
+        PartitionAccessor[] partitionAccessors =
+            new PartitionAccessor[domain.getNumParts()];
+        for (HostDomainPartition partition : partitions) {
+          partitionAccessors[partition.getPartitionNumber()] =
+              loadPartitionAccessor(domain, partition, assignment, numTotalPartitions, exceptions);
         }
+        // configure and store the DomainAccessors
+        result[domainId] = new DomainAccessor(hostDomain, partitionAccessors, domain.getPartitioner(),
+            configurator.getGetTimerAggregatorWindow());
       }
-      // configure and store the DomainAccessors
-      domainAccessors[domainId] = new DomainAccessor(hostDomain, partitionAccessors, domain.getPartitioner(),
-          configurator.getGetTimerAggregatorWindow());
     }
-    // If there was a failure, abort and skip current command.
-    if (!exceptions.isEmpty()) {
-      host.nextCommand();
-      throw new IOException("Failed to load Readers. Encountered " + exceptions.size() + " exceptions.");
+    return result;
+  }
+
+  // Return null if the partition could not be loaded
+  private PartitionAccessor loadPartitionAccessor(Domain domain,
+                                                  HostDomainPartition partition,
+                                                  DiskPartitionAssignment assignment,
+                                                  int numTotalPartitions,
+                                                  List<Exception> exceptions) throws IOException {
+    Integer versionNumber = partition.getCurrentDomainVersion();
+    if (versionNumber == null) {
+      LOG.error(String.format(
+          "Could not load Reader for partition #%d of Domain %s because the partition's current version is null.",
+          partition.getPartitionNumber(), domain.getName()));
+      return null;
     }
-    // Start the update runtime statistics thread
-    updateRuntimeStatisticsRunnable = new UpdateRuntimeStatisticsRunnable();
-    updateRuntimeStatisticsThread = new Thread(updateRuntimeStatisticsRunnable, "Update Runtime Statistics");
-    updateRuntimeStatisticsThread.start();
+
+    Reader reader;
+    try {
+      reader = domain.getStorageEngine().getReader(configurator.getReaderConfigurator(numTotalPartitions, offHeapValueCache), partition.getPartitionNumber(), assignment);
+    } catch (IOException | IllegalArgumentException e) {
+      // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
+      if (!partition.isDeletable()) {
+        partition.setDeletable(true);
+      }
+      final String msg = String.format("Could not load Reader for partition #%d of domain %s because of an exception.",
+          partition.getPartitionNumber(), domain.getName());
+      LOG.error(msg, e);
+      exceptions.add(new IOException(msg, e));
+      return null;
+    }
+    // Check that Reader's version number and current domain group version number match
+    if (reader.getVersionNumber() != null && !reader.getVersionNumber().equals(versionNumber)) {
+      // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
+      partition.setDeletable(true);
+      final String msg = String.format("Could not load Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by metadata (%d) differ.",
+          partition.getPartitionNumber(), domain.getName(), reader.getVersionNumber(), versionNumber);
+      LOG.error(msg);
+      exceptions.add(new IOException(msg));
+      reader.close();
+      return null;
+    }
+    LOG.info(String.format("Loaded Reader for domain %s, partition #%d",
+        domain.getName(), partition.getPartitionNumber()));
+    // Loading succeeded, if the partition was deletable, it should not be
+    if (partition.isDeletable()) {
+      partition.setDeletable(false);
+    }
+    return new PartitionAccessor(partition, reader, versionNumber);
   }
 
   @Override
@@ -250,29 +393,19 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       if (domainAccessor == null) {
         return NO_SUCH_DOMAIN_BULK;
       }
-      // Build and execute all get bulk tasks
-      HankBulkResponse bulkResponse = HankBulkResponse.responses(new ArrayList<HankResponse>(keys.size()));
-      GetBulkTask[] tasks = new GetBulkTask[(keys.size() / getBulkTaskSize) + 1];
-      int maxTaskIndex = 0;
-      for (int i = 0; i < keys.size(); i += getBulkTaskSize) {
-        GetBulkTask task = new GetBulkTask(new GetBulkRunnable(domainId, keys, i));
-        // No need to synchronize since ThreadPoolExecutor's execute() is thread-safe
-        getBulkTaskExecutor.execute(task);
-        tasks[maxTaskIndex++] = task;
+      // Reject requests above the limit right away so that query threads remain available for GET requests
+      if (maxConcurrentGetBulkRequests > 0
+          && numGetBulkRequestsInProgress.incrementAndGet() > maxConcurrentGetBulkRequests) {
+        numGetBulkRequestsInProgress.decrementAndGet();
+        return TOO_MANY_GET_BULK_REQUESTS;
       }
-      // Wait for all get tasks and retrieve responses
-      for (int taskIndex = 0; taskIndex < maxTaskIndex; ++taskIndex) {
-        HankResponse[] responses = tasks[taskIndex].getResponses();
-        for (HankResponse response : responses) {
-          // Check if we have retrieved all responses
-          if (bulkResponse.get_responses().size() == keys.size()) {
-            break;
-          } else {
-            bulkResponse.get_responses().add(response);
-          }
+      try {
+        return new GetBulkRequest(domainId, keys).execute();
+      } finally {
+        if (maxConcurrentGetBulkRequests > 0) {
+          numGetBulkRequestsInProgress.decrementAndGet();
         }
       }
-      return bulkResponse;
     } catch (Throwable t) {
       String errMsg = "Throwable during GET BULK";
       LOG.error(errMsg, t);
@@ -328,78 +461,162 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
   }
 
-  private class GetBulkRunnable implements Runnable {
+  // A GET BULK request is split in tasks of getBulkTaskSize keys. Tasks are claimed both by the thread
+  // serving the request and by idle threads of the GET BULK executor, so that the serving thread
+  // never waits on tasks queued behind other requests, only on tasks that are already running.
+  private class GetBulkRequest implements Runnable {
 
     private final int domainId;
     private final List<ByteBuffer> keys;
-    private final int firstKeyIndex;
-    private HankResponse[] responses;
+    private final HankResponse[] responses;
+    private final int numTasks;
+    private final AtomicInteger nextTaskIndex = new AtomicInteger(0);
+    private int numCompletedTasks = 0;
 
-    // Perform GET requests for keys starting at firstKeyIndex and in a window of size GET_BULK_TASK_SIZE
-    public GetBulkRunnable(int domainId, List<ByteBuffer> keys, int firstKeyIndex) {
+    public GetBulkRequest(int domainId, List<ByteBuffer> keys) {
       this.domainId = domainId;
       this.keys = keys;
-      this.firstKeyIndex = firstKeyIndex;
+      this.responses = new HankResponse[keys.size()];
+      this.numTasks = (keys.size() + getBulkTaskSize - 1) / getBulkTaskSize;
+    }
+
+    public HankBulkResponse execute() throws InterruptedException, TimeoutException {
+      // Offer remaining tasks to the GET BULK executor, and execute tasks in this thread meanwhile
+      int numHelpers = Math.min(numTasks - 1, getBulkTaskExecutor.getMaximumPoolSize());
+      for (int i = 0; i < numHelpers; ++i) {
+        getBulkTaskExecutor.execute(this);
+      }
+      executeTasks();
+      // Wait for the tasks that were claimed by helpers, but do not hold the serving thread forever
+      synchronized (this) {
+        long deadline = System.currentTimeMillis() + GET_BULK_HELPERS_WAIT_TIMEOUT_MS;
+        while (numCompletedTasks < numTasks) {
+          long remainingMs = deadline - System.currentTimeMillis();
+          if (remainingMs <= 0) {
+            throw new TimeoutException("Timed out after " + GET_BULK_HELPERS_WAIT_TIMEOUT_MS + "ms waiting for "
+                + (numTasks - numCompletedTasks) + " GET BULK tasks of " + numTasks);
+          }
+          wait(remainingMs);
+        }
+      }
+      return HankBulkResponse.responses(Arrays.asList(responses));
     }
 
+    // Executed by helpers. Once all tasks have been claimed, this is a no-op.
     @Override
     public void run() {
+      executeTasks();
+    }
+
+    private void executeTasks() {
+      int taskIndex;
+      while ((taskIndex = nextTaskIndex.getAndIncrement()) < numTasks) {
+        try {
+          executeTask(taskIndex);
+        } finally {
+          synchronized (this) {
+            if (++numCompletedTasks == numTasks) {
+              notifyAll();
+            }
+          }
+        }
+      }
+    }
+
+    // Perform GET requests for keys of the given task, up to getBulkTaskSize keys or until the last key
+    private void executeTask(int taskIndex) {
       ReaderResult result = readerResultThreadLocal.get();
+      // If buffer exceeds limit, reset it, since it might be handed off to a response
+      if (result.getBuffer() != null && result.getBuffer().capacity() > bufferReuseMaxSize) {
+        readerResultThreadLocal.remove();
+        result = readerResultThreadLocal.get();
+      }
       result.clear();
-      responses = new HankResponse[getBulkTaskSize];
-      // Perform GET requests for keys starting at firstKeyIndex up to GET_BULK_TASK_SIZE keys or until the last key
-      for (int keyOffset = 0; keyOffset < getBulkTaskSize
-          && (firstKeyIndex + keyOffset) < keys.size(); keyOffset++) {
-        HankResponse response =
-            _get(PartitionServerHandler.this, domainId, keys.get(firstKeyIndex + keyOffset), result);
-        // If a value was found, we have the choice to keep the buffer that was used to read the value, or do a deep
-        // copy into the response. This decision is based on a size difference threshold.
-        // This allows us to do bulk requests that are large even when the read buffer ends up being much larger
-        // than the stored value (since in that case we will just do a deep copy of the value
-        // in an appropriately-sized buffer).
+      ValueSlabs valueSlabs = new ValueSlabs();
+      int firstKeyIndex = taskIndex * getBulkTaskSize;
+      int lastKeyIndex = Math.min(firstKeyIndex + getBulkTaskSize, keys.size());
+      for (int keyIndex = firstKeyIndex; keyIndex < lastKeyIndex; ++keyIndex) {
+        HankResponse response = _get(PartitionServerHandler.this, domainId, keys.get(keyIndex), result);
+        // If a value was found, small values are copied into a slab and the result buffer is reused. Large values
+        // are deep copied if they use a small part of the result buffer, otherwise the response keeps the buffer
+        // that was used to read the value.
         if (response.is_set_value()) {
           ByteBuffer valueBuffer = response.buffer_for_value();
-          // If buffer used space is less than a threshold times its capacity, do a deep copy.
-          if (((double)valueBuffer.limit())
+          if (valueBuffer.remaining() <= GET_BULK_MAX_SLAB_VALUE_SIZE) {
+            // Small values are copied next to each other. Hence we can reuse the result buffer without
+            // allocating a buffer per value.
+            valueSlabs.add(response, valueBuffer);
+            result.clear();
+          } else if (((double)valueBuffer.limit())
               < (USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY * valueBuffer.capacity())) {
             // Deep copy the value. Hence we can reuse the result buffer.
             response.set_value(BytesUtils.byteBufferDeepCopy(valueBuffer));
             result.clear();
           } else {
             // Keep the ReaderResult's buffer in the response. Hence we need to create a new result buffer.
-            // Initialize it with the same capacity we had.
-            result = new ReaderResult(valueBuffer.capacity());
+            // Its buffer is allocated by the next read, with the size that read requires.
+            result = new ReaderResult();
           }
         }
         // Store response
-        responses[keyOffset] = response;
+        responses[keyIndex] = response;
       }
+      // Small values still point to the result buffer until they are copied into their slab
+      valueSlabs.flush();
       // Update the thread local result buffer to point to the latest one used (which is valid for reuse)
       readerResultThreadLocal.set(result);
     }
-
-    public HankResponse[] getResponses() {
-      return responses;
-    }
   }
 
-  private class GetBulkTask extends FutureTask<Object> {
+  // Small values of a task are first staged in a buffer of the executing thread. Staged values are then
+  // copied into a slab of their total size, so that slabs do not retain unused space. Values are serialized
+  // straight from the slabs, which are only referenced by responses.
+  private static class ValueSlabs {
 
-    private final GetBulkRunnable runnable;
-
-    public GetBulkTask(GetBulkRunnable runnable) {
-      super(runnable, new Object());
-      this.runnable = runnable;
+    private static final ThreadLocal<byte[]> stagingBufferThreadLocal = new ThreadLocal<byte[]>() {
+      @Override
+      protected byte[] initialValue() {
+        return new byte[GET_BULK_MAX_VALUE_SLAB_SIZE];
+      }
+    };
+
+    private final byte[] stagingBuffer = stagingBufferThreadLocal.get();
+    private int stagingOffset = 0;
+    private final List<HankResponse> stagedResponses = new ArrayList<HankResponse>();
+    private final List<Integer> stagedLengths = new ArrayList<Integer>();
+
+    // The value of the given response is set once its slab is created
+    public void add(HankResponse response, ByteBuffer value) {
+      int length = value.remaining();
+      if (stagingBuffer.length - stagingOffset < length) {
+        flush();
+      }
+      System.arraycopy(value.array(), value.arrayOffset() + value.position(), stagingBuffer, stagingOffset, length);
+      stagingOffset += length;
+      stagedResponses.add(response);
+      stagedLengths.add(length);
     }
 
-    // Wait for termination and return response
-    public HankResponse[] getResponses() throws ExecutionException, InterruptedException {
-      this.get();
-      return runnable.getResponses();
+    public void flush() {
+      if (stagedResponses.isEmpty()) {
+        return;
+      }
+      byte[] slab = Arrays.copyOf(stagingBuffer, stagingOffset);
+      int slabOffset = 0;
+      for (int i = 0; i < stagedResponses.size(); ++i) {
+        int length = stagedLengths.get(i);
+        stagedResponses.get(i).set_value(ByteBuffer.wrap(slab, slabOffset, length).slice());
+        slabOffset += length;
+      }
+      stagingOffset = 0;
+      stagedResponses.clear();
+      stagedLengths.clear();
     }
   }
 
   private DomainAccessor getDomainAccessor(int domainId) {
+    // Domain accessors might be replaced concurrently
+    DomainAccessor[] domainAccessors = this.domainAccessors;
     if (domainId < domainAccessors.length) {
       return domainAccessors[domainId];
     } else {
@@ -452,6 +669,16 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     } catch (InterruptedException e) {
       LOG.info("Interrupted while waiting for update runtime statistics thread to terminate during shutdown.");
     }
+    // Wait for Readers released by reloads
+    readerReleaseExecutor.shutdown();
+    try {
+      while (!readerReleaseExecutor.awaitTermination(READER_RELEASE_EXECUTOR_AWAIT_TERMINATION_VALUE,
+          READER_RELEASE_EXECUTOR_AWAIT_TERMINATION_UNIT)) {
+        LOG.debug("Waiting for termination of Reader release executor during shutdown.");
+      }
+    } catch (InterruptedException e) {
+      LOG.debug("Interrupted while waiting for termination of Reader release executor during shutdown.");
+    }
     // Shut down domain accessors
     for (DomainAccessor domainAccessor : domainAccessors) {
       if (domainAccessor != null) {
@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
@@ -46,13 +47,19 @@ import com.liveramp.hank.config.PartitionServerConfigurator;
 import com.liveramp.hank.coordinator.Domain;
 import com.liveramp.hank.coordinator.DomainAndVersion;
 import com.liveramp.hank.coordinator.DomainVersion;
+import com.liveramp.hank.coordinator.DomainVersions;
 import com.liveramp.hank.coordinator.Host;
 import com.liveramp.hank.coordinator.HostDomain;
 import com.liveramp.hank.coordinator.HostDomainPartition;
+import com.liveramp.hank.coordinator.HostState;
 import com.liveramp.hank.coordinator.Hosts;
 import com.liveramp.hank.coordinator.RingGroup;
 import com.liveramp.hank.storage.Deleter;
+import com.liveramp.hank.storage.PartitionUpdater;
 import com.liveramp.hank.storage.StorageEngine;
+import com.liveramp.hank.storage.UpdateWhileServing;
+import com.liveramp.hank.storage.incremental.FetchThrottle;
+import com.liveramp.hank.util.ByteRateLimiter;
 import com.liveramp.hank.util.DurationAggregator;
 import com.liveramp.hank.util.FormatUtils;
 import com.liveramp.hank.util.HankTimer;
@@ -179,13 +186,17 @@ public class UpdateManager implements IUpdateManager {
     private final PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator;
     private final List<Throwable> encounteredThrowables;
     private final DiskPartitionAssignment assignment;
+    private final long domainNumBytesPerPartition;
+    private volatile PartitionUpdateTaskStatistics statistics;
 
     public PartitionUpdateTask(HostDomain hostDomain,
                                HostDomainPartition partition,
                                PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator,
                                List<Throwable> encounteredThrowables,
-                               DiskPartitionAssignment assignment) {
+                               DiskPartitionAssignment assignment,
+                               long domainNumBytesPerPartition) {
       this.hostDomain = hostDomain;
+      this.domainNumBytesPerPartition = domainNumBytesPerPartition;
       this.encounteredThrowables = encounteredThrowables;
       this.domain = hostDomain.getDomain();
       this.partition = partition;
@@ -203,6 +214,15 @@ public class UpdateManager implements IUpdateManager {
       return assignment.getDisk(partition.getPartitionNumber());
     }
 
+    // Number of bytes fetched and written by the update, 0 if it has not run
+    public long getNumBytesTransferred() {
+      PartitionUpdateTaskStatistics statistics = this.statistics;
+      if (statistics == null) {
+        return 0;
+      }
+      return statistics.getNumBytesFetched() + statistics.getNumBytesWritten();
+    }
+
     @Override
     public void run() {
       PartitionUpdateTaskStatistics statistics = new PartitionUpdateTaskStatistics();
@@ -239,7 +259,11 @@ public class UpdateManager implements IUpdateManager {
           LOG.info(String.format(
               "Starting partition update of domain %s partition %d to version %d in %s.",
               domain.getName(), partition.getPartitionNumber(), targetDomainVersion.getVersionNumber(), getDataDirectory()));
-          storageEngine.getUpdater(assignment, partition.getPartitionNumber()).updateTo(targetDomainVersion, statistics);
+          PartitionUpdater updater = storageEngine.getUpdater(assignment, partition.getPartitionNumber());
+          if (updatingWhileServing && updater instanceof UpdateWhileServing) {
+            ((UpdateWhileServing)updater).updateWhileServing();
+          }
+          updater.updateTo(targetDomainVersion, statistics);
 
           // Record update success
           partition.setCurrentDomainVersion(targetDomainVersion.getVersionNumber());
@@ -254,6 +278,7 @@ public class UpdateManager implements IUpdateManager {
       } finally {
         statistics.setEndTimeMs(System.currentTimeMillis());
         partitionUpdateTaskStatisticsAggregator.recordPartitionUpdateTaskStatistics(this, statistics);
+        this.statistics = statistics;
       }
     }
 
@@ -265,9 +290,14 @@ public class UpdateManager implements IUpdateManager {
       hostDomain.removePartition(partition.getPartitionNumber());
     }
 
+    // Domains with larger partitions on average first, then in order of partition number
     @Override
     public int compareTo(PartitionUpdateTask other) {
-      if (partition.getPartitionNumber() < other.partition.getPartitionNumber()) {
+      if (domainNumBytesPerPartition > other.domainNumBytesPerPartition) {
+        return -1;
+      } else if (domainNumBytesPerPartition < other.domainNumBytesPerPartition) {
+        return 1;
+      } else if (partition.getPartitionNumber() < other.partition.getPartitionNumber()) {
         return -1;
       } else if (partition.getPartitionNumber() > other.partition.getPartitionNumber()) {
         return 1;
@@ -295,10 +325,12 @@ public class UpdateManager implements IUpdateManager {
   private static class UpdateThreadPoolExecutor extends ThreadPoolExecutor {
 
     private final Semaphore semaphore;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
 
     public UpdateThreadPoolExecutor(int numThreads,
                                     ThreadFactory threadFactory,
-                                    Semaphore semaphore) {
+                                    Semaphore semaphore,
+                                    AdaptiveConcurrencyLimit concurrencyLimit) {
       // Essentially a fixed thread pool
       super(
           numThreads,
@@ -308,13 +340,22 @@ public class UpdateManager implements IUpdateManager {
           new LinkedBlockingQueue<Runnable>(),
           threadFactory);
       this.semaphore = semaphore;
+      this.concurrencyLimit = concurrencyLimit;
     }
 
     @Override
     protected void beforeExecute(Thread thread, Runnable runnable) {
+      // Wait for the data directory first, so that waiting threads do not hold global permits
+      try {
+        concurrencyLimit.acquire();
+      } catch (InterruptedException e) {
+        LOG.error("Failed to acquire update data directory concurrency limit", e);
+        throw new RuntimeException(e);
+      }
       try {
         semaphore.acquire();
       } catch (InterruptedException e) {
+        concurrencyLimit.abort();
         LOG.error("Failed to acquire update thread semaphore", e);
         throw new RuntimeException(e);
       }
@@ -323,12 +364,21 @@ public class UpdateManager implements IUpdateManager {
     @Override
     protected void afterExecute(Runnable runnable, Throwable throwable) {
       semaphore.release();
+      long numBytesTransferred = 0;
+      if (runnable instanceof PartitionUpdateTask) {
+        numBytesTransferred = ((PartitionUpdateTask) runnable).getNumBytesTransferred();
+      }
+      concurrencyLimit.release(numBytesTransferred);
     }
   }
 
   private final PartitionServerConfigurator configurator;
   private final Host host;
   private final RingGroup ringGroup;
+  // Readers of the host keep serving during the update
+  private volatile boolean updatingWhileServing = false;
+  // Maximum number of concurrent fetches of data directories that do not use the configured value
+  private final Map<String, Integer> dataDirectoryToMaxConcurrentFetches = new ConcurrentHashMap<String, Integer>();
 
   public UpdateManager(PartitionServerConfigurator configurator, Host host, RingGroup ringGroup) throws IOException {
     this.configurator = configurator;
@@ -336,14 +386,23 @@ public class UpdateManager implements IUpdateManager {
     this.ringGroup = ringGroup;
   }
 
+  // Override the configured maximum number of remote files fetched concurrently into the given data directory,
+  // unlimited when not positive. Takes effect at the next update.
+  public void setMaxConcurrentFetches(String dataDirectory, int maxConcurrentFetches) {
+    dataDirectoryToMaxConcurrentFetches.put(dataDirectory, maxConcurrentFetches);
+  }
+
   @Override
   public void update() throws IOException {
     HankTimer timer = new HankTimer();
     try {
 
-
+      // Online updates run while the host is serving
+      updatingWhileServing = host.getState() == HostState.SERVING;
       // Delete unknown files
       deleteUnknownFiles();
+      // Throttle fetches per data directory
+      setFetchThrottles();
       // Perform update
       Semaphore concurrentUpdatesSemaphore = new Semaphore(configurator.getNumConcurrentUpdates());
       List<Throwable> encounteredThrowables = new ArrayList<Throwable>();
@@ -374,7 +433,8 @@ public class UpdateManager implements IUpdateManager {
             new UpdateThreadPoolExecutor(
                 configurator.getMaxConcurrentUpdatesPerDataDirectory(),
                 new UpdaterThreadFactory(dataDirectory),
-                concurrentUpdatesSemaphore));
+                concurrentUpdatesSemaphore,
+                new AdaptiveConcurrencyLimit(dataDirectory, configurator.getMaxConcurrentUpdatesPerDataDirectory())));
       }
 
       LOG.info("Submitting update tasks for " + dataDirectoryToUpdateTasks.size() + " directories.");
@@ -488,6 +548,8 @@ public class UpdateManager implements IUpdateManager {
 
       DiskPartitionAssignment assignments = engine.getDataDirectoryPerPartition(configurator, getPartitionNumbers(hostDomain.getPartitions()));
 
+      long estimatedNumBytesPerPartition = estimateNumBytesPerPartition(hostDomain.getDomain());
+
       for (HostDomainPartition partition : hostDomain.getPartitions()) {
         partitionUpdateTasks.add(
             new PartitionUpdateTask(
@@ -495,11 +557,14 @@ public class UpdateManager implements IUpdateManager {
                 partition,
                 partitionUpdateTaskStatisticsAggregator,
                 encounteredThrowables,
-                assignments));
+                assignments,
+                estimatedNumBytesPerPartition));
       }
     }
 
-    // Sort update tasks per partition id, so that we update domains concurrently but in order of partition number
+    // Sort update tasks so that the domains with the largest partitions on average start first, which shortens
+    // the time taken by the last updates of each data directory. Partition sizes are not known individually, so
+    // the partitions of a given domain are still updated in order of partition number.
     Collections.sort(partitionUpdateTasks);
 
     return partitionUpdateTasks;
@@ -517,6 +582,35 @@ public class UpdateManager implements IUpdateManager {
     }
   }
 
+  // Average size of the partitions of the target version of the given domain, 0 if unknown
+  private long estimateNumBytesPerPartition(Domain domain) throws IOException {
+    DomainAndVersion targetDomainAndVersion = ringGroup.getDomainGroup().getDomainVersion(domain);
+    if (targetDomainAndVersion == null || domain.getNumParts() <= 0) {
+      return 0;
+    }
+    DomainVersion targetDomainVersion = domain.getVersion(targetDomainAndVersion.getVersionNumber());
+    if (targetDomainVersion == null) {
+      return 0;
+    }
+    return DomainVersions.getTotalNumBytes(targetDomainVersion) / domain.getNumParts();
+  }
+
+  private void setFetchThrottles() {
+    // Rate limits are shared by all data directories
+    ByteRateLimiter fetchRateLimiter = new ByteRateLimiter(configurator.getMaxFetchBytesPerSecond());
+    ByteRateLimiter writeRateLimiter = new ByteRateLimiter(configurator.getMaxWriteBytesPerSecond());
+    for (String dataDirectory : configurator.getDataDirectories()) {
+      Integer maxConcurrentFetches = dataDirectoryToMaxConcurrentFetches.get(dataDirectory);
+      if (maxConcurrentFetches == null) {
+        maxConcurrentFetches = configurator.getMaxConcurrentFetchesPerDataDirectory();
+      }
+      FetchThrottle.setFetchThrottle(dataDirectory,
+          new FetchThrottle(maxConcurrentFetches, configurator.getNumConcurrentFetchesPerPartition(),
+              fetchRateLimiter.isLimited() ? fetchRateLimiter : null,
+              writeRateLimiter.isLimited() ? writeRateLimiter : null));
+    }
+  }
+
   private void deleteUnknownFiles() throws IOException {
     // Compute expected files
     Set<String> expectedFiles = new HashSet<String>();
@@ -51,7 +51,8 @@ public class RingGroupConductor {
   public RingGroupConductor(RingGroupConductorConfigurator configurator) throws IOException {
     this(configurator,
         new RingGroupUpdateTransitionFunctionImpl(new RendezVousPartitionAssigner(),
-            statusFor(configurator)
+            statusFor(configurator),
+            configurator.getOnlineUpdates()
         ),
         new RingGroupAutoconfigureTransitionFunction(
             configurator.getTargetHostsPerRing(),
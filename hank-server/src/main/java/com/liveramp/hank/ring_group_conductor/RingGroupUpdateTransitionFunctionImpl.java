@@ -42,11 +42,20 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupTransitio
 
   private final PartitionAssigner partitionAssigner;
   private final HostReplicaStatus status;
+  private final boolean onlineUpdates;
 
   public RingGroupUpdateTransitionFunctionImpl(PartitionAssigner partitionAssigner,
                                                HostReplicaStatus status) throws IOException {
+    this(partitionAssigner, status, false);
+  }
+
+  // When online updates are enabled, serving hosts are updated without going idle
+  public RingGroupUpdateTransitionFunctionImpl(PartitionAssigner partitionAssigner,
+                                               HostReplicaStatus status,
+                                               boolean onlineUpdates) throws IOException {
     this.partitionAssigner = partitionAssigner;
     this.status = status;
+    this.onlineUpdates = onlineUpdates;
   }
 
 
@@ -125,6 +134,15 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupTransitio
       return;
     }
 
+    if (onlineUpdates && isFullyServing && isAssigned && !isUpToDate && status == LiveReplicaStatus.OVER_REPLICATED) {
+      // Host is serving, assigned, not up-to-date and there are more than enough replicas serving. Update while serving.
+      // It is not counted as fully serving anymore, so that replicas are updated progressively as when going idle.
+      LOG.info("Host " + host.getAddress() + " is serving, assigned, not up-to-date, and there are more than enough replicas serving. Update online.");
+      Hosts.enqueueCommandIfNotPresent(host, HostCommand.EXECUTE_UPDATE);
+      removeFromReplicasFullyServing(domainToPartitionToHostsFullyServing, host);
+      return;
+    }
+
     if (isFullyServing && isAssigned && !isUpToDate && status == LiveReplicaStatus.OVER_REPLICATED) {
       // Host is serving, assigned, not up-to-date and there are more than enough replicas serving. Go idle.
       LOG.info("Host " + host.getAddress() + " is serving, assigned, not up-to-date, and there are more than enough replicas serving. Go idle.");
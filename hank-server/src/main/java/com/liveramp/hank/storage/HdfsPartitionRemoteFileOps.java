@@ -21,9 +21,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
@@ -31,6 +44,7 @@ import org.slf4j.LoggerFactory;
 
 import com.liveramp.cascading_ext.FileSystemHelper;
 import com.liveramp.cascading_ext.fs.TrashHelper;
+import com.liveramp.hank.storage.incremental.FetchThrottle;
 import com.liveramp.hank.util.IOStreamUtils;
 
 public class HdfsPartitionRemoteFileOps implements PartitionRemoteFileOps {
@@ -38,6 +52,12 @@ public class HdfsPartitionRemoteFileOps implements PartitionRemoteFileOps {
   private static Logger LOG = LoggerFactory.getLogger(HdfsPartitionRemoteFileOps.class);
   private final boolean useTrash;
 
+  public static final long DEFAULT_FETCH_CHUNK_NUM_BYTES = 256L << 20;
+  public static final int DEFAULT_NUM_CONCURRENT_CHUNK_FETCHES = 4;
+
+  private static final long CHUNK_FETCH_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
+  private static final TimeUnit CHUNK_FETCH_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
+
   public static enum CompressionCodec {
     GZIP
   }
@@ -66,9 +86,21 @@ public class HdfsPartitionRemoteFileOps implements PartitionRemoteFileOps {
     }
   }
 
+  // Copies large files to local roots with concurrent range reads
+  public static class ChunkedFactory implements PartitionRemoteFileOpsFactory {
+
+    @Override
+    public PartitionRemoteFileOps getPartitionRemoteFileOps(String remoteDomainRoot, int partitionNumber) throws IOException {
+      return new HdfsPartitionRemoteFileOps(remoteDomainRoot, partitionNumber, null, true,
+          DEFAULT_FETCH_CHUNK_NUM_BYTES, DEFAULT_NUM_CONCURRENT_CHUNK_FETCHES);
+    }
+  }
+
   private final String partitionRoot;
   private final FileSystem fs;
   private final CompressionCodec compressionCodec;
+  private final long fetchChunkNumBytes;
+  private final int numConcurrentChunkFetches;
 
   public HdfsPartitionRemoteFileOps(String remoteDomainRoot,
                                     int partitionNumber) throws IOException {
@@ -92,7 +124,23 @@ public class HdfsPartitionRemoteFileOps implements PartitionRemoteFileOps {
                                     int partitionNumber,
                                     CompressionCodec compressionCodec,
                                     boolean useTrash) throws IOException {
+    this(remoteDomainRoot, partitionNumber, compressionCodec, useTrash, 0, 1);
+  }
+
+  /**
+   * @param fetchChunkNumBytes        Uncompressed files larger than this are copied to local roots in
+   *                                  chunks of this size, read concurrently. 0 disables chunked copies.
+   * @param numConcurrentChunkFetches Number of chunks of a file read concurrently.
+   */
+  public HdfsPartitionRemoteFileOps(String remoteDomainRoot,
+                                    int partitionNumber,
+                                    CompressionCodec compressionCodec,
+                                    boolean useTrash,
+                                    long fetchChunkNumBytes,
+                                    int numConcurrentChunkFetches) throws IOException {
     this.useTrash = useTrash;
+    this.fetchChunkNumBytes = fetchChunkNumBytes;
+    this.numConcurrentChunkFetches = Math.max(1, numConcurrentChunkFetches);
     this.partitionRoot = remoteDomainRoot + "/" + partitionNumber;
     Path partitionRootPath = new Path(partitionRoot);
     this.fs = FileSystemHelper.getFileSystemForPath(remoteDomainRoot);
@@ -139,19 +187,153 @@ public class HdfsPartitionRemoteFileOps implements PartitionRemoteFileOps {
     return fs.exists(new Path(getRemoteAbsolutePath(remoteRelativePath)));
   }
 
+  // Copy the given file, and check the number of bytes copied against the length of the remote file.
+  // Each remote file stream holds a permit of the fetch throttle of the data directory while it is copied.
   @Override
   public void copyToLocalRoot(String remoteSourceRelativePath, String localDestinationRoot) throws IOException {
     Path source = new Path(getRemoteAbsolutePath(remoteSourceRelativePath));
     File destination = new File(localDestinationRoot + "/" + new Path(remoteSourceRelativePath).getName());
+    FetchThrottle fetchThrottle = FetchThrottle.getFetchThrottle(localDestinationRoot);
+    // Length of compressed files is not known until they are read
+    long length = -1;
+    if (compressionCodec == null) {
+      length = fs.getFileStatus(source).getLen();
+      if (fetchChunkNumBytes > 0 && length > fetchChunkNumBytes) {
+        copyChunksToLocalFile(source, length, destination, fetchThrottle);
+        return;
+      }
+    }
     LOG.info("Copying remote file " + source + " to local file " + destination);
-    InputStream inputStream = getInputStream(remoteSourceRelativePath);
-    FileOutputStream fileOutputStream = new FileOutputStream(destination);
+    long numBytesCopied = 0;
+    fetchThrottle.acquire();
     try {
-      IOStreamUtils.copy(inputStream, fileOutputStream);
-      fileOutputStream.flush();
+      InputStream inputStream = getInputStream(remoteSourceRelativePath);
+      OutputStream fileOutputStream = null;
+      try {
+        fileOutputStream = fetchThrottle.getThrottledOutputStream(new FileOutputStream(destination));
+        byte[] buffer = new byte[IOStreamUtils.DEFAULT_BUFFER_SIZE];
+        int numBytesRead;
+        while ((numBytesRead = inputStream.read(buffer)) != -1) {
+          fetchThrottle.acquireFetchedBytes(numBytesRead);
+          fileOutputStream.write(buffer, 0, numBytesRead);
+          numBytesCopied += numBytesRead;
+        }
+        fileOutputStream.flush();
+      } finally {
+        inputStream.close();
+        if (fileOutputStream != null) {
+          fileOutputStream.close();
+        }
+      }
     } finally {
-      inputStream.close();
-      fileOutputStream.close();
+      fetchThrottle.release();
+    }
+    if (length >= 0 && numBytesCopied != length) {
+      throw new IOException("Copied " + numBytesCopied + " bytes from remote file " + source
+          + " of length " + length + " to local file " + destination);
+    }
+    LOG.info("Copied " + numBytesCopied + " bytes from remote file " + source + " to local file " + destination);
+  }
+
+  // Copy ranges of the given file concurrently into a local file of the same length
+  private void copyChunksToLocalFile(final Path source,
+                                     long length,
+                                     File destination,
+                                     final FetchThrottle fetchThrottle) throws IOException {
+    int numChunks = (int) ((length + fetchChunkNumBytes - 1) / fetchChunkNumBytes);
+    LOG.info("Copying remote file " + source + " to local file " + destination + " in " + numChunks + " chunks");
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(numChunks, numConcurrentChunkFetches),
+        new ThreadFactory() {
+          private int threadId = 0;
+
+          @Override
+          public synchronized Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "Chunk Fetcher " + source.getName() + " #" + threadId++);
+          }
+        });
+    RandomAccessFile output = new RandomAccessFile(destination, "rw");
+    try {
+      output.setLength(length);
+      final FileChannel outputChannel = output.getChannel();
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numChunks; ++i) {
+        final long offset = i * fetchChunkNumBytes;
+        final long chunkLength = Math.min(fetchChunkNumBytes, length - offset);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            copyChunk(source, offset, chunkLength, outputChannel, fetchThrottle);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while copying remote file " + source, e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Failed to copy remote file " + source, e.getCause());
+        }
+      }
+      LOG.info("Copied " + length + " bytes from remote file " + source + " to local file " + destination);
+    } finally {
+      executor.shutdownNow();
+      // Chunk fetchers must stop writing before the local file is closed
+      boolean interrupted = false;
+      while (true) {
+        try {
+          if (executor.awaitTermination(CHUNK_FETCH_EXECUTOR_AWAIT_TERMINATION_VALUE,
+              CHUNK_FETCH_EXECUTOR_AWAIT_TERMINATION_UNIT)) {
+            break;
+          }
+          LOG.info("Waiting for termination of chunk fetchers of remote file " + source);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      output.close();
+    }
+  }
+
+  // Copy a range of the given file while holding a permit of the fetch throttle
+  private void copyChunk(Path source,
+                         long offset,
+                         long length,
+                         FileChannel output,
+                         FetchThrottle fetchThrottle) throws IOException {
+    byte[] buffer = new byte[IOStreamUtils.DEFAULT_BUFFER_SIZE];
+    fetchThrottle.acquire();
+    FSDataInputStream input = null;
+    try {
+      input = fs.open(source);
+      input.seek(offset);
+      long position = offset;
+      long end = offset + length;
+      while (position < end) {
+        int numBytesRead = input.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+        if (numBytesRead < 0) {
+          throw new IOException("Unexpected end of remote file " + source + " at offset " + position
+              + " while copying range ending at " + end);
+        }
+        fetchThrottle.acquireFetchedBytes(numBytesRead);
+        fetchThrottle.acquireWrittenBytes(numBytesRead);
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, numBytesRead);
+        while (bytes.hasRemaining()) {
+          position += output.write(bytes, position);
+        }
+      }
+    } finally {
+      if (input != null) {
+        input.close();
+      }
+      fetchThrottle.release();
     }
   }
 
@@ -0,0 +1,59 @@
+package com.liveramp.hank.compression.cueball;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestArrayCueballCompressionCodecs extends BaseTestCase {
+  private static final List<byte[]> TESTCASES = Arrays.asList(
+      new byte[]{},
+      new byte[]{0, 1, 2, 3, 4, 5, 6},
+      repetitiveBytes(16 * 1024),
+      randomBytes(32 * 1024),
+      repetitiveBytes(128 * 1024)
+  );
+
+  private static byte[] repetitiveBytes(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (i % 37);
+    }
+    return bytes;
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testSnappy() throws Exception {
+    doTestRoundTrip(new SnappyCueballCompressionCodec());
+  }
+
+  @Test
+  public void testLz4() throws Exception {
+    doTestRoundTrip(new Lz4CueballCompressionCodec());
+  }
+
+  private void doTestRoundTrip(CueballCompressionCodec codec) {
+    for (byte[] testcase : TESTCASES) {
+      // Compress and decompress at an offset, the way Cueball readers share a single buffer
+      byte[] compressedBytes = new byte[3 + codec.getMaxCompressBufferSize(testcase.length)];
+      int compressedLength = codec.compress(testcase, 0, testcase.length, compressedBytes, 3);
+
+      byte[] decompressedBytes = new byte[5 + testcase.length + 1];
+      int decompressedLength = codec.decompress(compressedBytes, 3, compressedLength, decompressedBytes, 5);
+      assertEquals(testcase.length, decompressedLength);
+
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompressedBytes, 5, decompressedLength));
+    }
+  }
+}
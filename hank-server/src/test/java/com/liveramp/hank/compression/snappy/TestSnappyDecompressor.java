@@ -0,0 +1,104 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.compression.snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestSnappyDecompressor extends BaseTestCase {
+
+  // Larger than the 32KB chunks written by SnappyOutputStream
+  private static final int MULTI_CHUNK_NUM_BYTES = 100 * 1024;
+
+  @Test
+  public void testMultipleChunks() throws IOException {
+    byte[] bytes = testBytes(MULTI_CHUNK_NUM_BYTES);
+    byte[] compressedBytes = compress(bytes);
+
+    // Decompress after existing data of the output stream
+    UnsafeByteArrayOutputStream outputStream = new UnsafeByteArrayOutputStream();
+    outputStream.write(new byte[]{1, 2, 3});
+    new SnappyDecompressor().decompressBlock(compressedBytes, 0, compressedBytes.length, outputStream);
+    assertEquals(3 + bytes.length, outputStream.count());
+    assertEquals(ByteBuffer.wrap(bytes), ByteBuffer.wrap(outputStream.array(), 3, bytes.length));
+  }
+
+  @Test
+  public void testConcatenatedStreams() throws IOException {
+    byte[] bytes1 = testBytes(MULTI_CHUNK_NUM_BYTES);
+    byte[] bytes2 = testBytes(1000);
+    byte[] compressedBytes1 = compress(bytes1);
+    byte[] compressedBytes2 = compress(bytes2);
+
+    // Decompress at an offset of the compressed buffer
+    ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+    compressedBytes.write(new byte[]{4, 5});
+    compressedBytes.write(compressedBytes1);
+    compressedBytes.write(compressedBytes2);
+    byte[] buffer = compressedBytes.toByteArray();
+
+    // Output streams that do not expose their array are supported
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new SnappyDecompressor().decompressBlock(buffer, 2, buffer.length - 2, outputStream);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(bytes1);
+    expected.write(bytes2);
+    assertEquals(ByteBuffer.wrap(expected.toByteArray()), ByteBuffer.wrap(outputStream.toByteArray()));
+  }
+
+  @Test
+  public void testInvalidUncompressedLength() throws IOException {
+    // Raw block claiming 1GB of uncompressed data, followed by a single literal byte
+    byte[] block = new byte[]{(byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, 0x04, 0x00, 'a'};
+    try {
+      new RawSnappyDecompressor().decompressBlock(block, 0, block.length, new UnsafeByteArrayOutputStream());
+      fail("Should fail");
+    } catch (IOException e) {
+      // Good
+    }
+  }
+
+  private static byte[] testBytes(int length) {
+    // Half repetitive, half random
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    for (int i = 0; i < length / 2; ++i) {
+      bytes[i] = (byte)(i % 37);
+    }
+    return bytes;
+  }
+
+  private static byte[] compress(byte[] bytes) throws IOException {
+    ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+    OutputStream outputStream = new SnappyCompressor().getOutputStream(compressedBytes);
+    outputStream.write(bytes);
+    outputStream.close();
+    return compressedBytes.toByteArray();
+  }
+}
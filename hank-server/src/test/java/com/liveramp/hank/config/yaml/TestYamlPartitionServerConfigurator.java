@@ -23,10 +23,14 @@ import java.util.Map;
 import org.junit.Test;
 
 import com.liveramp.hank.coordinator.mock.MockCoordinator;
+import com.liveramp.hank.storage.OffHeapValueCache;
 import com.liveramp.hank.test.BaseTestCase;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class TestYamlPartitionServerConfigurator extends BaseTestCase {
   private final String configPath = localTmpDir + "/config.yml";
@@ -50,6 +54,8 @@ public class TestYamlPartitionServerConfigurator extends BaseTestCase {
     pw.println("  update_daemon:");
     pw.println("    num_concurrent_updates: 5");
     pw.println("    max_concurrent_updates_per_data_directory: 2");
+    pw.println("    max_concurrent_fetches_per_data_directory: 3");
+    pw.println("    max_fetch_bytes_per_second: 1000000");
     pw.println("  environment_flags:");
     pw.println("    - PATH");
     pw.println("coordinator:");
@@ -64,10 +70,16 @@ public class TestYamlPartitionServerConfigurator extends BaseTestCase {
     assertEquals("rg1", conf.getRingGroupName());
     assertEquals(5, conf.getNumConcurrentUpdates());
     assertEquals(2, conf.getMaxConcurrentUpdatesPerDataDirectory());
+    assertEquals(3, conf.getMaxConcurrentFetchesPerDataDirectory());
+    assertEquals(1, conf.getNumConcurrentFetchesPerPartition());
+    assertEquals(1000000, conf.getMaxFetchBytesPerSecond());
+    assertEquals(0, conf.getMaxWriteBytesPerSecond());
     assertEquals(5, conf.getNumConcurrentQueries());
     assertEquals(1024, conf.getBufferReuseMaxSize());
     assertEquals(1000000, conf.getCacheNumBytesCapacity());
     assertEquals(2000, conf.getCacheNumItemsCapacity());
+    assertEquals(0, conf.getOffHeapCacheNumBytesCapacity());
+    assertNull(conf.getOffHeapValueCache());
 
     Map<String, String> flags = conf.getEnvironmentFlags();
     assertNotEquals("", flags.get("PATH"));
@@ -75,5 +87,44 @@ public class TestYamlPartitionServerConfigurator extends BaseTestCase {
 
   }
 
+  @Test
+  public void testOffHeapValueCache() throws Exception {
+    PrintWriter pw = new PrintWriter(new FileWriter(configPath));
+    pw.println("partition_server:");
+    pw.println("  local_data_dirs: ");
+    pw.println("    - /path/to/some/data ");
+    pw.println("  service_port: 1");
+    pw.println("  ring_group_name: rg1");
+    pw.println("  partition_server_daemon:");
+    pw.println("    num_concurrent_queries: 5");
+    pw.println("    num_concurrent_get_bulk_tasks: 1");
+    pw.println("    get_bulk_task_size: 2");
+    pw.println("    get_timer_aggregator_window: 1000");
+    pw.println("    buffer_reuse_max_size: 1024");
+    pw.println("    cache_num_bytes_capacity: 1000000");
+    pw.println("    cache_num_items_capacity: 2000");
+    pw.println("    off_heap_cache_num_bytes_capacity: 4194304");
+    pw.println("    off_heap_cache_num_items_capacity: 1000");
+    pw.println("  update_daemon:");
+    pw.println("    num_concurrent_updates: 5");
+    pw.println("    max_concurrent_updates_per_data_directory: 2");
+    pw.println("coordinator:");
+    pw.println("  factory: " + MockCoordinator.Factory.class.getName());
+    pw.println("  options:");
+    pw.println("    blah: blah");
+    pw.close();
+
+    YamlPartitionServerConfigurator conf = new YamlPartitionServerConfigurator(configPath);
+    assertEquals(4194304, conf.getOffHeapCacheNumBytesCapacity());
+    assertEquals(1000, conf.getOffHeapCacheNumItemsCapacity());
+
+    OffHeapValueCache offHeapValueCache = conf.getOffHeapValueCache();
+    assertNotNull(offHeapValueCache);
+    assertEquals(4194304, offHeapValueCache.getMaxNumManagedBytes());
+    assertEquals(1000, offHeapValueCache.getMaxNumItems());
+    // The same cache is provided to every handler of the partition server
+    assertSame(offHeapValueCache, conf.getOffHeapValueCache());
+  }
+
 
 }
@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.hadoop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.StorageEngine;
+import com.liveramp.hank.storage.mock.MockStorageEngine;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestKeyAndPartitionWritableComparable extends BaseTestCase {
+
+  // Comparable keys are reversed keys, so that they do not sort like keys
+  private static final StorageEngine STORAGE_ENGINE = new MockStorageEngine() {
+    @Override
+    public ByteBuffer getComparableKey(ByteBuffer key) {
+      byte[] result = new byte[key.remaining()];
+      for (int i = 0; i < result.length; ++i) {
+        result[i] = key.get(key.limit() - 1 - i);
+      }
+      return ByteBuffer.wrap(result);
+    }
+  };
+
+  @Test
+  public void testSerialization() throws IOException {
+    KeyAndPartitionWritableComparable original = getKeyAndPartitionWritableComparable(new byte[]{1, 2, 3});
+    DataOutputBuffer output = new DataOutputBuffer();
+    original.write(output);
+
+    DataInputBuffer input = new DataInputBuffer();
+    input.reset(output.getData(), output.getLength());
+    KeyAndPartitionWritableComparable copy = new KeyAndPartitionWritableComparable();
+    copy.readFields(input);
+
+    assertEquals(original.getPartition(), copy.getPartition());
+    assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), copy.getKeyAndPartitionWritable().getKey());
+    assertEquals(0, original.compareTo(copy));
+  }
+
+  @Test
+  public void testRawComparator() throws IOException {
+    assertTrue(WritableComparator.get(KeyAndPartitionWritableComparable.class)
+        instanceof KeyAndPartitionWritableComparable.Comparator);
+
+    Random random = new Random(0);
+    List<KeyAndPartitionWritableComparable> keys = new ArrayList<KeyAndPartitionWritableComparable>();
+    List<byte[]> serializedKeys = new ArrayList<byte[]>();
+    for (int i = 0; i < 100; ++i) {
+      byte[] key = new byte[1 + random.nextInt(8)];
+      random.nextBytes(key);
+      KeyAndPartitionWritableComparable keyAndPartitionWritableComparable = getKeyAndPartitionWritableComparable(key);
+      keys.add(keyAndPartitionWritableComparable);
+      serializedKeys.add(serialize(keyAndPartitionWritableComparable));
+    }
+
+    KeyAndPartitionWritableComparable.Comparator comparator = new KeyAndPartitionWritableComparable.Comparator();
+    for (int i = 0; i < keys.size(); ++i) {
+      for (int j = 0; j < keys.size(); ++j) {
+        byte[] serialized1 = serializedKeys.get(i);
+        byte[] serialized2 = serializedKeys.get(j);
+        // Serialized instances do not necessarily start at the beginning of the buffer
+        byte[] buffer = new byte[serialized1.length + serialized2.length + 1];
+        System.arraycopy(serialized1, 0, buffer, 1, serialized1.length);
+        System.arraycopy(serialized2, 0, buffer, 1 + serialized1.length, serialized2.length);
+        assertEquals(Integer.signum(keys.get(i).compareTo(keys.get(j))),
+            Integer.signum(comparator.compare(buffer, 1, serialized1.length,
+                buffer, 1 + serialized1.length, serialized2.length)));
+      }
+    }
+  }
+
+  private static KeyAndPartitionWritableComparable getKeyAndPartitionWritableComparable(byte[] key) {
+    return new KeyAndPartitionWritableComparable(STORAGE_ENGINE, new Murmur64Partitioner(), 4, new BytesWritable(key));
+  }
+
+  private static byte[] serialize(KeyAndPartitionWritableComparable keyAndPartitionWritableComparable) throws IOException {
+    DataOutputBuffer output = new DataOutputBuffer();
+    keyAndPartitionWritableComparable.write(output);
+    byte[] result = new byte[output.getLength()];
+    System.arraycopy(output.getData(), 0, result, 0, output.getLength());
+    return result;
+  }
+}
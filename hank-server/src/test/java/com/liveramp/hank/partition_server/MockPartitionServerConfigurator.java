@@ -24,6 +24,7 @@ import com.google.common.collect.Maps;
 import com.liveramp.hank.config.PartitionServerConfigurator;
 import com.liveramp.hank.config.ReaderConfigurator;
 import com.liveramp.hank.coordinator.Coordinator;
+import com.liveramp.hank.storage.OffHeapValueCache;
 
 public class MockPartitionServerConfigurator implements PartitionServerConfigurator {
 
@@ -78,6 +79,11 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
     return 1;
   }
 
+  @Override
+  public int getMaxConcurrentGetBulkRequests() {
+    return 0;
+  }
+
   @Override
   public int getGetTimerAggregatorWindow() {
     return 10;
@@ -88,6 +94,11 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
     return 0;
   }
 
+  @Override
+  public boolean getOnlineUpdates() {
+    return false;
+  }
+
   @Override
   public Map<String, String> getEnvironmentFlags() {
     return Maps.newHashMap();
@@ -109,7 +120,22 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
   }
 
   @Override
-  public ReaderConfigurator getReaderConfigurator(int numTotalPartitions) {
+  public long getOffHeapCacheNumBytesCapacity() {
+    return 0;
+  }
+
+  @Override
+  public long getOffHeapCacheNumItemsCapacity() {
+    return 0;
+  }
+
+  @Override
+  public OffHeapValueCache getOffHeapValueCache() {
+    return null;
+  }
+
+  @Override
+  public ReaderConfigurator getReaderConfigurator(int numTotalPartitions, OffHeapValueCache offHeapValueCache) {
     return null;
   }
 
@@ -122,4 +148,24 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
   public int getMaxConcurrentUpdatesPerDataDirectory() {
     return 10;
   }
+
+  @Override
+  public int getMaxConcurrentFetchesPerDataDirectory() {
+    return 0;
+  }
+
+  @Override
+  public int getNumConcurrentFetchesPerPartition() {
+    return 1;
+  }
+
+  @Override
+  public long getMaxFetchBytesPerSecond() {
+    return 0;
+  }
+
+  @Override
+  public long getMaxWriteBytesPerSecond() {
+    return 0;
+  }
 }
@@ -0,0 +1,106 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAdaptiveConcurrencyLimit extends BaseTestCase {
+
+  @Test
+  public void testIncreaseWhenThroughputImproves() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("/data", 8);
+    assertEquals(8, limit.getLimit());
+    // Starts by decreasing
+    limit.adjust(100);
+    assertEquals(7, limit.getLimit());
+    limit.adjust(100);
+    assertEquals(6, limit.getLimit());
+    // Degradation reverses direction
+    limit.adjust(50);
+    assertEquals(7, limit.getLimit());
+    // Keeps increasing while throughput improves
+    limit.adjust(60);
+    assertEquals(8, limit.getLimit());
+  }
+
+  @Test
+  public void testBackOffWhenThroughputDrops() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("/data", 8);
+    limit.adjust(100);
+    limit.adjust(50);
+    assertEquals(8, limit.getLimit());
+    // Increasing to the maximum bounced off it, now decreasing
+    limit.adjust(60);
+    assertEquals(8, limit.getLimit());
+    limit.adjust(60);
+    assertEquals(7, limit.getLimit());
+    // A small degradation is tolerated
+    limit.adjust(58);
+    assertEquals(6, limit.getLimit());
+    // Throughput drops, back to a larger limit
+    limit.adjust(40);
+    assertEquals(7, limit.getLimit());
+    // Throughput drops again, back off
+    limit.adjust(30);
+    assertEquals(6, limit.getLimit());
+    limit.adjust(30);
+    assertEquals(5, limit.getLimit());
+  }
+
+  @Test
+  public void testBounds() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("/data", 2);
+    limit.adjust(100);
+    assertEquals(1, limit.getLimit());
+    // Clamped to the minimum, then bounces off it
+    limit.adjust(100);
+    assertEquals(1, limit.getLimit());
+    limit.adjust(100);
+    assertEquals(2, limit.getLimit());
+    // Clamped to the maximum, then bounces off it
+    limit.adjust(100);
+    assertEquals(2, limit.getLimit());
+    limit.adjust(100);
+    assertEquals(1, limit.getLimit());
+
+    // The maximum is at least 1
+    AdaptiveConcurrencyLimit minimalLimit = new AdaptiveConcurrencyLimit("/data", 0);
+    assertEquals(1, minimalLimit.getLimit());
+    minimalLimit.adjust(100);
+    minimalLimit.adjust(10);
+    assertEquals(1, minimalLimit.getLimit());
+  }
+
+  @Test
+  public void testUnmeasuredUpdates() throws InterruptedException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("/data", 2);
+    // Updates that did not transfer anything do not move the limit
+    for (int i = 0; i < 10; ++i) {
+      limit.acquire();
+      limit.acquire();
+      limit.release(0);
+      limit.release(0);
+    }
+    limit.acquire();
+    limit.abort();
+    assertEquals(2, limit.getLimit());
+  }
+}
@@ -1,5 +1,7 @@
 package com.liveramp.hank.partition_server;
 
+import com.liveramp.hank.generated.HankException;
+import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.test.BaseTestCase;
 import com.liveramp.hank.test.coordinator.MockHostDomain;
 import com.liveramp.hank.test.coordinator.MockHostDomainPartition;
@@ -9,7 +11,15 @@ import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.mock.MockReader;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
 
 public class TestDomainAccessor extends BaseTestCase {
   @Test
@@ -29,4 +39,53 @@ public class TestDomainAccessor extends BaseTestCase {
     drs.get(key, new ReaderResult());
     drs.get(nullKey, new ReaderResult());
   }
+
+  @Test
+  public void testGetWhileShuttingDown() throws Exception {
+    final CountDownLatch readerEntered = new CountDownLatch(1);
+    final CountDownLatch readerReleased = new CountDownLatch(1);
+    final ByteBuffer key = ByteBuffer.wrap("key".getBytes());
+
+    // The first get blocks in the reader until released
+    final PartitionAccessor partitionAccessor = new PartitionAccessor(new MockHostDomainPartition(0, 1),
+        new MockReader(null, 1, "v".getBytes(), null) {
+          @Override
+          public void get(ByteBuffer key, ReaderResult result) throws IOException {
+            readerEntered.countDown();
+            try {
+              readerReleased.await();
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+            super.get(key, result);
+          }
+        });
+    final DomainAccessor drs = new DomainAccessor(new MockHostDomain(new MockDomain("domain")),
+        new PartitionAccessor[]{partitionAccessor}, new MapPartitioner(key, 0), 0);
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Future<HankResponse> inFlightGet = executor.submit(() -> drs.get(key, new ReaderResult()));
+      readerEntered.await();
+
+      // Shut the accessor down in place, without a replacement, as when a domain is dropped
+      Future<?> shutDown = executor.submit(partitionAccessor::shutDown);
+      while (partitionAccessor.acquire()) {
+        partitionAccessor.release();
+        Thread.sleep(1);
+      }
+
+      // Gets do not wait for a replacement that will never come
+      Future<HankResponse> get = executor.submit(() -> drs.get(key, new ReaderResult()));
+      assertEquals(HankResponse.xception(HankException.wrong_host(true)), get.get(10, TimeUnit.SECONDS));
+
+      // The in-flight get completes before the reader is closed
+      readerReleased.countDown();
+      assertEquals(HankResponse.value(ByteBuffer.wrap("v".getBytes())), inFlightGet.get(10, TimeUnit.SECONDS));
+      shutDown.get(10, TimeUnit.SECONDS);
+    } finally {
+      readerReleased.countDown();
+      executor.shutdownNow();
+    }
+  }
 }
@@ -1,6 +1,9 @@
 package com.liveramp.hank.partition_server;
 
+import java.util.Arrays;
+
 import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.LogLinearHistogram;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -70,6 +73,81 @@ public class TestDoublePopulationStatisticsAggregator extends BaseTestCase {
     assertEquals(5.8, DoublePopulationStatisticsAggregator.getSortedPopulationDecile(p, 9), .0001);
   }
 
+  @Test
+  public void testToStringAndParse() {
+    DoublePopulationStatisticsAggregator original =
+        new DoublePopulationStatisticsAggregator(1.0, 10.0, 4, 16.0, new double[]{1, 2, 3, 10});
+    String[] tokens = ("x " + DoublePopulationStatisticsAggregator.toString(original)).split(" ");
+    DoublePopulationStatisticsAggregator parsed = DoublePopulationStatisticsAggregator.parse(tokens, 1);
+    assertEquals(DoublePopulationStatisticsAggregator.toString(original),
+        DoublePopulationStatisticsAggregator.toString(parsed));
+    assertEquals(4.0, parsed.getMean(), .0001);
+    assertEquals(2.0, parsed.getPercentile(50), .1);
+    assertEquals(10.0, parsed.getPercentile(100), .0001);
+  }
+
+  @Test
+  public void testToHistogramStringAndParse() {
+    DoublePopulationStatisticsAggregator original =
+        new DoublePopulationStatisticsAggregator(1.0, 10.0, 4, 16.0, new double[]{1, 2, 3, 10});
+    String[] tokens = DoublePopulationStatisticsAggregator.toString(original).split(" ");
+    DoublePopulationStatisticsAggregator parsed = DoublePopulationStatisticsAggregator.parse(tokens, 0,
+        DoublePopulationStatisticsAggregator.toHistogramString(original));
+    assertEquals(DoublePopulationStatisticsAggregator.toHistogramString(original),
+        DoublePopulationStatisticsAggregator.toHistogramString(parsed));
+    assertEquals(4.0, parsed.getMean(), .0001);
+    assertEquals(3.0, parsed.getPercentile(75), .1);
+
+    DoublePopulationStatisticsAggregator empty = new DoublePopulationStatisticsAggregator();
+    assertEquals("", DoublePopulationStatisticsAggregator.toHistogramString(empty));
+    parsed = DoublePopulationStatisticsAggregator.parse(
+        DoublePopulationStatisticsAggregator.toString(empty).split(" "), 0, "");
+    assertEquals(0.0, parsed.getPercentile(50), .0001);
+  }
+
+  @Test
+  public void testToStringWritesSample() {
+    DoublePopulationStatisticsAggregator aggregator = new DoublePopulationStatisticsAggregator();
+    LogLinearHistogram histogram = new LogLinearHistogram();
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.record(DoublePopulationStatisticsAggregator.toHistogramValue(i));
+    }
+    aggregator.aggregate(1, 1000, 1000, 500500, histogram);
+    // Older versions parse every value after the first four as a double
+    String[] tokens = DoublePopulationStatisticsAggregator.toString(aggregator).split(" ");
+    assertEquals(4 + DoublePopulationStatisticsAggregator.NUM_SAMPLE_VALUES, tokens.length);
+    double[] sample = new double[tokens.length - 4];
+    for (int i = 0; i < sample.length; ++i) {
+      sample[i] = Double.parseDouble(tokens[4 + i]);
+    }
+    DoublePopulationStatisticsAggregator parsed =
+        new DoublePopulationStatisticsAggregator(1, 1000, 1000, 500500, sample);
+    assertEquals(500, parsed.getPercentile(50), 20);
+    assertEquals(900, parsed.getPercentile(90), 40);
+  }
+
+  @Test
+  public void testParseSample() {
+    String[] tokens = "1.0 10.0 4 16.0 1.0 2.0 3.0 10.0".split(" ");
+    DoublePopulationStatisticsAggregator parsed = DoublePopulationStatisticsAggregator.parse(tokens, 0);
+    assertEquals(1.0, parsed.getMinimum(), .0001);
+    assertEquals(10.0, parsed.getMaximum(), .0001);
+    assertEquals(3.0, parsed.getPercentile(75), .1);
+  }
+
+  @Test
+  public void testCombine() {
+    DoublePopulationStatisticsAggregator a =
+        new DoublePopulationStatisticsAggregator(1.0, 2.0, 2, 3.0, new double[]{1, 2});
+    DoublePopulationStatisticsAggregator b =
+        new DoublePopulationStatisticsAggregator(3.0, 4.0, 2, 7.0, new double[]{3, 4});
+    DoublePopulationStatisticsAggregator combined = DoublePopulationStatisticsAggregator.combine(Arrays.asList(a, b));
+    assertEquals(1.0, combined.getMinimum(), .0001);
+    assertEquals(4.0, combined.getMaximum(), .0001);
+    assertEquals(2.5, combined.getMean(), .0001);
+    assertEquals(2.0, combined.getPercentile(50), .1);
+  }
+
   @Test
   public void testInterpolatedDecile() {
     double[] p = new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
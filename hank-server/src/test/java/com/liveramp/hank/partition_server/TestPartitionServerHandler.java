@@ -19,14 +19,21 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.Sets;
 import org.apache.thrift.TException;
 import org.junit.Test;
 
+import com.liveramp.commons.test.WaitUntil;
 import com.liveramp.hank.config.PartitionServerConfigurator;
 import com.liveramp.hank.config.ReaderConfigurator;
 import com.liveramp.hank.coordinator.Coordinator;
@@ -46,6 +53,7 @@ import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.mock.MockReader;
 import com.liveramp.hank.storage.mock.MockStorageEngine;
 import com.liveramp.hank.test.BaseTestCase;
@@ -57,6 +65,10 @@ import com.liveramp.hank.test.coordinator.MockRingGroup;
 import com.liveramp.hank.test.partitioner.MapPartitioner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class TestPartitionServerHandler extends BaseTestCase {
@@ -67,6 +79,9 @@ public class TestPartitionServerHandler extends BaseTestCase {
   private static final ByteBuffer K4 = bb(4);
   private static final ByteBuffer K5 = bb(5);
   private static final byte[] V1 = new byte[]{9};
+  private static final int NUM_CONCURRENT_GETS = 4;
+  // Gets only wait for their own reads, far below the time the blocked GET BULK request is held
+  private static final long MAX_GET_LATENCY_MS = 1000;
   private static final Host mockHostConfig = new MockHost(
       new PartitionServerAddress("localhost", 12345)) {
 
@@ -140,9 +155,337 @@ public class TestPartitionServerHandler extends BaseTestCase {
     assertEquals(HankBulkResponse.responses(responses2), handler.getBulk(0, keys2));
   }
 
+  @Test
+  public void testReloadPartitions() throws Exception {
+    final MockHostDomainPartition partition0 = new MockHostDomainPartition(0, 0);
+    final MockHostDomainPartition partition4 = new MockHostDomainPartition(4, 0);
+    final Set<HostDomainPartition> partitions = new HashSet<HostDomainPartition>(Arrays.asList(partition0, partition4));
+    Host host = new MockHost(new PartitionServerAddress("localhost", 12345)) {
+      @Override
+      public HostDomain getHostDomain(Domain domain) {
+        return new MockHostDomain(domain) {
+          @Override
+          public Set<HostDomainPartition> getPartitions() throws IOException {
+            return partitions;
+          }
+        };
+      }
+    };
+    // Readers return their version number as value
+    final List<Reader> closedReaders = Collections.synchronizedList(new ArrayList<Reader>());
+    MockStorageEngine storageEngine = new MockStorageEngine() {
+      @Override
+      public Reader getReader(ReaderConfigurator configurator, int partitionNumber, DiskPartitionAssignment assignment)
+          throws IOException {
+        int versionNumber = (partitionNumber == 0 ? partition0 : partition4).getCurrentDomainVersion();
+        return new MockReader(configurator, partitionNumber, new byte[]{(byte)versionNumber}, versionNumber) {
+          @Override
+          public void close() {
+            closedReaders.add(this);
+          }
+        };
+      }
+    };
+    PartitionServerHandler handler = createHandler(host, storageEngine);
+    assertEquals(HankResponse.value(new byte[]{0}), handler.get(0, K1));
+    assertEquals(HankResponse.value(new byte[]{0}), handler.get(0, K5));
+
+    // Update partition 0, only its reader is swapped
+    partition0.setCurrentDomainVersion(1);
+    handler.reloadPartitions();
+    assertEquals(HankResponse.value(new byte[]{1}), handler.get(0, K1));
+    assertEquals(HankResponse.value(new byte[]{0}), handler.get(0, K5));
+    WaitUntil.orDie(() -> closedReaders.size() == 1);
+    assertEquals(0, ((MockReader)closedReaders.get(0)).getPartitionNumber());
+
+    // Unassign partition 4
+    partitions.remove(partition4);
+    handler.reloadPartitions();
+    assertEquals(HankResponse.value(new byte[]{1}), handler.get(0, K1));
+    assertEquals(HankResponse.xception(HankException.wrong_host(true)), handler.get(0, K5));
+    WaitUntil.orDie(() -> closedReaders.size() == 2);
+    assertEquals(4, ((MockReader)closedReaders.get(1)).getPartitionNumber());
+
+    handler.shutDown();
+  }
+
+  @Test
+  public void testReloadPartitionsDoesNotWaitForInFlightRequests() throws Exception {
+    final MockHostDomainPartition partition0 = new MockHostDomainPartition(0, 0);
+    final Set<HostDomainPartition> partitions = new HashSet<HostDomainPartition>(Arrays.asList(partition0));
+    Host host = new MockHost(new PartitionServerAddress("localhost", 12345)) {
+      @Override
+      public HostDomain getHostDomain(Domain domain) {
+        return new MockHostDomain(domain) {
+          @Override
+          public Set<HostDomainPartition> getPartitions() throws IOException {
+            return partitions;
+          }
+        };
+      }
+    };
+    // Readers of version 0 block until released, readers return their version number as value
+    final CountDownLatch readerEntered = new CountDownLatch(1);
+    final CountDownLatch readerReleased = new CountDownLatch(1);
+    final List<Reader> closedReaders = Collections.synchronizedList(new ArrayList<Reader>());
+    MockStorageEngine storageEngine = new MockStorageEngine() {
+      @Override
+      public Reader getReader(ReaderConfigurator configurator, int partitionNumber, DiskPartitionAssignment assignment)
+          throws IOException {
+        final int versionNumber = partition0.getCurrentDomainVersion();
+        return new MockReader(configurator, partitionNumber, new byte[]{(byte)versionNumber}, versionNumber) {
+          @Override
+          public void get(ByteBuffer key, ReaderResult result) throws IOException {
+            if (versionNumber == 0) {
+              readerEntered.countDown();
+              try {
+                readerReleased.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+            super.get(key, result);
+          }
+
+          @Override
+          public void close() {
+            closedReaders.add(this);
+          }
+        };
+      }
+    };
+    final PartitionServerHandler handler = createHandler(host, storageEngine);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<HankResponse> inFlightGet = executor.submit(() -> handler.get(0, K1));
+      readerEntered.await();
+
+      // The reload swaps the reader while a request is using the previous one
+      partition0.setCurrentDomainVersion(1);
+      handler.reloadPartitions();
+      assertEquals(HankResponse.value(new byte[]{1}), handler.get(0, K1));
+      assertTrue(closedReaders.isEmpty());
+
+      // The previous reader is closed once the request has completed
+      readerReleased.countDown();
+      assertEquals(HankResponse.value(new byte[]{0}), inFlightGet.get(10, TimeUnit.SECONDS));
+      WaitUntil.orDie(() -> closedReaders.size() == 1);
+      assertEquals(0, (int)((MockReader)closedReaders.get(0)).getVersionNumber());
+    } finally {
+      readerReleased.countDown();
+      executor.shutdownNow();
+    }
+    handler.shutDown();
+  }
+
+  @Test
+  public void testMaxConcurrentGetBulkRequests() throws Exception {
+    CountDownLatch readerEntered = new CountDownLatch(1);
+    CountDownLatch readerReleased = new CountDownLatch(1);
+    final PartitionServerHandler handler = createHandler(mockHostConfig, getBlockingStorageEngine(readerEntered, readerReleased), 1);
+    final HankBulkResponse tooManyGetBulkRequests =
+        HankBulkResponse.xception(HankException.internal_error("Too many concurrent GET BULK requests"));
+    final HankBulkResponse responsesV1 = HankBulkResponse.responses(Arrays.asList(HankResponse.value(V1)));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // The first request blocks in the reader and holds the only slot
+      Future<HankBulkResponse> blockedGetBulk = executor.submit(() -> handler.getBulk(0, Arrays.asList(K5)));
+      assertTrue(readerEntered.await(10, TimeUnit.SECONDS));
+      assertEquals(tooManyGetBulkRequests, handler.getBulk(0, Arrays.asList(K1)));
+      assertEquals(tooManyGetBulkRequests, handler.getBulk(0, Arrays.asList(K1)));
+
+      readerReleased.countDown();
+      assertEquals(responsesV1, blockedGetBulk.get(10, TimeUnit.SECONDS));
+    } finally {
+      readerReleased.countDown();
+      executor.shutdownNow();
+    }
+
+    // Slots are released by rejected and completed requests
+    assertEquals(responsesV1, handler.getBulk(0, Arrays.asList(K1)));
+
+    // Slots are released by requests that fail with an exception
+    HankBulkResponse failed = handler.getBulk(0, null);
+    assertTrue(failed.is_set_xception());
+    assertFalse(tooManyGetBulkRequests.equals(failed));
+    assertEquals(responsesV1, handler.getBulk(0, Arrays.asList(K1)));
+
+    handler.shutDown();
+  }
+
+  @Test
+  public void testGetBulkDoesNotStarveGets() throws Exception {
+    CountDownLatch readerEntered = new CountDownLatch(1);
+    CountDownLatch readerReleased = new CountDownLatch(1);
+    final PartitionServerHandler handler = createHandler(mockHostConfig, getBlockingStorageEngine(readerEntered, readerReleased), 0);
+
+    // A large request occupies its serving thread and the GET BULK executor
+    final List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    List<HankResponse> expectedResponses = new ArrayList<HankResponse>();
+    for (int i = 0; i < 1000; ++i) {
+      keys.add(K5);
+      expectedResponses.add(HankResponse.value(V1));
+    }
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Serving threads issuing gets while the GET BULK request is running
+    ExecutorService getExecutor = Executors.newFixedThreadPool(NUM_CONCURRENT_GETS);
+    try {
+      Future<HankBulkResponse> getBulk = executor.submit(() -> handler.getBulk(0, keys));
+      assertTrue(readerEntered.await(10, TimeUnit.SECONDS));
+
+      // Gets are served concurrently while the GET BULK request is in progress, without waiting for it
+      List<Future<Long>> maxGetLatenciesMs = new ArrayList<Future<Long>>();
+      for (int i = 0; i < NUM_CONCURRENT_GETS; ++i) {
+        maxGetLatenciesMs.add(getExecutor.submit(() -> {
+          long maxLatencyMs = 0;
+          for (int j = 0; j < 100; ++j) {
+            long startMs = System.currentTimeMillis();
+            assertEquals(HankResponse.value(V1), handler.get(0, K1));
+            maxLatencyMs = Math.max(maxLatencyMs, System.currentTimeMillis() - startMs);
+          }
+          return maxLatencyMs;
+        }));
+      }
+      for (Future<Long> maxGetLatencyMs : maxGetLatenciesMs) {
+        assertTrue(maxGetLatencyMs.get(10, TimeUnit.SECONDS) < MAX_GET_LATENCY_MS);
+      }
+      assertFalse(getBulk.isDone());
+
+      readerReleased.countDown();
+      assertEquals(HankBulkResponse.responses(expectedResponses), getBulk.get(10, TimeUnit.SECONDS));
+    } finally {
+      readerReleased.countDown();
+      executor.shutdownNow();
+      getExecutor.shutdownNow();
+    }
+
+    handler.shutDown();
+  }
+
+  @Test
+  public void testGetBulkValueBuffers() throws Exception {
+    // Values of mixed sizes around the largest size packed into slabs, read in order by a single task
+    int[] valueSizes = new int[]{1, 16 << 10, (16 << 10) + 1, 100, 64 << 10, 2};
+    List<ByteBuffer> readerBuffers = new ArrayList<ByteBuffer>();
+    List<HankResponse> responses = getBulkValues(valueSizes, valueSizes, readerBuffers);
+
+    // Values up to 16KB are packed into the same slab, which is sized to fit them
+    byte[] slab = responses.get(0).buffer_for_value().array();
+    assertEquals(1 + (16 << 10) + 100 + 2, slab.length);
+    assertSame(slab, responses.get(1).buffer_for_value().array());
+    assertSame(slab, responses.get(3).buffer_for_value().array());
+    assertSame(slab, responses.get(5).buffer_for_value().array());
+    assertNotSame(readerBuffers.get(0).array(), slab);
+
+    // Larger values are served from the buffer they were read into
+    assertSame(readerBuffers.get(2).array(), responses.get(2).buffer_for_value().array());
+    assertSame(readerBuffers.get(4).array(), responses.get(4).buffer_for_value().array());
+    assertNotSame(readerBuffers.get(2).array(), readerBuffers.get(4).array());
+  }
+
+  @Test
+  public void testGetBulkValueSlabSizes() throws Exception {
+    int[] valueSizes = new int[]{16 << 10, 16 << 10, 16 << 10, 16 << 10, 16 << 10, 1};
+    List<HankResponse> responses = getBulkValues(valueSizes, valueSizes, new ArrayList<ByteBuffer>());
+
+    // Slabs hold up to 64KB
+    byte[] firstSlab = responses.get(0).buffer_for_value().array();
+    assertEquals(64 << 10, firstSlab.length);
+    for (int i = 1; i < 4; ++i) {
+      assertSame(firstSlab, responses.get(i).buffer_for_value().array());
+    }
+    byte[] secondSlab = responses.get(4).buffer_for_value().array();
+    assertEquals((16 << 10) + 1, secondSlab.length);
+    assertSame(secondSlab, responses.get(5).buffer_for_value().array());
+  }
+
+  @Test
+  public void testGetBulkDeepCopiesLargeValuesInOversizedBuffers() throws Exception {
+    int[] valueSizes = new int[]{20 << 10, 60 << 10, 10};
+    int[] bufferSizes = new int[]{64 << 10, 64 << 10, 10};
+    List<ByteBuffer> readerBuffers = new ArrayList<ByteBuffer>();
+    List<HankResponse> responses = getBulkValues(valueSizes, bufferSizes, readerBuffers);
+
+    // A large value using less than 75% of its buffer is copied, and the buffer is reused
+    assertEquals(20 << 10, responses.get(0).buffer_for_value().array().length);
+    assertNotSame(readerBuffers.get(0).array(), responses.get(0).buffer_for_value().array());
+    assertSame(readerBuffers.get(0).array(), readerBuffers.get(1).array());
+
+    // A large value using most of its buffer is served from it
+    assertSame(readerBuffers.get(1).array(), responses.get(1).buffer_for_value().array());
+    assertEquals(10, responses.get(2).buffer_for_value().array().length);
+  }
+
+  // Perform a GET BULK in a single task, the value of index i has size valueSizes[i] and is read into a buffer
+  // of at least bufferSizes[i] bytes. Buffers used by reads are added to readerBuffers.
+  private List<HankResponse> getBulkValues(final int[] valueSizes,
+                                           final int[] bufferSizes,
+                                           final List<ByteBuffer> readerBuffers) throws Exception {
+    MockStorageEngine storageEngine = new MockStorageEngine() {
+      @Override
+      public Reader getReader(ReaderConfigurator configurator, int partitionNumber, DiskPartitionAssignment assignment)
+          throws IOException {
+        return new MockReader(configurator, partitionNumber, V1, 0) {
+          @Override
+          public void get(ByteBuffer key, ReaderResult result) throws IOException {
+            int valueIndex = readerBuffers.size();
+            result.requiresBufferSize(bufferSizes[valueIndex]);
+            result.getBuffer().clear();
+            result.getBuffer().put(getValue(valueIndex, valueSizes[valueIndex]));
+            result.getBuffer().flip();
+            result.found();
+            readerBuffers.add(result.getBuffer());
+          }
+        };
+      }
+    };
+    PartitionServerHandler handler = createHandler(mockHostConfig, storageEngine, 0, valueSizes.length);
+
+    List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    List<HankResponse> expectedResponses = new ArrayList<HankResponse>();
+    for (int i = 0; i < valueSizes.length; ++i) {
+      keys.add(K1);
+      expectedResponses.add(HankResponse.value(getValue(i, valueSizes[i])));
+    }
+    HankBulkResponse bulkResponse = handler.getBulk(0, keys);
+    assertEquals(HankBulkResponse.responses(expectedResponses), bulkResponse);
+    handler.shutDown();
+    return bulkResponse.get_responses();
+  }
+
+  private static byte[] getValue(int valueIndex, int valueSize) {
+    byte[] value = new byte[valueSize];
+    Arrays.fill(value, (byte)valueIndex);
+    return value;
+  }
+
+  // Readers block on key K5 until released
+  private static MockStorageEngine getBlockingStorageEngine(final CountDownLatch readerEntered,
+                                                            final CountDownLatch readerReleased) {
+    return new MockStorageEngine() {
+      @Override
+      public Reader getReader(ReaderConfigurator configurator, int partitionNumber, DiskPartitionAssignment assignment)
+          throws IOException {
+        return new MockReader(configurator, partitionNumber, V1, 0) {
+          @Override
+          public void get(ByteBuffer key, ReaderResult result) throws IOException {
+            if (key.equals(K5)) {
+              readerEntered.countDown();
+              try {
+                readerReleased.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+            super.get(key, result);
+          }
+        };
+      }
+    };
+  }
+
   private PartitionServerHandler createHandler(final int readerVersionNumber) throws IOException {
-    Partitioner partitioner = new MapPartitioner(K1, 0, K2, 1, K3, 2, K4, 3,
-        K5, 4);
     MockStorageEngine storageEngine = new MockStorageEngine() {
       @Override
       public Reader getReader(ReaderConfigurator configurator, int partitionNumber, DiskPartitionAssignment assignment)
@@ -155,6 +498,25 @@ public class TestPartitionServerHandler extends BaseTestCase {
         };
       }
     };
+    return createHandler(mockHostConfig, storageEngine);
+  }
+
+  private PartitionServerHandler createHandler(final Host host, MockStorageEngine storageEngine) throws IOException {
+    return createHandler(host, storageEngine, 0);
+  }
+
+  private PartitionServerHandler createHandler(final Host host,
+                                               MockStorageEngine storageEngine,
+                                               final int maxConcurrentGetBulkRequests) throws IOException {
+    return createHandler(host, storageEngine, maxConcurrentGetBulkRequests, 1);
+  }
+
+  private PartitionServerHandler createHandler(final Host host,
+                                               MockStorageEngine storageEngine,
+                                               final int maxConcurrentGetBulkRequests,
+                                               final int getBulkTaskSize) throws IOException {
+    Partitioner partitioner = new MapPartitioner(K1, 0, K2, 1, K3, 2, K4, 3,
+        K5, 4);
     final Domain domain = new MockDomain("myDomain", 0, 5, partitioner, storageEngine, null, null);
 
     final MockDomainGroup dg = new MockDomainGroup("myDomainGroup") {
@@ -170,7 +532,7 @@ public class TestPartitionServerHandler extends BaseTestCase {
     final MockRing mockRing = new MockRing(null, rg, 1) {
       @Override
       public Host getHostByAddress(PartitionServerAddress address) {
-        return mockHostConfig;
+        return host;
       }
     };
 
@@ -187,7 +549,17 @@ public class TestPartitionServerHandler extends BaseTestCase {
       }
     };
     PartitionServerConfigurator config = new MockPartitionServerConfigurator(12345,
-        mockCoordinator, "myRingGroupName", "/tmp/local/data/dir");
+        mockCoordinator, "myRingGroupName", "/tmp/local/data/dir") {
+      @Override
+      public int getMaxConcurrentGetBulkRequests() {
+        return maxConcurrentGetBulkRequests;
+      }
+
+      @Override
+      public int getGetBulkTaskSize() {
+        return getBulkTaskSize;
+      }
+    };
     PartitionServerHandler handler = new PartitionServerHandler(new PartitionServerAddress(
         "localhost", 12345), config, mockCoordinator);
     return handler;
@@ -0,0 +1,114 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import org.junit.Test;
+
+import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.LogLinearHistogram;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestRuntimeStatisticsAggregator extends BaseTestCase {
+
+  private static RuntimeStatisticsAggregator getRuntimeStatisticsAggregator() {
+    return new RuntimeStatisticsAggregator(1.5, 2.5, 10, 8, 3, 2,
+        new DoublePopulationStatisticsAggregator(1.0, 10.0, 4, 16.0, new double[]{1, 2, 3, 10}),
+        new CacheStatistics(5, 10, 500, 1000, 4096, 30, 10, 7, 1));
+  }
+
+  @Test
+  public void testToStringAndParse() {
+    RuntimeStatisticsAggregator parsed =
+        RuntimeStatisticsAggregator.parse(RuntimeStatisticsAggregator.toString(getRuntimeStatisticsAggregator()));
+    assertEquals(1.5, parsed.getThroughput(), .0001);
+    assertEquals(2.5, parsed.getResponseDataThroughput(), .0001);
+    assertEquals(0.8, parsed.getHitRate(), .0001);
+    assertEquals(5, parsed.getCacheStatistics().getNumItems());
+    assertEquals(1000, parsed.getCacheStatistics().getMaxNumManagedBytes());
+    assertEquals(4096, parsed.getCacheStatistics().getNumMappedBytes());
+    assertEquals(30, parsed.getCacheStatistics().getNumBlockCacheHits());
+    assertEquals(10, parsed.getCacheStatistics().getNumBlockCacheMisses());
+    assertEquals(7, parsed.getCacheStatistics().getNumKeyHashFilterNegatives());
+    assertEquals(1, parsed.getCacheStatistics().getNumKeyHashFilterFalsePositives());
+    assertEquals(4.0, parsed.getGetRequestsPopulationStatistics().getMean(), .0001);
+    assertEquals(10.0, parsed.getGetRequestsPopulationStatistics().getMaximum(), .0001);
+  }
+
+  @Test
+  public void testOriginalLayout() {
+    // Layout that older versions parse by position
+    String str = RuntimeStatisticsAggregator.toString(getRuntimeStatisticsAggregator());
+    String[] tokens = str.substring(0, str.indexOf('\t')).split(" ");
+    assertEquals(18, tokens.length);
+    assertEquals("1000", tokens[9]);
+    assertEquals("4", tokens[12]);
+    for (String token : tokens) {
+      Double.parseDouble(token);
+    }
+    RuntimeStatisticsAggregator parsed =
+        RuntimeStatisticsAggregator.parse("1.5 2.5 10 8 3 2 5 10 500 1000 1.0 10.0 4 16.0 1.0 2.0 3.0 10.0");
+    assertEquals(0.8, parsed.getHitRate(), .0001);
+    assertEquals(1000, parsed.getCacheStatistics().getMaxNumManagedBytes());
+    assertEquals(0, parsed.getCacheStatistics().getNumKeyHashFilterNegatives());
+    assertEquals(4.0, parsed.getGetRequestsPopulationStatistics().getMean(), .0001);
+    assertEquals(3.0, parsed.getGetRequestsPopulationStatistics().getPercentile(75), .1);
+  }
+
+  @Test
+  public void testParseWithoutExtendedStatistics() {
+    String str = RuntimeStatisticsAggregator.toString(getRuntimeStatisticsAggregator());
+    RuntimeStatisticsAggregator parsed = RuntimeStatisticsAggregator.parse(str.substring(0, str.indexOf('\t')));
+    assertEquals(1.5, parsed.getThroughput(), .0001);
+    assertEquals(5, parsed.getCacheStatistics().getNumItems());
+    assertEquals(0, parsed.getCacheStatistics().getNumMappedBytes());
+    assertEquals(0, parsed.getCacheStatistics().getNumBlockCacheHits());
+    assertEquals(4.0, parsed.getGetRequestsPopulationStatistics().getMean(), .0001);
+  }
+
+  @Test
+  public void testToStringAndParseHistogram() {
+    DoublePopulationStatisticsAggregator populationStatistics = new DoublePopulationStatisticsAggregator();
+    LogLinearHistogram histogram = new LogLinearHistogram();
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.record(DoublePopulationStatisticsAggregator.toHistogramValue(i / 10.0));
+    }
+    populationStatistics.aggregate(0.1, 100, 1000, 50050, histogram);
+    RuntimeStatisticsAggregator original = getRuntimeStatisticsAggregator();
+    original.setGetRequestsPopulationStatistics(populationStatistics);
+    String str = RuntimeStatisticsAggregator.toString(original);
+
+    // The histogram is read from the extended statistics, the sample from the original field
+    RuntimeStatisticsAggregator parsed = RuntimeStatisticsAggregator.parse(str);
+    assertEquals(DoublePopulationStatisticsAggregator.toHistogramString(populationStatistics),
+        DoublePopulationStatisticsAggregator.toHistogramString(parsed.getGetRequestsPopulationStatistics()));
+    parsed = RuntimeStatisticsAggregator.parse(str.substring(0, str.indexOf('\t')));
+    assertEquals(50.05, parsed.getGetRequestsPopulationStatistics().getMean(), .0001);
+    assertEquals(99, parsed.getGetRequestsPopulationStatistics().getPercentile(99), 5);
+  }
+
+  @Test
+  public void testParseIgnoresUnknownExtendedStatistics() {
+    String str = RuntimeStatisticsAggregator.toString(getRuntimeStatisticsAggregator());
+    RuntimeStatisticsAggregator parsed = RuntimeStatisticsAggregator.parse(str + " unknown_statistic=1");
+    assertEquals(4096, parsed.getCacheStatistics().getNumMappedBytes());
+    parsed = RuntimeStatisticsAggregator.parse(str.substring(0, str.indexOf('\t')) + "\tv2 mapped_bytes=1");
+    assertEquals(0, parsed.getCacheStatistics().getNumMappedBytes());
+    assertEquals(5, parsed.getCacheStatistics().getNumItems());
+  }
+}
@@ -150,6 +150,11 @@ public class TestRingGroupConductor {
         return Lists.newArrayList();
       }
 
+      @Override
+      public boolean getOnlineUpdates() {
+        return false;
+      }
+
       @Override
       public int getMinRingFullyServingObservations() {
         return 0;
@@ -17,13 +17,17 @@
 package com.liveramp.hank.storage;
 
 import com.liveramp.hank.hadoop.HadoopTestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -64,6 +68,19 @@ public class TestHdfsPartitionRemoteFileOps extends HadoopTestCase {
     assertTrue(new File(localTmpDir + "/file1.txt").exists());
   }
 
+  @Test
+  public void testChunkedCopyToLocal() throws Exception {
+    byte[] data = new byte[10000];
+    new Random(0).nextBytes(data);
+    FSDataOutputStream outputStream = fs.create(new Path(ROOT, "0/file3.bin"));
+    outputStream.write(data);
+    outputStream.close();
+    // Copy in chunks of 999 bytes, the last one being shorter
+    PartitionRemoteFileOps chunkedFileOps = new HdfsPartitionRemoteFileOps(ROOT, 0, null, true, 999, 3);
+    chunkedFileOps.copyToLocalRoot("file3.bin", localTmpDir);
+    assertArrayEquals(data, FileUtils.readFileToByteArray(new File(localTmpDir + "/file3.bin")));
+  }
+
   @Test
   public void testAttemptDelete() throws Exception {
     assertTrue(fs.exists(new Path(ROOT, "0/file1.txt")));
@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestCueballMerger extends AbstractCueballTest {
   private final String LOCAL_ROOT = localTmpDir;
@@ -54,8 +55,9 @@ public class TestCueballMerger extends AbstractCueballTest {
       10, //13, 12, 11,
       // block 0 offset
       0, 0, 0, 0, 0, 0, 0, 0,
-      // block 1 offset
-      2, 0, 0, 0, 0, 0, 0, 0,
+      // block 1 offset, after the two records of block 0, as in the deltas. Merging a range of
+      // hash prefixes starts reading at the offset of its first block, so it must be exact.
+      4, 0, 0, 0, 0, 0, 0, 0,
       // max uncompressed size
       4, 0, 0, 0,
       // max compressed size
@@ -155,6 +157,87 @@ public class TestCueballMerger extends AbstractCueballTest {
 
   @Test
   public void testMerge() throws Exception {
+    writeInputs();
+
+    new CueballMerger().merge(BASE,
+        Arrays.asList(DELTA_1, DELTA_2),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCueballCompressionCodec());
+
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(readNewBase()));
+  }
+
+  @Test
+  public void testMergeHashPrefixRangesConcurrently() throws Exception {
+    writeInputs();
+
+    // Each block is merged separately
+    new CueballMerger(2).merge(BASE,
+        Arrays.asList(DELTA_1, DELTA_2),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCueballCompressionCodec());
+
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(readNewBase()));
+    // Range files were deleted
+    assertEquals(4, new File(LOCAL_ROOT).list().length);
+  }
+
+  @Test
+  public void testMergeWithKeyHashFilter() throws Exception {
+    writeInputs();
+
+    new CueballMerger(1, 10).merge(BASE,
+        Arrays.asList(DELTA_1, DELTA_2),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCueballCompressionCodec());
+    byte[] newBase = readNewBase();
+
+    // Blocks are unchanged and followed by the filter section
+    FileInputStream input = new FileInputStream(NEW_BASE_PATH);
+    Footer footer = new Footer(input.getChannel(), 1);
+    assertTrue(footer.hasKeyHashFilter());
+    KeyHashFilter keyHashFilter = footer.readKeyHashFilter(input.getChannel());
+    input.close();
+    int dataLength = (int)footer.getDataLength();
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA, 0, dataLength), ByteBuffer.wrap(newBase, 0, dataLength));
+    for (int i = 0; i < dataLength; i += 2) {
+      assertTrue(keyHashFilter.mightContain(newBase, i, 1));
+    }
+
+    // Merging ranges concurrently writes the same blocks, the filter has a chunk per range
+    new CueballMerger(2, 10).merge(BASE,
+        Arrays.asList(DELTA_1, DELTA_2),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCueballCompressionCodec());
+    newBase = readNewBase();
+    input = new FileInputStream(NEW_BASE_PATH);
+    footer = new Footer(input.getChannel(), 1);
+    keyHashFilter = footer.readKeyHashFilter(input.getChannel());
+    input.close();
+    assertEquals(dataLength, footer.getDataLength());
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA, 0, dataLength), ByteBuffer.wrap(newBase, 0, dataLength));
+    for (int i = 0; i < dataLength; i += 2) {
+      assertTrue(keyHashFilter.mightContain(newBase, i, 1));
+    }
+  }
+
+  private void writeInputs() throws IOException {
     new File(LOCAL_ROOT).mkdirs();
     OutputStream s = new FileOutputStream(BASE.getPath());
     s.write(BASE_DATA);
@@ -170,21 +253,37 @@ public class TestCueballMerger extends AbstractCueballTest {
     s.write(DELTA_2_DATA);
     s.flush();
     s.close();
+  }
 
-    new CueballMerger().merge(BASE,
-        Arrays.asList(DELTA_1, DELTA_2),
-        NEW_BASE_PATH,
-        1,
-        1,
-        null,
-        1,
+  @Test
+  public void testMergeCompactHashIndex() throws Exception {
+    writeInputs();
+    new CueballMerger().merge(BASE, Arrays.asList(DELTA_1, DELTA_2), NEW_BASE_PATH, 1, 1, null, 1,
         new NoCueballCompressionCodec());
+    FileInputStream input = new FileInputStream(NEW_BASE_PATH);
+    long[] expectedHashIndex = new Footer(input.getChannel(), 1).getHashIndex();
+    input.close();
 
+    // Concatenated ranges get a compact hash index as well
+    for (int numThreads : new int[]{1, 2}) {
+      new CueballMerger(numThreads, 0, true).merge(BASE, Arrays.asList(DELTA_1, DELTA_2), NEW_BASE_PATH, 1, 1, null, 1,
+          new NoCueballCompressionCodec());
+      input = new FileInputStream(NEW_BASE_PATH);
+      Footer footer = new Footer(input.getChannel(), 1);
+      input.close();
+      assertTrue(footer.isCompactHashIndex());
+      assertTrue(Arrays.equals(expectedHashIndex, footer.getHashIndex()));
+      int dataLength = (int)footer.getDataLength();
+      assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA, 0, dataLength), ByteBuffer.wrap(readNewBase(), 0, dataLength));
+    }
+  }
+
+  private byte[] readNewBase() throws IOException {
     DataInputStream in = new DataInputStream(new FileInputStream(NEW_BASE_PATH));
     int length = (int) new File(NEW_BASE_PATH).length();
     byte[] actualMergedData = new byte[length];
     in.readFully(actualMergedData);
-
-    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(actualMergedData));
+    in.close();
+    return actualMergedData;
   }
 }
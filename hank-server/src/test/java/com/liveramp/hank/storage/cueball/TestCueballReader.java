@@ -16,18 +16,25 @@
 package com.liveramp.hank.storage.cueball;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
 import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.hasher.IdentityHasher;
+import com.liveramp.hank.storage.CacheStatistics;
 import com.liveramp.hank.storage.ReaderResult;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestCueballReader extends AbstractCueballTest {
   @Test
@@ -107,4 +114,224 @@ public class TestCueballReader extends AbstractCueballTest {
     assertEquals(false, result.getL2CacheHit());
     result.clear();
   }
+
+  @Test
+  public void testReadMemoryMapped() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    OutputStream os = new FileOutputStream(root + "/00000.base.cueball");
+    os.write(EXPECTED_DATA);
+    os.flush();
+    os.close();
+
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 1 << 20, 1, true);
+    assertEquals(EXPECTED_DATA.length, reader.getCacheStatistics().getNumMappedBytes());
+
+    ReaderResult result = new ReaderResult();
+    reader.get(ByteBuffer.wrap(KEY1), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), result.getBuffer());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY3), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{(byte)0x8f, 1, 2, 1, 2}), result.getBuffer());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY4), result);
+    assertFalse(result.isFound());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY10), result);
+    assertFalse(result.isFound());
+    result.clear();
+
+    reader.close();
+  }
+
+  @Test
+  public void testReadWithKeyHashFilter() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    String path = root + "/00000.base.cueball";
+    CueballWriter writer = new CueballWriter(new FileOutputStream(path), 10, HASHER, 5, new NoCueballCompressionCodec(), 1, 10);
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}));
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2, 1, 2, 1, 2}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{(byte)0x8f, 1, 2, 1, 2}));
+    writer.close();
+
+    // The filter section is not part of the blocks
+    FileInputStream input = new FileInputStream(path);
+    Footer footer = new Footer(input.getChannel(), 1);
+    assertTrue(footer.hasKeyHashFilter());
+    assertEquals(45, footer.getDataLength());
+    input.close();
+
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 1 << 20, 1);
+
+    ReaderResult result = new ReaderResult();
+    reader.get(ByteBuffer.wrap(KEY1), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), result.getBuffer());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY3), result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(new byte[]{(byte)0x8f, 1, 2, 1, 2}), result.getBuffer());
+    result.clear();
+
+    // non-existent keys in occupied buckets
+    reader.get(ByteBuffer.wrap(KEY4), result);
+    assertFalse(result.isFound());
+    result.clear();
+
+    reader.get(ByteBuffer.wrap(KEY10), result);
+    assertFalse(result.isFound());
+    result.clear();
+
+    CacheStatistics cacheStatistics = reader.getCacheStatistics();
+    assertEquals(2, cacheStatistics.getNumKeyHashFilterNegatives() + cacheStatistics.getNumKeyHashFilterFalsePositives());
+    reader.close();
+  }
+
+  @Test
+  public void testKeyHashFilterFalsePositivesServedFromCache() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    // Keys are their own hash, present keys have an even first byte
+    CueballWriter writer = new CueballWriter(new FileOutputStream(root + "/00000.base.cueball"), 4,
+        new IdentityHasher(), 1, new NoCueballCompressionCodec(), 4, 1);
+    for (int i = 0; i < 128; ++i) {
+      writer.write(ByteBuffer.wrap(new byte[]{(byte)(2 * i), 7, 7, 7}), ByteBuffer.wrap(new byte[]{(byte)i}));
+    }
+    writer.close();
+
+    CueballReader reader = new CueballReader(root, 4, new IdentityHasher(), 1, 4, new NoCueballCompressionCodec(),
+        1 << 20, 1 << 10);
+    ReaderResult result = new ReaderResult();
+    long numKeyHashFilterNegatives = 0;
+    long numKeyHashFilterFalsePositives = 0;
+    for (int pass = 1; pass <= 2; ++pass) {
+      for (int i = 0; i < 128; ++i) {
+        result.clear();
+        reader.get(ByteBuffer.wrap(new byte[]{(byte)(2 * i + 1), 7, 7, 7}), result);
+        assertFalse(result.isFound());
+      }
+      CacheStatistics cacheStatistics = reader.getCacheStatistics();
+      if (pass == 1) {
+        numKeyHashFilterNegatives = cacheStatistics.getNumKeyHashFilterNegatives();
+        numKeyHashFilterFalsePositives = cacheStatistics.getNumKeyHashFilterFalsePositives();
+        assertEquals(128, numKeyHashFilterNegatives + numKeyHashFilterFalsePositives);
+        assertTrue(numKeyHashFilterFalsePositives > 0);
+      } else {
+        // Negatives are rejected by the filter again, false positives are served from the cache
+        assertEquals(2 * numKeyHashFilterNegatives, cacheStatistics.getNumKeyHashFilterNegatives());
+        assertEquals(numKeyHashFilterFalsePositives, cacheStatistics.getNumKeyHashFilterFalsePositives());
+      }
+    }
+    reader.close();
+  }
+
+  @Test
+  public void testReadCompactHashIndex() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    String path = root + "/00000.base.cueball";
+    CueballWriter writer = new CueballWriter(new FileOutputStream(path), 10, HASHER, 5, new NoCueballCompressionCodec(), 1, 0, true);
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}));
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2, 1, 2, 1, 2}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{(byte)0x8f, 1, 2, 1, 2}));
+    writer.close();
+
+    FileInputStream input = new FileInputStream(path);
+    Footer footer = new Footer(input.getChannel(), 1);
+    assertTrue(footer.isCompactHashIndex());
+    assertEquals(45, footer.getDataLength());
+    input.close();
+
+    for (boolean memoryMapped : new boolean[]{false, true}) {
+      CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 0, 0, memoryMapped);
+
+      ReaderResult result = new ReaderResult();
+      reader.get(ByteBuffer.wrap(KEY1), result);
+      assertTrue(result.isFound());
+      assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), result.getBuffer());
+      result.clear();
+
+      reader.get(ByteBuffer.wrap(KEY3), result);
+      assertTrue(result.isFound());
+      assertEquals(ByteBuffer.wrap(new byte[]{(byte)0x8f, 1, 2, 1, 2}), result.getBuffer());
+      result.clear();
+
+      reader.get(ByteBuffer.wrap(KEY4), result);
+      assertFalse(result.isFound());
+      result.clear();
+
+      reader.get(ByteBuffer.wrap(KEY10), result);
+      assertFalse(result.isFound());
+      result.clear();
+
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testCorruptHashIndexMemoryMapped() throws Exception {
+    String root = localTmpDir + "/corrupt";
+    new File(root).mkdir();
+    String path = root + "/00000.base.cueball";
+    byte[] key1 = new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+    byte[] key2 = new byte[]{(byte)0x80, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+    CueballWriter writer = new CueballWriter(new FileOutputStream(path), 10, new IdentityHasher(), 5, new NoCueballCompressionCodec(), 1);
+    writer.write(ByteBuffer.wrap(key1), ByteBuffer.wrap(new byte[]{1, 1, 1, 1, 1}));
+    writer.write(ByteBuffer.wrap(key2), ByteBuffer.wrap(new byte[]{2, 2, 2, 2, 2}));
+    writer.close();
+
+    // Swap the offsets of the two blocks in the hash index, which is followed by 8 bytes of buffer sizes
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    long hashIndexOffset = file.length() - 16 - 8;
+    file.seek(hashIndexOffset);
+    long offset0 = Long.reverseBytes(file.readLong());
+    long offset1 = Long.reverseBytes(file.readLong());
+    assertTrue(offset0 < offset1);
+    file.seek(hashIndexOffset);
+    file.writeLong(Long.reverseBytes(offset1));
+    file.writeLong(Long.reverseBytes(offset0));
+    file.close();
+
+    // Opening fails when the hash index is read
+    try {
+      new CueballReader(root, 10, new IdentityHasher(), 5, 1, new NoCueballCompressionCodec(), 0, 0, false);
+      fail("Opening a corrupt hash index should throw an exception");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // Opening succeeds when the file is memory mapped, then reads fail once the hash index has been verified
+    CueballReader reader = new CueballReader(root, 10, new IdentityHasher(), 5, 1, new NoCueballCompressionCodec(), 0, 0, true);
+    try {
+      ReaderResult result = new ReaderResult();
+      long deadline = System.currentTimeMillis() + 10000;
+      IOException verificationException = null;
+      while (verificationException == null && System.currentTimeMillis() < deadline) {
+        try {
+          reader.get(ByteBuffer.wrap(key1), result);
+          result.clear();
+          Thread.sleep(10);
+        } catch (IOException e) {
+          verificationException = e;
+        }
+      }
+      assertNotNull(verificationException);
+      // Every following read fails
+      try {
+        reader.get(ByteBuffer.wrap(key2), result);
+        fail("Reading from a corrupt hash index should throw an exception");
+      } catch (IOException e) {
+        assertEquals(verificationException, e);
+      }
+    } finally {
+      reader.close();
+    }
+  }
 }
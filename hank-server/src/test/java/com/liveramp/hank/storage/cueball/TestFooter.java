@@ -5,10 +5,12 @@ import org.junit.Test;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -38,6 +40,60 @@ public class TestFooter extends BaseTestCase {
     assertTrue(Arrays.equals(new long[]{5, 25, 125, 255}, footer.getHashIndex()));
   }
 
+  @Test
+  public void testCompact() throws Exception {
+    // 256 hash prefixes span 4 groups, the second and last ones being empty
+    long[] hashIndex = new long[256];
+    Arrays.fill(hashIndex, -1);
+    hashIndex[1] = 0;
+    hashIndex[2] = 100;
+    hashIndex[63] = 4000000000L;
+    hashIndex[128] = 5000000007L;
+    hashIndex[129] = 9000000000L;
+    byte[] encoded = Footer.encode(hashIndex, 130, 250, true);
+    assertEquals(4 * 8 + 256 * 4 + 8 + 8, encoded.length);
+
+    for (boolean memoryMapped : new boolean[]{false, true}) {
+      final FileOutputStream out = new FileOutputStream(filePath);
+      out.write(encoded);
+      out.flush();
+      out.close();
+
+      FileInputStream input = new FileInputStream(filePath);
+      final Footer footer = new Footer(input.getChannel(), 8, memoryMapped, true);
+      assertTrue(footer.isCompactHashIndex());
+      assertEquals(encoded.length, footer.getFooterLength());
+      assertEquals(250, footer.getMaxCompressedBufferSize());
+      assertEquals(130, footer.getMaxUncompressedBufferSize());
+      HashIndex view = footer.getHashIndexView();
+      assertEquals(100, view.getBlockOffset(2));
+      assertEquals(4000000000L, view.getBlockOffset(63));
+      assertEquals(-1, view.getBlockOffset(64));
+      assertEquals(5000000007L, view.getBlockOffset(128));
+      assertEquals(9000000000L, view.getLastBlockOffset());
+      input.close();
+    }
+  }
+
+  @Test
+  public void testCompactFallback() throws Exception {
+    // Blocks of the group span more than 4 bytes of relative offset, the regular format is used
+    long[] hashIndex = new long[]{5, 25, 125, 1L << 40};
+    byte[] encoded = Footer.encode(hashIndex, 130, 250, true);
+    assertEquals(4 * 8 + 8, encoded.length);
+
+    final FileOutputStream out = new FileOutputStream(filePath);
+    out.write(encoded);
+    out.flush();
+    out.close();
+
+    FileInputStream input = new FileInputStream(filePath);
+    final Footer footer = new Footer(input.getChannel(), 2);
+    assertFalse(footer.isCompactHashIndex());
+    assertTrue(Arrays.equals(hashIndex, footer.getHashIndex()));
+    input.close();
+  }
+
   private static final List<byte[]> INVALID_CASES = Arrays.asList(
       // offset inversion
       new byte[]{
@@ -97,4 +153,23 @@ public class TestFooter extends BaseTestCase {
     }
   }
 
+  @Test
+  public void testUnverified() throws Exception {
+    // Offset inversions are only reported when verifying
+    final FileOutputStream out = new FileOutputStream(filePath);
+    out.write(INVALID_CASES.get(0));
+    out.flush();
+    out.close();
+
+    FileInputStream input = new FileInputStream(filePath);
+    final Footer footer = new Footer(input.getChannel(), 2, true, false);
+    assertEquals(25, footer.getHashIndexView().getBlockOffset(0));
+    try {
+      footer.verifyHashIndex();
+      fail("should have thrown an exception");
+    } catch (IOException e) {
+    }
+    input.close();
+  }
+
 }
@@ -0,0 +1,192 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.cueball;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.liveramp.commons.util.BytesUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestKeyHashFilter {
+
+  private static final int KEY_HASH_SIZE = 10;
+
+  @Test
+  public void testNoFalseNegatives() throws Exception {
+    Random random = new Random(0);
+    byte[][] keyHashes = randomKeyHashes(random, 10000);
+    KeyHashFilter filter = build(keyHashes, 10);
+    for (byte[] keyHash : keyHashes) {
+      assertTrue(filter.mightContain(keyHash, 0, KEY_HASH_SIZE));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() throws Exception {
+    Random random = new Random(1);
+    KeyHashFilter filter = build(randomKeyHashes(random, 10000), 10);
+    int numFalsePositives = 0;
+    byte[][] absentKeyHashes = randomKeyHashes(random, 100000);
+    for (byte[] keyHash : absentKeyHashes) {
+      if (filter.mightContain(keyHash, 0, KEY_HASH_SIZE)) {
+        ++numFalsePositives;
+      }
+    }
+    // About 1% expected with 10 bits per key
+    assertTrue("False positive rate: " + numFalsePositives / (double)absentKeyHashes.length,
+        numFalsePositives < absentKeyHashes.length * 0.02);
+  }
+
+  @Test
+  public void testEncodeDecode() throws Exception {
+    Random random = new Random(2);
+    byte[][] keyHashes = randomKeyHashes(random, 1000);
+    KeyHashFilter filter = build(keyHashes, 8);
+    byte[] section = filter.encodeSection();
+    assertEquals(filter.getNumBytes() + KeyHashFilter.SECTION_TRAILER_LENGTH, section.length);
+
+    byte[] encoded = new byte[(int)filter.getNumBytes()];
+    System.arraycopy(section, 0, encoded, 0, encoded.length);
+    KeyHashFilter decoded = KeyHashFilter.decode(encoded);
+    for (byte[] keyHash : randomKeyHashes(random, 1000)) {
+      assertEquals(filter.mightContain(keyHash, 0, KEY_HASH_SIZE), decoded.mightContain(keyHash, 0, KEY_HASH_SIZE));
+    }
+    for (byte[] keyHash : keyHashes) {
+      assertTrue(decoded.mightContain(keyHash, 0, KEY_HASH_SIZE));
+    }
+
+    try {
+      KeyHashFilter.decode(new byte[encoded.length - 8]);
+      fail("Should have thrown an exception");
+    } catch (Exception e) {
+    }
+  }
+
+  @Test
+  public void testMergeBuilders() throws Exception {
+    Random random = new Random(3);
+    byte[][] keyHashes1 = randomKeyHashes(random, 3000);
+    byte[][] keyHashes2 = randomKeyHashes(random, 2000);
+    // Key hashes of the second builder are all greater
+    for (byte[] keyHash : keyHashes1) {
+      keyHash[0] &= 0x7f;
+    }
+    for (byte[] keyHash : keyHashes2) {
+      keyHash[0] |= 0x80;
+    }
+    sort(keyHashes1);
+    sort(keyHashes2);
+    KeyHashFilter.Builder builder1 = newBuilder(keyHashes1, 10, 1000);
+    KeyHashFilter.Builder builder2 = newBuilder(keyHashes2, 10, 1000);
+    builder1.addAll(builder2);
+    assertEquals(5000, builder1.getNumKeys());
+    KeyHashFilter filter = builder1.build();
+    for (byte[] keyHash : keyHashes1) {
+      assertTrue(filter.mightContain(keyHash, 0, KEY_HASH_SIZE));
+    }
+    for (byte[] keyHash : keyHashes2) {
+      assertTrue(filter.mightContain(keyHash, 0, KEY_HASH_SIZE));
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    KeyHashFilter filter = new KeyHashFilter.Builder(10).build();
+    assertFalse(filter.mightContain(new byte[KEY_HASH_SIZE], 0, KEY_HASH_SIZE));
+  }
+
+  @Test
+  public void testChunks() throws Exception {
+    Random random = new Random(4);
+    byte[][] keyHashes = randomKeyHashes(random, 10000);
+    // Chunks of 1000 keys
+    KeyHashFilter filter = newBuilder(keyHashes, 10, 1000).build();
+    byte[] section = filter.encodeSection();
+    byte[] encoded = new byte[(int)filter.getNumBytes()];
+    System.arraycopy(section, 0, encoded, 0, encoded.length);
+    KeyHashFilter decoded = KeyHashFilter.decode(encoded);
+    for (byte[] keyHash : keyHashes) {
+      assertTrue(decoded.mightContain(keyHash, 0, KEY_HASH_SIZE));
+    }
+    int numFalsePositives = 0;
+    byte[][] absentKeyHashes = randomKeyHashes(random, 100000);
+    for (byte[] keyHash : absentKeyHashes) {
+      if (decoded.mightContain(keyHash, 0, KEY_HASH_SIZE)) {
+        ++numFalsePositives;
+      }
+    }
+    assertTrue("False positive rate: " + numFalsePositives / (double)absentKeyHashes.length,
+        numFalsePositives < absentKeyHashes.length * 0.02);
+    // About the same size as a single chunk filter
+    assertTrue(filter.getNumBytes() < build(keyHashes, 10).getNumBytes() + 20 * 1024 / 8);
+  }
+
+  @Test
+  public void testUnorderedKeyHashes() throws Exception {
+    KeyHashFilter.Builder builder = new KeyHashFilter.Builder(10);
+    builder.add(new byte[]{2, 0}, 0, 2);
+    try {
+      builder.add(new byte[]{1, 0}, 0, 2);
+      fail("Should have thrown an exception");
+    } catch (IOException e) {
+    }
+  }
+
+  // Sorted random key hashes
+  private static byte[][] randomKeyHashes(Random random, int numKeyHashes) {
+    byte[][] result = new byte[numKeyHashes][KEY_HASH_SIZE];
+    for (byte[] keyHash : result) {
+      random.nextBytes(keyHash);
+    }
+    sort(result);
+    return result;
+  }
+
+  private static void sort(byte[][] keyHashes) {
+    Arrays.sort(keyHashes, new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] a, byte[] b) {
+        return BytesUtils.compareBytesUnsigned(a, 0, b, 0, KEY_HASH_SIZE);
+      }
+    });
+  }
+
+  private static KeyHashFilter.Builder newBuilder(byte[][] keyHashes, int bitsPerKey, int chunkNumKeys)
+      throws IOException {
+    KeyHashFilter.Builder builder = new KeyHashFilter.Builder(bitsPerKey, chunkNumKeys);
+    for (byte[] keyHash : keyHashes) {
+      builder.add(keyHash, 0, KEY_HASH_SIZE);
+    }
+    return builder;
+  }
+
+  private static KeyHashFilter build(byte[][] keyHashes, int bitsPerKey) throws IOException {
+    KeyHashFilter.Builder builder = new KeyHashFilter.Builder(bitsPerKey);
+    for (byte[] keyHash : keyHashes) {
+      builder.add(keyHash, 0, KEY_HASH_SIZE);
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.cueball;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestKeyHashSearch extends BaseTestCase {
+
+  private static final int VALUE_SIZE = 3;
+
+  @Test
+  public void testCompare() {
+    byte[] a = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    byte[] b = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, (byte) 0xff};
+    byte[] c = new byte[]{(byte) 0x80, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    assertEquals(0, KeyHashSearch.compare(a, 0, a, 0, 10));
+    assertEquals(-1, KeyHashSearch.compare(a, 0, b, 0, 10));
+    assertEquals(1, KeyHashSearch.compare(b, 0, a, 0, 10));
+    assertEquals(-1, KeyHashSearch.compare(a, 0, c, 0, 10));
+    assertEquals(1, KeyHashSearch.compare(c, 0, a, 0, 10));
+    assertEquals(0, KeyHashSearch.compare(a, 0, b, 0, 9));
+    assertEquals(0, KeyHashSearch.compare(a, 1, b, 1, 3));
+  }
+
+  @Test
+  public void testSearchUniform() {
+    for (int keyHashSize : new int[]{3, 8, 10, 16}) {
+      for (int numRecords : new int[]{0, 1, 2, 7, 8, 9, 100, 5000}) {
+        checkSearch(keyHashSize, getKeyHashes(keyHashSize, numRecords, false));
+      }
+    }
+  }
+
+  @Test
+  public void testSearchSkewed() {
+    for (int keyHashSize : new int[]{4, 10}) {
+      checkSearch(keyHashSize, getKeyHashes(keyHashSize, 5000, true));
+    }
+  }
+
+  private void checkSearch(int keyHashSize, byte[][] keyHashes) {
+    int recordSize = keyHashSize + VALUE_SIZE;
+    // Block starts after some unrelated bytes
+    int off = 5;
+    byte[] block = new byte[off + keyHashes.length * recordSize];
+    for (int i = 0; i < keyHashes.length; ++i) {
+      System.arraycopy(keyHashes[i], 0, block, off + i * recordSize, keyHashSize);
+    }
+    int limit = block.length;
+
+    // Every key hash is found at its offset
+    for (int i = 0; i < keyHashes.length; ++i) {
+      assertEquals(off + i * recordSize, KeyHashSearch.search(block, off, limit, recordSize, keyHashes[i], keyHashSize));
+    }
+    // Other key hashes are not found
+    Random random = new Random(1);
+    for (int i = 0; i < 1000; ++i) {
+      byte[] keyHash = new byte[keyHashSize];
+      random.nextBytes(keyHash);
+      int expected = -1;
+      for (int j = 0; j < keyHashes.length; ++j) {
+        if (Arrays.equals(keyHash, keyHashes[j])) {
+          expected = off + j * recordSize;
+        }
+      }
+      assertEquals(expected, KeyHashSearch.search(block, off, limit, recordSize, keyHash, keyHashSize));
+    }
+  }
+
+  // Sorted distinct key hashes, skewed key hashes are mostly clustered at the beginning of the range
+  private static byte[][] getKeyHashes(int keyHashSize, int numKeyHashes, boolean skewed) {
+    Random random = new Random(0);
+    TreeSet<ByteBuffer> keyHashes = new TreeSet<ByteBuffer>(new Comparator<ByteBuffer>() {
+      @Override
+      public int compare(ByteBuffer a, ByteBuffer b) {
+        return BytesUtils.compareBytesUnsigned(a, b);
+      }
+    });
+    while (keyHashes.size() < numKeyHashes) {
+      byte[] keyHash = new byte[keyHashSize];
+      random.nextBytes(keyHash);
+      if (skewed && keyHashes.size() < numKeyHashes - 1) {
+        keyHash[0] = 0;
+      }
+      keyHashes.add(ByteBuffer.wrap(keyHash));
+    }
+    byte[][] result = new byte[numKeyHashes][];
+    int i = 0;
+    for (ByteBuffer keyHash : keyHashes) {
+      result[i++] = keyHash.array();
+    }
+    return result;
+  }
+}
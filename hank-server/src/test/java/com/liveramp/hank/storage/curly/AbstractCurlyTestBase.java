@@ -64,6 +64,23 @@ public abstract class AbstractCurlyTestBase {
       0x07, 0x05, 0x10, 0x04, 0x0c, 0x0b, 0x0a, 0x09
   };
 
+  protected static final byte[] EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_RAW_SNAPPY = new byte[]{
+      17, // block size
+      0x0f, 0x38, // uncompressed length, literal
+      4, 4, 3, 2, 1,
+      4, 8, 7, 6, 5,
+      4, 12, 11, 10, 9
+  };
+
+  protected static final byte[] EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4 = new byte[]{
+      21, // block size
+      0x0f, 0x00, 0x00, 0x00, // uncompressed length
+      (byte)0xf0, 0x00, // literal
+      4, 4, 3, 2, 1,
+      4, 8, 7, 6, 5,
+      4, 12, 11, 10, 9
+  };
+
   protected static final byte[] EXPECTED_FOLDED_RECORD_FILE = new byte[]{
       4, 4, 3, 2, 1,
       4, 8, 7, 6, 5
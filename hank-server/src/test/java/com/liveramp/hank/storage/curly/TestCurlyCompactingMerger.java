@@ -17,6 +17,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import static org.junit.Assert.assertEquals;
@@ -31,7 +33,6 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
   private static final byte[] DELTA_2_DATA = {14, 15, 16};
 
   int recordFileReadBufferBytes = 32 * 1024;
-  CurlyCompactingMerger merger = new CurlyCompactingMerger(recordFileReadBufferBytes);
 
   @Before
   public void setUp() throws Exception {
@@ -42,6 +43,84 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
 
   @Test
   public void testMain() throws IOException {
+    doTestMerge(new CurlyCompactingMerger(recordFileReadBufferBytes));
+  }
+
+  @Test
+  public void testSortedReads() throws IOException {
+    // Batches do not divide the number of keys. Records of a batch are read ordered by
+    // record file (version) and offset in that file.
+    assertEquals(Arrays.asList("0:0", "1:0", "1:1", "0:3", "2:0", "2:2", "0:8"),
+        doTestMerge(new CurlySortedReadsCompactingMerger(recordFileReadBufferBytes, 1, 3)));
+    assertEquals(Arrays.asList("0:0", "0:3", "1:0", "1:1", "2:0", "2:2", "0:8"),
+        doTestMerge(new CurlySortedReadsCompactingMerger(recordFileReadBufferBytes, 1, 6)));
+    assertEquals(Arrays.asList("0:0", "0:3", "0:8", "1:0", "1:1", "2:0", "2:2"),
+        doTestMerge(new CurlySortedReadsCompactingMerger(recordFileReadBufferBytes, 1, 100)));
+  }
+
+  @Test
+  public void testSortedReadsValueLengths() throws IOException {
+    // Locations are 5 byte offsets followed by 2 byte value lengths
+    final int offsetNumBytes = 5;
+    final int valueLengthNumBytes = 2;
+    byte[] value0 = {0, 0, 0};
+    byte[] value1 = new byte[30];
+    Arrays.fill(value1, (byte)1);
+    byte[] value2 = new byte[40];
+    Arrays.fill(value2, (byte)2);
+    byte[] updatedValue2 = {3, 3, 3, 3, 3};
+
+    Map<ByteBuffer, ByteBuffer> baseLocations = writeValueLengths(CURLY_BASE_PATH.getPath(), offsetNumBytes,
+        valueLengthNumBytes, new ByteBuffer[]{getBB(0), getBB(2)}, new byte[][]{value0, value2});
+    Map<ByteBuffer, ByteBuffer> deltaLocations = writeValueLengths(CURLY_DELTA_1_PATH.getPath(), offsetNumBytes,
+        valueLengthNumBytes, new ByteBuffer[]{getBB(1), getBB(2)}, new byte[][]{value1, updatedValue2});
+
+    final List<KeyHashAndValueAndStreamIndex> items = new ArrayList<KeyHashAndValueAndStreamIndex>();
+    items.add(new KeyHashAndValueAndStreamIndex(getBB(0), baseLocations.get(getBB(0)), 0));
+    items.add(new KeyHashAndValueAndStreamIndex(getBB(1), deltaLocations.get(getBB(1)), 1));
+    items.add(new KeyHashAndValueAndStreamIndex(getBB(2), deltaLocations.get(getBB(2)), 1));
+    IKeyFileStreamBufferMergeSort keyFileStreamBufferMergeSort = new IKeyFileStreamBufferMergeSort() {
+
+      private int index = 0;
+
+      @Override
+      public KeyHashAndValueAndStreamIndex nextKeyHashAndValueAndStreamIndex() throws IOException {
+        return index < items.size() ? items.get(index++) : null;
+      }
+
+      @Override
+      public void close() throws IOException {
+      }
+
+      @Override
+      public int getNumStreams() {
+        return 2;
+      }
+    };
+
+    // The read buffer is smaller than some values, which are still read at once
+    ICurlyReaderFactory curlyReaderFactory = new ICurlyReaderFactory() {
+      @Override
+      public ICurlyReader getInstance(CurlyFilePath curlyFilePath) throws IOException {
+        return new CurlyReader(curlyFilePath, 16, null, -1, -1, null, offsetNumBytes, -1, false, 0,
+            false, null, 0, valueLengthNumBytes);
+      }
+    };
+
+    List<CurlyFilePath> curlyDeltas = new ArrayList<CurlyFilePath>();
+    curlyDeltas.add(CURLY_DELTA_1_PATH);
+    MapWriter recordFileWriter = new MapWriter(new LinkedHashMap<ByteBuffer, ByteBuffer>());
+    new CurlySortedReadsCompactingMerger(recordFileReadBufferBytes, offsetNumBytes, 2)
+        .merge(CURLY_BASE_PATH, curlyDeltas, keyFileStreamBufferMergeSort, curlyReaderFactory, recordFileWriter);
+
+    assertEquals(3, recordFileWriter.entries.size());
+    assertEquals(ByteBuffer.wrap(value0), recordFileWriter.entries.get(getBB(0)));
+    assertEquals(ByteBuffer.wrap(value1), recordFileWriter.entries.get(getBB(1)));
+    assertEquals(ByteBuffer.wrap(updatedValue2), recordFileWriter.entries.get(getBB(2)));
+  }
+
+  // Return the records read, as record file version and offset, in read order
+  private List<String> doTestMerge(ICurlyCompactingMerger merger) throws IOException {
 
     CurlyFilePath curlyBasePath = CURLY_BASE_PATH;
     List<CurlyFilePath> curlyDeltas = new ArrayList<CurlyFilePath>();
@@ -82,6 +161,7 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
       }
     };
 
+    final List<String> reads = new ArrayList<String>();
     final ICurlyReaderFactory curlyReaderFactory = new ICurlyReaderFactory() {
 
       @Override
@@ -92,6 +172,7 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
           public void readRecord(ByteBuffer location, ReaderResult result) throws IOException {
             long recordFileOffset = EncodingHelper.decodeLittleEndianVarInt(location);
             System.err.println("Reading record at offset " + recordFileOffset + " of " + curlyFilePath.getPath());
+            reads.add(curlyFilePath.getVersion() + ":" + recordFileOffset);
             switch (curlyFilePath.getVersion()) {
               case 0:
                 result.getBuffer().clear();
@@ -135,7 +216,7 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
       }
     };
 
-    final MapWriter recordFileWriter = new MapWriter();
+    final MapWriter recordFileWriter = new MapWriter(new LinkedHashMap<ByteBuffer, ByteBuffer>());
 
     // Perform merging
     merger.merge(curlyBasePath, curlyDeltas, keyFileStreamBufferMergeSort, curlyReaderFactory, recordFileWriter);
@@ -156,6 +237,14 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
     assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(14), recordFileWriter.entries.get(getBB(4)))); // 4,14
     assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(16), recordFileWriter.entries.get(getBB(5)))); // 5,16
     assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(8), recordFileWriter.entries.get(getBB(6)))); // 6,8
+
+    // Check that records were written in key hash order
+    int expectedKeyHash = 0;
+    for (ByteBuffer keyHash : recordFileWriter.entries.keySet()) {
+      assertEquals(getBB(expectedKeyHash++), keyHash);
+    }
+
+    return reads;
   }
 
   private ByteBuffer getBB(int b) {
@@ -164,6 +253,22 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
     return ByteBuffer.wrap(bytes);
   }
 
+  // Return the locations written in the key file, by key
+  private Map<ByteBuffer, ByteBuffer> writeValueLengths(String path,
+                                                        int offsetNumBytes,
+                                                        int valueLengthNumBytes,
+                                                        ByteBuffer[] keys,
+                                                        byte[][] values) throws IOException {
+    MapWriter keyFileWriter = new MapWriter();
+    CurlyWriter writer = new CurlyWriter(new FileOutputStream(path), keyFileWriter, offsetNumBytes, -1, null, -1, -1,
+        valueLengthNumBytes);
+    for (int i = 0; i < keys.length; ++i) {
+      writer.write(keys[i], ByteBuffer.wrap(values[i]));
+    }
+    writer.close();
+    return keyFileWriter.entries;
+  }
+
   private void writeFile(byte[] data, String path) throws IOException {
     OutputStream s = new FileOutputStream(path);
     s.write(data);
@@ -22,20 +22,35 @@ import com.liveramp.hank.coordinator.Domain;
 import com.liveramp.hank.coordinator.DomainVersion;
 import com.liveramp.hank.coordinator.mock.MockDomain;
 import com.liveramp.hank.coordinator.mock.MockDomainVersion;
+import com.liveramp.hank.hasher.IdentityHasher;
 import com.liveramp.hank.partition_server.PartitionUpdateTaskStatistics;
 import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.cueball.CueballMerger;
+import com.liveramp.hank.storage.cueball.CueballReader;
+import com.liveramp.hank.storage.cueball.CueballWriter;
 import com.liveramp.hank.storage.cueball.MockCueballMerger;
 import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+import com.liveramp.hank.storage.incremental.IncrementalPartitionUpdater;
 import com.liveramp.hank.storage.incremental.IncrementalPartitionUpdaterTestCase;
 import com.liveramp.hank.storage.incremental.IncrementalUpdatePlan;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -128,4 +143,116 @@ public class TestCurlyFastPartitionUpdater extends IncrementalPartitionUpdaterTe
     // Old Curly base has disappeared
     assertFalse(existsLocalFile("00000.base.curly"));
   }
+
+  @Test
+  public void testUpdateWhileServing() throws IOException {
+    // Updating from v0 to v1 while v0 is served
+    List<DomainVersion> deltas = new ArrayList<DomainVersion>();
+    deltas.add(v1);
+    makeLocalFile("00000.base.cueball");
+    makeLocalCacheFile("00001.delta.cueball");
+    makeLocalCacheFile("00001.delta.curly");
+    makeRemoteFile("0/00001.delta.cueball");
+    makeRemoteFile("0/00001.delta.curly");
+    byte[] baseData = {1, 2, 3};
+    OutputStream baseOutputStream = new FileOutputStream(localPartitionRoot + "/00000.base.curly");
+    baseOutputStream.write(baseData);
+    baseOutputStream.close();
+
+    updater.updateWhileServing();
+    updater.runUpdateCore(v0, v1, new IncrementalUpdatePlan(v0, deltas), updateWorkRoot, new PartitionUpdateTaskStatistics());
+    // New base is a copy of the served base
+    assertTrue(existsUpdateWorkFile("00001.base.curly"));
+    assertArrayEquals(baseData, Files.readAllBytes(Paths.get(updateWorkRoot, "00001.base.curly")));
+    // Served Curly base is left untouched
+    assertTrue(existsLocalFile("00000.base.curly"));
+    assertArrayEquals(baseData, Files.readAllBytes(Paths.get(localPartitionRoot, "00000.base.curly")));
+  }
+
+  @Test
+  public void testUpdateValueLengths() throws IOException {
+    // Key files hold 5 byte offsets followed by 2 byte value lengths
+    int keyHashSize = 12;
+    int offsetNumBytes = 5;
+    int valueLengthNumBytes = 2;
+    CurlyFastPartitionUpdater updater = new CurlyFastPartitionUpdater(domain,
+        new LocalPartitionRemoteFileOps(remotePartitionRoot, 0),
+        new CurlyMerger(),
+        new CueballMerger(),
+        keyHashSize,
+        offsetNumBytes,
+        0,
+        valueLengthNumBytes,
+        1,
+        new NoCueballCompressionCodec(),
+        localPartitionRoot);
+
+    byte[] key1 = getKey(1);
+    byte[] key2 = getKey(2);
+    byte[] key3 = getKey(3);
+    byte[] value1 = new byte[]{1, 1, 1};
+    byte[] value2 = new byte[300];
+    Arrays.fill(value2, (byte)2);
+    byte[] value3 = new byte[]{3, 3, 3, 3, 3, 3};
+    byte[] updatedValue3 = new byte[100];
+    Arrays.fill(updatedValue3, (byte)4);
+
+    writeValueLengthsVersion(localPartitionRoot, localPartitionRoot, 0, true,
+        new byte[][]{key1, key3}, new byte[][]{value1, value3});
+    new File(remotePartitionRoot + "/0").mkdirs();
+    writeValueLengthsVersion(remotePartitionRoot + "/0", localPartitionRoot + "/" + IncrementalPartitionUpdater.CACHE_ROOT_NAME, 1, false,
+        new byte[][]{key2, key3}, new byte[][]{value2, updatedValue3});
+
+    List<DomainVersion> deltas = new ArrayList<DomainVersion>();
+    deltas.add(v1);
+    updater.runUpdateCore(v0, v1, new IncrementalUpdatePlan(v0, deltas), updateWorkRoot, new PartitionUpdateTaskStatistics());
+
+    // Offsets of delta records are adjusted, value lengths are kept. The read buffer is
+    // smaller than some values, which are still read with a single exactly sized read.
+    CueballReader keyFileReader = new CueballReader(updateWorkRoot, keyHashSize, new IdentityHasher(),
+        offsetNumBytes + valueLengthNumBytes, 1, new NoCueballCompressionCodec(), 0, 0);
+    CurlyReader reader = new CurlyReader(new CurlyFilePath(updateWorkRoot + "/" + Curly.getName(1, true)), 16,
+        keyFileReader, -1, -1, null, offsetNumBytes, -1, false, 0, false, null, 0, valueLengthNumBytes);
+    try {
+      ReaderResult result = new ReaderResult();
+      reader.get(ByteBuffer.wrap(key1), result);
+      assertTrue(result.isFound());
+      assertEquals(ByteBuffer.wrap(value1), result.getBuffer());
+      result.clear();
+      reader.get(ByteBuffer.wrap(key2), result);
+      assertTrue(result.isFound());
+      assertEquals(ByteBuffer.wrap(value2), result.getBuffer());
+      result.clear();
+      reader.get(ByteBuffer.wrap(key3), result);
+      assertTrue(result.isFound());
+      assertEquals(ByteBuffer.wrap(updatedValue3), result.getBuffer());
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static byte[] getKey(int b) {
+    byte[] key = new byte[12];
+    key[0] = (byte)b;
+    return key;
+  }
+
+  private static void writeValueLengthsVersion(String curlyRoot,
+                                               String cueballRoot,
+                                               int versionNumber,
+                                               boolean base,
+                                               byte[][] keys,
+                                               byte[][] values) throws IOException {
+    new File(cueballRoot).mkdirs();
+    CueballWriter keyFileWriter = new CueballWriter(
+        new FileOutputStream(cueballRoot + "/" + Cueball.getName(versionNumber, base)),
+        12, new IdentityHasher(), 7, new NoCueballCompressionCodec(), 1);
+    CurlyWriter writer = new CurlyWriter(
+        new FileOutputStream(curlyRoot + "/" + Curly.getName(versionNumber, base)),
+        keyFileWriter, 5, -1, null, -1, -1, 2);
+    for (int i = 0; i < keys.length; ++i) {
+      writer.write(ByteBuffer.wrap(keys[i]), ByteBuffer.wrap(values[i]));
+    }
+    writer.close();
+  }
 }
@@ -20,10 +20,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
 import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.storage.CacheStatistics;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.map.MapReader;
 
@@ -46,6 +50,15 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
 
   @Test
   public void testReader() throws Exception {
+    testReader(false);
+  }
+
+  @Test
+  public void testReaderMemoryMapped() throws Exception {
+    testReader(true);
+  }
+
+  private void testReader(boolean memoryMapped) throws Exception {
     new File(TMP_TEST_CURLY_READER).mkdirs();
     OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
     s.write(EXPECTED_RECORD_FILE);
@@ -61,7 +74,8 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
         KEY5.array(), new byte[]{15, 0, 0}
     );
 
-    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1, 1);
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1, 1,
+        null, -1, -1, false, 0, memoryMapped);
 
     // test version number
     assertEquals(Integer.valueOf(0), reader.getVersionNumber());
@@ -114,6 +128,65 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
     result.clear();
   }
 
+  @Test
+  public void testReaderValueLengths() throws Exception {
+    testReaderValueLengths(false);
+  }
+
+  @Test
+  public void testReaderValueLengthsMemoryMapped() throws Exception {
+    testReaderValueLengths(true);
+  }
+
+  private void testReaderValueLengths(boolean memoryMapped) throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(EXPECTED_RECORD_FILE);
+    s.write(new byte[]{(byte)0x80, (byte)0xa0, 1});
+    s.write(TWENTYK_BLOB);
+    s.flush();
+    s.close();
+
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0, 4, 0, 0},
+        KEY2.array(), new byte[]{5, 0, 0, 4, 0, 0},
+        KEY3.array(), new byte[]{10, 0, 0, 4, 0, 0},
+        KEY5.array(), new byte[]{15, 0, 0, 0, 0x50, 0}
+    );
+
+    // The read buffer is smaller than the large value, which is still read at once
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 16, keyfileReader, -1, -1,
+        null, 3, -1, false, 0, memoryMapped, null, 0, 3);
+
+    ReaderResult result = new ReaderResult();
+
+    reader.get(KEY1, result);
+    assertTrue(result.isFound());
+    assertEquals(VALUE1, result.getBuffer());
+    result.clear();
+
+    reader.get(KEY4, result);
+    assertFalse(result.isFound());
+    result.clear();
+
+    reader.get(KEY5, result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(TWENTYK_BLOB), result.getBuffer());
+    result.clear();
+
+    reader.get(KEY3, result);
+    assertTrue(result.isFound());
+    assertEquals(VALUE3, result.getBuffer());
+    result.clear();
+
+    reader.get(KEY2, result);
+    assertTrue(result.isFound());
+    assertEquals(VALUE2, result.getBuffer());
+    result.clear();
+
+    reader.close();
+  }
+
   private void doTestBlockCompression(CompressionCodec blockCompressionCodec, byte[] compressedBlock) throws IOException {
     new File(TMP_TEST_CURLY_READER).mkdirs();
     OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
@@ -171,4 +244,158 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
   public void testBlockCompressionSnappy() throws Exception {
     doTestBlockCompression(CompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
   }
+
+  @Test
+  public void testBlockCompressionRawSnappy() throws Exception {
+    doTestBlockCompression(CompressionCodec.RAW_SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_RAW_SNAPPY);
+  }
+
+  @Test
+  public void testBlockCompressionLz4() throws Exception {
+    doTestBlockCompression(CompressionCodec.LZ4, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4);
+  }
+
+  @Test
+  public void testDecompressedBlockCache() throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_GZIP);
+    s.flush();
+    s.close();
+
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0, 0, 0},
+        KEY2.array(), new byte[]{0, 0, 0, 5, 0},
+        KEY3.array(), new byte[]{0, 0, 0, 10, 0}
+    ) {
+      @Override
+      public CacheStatistics getCacheStatistics() {
+        return new CacheStatistics(0, 0, 0, 0);
+      }
+    };
+
+    final CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1, -1,
+        CompressionCodec.GZIP, 3, 2, false, 0, false, null, 1 << 20);
+
+    ReaderResult result = new ReaderResult();
+
+    reader.get(KEY1, result);
+    assertTrue(result.isFound());
+    assertEquals(VALUE1, result.getBuffer());
+    result.clear();
+
+    reader.get(KEY3, result);
+    assertTrue(result.isFound());
+    assertEquals(VALUE3, result.getBuffer());
+    result.clear();
+
+    reader.get(KEY2, result);
+    assertTrue(result.isFound());
+    assertEquals(VALUE2, result.getBuffer());
+    result.clear();
+
+    // The block was decompressed once
+    CacheStatistics cacheStatistics = reader.getCacheStatistics();
+    assertEquals(2, cacheStatistics.getNumBlockCacheHits());
+    assertEquals(1, cacheStatistics.getNumBlockCacheMisses());
+    assertTrue(cacheStatistics.getNumManagedBytes() > 0);
+
+    // Concurrent reads of the cached block
+    final ByteBuffer[] keys = {KEY1, KEY2, KEY3};
+    final ByteBuffer[] values = {VALUE1, VALUE2, VALUE3};
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; ++t) {
+      Thread thread = new Thread(() -> {
+        ReaderResult threadResult = new ReaderResult();
+        for (int i = 0; i < 1000; ++i) {
+          try {
+            threadResult.clear();
+            reader.get(keys[i % keys.length], threadResult);
+            if (!threadResult.isFound() || !values[i % values.length].equals(threadResult.getBuffer())) {
+              numErrors.incrementAndGet();
+            }
+          } catch (IOException e) {
+            numErrors.incrementAndGet();
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+    assertEquals(1, reader.getCacheStatistics().getNumBlockCacheMisses());
+  }
+
+  @Test
+  public void testConcurrentDecompressedBlockCacheMisses() throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_GZIP);
+    s.flush();
+    s.close();
+
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0, 0, 0},
+        KEY2.array(), new byte[]{0, 0, 0, 5, 0},
+        KEY3.array(), new byte[]{0, 0, 0, 10, 0}
+    ) {
+      @Override
+      public CacheStatistics getCacheStatistics() {
+        return new CacheStatistics(0, 0, 0, 0);
+      }
+    };
+
+    final int numThreads = 8;
+    final AtomicInteger numDecompressions = new AtomicInteger(0);
+    final CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1, -1,
+        CompressionCodec.GZIP, 3, 2, false, 0, false, null, 1 << 20) {
+      @Override
+      ByteBuffer decompressBlock(ByteBuffer block) throws IOException {
+        numDecompressions.incrementAndGet();
+        // Decompress once every thread has missed the block
+        long deadline = System.currentTimeMillis() + 10000;
+        while (getCacheStatistics().getNumBlockCacheMisses() < numThreads && System.currentTimeMillis() < deadline) {
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+        return super.decompressBlock(block);
+      }
+    };
+
+    final ByteBuffer[] keys = {KEY1, KEY2, KEY3};
+    final ByteBuffer[] values = {VALUE1, VALUE2, VALUE3};
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; ++t) {
+      final int index = t % keys.length;
+      Thread thread = new Thread(() -> {
+        ReaderResult threadResult = new ReaderResult();
+        try {
+          reader.get(keys[index], threadResult);
+          if (!threadResult.isFound() || !values[index].equals(threadResult.getBuffer())) {
+            numErrors.incrementAndGet();
+          }
+        } catch (IOException e) {
+          numErrors.incrementAndGet();
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+    // Every thread missed the block, which was decompressed once
+    assertEquals(numThreads, reader.getCacheStatistics().getNumBlockCacheMisses());
+    assertEquals(1, numDecompressions.get());
+    reader.close();
+  }
 }
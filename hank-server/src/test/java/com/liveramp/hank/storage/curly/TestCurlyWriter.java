@@ -28,6 +28,7 @@ import com.liveramp.hank.storage.map.MapWriter;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestCurlyWriter extends AbstractCurlyTestBase {
   @Test
@@ -84,6 +85,38 @@ public class TestCurlyWriter extends AbstractCurlyTestBase {
     assertEquals(ByteBuffer.wrap(EXPECTED_FOLDED_RECORD_FILE), ByteBuffer.wrap(s.toByteArray()));
   }
 
+  @Test
+  public void testWriteValueLengths() throws Exception {
+    ByteArrayOutputStream s = new ByteArrayOutputStream();
+    MapWriter keyfileWriter = new MapWriter();
+    CurlyWriter writer = new CurlyWriter(s, keyfileWriter, 3, 2, null, -1, -1, 2);
+
+    writer.write(KEY1, VALUE1);
+    writer.write(KEY2, VALUE2);
+    writer.write(KEY3, VALUE1);
+    writer.close();
+
+    // verify the keyfile contains offsets followed by value lengths
+    assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 4, 0}), keyfileWriter.entries.get(KEY1));
+    assertEquals(ByteBuffer.wrap(new byte[]{5, 0, 0, 4, 0}), keyfileWriter.entries.get(KEY2));
+    assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 4, 0}), keyfileWriter.entries.get(KEY3));
+
+    // verify that the record stream is not affected
+    assertEquals(ByteBuffer.wrap(EXPECTED_FOLDED_RECORD_FILE), ByteBuffer.wrap(s.toByteArray()));
+  }
+
+  @Test
+  public void testValueLengthOverflow() throws Exception {
+    CurlyWriter writer = new CurlyWriter(new ByteArrayOutputStream(), new MapWriter(), 3, -1, null, -1, -1, 1);
+    writer.write(KEY1, ByteBuffer.wrap(new byte[255]));
+    try {
+      writer.write(KEY2, ByteBuffer.wrap(new byte[256]));
+      fail("Values whose length can not be encoded should throw an exception.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
   private void doTestBlockCompression(CompressionCodec blockCompressionCodec, byte[] expectedBlock) throws IOException {
     ByteArrayOutputStream s = new ByteArrayOutputStream();
     MapWriter keyfileWriter = new MapWriter();
@@ -130,4 +163,14 @@ public class TestCurlyWriter extends AbstractCurlyTestBase {
   public void testBlockCompressionSnappy() throws Exception {
     doTestBlockCompression(CompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
   }
+
+  @Test
+  public void testBlockCompressionRawSnappy() throws Exception {
+    doTestBlockCompression(CompressionCodec.RAW_SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_RAW_SNAPPY);
+  }
+
+  @Test
+  public void testBlockCompressionLz4() throws Exception {
+    doTestBlockCompression(CompressionCodec.LZ4, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_LZ4);
+  }
 }
@@ -27,6 +27,8 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertEquals;
@@ -342,6 +344,104 @@ public class TestIncrementalPartitionUpdater extends IncrementalPartitionUpdater
     }
   }
 
+  @Test
+  public void testConcurrentFetches() throws IOException {
+    final DomainVersion v0 = new MockDomainVersion(0, 0l);
+    final DomainVersion v1 = new MockDomainVersion(1, 0l);
+    final DomainVersion v2 = new MockDomainVersion(2, 0l);
+    final AtomicInteger numConcurrentFetches = new AtomicInteger(0);
+    final AtomicInteger maxNumConcurrentFetches = new AtomicInteger(0);
+
+    IncrementalPartitionUpdater updater =
+        new MockIncrementalPartitionUpdater(localPartitionRoot, new MockDomain("domain"), null) {
+          @Override
+          protected void fetchVersion(DomainVersion version, String fetchRoot) throws IOException {
+            // Each file is copied while holding a permit, as remote file ops do
+            for (String extension : new String[]{"base", "data"}) {
+              FetchThrottle fetchThrottle = FetchThrottle.getFetchThrottle(fetchRoot);
+              fetchThrottle.acquire();
+              int numFetches = numConcurrentFetches.incrementAndGet();
+              try {
+                maxNumConcurrentFetches.accumulateAndGet(numFetches, Math::max);
+                Thread.sleep(10);
+                if (!new File(fetchRoot + "/" + version.getVersionNumber() + "." + extension).createNewFile()) {
+                  throw new IOException("Failed to fetch version " + version);
+                }
+              } catch (InterruptedException e) {
+                throw new IOException("Interrupted while fetching version " + version, e);
+              } finally {
+                numConcurrentFetches.decrementAndGet();
+                fetchThrottle.release();
+              }
+            }
+          }
+        };
+
+    // Versions of the partition are fetched concurrently, but at most 2 files are fetched at once in the data directory
+    FetchThrottle.setFetchThrottle(localPartitionRoot, new FetchThrottle(2, 3));
+    try {
+      updater.cacheVersionsNeededToUpdate(null,
+          Collections.<DomainVersion>emptySet(),
+          Collections.<DomainVersion>emptySet(),
+          new IncrementalUpdatePlan(v0, v1, v2));
+    } finally {
+      FetchThrottle.setFetchThrottle(localPartitionRoot, new FetchThrottle(0, 1));
+    }
+    assertTrue(existsCacheFile("0.data"));
+    assertTrue(existsCacheFile("1.data"));
+    assertTrue(existsCacheFile("2.data"));
+    assertTrue(existsCacheFile("2.base"));
+    assertTrue(maxNumConcurrentFetches.get() <= 2);
+  }
+
+  @Test
+  public void testFailedConcurrentFetchWaitsForFetchers() throws IOException {
+    final DomainVersion v0 = new MockDomainVersion(0, 0l);
+    final DomainVersion v1 = new MockDomainVersion(1, 0l);
+    final AtomicBoolean slowFetchDone = new AtomicBoolean(false);
+
+    IncrementalPartitionUpdater updater =
+        new MockIncrementalPartitionUpdater(localPartitionRoot, new MockDomain("domain"), null) {
+          @Override
+          protected void fetchVersion(DomainVersion version, String fetchRoot) throws IOException {
+            if (version.equals(v0)) {
+              throw new IOException("Failed to fetch version " + version);
+            }
+            // Keep writing into the fetch root after the other fetch failed, ignoring interruptions
+            long deadline = System.currentTimeMillis() + 100;
+            while (System.currentTimeMillis() < deadline) {
+              try {
+                Thread.sleep(10);
+              } catch (InterruptedException e) {
+                // Keep fetching
+              }
+            }
+            new File(fetchRoot + "/" + version.getVersionNumber() + ".data").createNewFile();
+            slowFetchDone.set(true);
+          }
+        };
+
+    FetchThrottle.setFetchThrottle(localPartitionRoot, new FetchThrottle(0, 2));
+    try {
+      updater.cacheVersionsNeededToUpdate(null,
+          Collections.<DomainVersion>emptySet(),
+          Collections.<DomainVersion>emptySet(),
+          new IncrementalUpdatePlan(v0, v1));
+      fail("Should fail");
+    } catch (IOException e) {
+      // Good
+    } finally {
+      FetchThrottle.setFetchThrottle(localPartitionRoot, new FetchThrottle(0, 1));
+    }
+    // Fetch roots are deleted only once all fetchers have stopped
+    assertTrue(slowFetchDone.get());
+    for (File file : new File(updater.localPartitionRoot).listFiles()) {
+      if (file.getName().startsWith(IncrementalPartitionUpdater.FETCH_ROOT_PREFIX)) {
+        fail("Should not contain any remaining fetch root: " + file.getPath());
+      }
+    }
+  }
+
   @Test
   public void testCommitFiles() throws IOException {
 
@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestMinimalPerfectHash {
+
+  @Test
+  public void testBijection() throws Exception {
+    Random random = new Random(0);
+    long[] fingerprints = randomFingerprints(random, 10000);
+    MinimalPerfectHash minimalPerfectHash = MinimalPerfectHash.build(fingerprints.clone(), fingerprints.length, 2.0);
+    assertEquals(fingerprints.length, minimalPerfectHash.getNumIndexed());
+    assertIndexesAreBijective(minimalPerfectHash, fingerprints);
+    // About 4 bits per key with gamma = 2
+    assertTrue("Size: " + minimalPerfectHash.getNumBytes() + " bytes",
+        minimalPerfectHash.getNumBytes() * 8 < fingerprints.length * 6);
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    MinimalPerfectHash minimalPerfectHash = MinimalPerfectHash.build(new long[0], 0, 2.0);
+    assertEquals(0, minimalPerfectHash.getNumIndexed());
+    assertEquals(-1, minimalPerfectHash.getIndex(42));
+  }
+
+  @Test
+  public void testEncodeDecode() throws Exception {
+    Random random = new Random(1);
+    long[] fingerprints = randomFingerprints(random, 1000);
+    MinimalPerfectHash minimalPerfectHash = MinimalPerfectHash.build(fingerprints.clone(), fingerprints.length, 2.0);
+    MinimalPerfectHash decoded = MinimalPerfectHash.decode(minimalPerfectHash.encode());
+    assertEquals(minimalPerfectHash.getNumIndexed(), decoded.getNumIndexed());
+    assertEquals(minimalPerfectHash.getNumLevels(), decoded.getNumLevels());
+    for (long fingerprint : fingerprints) {
+      assertEquals(minimalPerfectHash.getIndex(fingerprint), decoded.getIndex(fingerprint));
+    }
+  }
+
+  @Test
+  public void testDuplicateFingerprintsAreNotIndexed() throws Exception {
+    Random random = new Random(2);
+    long[] fingerprints = randomFingerprints(random, 100);
+    long[] withDuplicates = Arrays.copyOf(fingerprints, fingerprints.length + 2);
+    withDuplicates[fingerprints.length] = 7;
+    withDuplicates[fingerprints.length + 1] = 7;
+    MinimalPerfectHash minimalPerfectHash = MinimalPerfectHash.build(withDuplicates, withDuplicates.length, 2.0);
+    assertEquals(fingerprints.length, minimalPerfectHash.getNumIndexed());
+    assertIndexesAreBijective(minimalPerfectHash, fingerprints);
+  }
+
+  private static void assertIndexesAreBijective(MinimalPerfectHash minimalPerfectHash, long[] fingerprints) {
+    boolean[] used = new boolean[fingerprints.length];
+    for (long fingerprint : fingerprints) {
+      long index = minimalPerfectHash.getIndex(fingerprint);
+      assertTrue("Index " + index + " out of range", index >= 0 && index < fingerprints.length);
+      assertTrue("Index " + index + " used twice", !used[(int) index]);
+      used[(int) index] = true;
+    }
+  }
+
+  private static long[] randomFingerprints(Random random, int numFingerprints) {
+    long[] result = new long[numFingerprints];
+    for (int i = 0; i < numFingerprints; ++i) {
+      result[i] = random.nextLong();
+    }
+    return result;
+  }
+}
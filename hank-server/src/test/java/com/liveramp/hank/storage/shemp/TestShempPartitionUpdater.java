@@ -0,0 +1,186 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.shemp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.DomainVersion;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.coordinator.mock.MockDomainVersion;
+import com.liveramp.hank.partition_server.PartitionUpdateTaskStatistics;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+import com.liveramp.hank.storage.incremental.IncrementalPartitionUpdaterTestCase;
+import com.liveramp.hank.storage.incremental.IncrementalUpdatePlan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestShempPartitionUpdater extends IncrementalPartitionUpdaterTestCase {
+
+  private final DomainVersion v0 = new MockDomainVersion(0, 0l, new IncrementalDomainVersionProperties.Base());
+  private final DomainVersion v1 = new MockDomainVersion(1, 0l, new IncrementalDomainVersionProperties.Base());
+  private final Domain domain = new MockDomain("domain") {
+    @Override
+    public DomainVersion getVersion(int versionNumber) {
+      switch (versionNumber) {
+        case 0:
+          return v0;
+        case 1:
+          return v1;
+        default:
+          throw new RuntimeException("Unknown version: " + versionNumber);
+      }
+    }
+  };
+  private ShempPartitionUpdater updater;
+
+  @Before
+  public void setUp() throws Exception {
+    this.updater = new ShempPartitionUpdater(domain,
+        new LocalPartitionRemoteFileOps(remotePartitionRoot, 0),
+        localPartitionRoot);
+
+    if (!new File(updateWorkRoot).mkdir()) {
+      throw new IOException("Failed to create update work root");
+    }
+  }
+
+  @Test
+  public void testGetDomainVersionParent() throws IOException {
+    ShempUpdatePlanner updatePlanner = new ShempUpdatePlanner(domain);
+    assertNull(updatePlanner.getParentDomainVersion(v0));
+    assertNull(updatePlanner.getParentDomainVersion(v1));
+  }
+
+  @Test
+  public void testDetectCurrentVersionNumber() throws IOException {
+    // Null when there is no version
+    assertEquals(null, updater.detectCurrentVersionNumber());
+
+    // Correct number when there is a base
+    makeLocalFile("00001.base.shemp");
+    assertEquals(Integer.valueOf(1), updater.detectCurrentVersionNumber());
+    deleteLocalFile("00001.base.shemp");
+
+    // Most recent base
+    makeLocalFile("00000.base.shemp");
+    makeLocalFile("00001.base.shemp");
+    assertEquals(Integer.valueOf(1), updater.detectCurrentVersionNumber());
+    deleteLocalFile("00000.base.shemp");
+    deleteLocalFile("00001.base.shemp");
+  }
+
+  @Test
+  public void testGetCachedVersions() throws IOException {
+    Set<DomainVersion> versions = new HashSet<DomainVersion>();
+
+    updater.ensureCacheExists();
+
+    // Empty cache
+    assertEquals(versions, updater.detectCachedBases());
+    assertEquals(versions, updater.detectCachedDeltas());
+
+    // Multiple bases, and never any delta
+    makeLocalCacheFile("00000.base.shemp");
+    makeLocalCacheFile("00001.base.shemp");
+    versions.add(v0);
+    versions.add(v1);
+    assertEquals(versions, updater.detectCachedBases());
+    assertEquals(Collections.<DomainVersion>emptySet(), updater.detectCachedDeltas());
+    deleteLocalCacheFile("00000.base.shemp");
+    deleteLocalCacheFile("00001.base.shemp");
+  }
+
+  @Test
+  public void testFetchVersion() throws IOException {
+    String fetchRootName = "_fetch";
+    String fetchRoot = localPartitionRoot + "/" + fetchRootName;
+    new File(fetchRoot).mkdir();
+
+    makeRemoteFile("0/00001.base.shemp");
+    updater.fetchVersion(v1, fetchRoot);
+    deleteRemoteFile("0/00001.base.shemp");
+    assertTrue(existsLocalFile(fetchRootName + "/00001.base.shemp"));
+  }
+
+  @Test
+  public void testUpdateFromCache() throws IOException {
+    // Updating from v0 to v1
+    // Fail when missing files
+    try {
+      updater.runUpdateCore(v0, v1, new IncrementalUpdatePlan(v1), updateWorkRoot, new PartitionUpdateTaskStatistics());
+      fail("Should fail");
+    } catch (IOException e) {
+      // Good
+    }
+    // Success moving the cached base
+    makeLocalFile("00000.base.shemp");
+    makeLocalCacheFile("00001.base.shemp");
+    updater.runUpdateCore(v0, v1, new IncrementalUpdatePlan(v1), updateWorkRoot, new PartitionUpdateTaskStatistics());
+    assertFalse(existsCacheFile("00001.base.shemp"));
+    assertTrue(existsUpdateWorkFile("00001.base.shemp"));
+    // Current base is intact
+    assertTrue(existsLocalFile("00000.base.shemp"));
+  }
+
+  @Test
+  public void testUpdateToCurrentVersion() throws IOException {
+    // The current base is moved when it is the target version
+    makeLocalFile("00001.base.shemp");
+    updater.runUpdateCore(v1, v1, new IncrementalUpdatePlan(v1), updateWorkRoot, new PartitionUpdateTaskStatistics());
+    assertFalse(existsLocalFile("00001.base.shemp"));
+    assertTrue(existsUpdateWorkFile("00001.base.shemp"));
+  }
+
+  @Test
+  public void testUpdateWithDeltaFails() throws IOException {
+    List<DomainVersion> deltas = new ArrayList<DomainVersion>();
+    deltas.add(v1);
+    makeLocalCacheFile("00000.base.shemp");
+    makeLocalCacheFile("00001.base.shemp");
+    try {
+      updater.runUpdateCore(null, v1, new IncrementalUpdatePlan(v0, deltas), updateWorkRoot, new PartitionUpdateTaskStatistics());
+      fail("Should fail");
+    } catch (IOException e) {
+      // Good
+    }
+    assertTrue(existsCacheFile("00000.base.shemp"));
+    assertFalse(existsUpdateWorkFile("00001.base.shemp"));
+  }
+
+  @Test
+  public void testGetRemotePartitionFilePaths() throws IOException {
+    ShempUpdatePlanner updatePlanner = new ShempUpdatePlanner(domain);
+    List<String> paths = updatePlanner.getRemotePartitionFilePaths(new IncrementalUpdatePlan(v1),
+        new LocalPartitionRemoteFileOps(remotePartitionRoot, 0));
+    assertEquals(Collections.singletonList(getRemoteFilePath("0/00001.base.shemp")), paths);
+  }
+}
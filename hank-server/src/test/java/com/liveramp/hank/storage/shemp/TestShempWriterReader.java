@@ -0,0 +1,253 @@
+/**
+ *  Copyright 2011 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage.shemp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.hasher.IdentityHasher;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.EncodingHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestShempWriterReader extends BaseTestCase {
+
+  private static final int KEY_HASH_SIZE = 10;
+  private static final int VALUE_SIZE = 5;
+
+  @Test
+  public void testWriteRead() throws Exception {
+    testWriteRead(false);
+  }
+
+  @Test
+  public void testWriteReadMemoryMapped() throws Exception {
+    testWriteRead(true);
+  }
+
+  private void testWriteRead(boolean memoryMapped) throws Exception {
+    Random random = new Random(0);
+    List<ByteBuffer> keys = randomSortedKeys(random, 1000);
+    List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+    ShempWriter writer = getWriter(1);
+    for (ByteBuffer key : keys) {
+      byte[] value = new byte[VALUE_SIZE];
+      random.nextBytes(value);
+      values.add(ByteBuffer.wrap(value));
+      writer.write(key, ByteBuffer.wrap(value));
+    }
+    // Records are spooled next to the output, and deleted once written
+    assertEquals(2, new File(localTmpDir).list().length);
+    writer.close();
+    assertEquals(keys.size(), writer.getNumRecordsWritten());
+    assertEquals(Arrays.asList(Shemp.getName(1)), Arrays.asList(new File(localTmpDir).list()));
+
+    ShempReader reader = new ShempReader(localTmpDir, KEY_HASH_SIZE, new IdentityHasher(), VALUE_SIZE, memoryMapped);
+    try {
+      assertEquals(Integer.valueOf(1), reader.getVersionNumber());
+      ReaderResult result = new ReaderResult();
+      for (int i = 0; i < keys.size(); ++i) {
+        reader.get(keys.get(i), result);
+        assertTrue(result.isFound());
+        assertEquals(values.get(i), result.getBuffer());
+      }
+      // Absent keys
+      for (ByteBuffer key : randomSortedKeys(random, 1000)) {
+        if (!keys.contains(key)) {
+          reader.get(key, result);
+          assertFalse(result.isFound());
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    getWriter(1).close();
+    ShempReader reader = new ShempReader(localTmpDir, KEY_HASH_SIZE, new IdentityHasher(), VALUE_SIZE, true);
+    try {
+      ReaderResult result = new ReaderResult();
+      reader.get(ByteBuffer.wrap(new byte[KEY_HASH_SIZE]), result);
+      assertFalse(result.isFound());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testEnforceKeyOrdering() throws Exception {
+    Random random = new Random(1);
+    List<ByteBuffer> keys = randomSortedKeys(random, 2);
+    ShempWriter writer = getWriter(1);
+    writer.write(keys.get(1), ByteBuffer.wrap(new byte[VALUE_SIZE]));
+    try {
+      writer.write(keys.get(0), ByteBuffer.wrap(new byte[VALUE_SIZE]));
+      fail("Invalid key ordering should throw an exception.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testDetectCollisions() throws Exception {
+    ShempWriter writer = getWriter(1);
+    writer.write(ByteBuffer.wrap(new byte[KEY_HASH_SIZE]), ByteBuffer.wrap(new byte[VALUE_SIZE]));
+    try {
+      writer.write(ByteBuffer.wrap(new byte[KEY_HASH_SIZE]), ByteBuffer.wrap(new byte[VALUE_SIZE]));
+      fail("Key hash collisions should throw an exception.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReadLatestBase() throws Exception {
+    ShempWriter writer = getWriter(1);
+    writer.write(ByteBuffer.wrap(new byte[KEY_HASH_SIZE]), ByteBuffer.wrap(new byte[]{1, 1, 1, 1, 1}));
+    writer.close();
+    writer = getWriter(2);
+    writer.write(ByteBuffer.wrap(new byte[KEY_HASH_SIZE]), ByteBuffer.wrap(new byte[]{2, 2, 2, 2, 2}));
+    writer.close();
+
+    ShempReader reader = new ShempReader(localTmpDir, KEY_HASH_SIZE, new IdentityHasher(), VALUE_SIZE, false);
+    try {
+      assertEquals(Integer.valueOf(2), reader.getVersionNumber());
+      ReaderResult result = new ReaderResult();
+      reader.get(ByteBuffer.wrap(new byte[KEY_HASH_SIZE]), result);
+      assertTrue(result.isFound());
+      assertEquals(ByteBuffer.wrap(new byte[]{2, 2, 2, 2, 2}), result.getBuffer());
+    } finally {
+      reader.close();
+    }
+  }
+
+  // Writers only leave records unindexed when their key hashes share a fingerprint, which random
+  // keys never do, so the base is laid out by hand: records indexed by a minimal perfect hash built
+  // over some of the keys, followed by the other records in key hash order.
+  @Test
+  public void testReadUnindexed() throws Exception {
+    testReadUnindexed(false);
+  }
+
+  @Test
+  public void testReadUnindexedMemoryMapped() throws Exception {
+    testReadUnindexed(true);
+  }
+
+  private void testReadUnindexed(boolean memoryMapped) throws Exception {
+    Random random = new Random(2);
+    List<ByteBuffer> indexedKeys = randomSortedKeys(random, 100);
+    long[] fingerprints = new long[indexedKeys.size()];
+    for (int i = 0; i < indexedKeys.size(); ++i) {
+      fingerprints[i] = MinimalPerfectHash.getFingerprint(indexedKeys.get(i).array(), 0, KEY_HASH_SIZE);
+    }
+    MinimalPerfectHash minimalPerfectHash = MinimalPerfectHash.build(fingerprints, fingerprints.length, 2.0);
+    assertEquals(indexedKeys.size(), minimalPerfectHash.getNumIndexed());
+    // Records are unindexed when the minimal perfect hash does not map them to a slot
+    List<ByteBuffer> unindexedKeys = new ArrayList<ByteBuffer>();
+    for (ByteBuffer key : randomSortedKeys(random, 100)) {
+      if (minimalPerfectHash.getIndex(MinimalPerfectHash.getFingerprint(key.array(), 0, KEY_HASH_SIZE)) < 0) {
+        unindexedKeys.add(key);
+      }
+    }
+    assertTrue(unindexedKeys.size() > 1);
+
+    int slotSize = KEY_HASH_SIZE + VALUE_SIZE;
+    int numRecords = indexedKeys.size() + unindexedKeys.size();
+    byte[] slots = new byte[numRecords * slotSize];
+    for (ByteBuffer key : indexedKeys) {
+      long index = minimalPerfectHash.getIndex(MinimalPerfectHash.getFingerprint(key.array(), 0, KEY_HASH_SIZE));
+      writeSlot(slots, (int) index, key);
+    }
+    for (int i = 0; i < unindexedKeys.size(); ++i) {
+      writeSlot(slots, indexedKeys.size() + i, unindexedKeys.get(i));
+    }
+    byte[] encodedMinimalPerfectHash = minimalPerfectHash.encode();
+    byte[] trailer = new byte[ShempWriter.TRAILER_LENGTH];
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numRecords, trailer, 0, 8);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(encodedMinimalPerfectHash.length, trailer, 8, 8);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(ShempWriter.MAGIC, trailer, 16, 8);
+    FileOutputStream outputStream = new FileOutputStream(localTmpDir + "/" + Shemp.getName(1));
+    try {
+      outputStream.write(slots);
+      outputStream.write(encodedMinimalPerfectHash);
+      outputStream.write(trailer);
+    } finally {
+      outputStream.close();
+    }
+
+    ShempReader reader = new ShempReader(localTmpDir, KEY_HASH_SIZE, new IdentityHasher(), VALUE_SIZE, memoryMapped);
+    try {
+      ReaderResult result = new ReaderResult();
+      List<ByteBuffer> keys = new ArrayList<ByteBuffer>(indexedKeys);
+      keys.addAll(unindexedKeys);
+      for (ByteBuffer key : keys) {
+        reader.get(key, result);
+        assertTrue(result.isFound());
+        assertEquals(ByteBuffer.wrap(key.array(), 0, VALUE_SIZE), result.getBuffer());
+      }
+      // Absent keys that are not indexed either are looked up among unindexed records
+      for (ByteBuffer key : randomSortedKeys(random, 100)) {
+        if (!keys.contains(key)) {
+          reader.get(key, result);
+          assertFalse(result.isFound());
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  // Slots hold the key hash, then a value made of the first bytes of the key
+  private static void writeSlot(byte[] slots, int index, ByteBuffer key) {
+    int slotSize = KEY_HASH_SIZE + VALUE_SIZE;
+    System.arraycopy(key.array(), 0, slots, index * slotSize, KEY_HASH_SIZE);
+    System.arraycopy(key.array(), 0, slots, index * slotSize + KEY_HASH_SIZE, VALUE_SIZE);
+  }
+
+  private ShempWriter getWriter(int versionNumber) throws IOException {
+    return new ShempWriter(new FileOutputStream(localTmpDir + "/" + Shemp.getName(versionNumber)),
+        new File(localTmpDir), KEY_HASH_SIZE, new IdentityHasher(), VALUE_SIZE);
+  }
+
+  private static List<ByteBuffer> randomSortedKeys(Random random, int numKeys) {
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+    for (int i = 0; i < numKeys; ++i) {
+      byte[] key = new byte[KEY_HASH_SIZE];
+      random.nextBytes(key);
+      result.add(ByteBuffer.wrap(key));
+    }
+    Collections.sort(result, BytesUtils::compareBytesUnsigned);
+    return result;
+  }
+}
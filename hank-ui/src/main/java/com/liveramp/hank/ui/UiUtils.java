@@ -25,6 +25,7 @@ import com.liveramp.hank.coordinator.UpdateProgressAggregator;
 import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
 import com.liveramp.hank.partition_server.FilesystemStatisticsAggregator;
 import com.liveramp.hank.partition_server.RuntimeStatisticsAggregator;
+import com.liveramp.hank.storage.CacheStatistics;
 import com.liveramp.hank.util.FormatUtils;
 
 public class UiUtils {
@@ -165,6 +166,8 @@ public class UiUtils {
       for (int i = 0; i < 9; ++i) {
         addBar(tooltipContent, ((i + 1) * 10) + "%", deciles[i], populationStatistics.getMaximum(), "ms");
       }
+      addBar(tooltipContent, "99%", populationStatistics.getPercentile(99), populationStatistics.getMaximum(), "ms");
+      addBar(tooltipContent, "99.9%", populationStatistics.getPercentile(99.9), populationStatistics.getMaximum(), "ms");
       addBar(tooltipContent, "max", populationStatistics.getMaximum(), populationStatistics.getMaximum(), "ms");
       tooltipContent.append("</table>");
 
@@ -180,6 +183,27 @@ public class UiUtils {
         ;
   }
 
+  public static String formatBlockCacheHits(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
+    CacheStatistics cacheStatistics = runtimeStatisticsAggregator.getCacheStatistics();
+    long numBlockCacheRequests = cacheStatistics.getNumBlockCacheHits() + cacheStatistics.getNumBlockCacheMisses();
+    if (numBlockCacheRequests == 0) {
+      return "-";
+    } else {
+      return FormatUtils.formatDouble(cacheStatistics.getBlockCacheHitRate() * 100.0) + "% of "
+          + String.format("%,d", numBlockCacheRequests) + " blocks";
+    }
+  }
+
+  public static String formatKeyHashFilter(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
+    CacheStatistics cacheStatistics = runtimeStatisticsAggregator.getCacheStatistics();
+    if (cacheStatistics.getNumKeyHashFilterNegatives() == 0 && cacheStatistics.getNumKeyHashFilterFalsePositives() == 0) {
+      return "-";
+    } else {
+      return String.format("%,d", cacheStatistics.getNumKeyHashFilterNegatives()) + " absent keys rejected / "
+          + String.format("%,d", cacheStatistics.getNumKeyHashFilterFalsePositives()) + " blocks read for absent keys";
+    }
+  }
+
   public static String formatCacheHits(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
     double l1 = runtimeStatisticsAggregator.getL1CacheHitRate();
     double l2 = runtimeStatisticsAggregator.getL2CacheHitRate();
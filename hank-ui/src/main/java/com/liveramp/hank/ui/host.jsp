@@ -132,6 +132,27 @@
     </td>
     </tr>
 
+    <tr>
+    <td>Memory Mapped:</td>
+    <td>
+      <%= FormatUtils.formatNumBytes(runtimeStatisticsForHost.getCacheStatistics().getNumMappedBytes()) %>
+    </td>
+    </tr>
+
+    <tr>
+    <td>Block Cache Hits:</td>
+    <td>
+      <%= UiUtils.formatBlockCacheHits(runtimeStatisticsForHost) %>
+    </td>
+    </tr>
+
+    <tr>
+    <td>Key Hash Filter:</td>
+    <td>
+      <%= UiUtils.formatKeyHashFilter(runtimeStatisticsForHost) %>
+    </td>
+    </tr>
+
     <tr>
     <td>Uptime:</td>
     <td>
@@ -12,6 +12,7 @@ Coordinator coord = (Coordinator)getServletContext().getAttribute("coordinator")
 List<StorageEngineFactory> knownStorageEngineFactories = Arrays.asList((StorageEngineFactory)
     new Cueball.Factory(),
     new com.liveramp.hank.storage.curly.Curly.Factory(),
+    new com.liveramp.hank.storage.shemp.Shemp.Factory(),
     new com.liveramp.hank.storage.echo.Echo.Factory());
 
 %>